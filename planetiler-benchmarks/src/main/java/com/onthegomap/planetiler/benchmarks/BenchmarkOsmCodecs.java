@@ -0,0 +1,150 @@
+package com.onthegomap.planetiler.benchmarks;
+
+import com.google.protobuf.ByteString;
+import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.reader.osm.PbfWireDecoder;
+import com.onthegomap.planetiler.util.Format;
+import crosby.binary.Fileformat;
+import io.airlift.compress.Compressor;
+import io.airlift.compress.lz4.Lz4Compressor;
+import io.airlift.compress.lz4.Lz4Decompressor;
+import io.airlift.compress.zstd.ZstdCompressor;
+import io.airlift.compress.zstd.ZstdDecompressor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Variant of {@link BenchmarkOsmRead} that re-encodes every block of an input file with each PBF blob compression
+ * codec, then reports how fast each one decodes in MB/s of uncompressed block data, to decide whether to recompress
+ * an input file.
+ */
+public class BenchmarkOsmCodecs {
+
+  private static final Format FORMAT = Format.defaultInstance();
+
+  public static void main(String[] args) throws IOException, DataFormatException {
+    var arguments = Arguments.fromArgsOrConfigFile(args);
+    var path = arguments.inputFile("osm_path", "path to osm file", Path.of("data/sources/northeast.osm.pbf"));
+    int repetitions = arguments.getInteger("bench_repetitions", "number of times to decode each codec", 5);
+    List<String> codecs = arguments.getList("bench_codecs", "codecs to compare", List.of("zlib", "zstd", "lz4", "raw"));
+
+    List<byte[]> blocks = readUncompressedBlocks(path);
+    long uncompressedBytes = blocks.stream().mapToLong(b -> b.length).sum();
+    System.err.println("Read " + blocks.size() + " blocks, " + FORMAT.storage(uncompressedBytes) + " uncompressed");
+
+    for (String codec : codecs) {
+      List<byte[]> blobs = new ArrayList<>(blocks.size());
+      for (byte[] block : blocks) {
+        blobs.add(encode(codec, block));
+      }
+      long compressedBytes = blobs.stream().mapToLong(b -> b.length).sum();
+      for (int i = 0; i < repetitions; i++) {
+        long elements = 0;
+        long start = System.nanoTime();
+        for (byte[] blob : blobs) {
+          for (var ignored : PbfWireDecoder.decode(blob)) {
+            elements++;
+          }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%s: %s compressed (%.1f%%) %s elements %.1f MB/s%n",
+          codec,
+          FORMAT.storage(compressedBytes),
+          compressedBytes * 100d / uncompressedBytes,
+          FORMAT.integer(elements),
+          uncompressedBytes / 1e6 / seconds);
+      }
+    }
+  }
+
+  private static List<byte[]> readUncompressedBlocks(Path path) throws IOException, DataFormatException {
+    List<byte[]> result = new ArrayList<>();
+    try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      while (channel.position() < channel.size()) {
+        int headerSize = read(channel, 4).getInt();
+        var header = Fileformat.BlobHeader.parseFrom(read(channel, headerSize));
+        var blob = Fileformat.Blob.parseFrom(read(channel, header.getDatasize()));
+        if ("OSMData".equals(header.getType())) {
+          result.add(decode(blob));
+        }
+      }
+    }
+    return result;
+  }
+
+  private static ByteBuffer read(FileChannel channel, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new IOException("Unexpected end of file");
+      }
+    }
+    return buffer.flip();
+  }
+
+  private static byte[] decode(Fileformat.Blob blob) throws DataFormatException {
+    byte[] result = new byte[blob.getRawSize()];
+    switch (blob.getDataCase()) {
+      case RAW -> result = blob.getRaw().toByteArray();
+      case ZLIB_DATA -> {
+        Inflater inflater = new Inflater();
+        inflater.setInput(blob.getZlibData().toByteArray());
+        inflater.inflate(result);
+        inflater.end();
+      }
+      case ZSTD_DATA -> {
+        byte[] input = blob.getZstdData().toByteArray();
+        new ZstdDecompressor().decompress(input, 0, input.length, result, 0, result.length);
+      }
+      case LZ4_DATA -> {
+        byte[] input = blob.getLz4Data().toByteArray();
+        new Lz4Decompressor().decompress(input, 0, input.length, result, 0, result.length);
+      }
+      default -> throw new IllegalArgumentException("Unsupported blob compression: " + blob.getDataCase());
+    }
+    return result;
+  }
+
+  private static byte[] encode(String codec, byte[] block) {
+    var blob = Fileformat.Blob.newBuilder().setRawSize(block.length);
+    switch (codec) {
+      case "raw" -> blob.setRaw(ByteString.copyFrom(block));
+      case "zlib" -> blob.setZlibData(ByteString.copyFrom(deflate(block)));
+      case "zstd" -> blob.setZstdData(ByteString.copyFrom(compress(new ZstdCompressor(), block)));
+      case "lz4" -> blob.setLz4Data(ByteString.copyFrom(compress(new Lz4Compressor(), block)));
+      default -> throw new IllegalArgumentException("Unrecognized codec: " + codec);
+    }
+    return blob.build().toByteArray();
+  }
+
+  private static byte[] compress(Compressor compressor, byte[] input) {
+    byte[] output = new byte[compressor.maxCompressedLength(input.length)];
+    int length = compressor.compress(input, 0, input.length, output, 0, output.length);
+    return Arrays.copyOf(output, length);
+  }
+
+  private static byte[] deflate(byte[] input) {
+    Deflater deflater = new Deflater();
+    deflater.setInput(input);
+    deflater.finish();
+    byte[] output = new byte[input.length + 1024];
+    int length = 0;
+    while (!deflater.finished()) {
+      if (length == output.length) {
+        output = Arrays.copyOf(output, output.length * 2);
+      }
+      length += deflater.deflate(output, length, output.length - length);
+    }
+    deflater.end();
+    return Arrays.copyOf(output, length);
+  }
+}
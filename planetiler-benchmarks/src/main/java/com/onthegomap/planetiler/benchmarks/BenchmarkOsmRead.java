@@ -12,6 +12,10 @@ import com.onthegomap.planetiler.stats.Timer;
 import java.io.IOException;
 import java.nio.file.Path;
 
+/**
+ * Runs OSM pass 1 against an input file repeatedly, alternating between the protobuf-java and wire-format PBF decoders
+ * when {@code --compare_decoders=true}.
+ */
 public class BenchmarkOsmRead {
 
   public static void main(String[] args) throws IOException {
@@ -20,9 +24,12 @@ public class BenchmarkOsmRead {
     var parsedArgs = Arguments.fromArgsOrConfigFile(args);
     var config = PlanetilerConfig.from(parsedArgs);
     var path = parsedArgs.inputFile("osm_path", "path to osm file", Path.of("data/sources/northeast.osm.pbf"));
-    OsmInputFile file = new OsmInputFile(path, config.osmLazyReads());
+    boolean compare = parsedArgs.getBoolean("compare_decoders", "alternate between PBF decoders on each iteration",
+      true);
 
+    boolean wireDecoder = config.osmWireDecoder();
     while (true) {
+      OsmInputFile file = new OsmInputFile(path, config.osmLazyReads(), wireDecoder);
       Timer timer = Timer.start();
       try (
         var nodes = LongLongMap.noop();
@@ -31,7 +38,10 @@ public class BenchmarkOsmRead {
       ) {
         reader.pass1(config);
       }
-      System.err.println(timer.stop());
+      System.err.println((wireDecoder ? "wire" : "protobuf") + " decoder: " + timer.stop());
+      if (compare) {
+        wireDecoder = !wireDecoder;
+      }
     }
   }
 }
@@ -0,0 +1,78 @@
+package com.onthegomap.planetiler.benchmarks;
+
+import com.google.common.base.Stopwatch;
+import com.onthegomap.planetiler.archive.TileArchiveConfig;
+import com.onthegomap.planetiler.archive.TileArchives;
+import com.onthegomap.planetiler.archive.TileCompression;
+import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.config.PlanetilerConfig;
+import com.onthegomap.planetiler.util.Format;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Re-compresses the tiles in an existing archive (i.e. built from a real extract) with each tile compression codec and
+ * level, and reports how fast each one encodes and how big the tiles end up.
+ * <p>
+ * Usage: {@code --input=monaco.pmtiles --codecs=gzip:-1,gzip:1,zstd:-1,zstd:9}
+ */
+public class BenchmarkTileCompression {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(BenchmarkTileCompression.class);
+  private static final Format FORMAT = Format.defaultInstance();
+
+  public static void main(String[] args) throws Exception {
+    Arguments arguments = Arguments.fromArgs(args);
+    var config = PlanetilerConfig.from(arguments);
+    var input = TileArchiveConfig.from(arguments.getString("input", "archive to read tiles from"));
+    List<String> codecs = arguments.getList("codecs", "codec:level pairs to compare",
+      List.of("none:-1", "gzip:-1", "gzip:1", "zstd:-1", "zstd:1", "zstd:9", "zstd:19"));
+    int maxTiles = arguments.getInteger("bench_tiles", "maximum number of tiles to read", 100_000);
+    int repetitions = arguments.getInteger("bench_repetitions", "number of repetitions", 3);
+
+    List<byte[]> tiles = new ArrayList<>();
+    long uncompressedBytes = 0;
+    try (var reader = TileArchives.newReader(input, config); var iterator = reader.getAllTiles()) {
+      var metadata = reader.metadata();
+      var compression = metadata == null ? TileCompression.GZIP : metadata.tileCompression();
+      while (iterator.hasNext() && tiles.size() < maxTiles) {
+        byte[] tile = compression.decompress(iterator.next().bytes());
+        tiles.add(tile);
+        uncompressedBytes += tile.length;
+      }
+    }
+    LOGGER.info("Read {} tiles {} uncompressed from {}", FORMAT.integer(tiles.size()),
+      FORMAT.storage(uncompressedBytes), input.uri());
+
+    for (String codec : codecs) {
+      String[] parts = codec.split(":");
+      var compression = TileCompression.fromId(parts[0]);
+      int level = parts.length > 1 ? Integer.parseInt(parts[1]) : -1;
+      var compressor = compression.newCompressor(level);
+      long archiveBytes = 0;
+      long bestNanos = Long.MAX_VALUE;
+      for (int rep = 0; rep <= repetitions; rep++) {
+        var timer = Stopwatch.createStarted();
+        long bytes = 0;
+        for (byte[] tile : tiles) {
+          bytes += compressor.compress(tile).length;
+        }
+        long nanos = timer.elapsed().toNanos();
+        // first repetition warms up the JIT
+        if (rep > 0) {
+          bestNanos = Math.min(bestNanos, nanos);
+        }
+        archiveBytes = bytes;
+      }
+      double seconds = bestNanos / 1e9;
+      LOGGER.info("{} level {}: {} tiles/s {}/s uncompressed, {} total ({}% of uncompressed)",
+        compression.id(), level,
+        FORMAT.numeric(tiles.size() / seconds),
+        FORMAT.storage(uncompressedBytes / seconds),
+        FORMAT.storage(archiveBytes),
+        FORMAT.decimal(archiveBytes * 100d / uncompressedBytes));
+    }
+  }
+}
@@ -1,18 +1,32 @@
 package com.onthegomap.planetiler.collection;
 
+import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.config.PlanetilerConfig;
+import com.onthegomap.planetiler.stats.Stats;
+import com.onthegomap.planetiler.util.FileUtils;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.PriorityQueue;
 import java.util.Random;
 import java.util.function.IntFunction;
 import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 /**
- * Performance tests for {@link LongMinHeap} implementations.
+ * Performance tests for {@link LongMinHeap} and {@link LongMerger} implementations.
  *
- * Times how long it takes to merge N sorted lists of random elements.
+ * Times how long it takes to merge N sorted lists of random elements, and to read N sorted chunks from an
+ * {@link ExternalMergeSort} with and without reading ahead.
  */
 public class BenchmarkKWayMerge {
-  public static void main(String[] args) {
+  public static void main(String[] args) throws IOException {
     for (int i = 0; i < 4; i++) {
       System.err.println();
       testMinHeap("quaternary", n -> LongMinHeap.newArrayHeap(n, Integer::compare));
@@ -22,7 +36,80 @@ public class BenchmarkKWayMerge {
         Long.toString(testPriorityQueue(100).toMillis()),
         Long.toString(testPriorityQueue(1_000).toMillis()),
         Long.toString(testPriorityQueue(10_000).toMillis())));
+      testMerger("heap merge", LongMerger::mergeIterators);
+      testMerger("losertree merge", LongMerger::mergeIteratorsWithLoserTree);
     }
+    Path dir = Files.createTempDirectory("benchmark_kway_merge");
+    try {
+      for (int i = 0; i < 2; i++) {
+        System.err.println();
+        testChunks("chunks", dir, false);
+        testChunks("chunks readahead", dir, true);
+      }
+    } finally {
+      FileUtils.deleteDirectory(dir);
+    }
+  }
+
+  private interface Merger {
+    Iterator<SortableFeature> merge(List<Iterator<SortableFeature>> iterators, Comparator<SortableFeature> tieBreaker);
+  }
+
+  private static void testMerger(String name, Merger merger) {
+    System.err.println(String.join("\t",
+      name,
+      Long.toString(testMerge(10, merger).toMillis()),
+      Long.toString(testMerge(100, merger).toMillis()),
+      Long.toString(testMerge(1_000, merger).toMillis())));
+  }
+
+  private static Duration testMerge(int size, Merger merger) {
+    List<List<SortableFeature>> lists = Stream.of(getVals(size))
+      .map(vals -> LongStream.of(vals).mapToObj(val -> new SortableFeature(val, new byte[]{(byte) val})).toList())
+      .toList();
+    var start = System.nanoTime();
+    var iterator = merger.merge(lists.stream().map(List::iterator).toList(), SortableFeature.COMPARE_BYTES);
+    long sum = 0;
+    while (iterator.hasNext()) {
+      sum += iterator.next().key();
+    }
+    if (sum == 0) {
+      System.err.println("unexpected sum");
+    }
+    return Duration.ofNanos(System.nanoTime() - start);
+  }
+
+  private static void testChunks(String name, Path dir, boolean readAhead) {
+    System.err.println(String.join("\t",
+      name,
+      Long.toString(testReadChunks(10, dir, readAhead).toMillis()),
+      Long.toString(testReadChunks(100, dir, readAhead).toMillis()),
+      Long.toString(testReadChunks(1_000, dir, readAhead).toMillis())));
+  }
+
+  private static Duration testReadChunks(int chunks, Path dir, boolean readAhead) {
+    int num = 5_000_000;
+    var config = PlanetilerConfig.from(Arguments.of("sort_read_ahead", Boolean.toString(readAhead)));
+    // each feature takes about 100 bytes in memory while sorting
+    var sorter = new ExternalMergeSort(dir.resolve("sort"), 1, num / chunks * 100, false, false, true, false,
+      config, Stats.inMemory());
+    try (var writer = sorter.writerForThread()) {
+      for (long val : random.longs(0, 1_000_000_000).limit(num).toArray()) {
+        writer.accept(new SortableFeature(val, new byte[30]));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    sorter.sort();
+    var start = System.nanoTime();
+    long sum = 0;
+    for (var feature : sorter) {
+      sum += feature.key();
+    }
+    if (sum == 0) {
+      System.err.println("unexpected sum");
+    }
+    return Duration.ofNanos(System.nanoTime() - start);
   }
 
   private static void testMinHeap(String name, IntFunction<LongMinHeap> constructor) {
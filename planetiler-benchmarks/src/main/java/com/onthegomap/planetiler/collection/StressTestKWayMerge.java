@@ -18,6 +18,9 @@ public class StressTestKWayMerge {
       test(i, 10_000, 20_000);
     }
     test(5_000, 1000, 2000);
+    for (int n : new int[]{10, 100, 1_000}) {
+      test(n, 1_000_000 / n, 1_000);
+    }
   }
 
   private static void test(int n, long items, long maxKey) throws InterruptedException {
@@ -41,7 +44,10 @@ public class StressTestKWayMerge {
 
     var iter =
       LongMerger.mergeIterators(featureLists.stream().map(List::iterator).toList(), SortableFeature.COMPARE_BYTES);
+    var loserTreeIter = LongMerger.mergeIteratorsWithLoserTree(featureLists.stream().map(List::iterator).toList(),
+      SortableFeature.COMPARE_BYTES);
     var last = iter.next();
+    loserTreeIter.next();
     int i = 1;
     while (iter.hasNext()) {
       i++;
@@ -51,7 +57,14 @@ public class StressTestKWayMerge {
           .println("items out of order lists=" + n + " last=" + last + " item=" + item + " i=" + i);
         return;
       }
+      if (!loserTreeIter.hasNext() || !item.equals(loserTreeIter.next())) {
+        System.err.println("heap and loser tree merge differ lists=" + n + " item=" + item + " i=" + i);
+        return;
+      }
       last = item;
     }
+    if (i != n * items || loserTreeIter.hasNext()) {
+      System.err.println("expected " + (n * items) + " items lists=" + n + " got " + i);
+    }
   }
 }
@@ -245,6 +245,12 @@ public abstract class ForwardingProfile implements Profile {
     return result;
   }
 
+  @Override
+  public boolean postProcessesFeatures() {
+    return !layerPostProcessors.isEmpty() || !tilePostProcessors.isEmpty() ||
+      Profile.overridesPostProcessing(getClass(), ForwardingProfile.class);
+  }
+
   @Override
   public void finish(String sourceName, FeatureCollector.Factory featureCollectors,
     Consumer<FeatureCollector.Feature> next) {
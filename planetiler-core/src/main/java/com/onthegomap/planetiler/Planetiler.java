@@ -8,14 +8,17 @@ import com.onthegomap.planetiler.archive.WriteableTileArchive;
 import com.onthegomap.planetiler.collection.FeatureGroup;
 import com.onthegomap.planetiler.collection.LongLongMap;
 import com.onthegomap.planetiler.collection.LongLongMultimap;
+import com.onthegomap.planetiler.collection.Storage;
 import com.onthegomap.planetiler.config.Arguments;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.reader.GeoPackageReader;
 import com.onthegomap.planetiler.reader.NaturalEarthReader;
 import com.onthegomap.planetiler.reader.ShapefileReader;
 import com.onthegomap.planetiler.reader.SourceFeature;
+import com.onthegomap.planetiler.reader.osm.OsmBlockIndex;
 import com.onthegomap.planetiler.reader.osm.OsmInputFile;
 import com.onthegomap.planetiler.reader.osm.OsmNodeBoundsProvider;
+import com.onthegomap.planetiler.reader.osm.OsmPass1Cache;
 import com.onthegomap.planetiler.reader.osm.OsmReader;
 import com.onthegomap.planetiler.reader.parquet.ParquetReader;
 import com.onthegomap.planetiler.stats.ProcessInfo;
@@ -29,6 +32,7 @@ import com.onthegomap.planetiler.util.FileUtils;
 import com.onthegomap.planetiler.util.Format;
 import com.onthegomap.planetiler.util.Geofabrik;
 import com.onthegomap.planetiler.util.LogUtil;
+import com.onthegomap.planetiler.util.MemoryBudget;
 import com.onthegomap.planetiler.util.ResourceUsage;
 import com.onthegomap.planetiler.util.TileSizeStats;
 import com.onthegomap.planetiler.util.TopOsmTiles;
@@ -48,6 +52,7 @@ import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.IntStream;
 import org.apache.commons.lang3.StringUtils;
+import org.locationtech.jts.geom.Envelope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -113,6 +118,8 @@ public class Planetiler {
   private boolean fetchWikidata = false;
   private final boolean fetchOsmTileStats;
   private TileArchiveMetadata tileArchiveMetadata;
+  // heap that each stage reserves and gives back for later stages to use
+  private final MemoryBudget memoryBudget = MemoryBudget.forJvm();
 
   private Planetiler(Arguments arguments) {
     this.arguments = arguments;
@@ -187,7 +194,9 @@ public class Planetiler {
       throw new IllegalArgumentException("Currently only one OSM input file is supported");
     }
     Path path = getPath(name, "OSM input file", defaultPath, defaultUrl);
-    var thisInputFile = new OsmInputFile(path, config.osmLazyReads());
+    var thisInputFile = new OsmInputFile(path, config.osmLazyReads(), config.osmWireDecoder());
+    // only skip blocks when bounds were set explicitly, not inferred from this file later
+    Envelope blockIndexBounds = config.bounds().isWorld() ? null : config.bounds().latLon();
     osmInputFile = thisInputFile;
     // fail fast if there is some issue with madvise on this system
     if (config.nodeMapMadvise() || config.multipolygonGeometryMadvise()) {
@@ -206,15 +215,32 @@ public class Planetiler {
           header.osmosisReplicationSequenceNumber());
         tileArchiveMetadata.setExtraMetadata("planetiler:" + name + ":osmosisreplicationurl",
           header.osmosisReplicationBaseUrl());
+        var pass1Cache = openOsmPass1Cache(name, path);
+        if (config.osmBlockIndex()) {
+          if (pass1Cache != null) {
+            LOGGER.warn("Ignoring osm_block_index since osm_pass1_cache skips reading blocks in pass 1");
+          } else {
+            thisInputFile.setBlockIndex(OsmBlockIndex.open(path), blockIndexBounds);
+          }
+        }
         try (
-          var nodeLocations =
+          var nodeLocations = pass1Cache != null && pass1Cache.hasNodeLocations() ?
+            pass1Cache.openNodeLocations(config.nodeMapMadvise()) :
             LongLongMap.from(config.nodeMapType(), config.nodeMapStorage(), nodeDbPath, config.nodeMapMadvise());
           var multipolygonGeometries = LongLongMultimap.newReplaceableMultimap(
-            config.multipolygonGeometryStorage(), multipolygonPath, config.multipolygonGeometryMadvise());
+            config.multipolygonGeometryStorage(), multipolygonPath, config.multipolygonGeometryMadvise(),
+            config.multipolygonGeometryDeltaEncoding());
           var osmReader = new OsmReader(name, thisInputFile, nodeLocations, multipolygonGeometries, profile(), stats)
+            .setPass1Cache(pass1Cache)
+            .setMemoryBudget(memoryBudget)
         ) {
-          osmReader.pass1(config);
-          osmReader.pass2(featureGroup, config);
+          var relationMemory = memoryBudget.register("osm_relations", osmReader);
+          try {
+            osmReader.pass1(config);
+            osmReader.pass2(featureGroup, config);
+          } finally {
+            relationMemory.close();
+          }
         } finally {
           FileUtils.delete(nodeDbPath);
           FileUtils.delete(multipolygonPath);
@@ -223,6 +249,24 @@ public class Planetiler {
     );
   }
 
+  private OsmPass1Cache openOsmPass1Cache(String name, Path input) {
+    if (config.osmPass1Cache() == null) {
+      return null;
+    }
+    var type = LongLongMap.Type.from(config.nodeMapType());
+    var storage = Storage.from(config.nodeMapStorage());
+    if (!LongLongMap.isPersistable(type, storage)) {
+      LOGGER.warn("Ignoring osm_pass1_cache since {} nodemap with {} storage can not be saved, use array or " +
+        "sparsearray with mmap storage", type.id(), storage.id());
+      return null;
+    } else if (config.osmNodeFilter()) {
+      LOGGER.warn("Ignoring osm_pass1_cache since osm_node_filter only stores locations for some nodes");
+      return null;
+    }
+    return OsmPass1Cache.open(config.osmPass1Cache().resolve(name), input, type,
+      profile().preprocessOsmRelationVersion());
+  }
+
   /**
    * Adds a new ESRI shapefile source that will be processed using a projection inferred from the shapefile when
    * {@link #run()} is called.
@@ -802,9 +846,11 @@ public class Planetiler {
       return; // exit only if just fetching wikidata or downloading sources
     }
 
+    MemoryBudget.Reservation readPhaseMemory = null;
     if (osmInputFile != null) {
       checkDiskSpace();
-      checkMemory();
+      // hold memory for node locations, multipolygon geometries, and the profile until reading finishes
+      readPhaseMemory = memoryBudget.reserve("read_phase", checkMemory().get(ResourceUsage.HEAP));
       var bounds = config.bounds();
       if (!parseNodeBounds) {
         bounds.addFallbackProvider(osmInputFile);
@@ -816,7 +862,8 @@ public class Planetiler {
 
     try (WriteableTileArchive archive = TileArchives.newWriter(output, config)) {
       featureGroup =
-        FeatureGroup.newDiskBackedFeatureGroup(archive.tileOrder(), featureDbPath, profile, config, stats);
+        FeatureGroup.newDiskBackedFeatureGroup(archive.tileOrder(), featureDbPath, profile, config, stats,
+          memoryBudget);
       stats.monitorFile("nodes", nodeDbPath);
       stats.monitorFile("features", featureDbPath);
       stats.monitorFile("multipolygons", multipolygonPath);
@@ -832,6 +879,9 @@ public class Planetiler {
 
       LOGGER.info("Deleting node.db to make room for output file");
       profile.release();
+      if (readPhaseMemory != null) {
+        readPhaseMemory.close();
+      }
       for (var inputPath : inputPaths) {
         if (inputPath.freeAfterReading()) {
           LOGGER.info("Deleting {} ({}) to make room for output file", inputPath.id, inputPath.path);
@@ -842,7 +892,7 @@ public class Planetiler {
       featureGroup.prepare();
 
       TileArchiveWriter.writeOutput(featureGroup, archive, archive::bytesWritten, tileArchiveMetadata, layerStatsPath,
-        config, stats);
+        config, stats, memoryBudget);
     } catch (IOException e) {
       throw new PlanetilerException("Unable to write to " + output, e);
     }
@@ -887,7 +937,7 @@ public class Planetiler {
     writePhase.checkAgainstLimits(config.force(), true);
   }
 
-  private void checkMemory() {
+  private ResourceUsage checkMemory() {
     Format format = Format.defaultInstance();
     ResourceUsage check = new ResourceUsage("read phase");
     ResourceUsage nodeMapUsages = OsmReader.estimateNodeLocationUsage(config.nodeMapType(), config.nodeMapStorage(),
@@ -924,6 +974,7 @@ public class Planetiler {
         ));
       }
     });
+    return check;
   }
 
   public Arguments arguments() {
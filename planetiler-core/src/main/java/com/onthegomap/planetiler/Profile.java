@@ -81,6 +81,21 @@ public interface Profile extends FeatureProcessor<SourceFeature> {
     return null;
   }
 
+  /**
+   * Returns a string that changes whenever the output of {@link #preprocessOsmRelation(OsmElement.Relation)} would
+   * change for the same input, or {@code null} if the output can not be reused across runs.
+   * <p>
+   * When the {@code osm_pass1_cache} option is set and this returns non-null, the relation info from a previous run
+   * with the same version and input file gets reused and pass 1 is skipped entirely, so
+   * {@link #preprocessOsmNode(OsmElement.Node)} and {@link #preprocessOsmWay(OsmElement.Way)} do not get called. Every
+   * {@link OsmRelationInfo} returned must also implement {@link java.io.Serializable}.
+   * <p>
+   * The default implementation returns {@code null} to re-run relation preprocessing every time.
+   */
+  default String preprocessOsmRelationVersion() {
+    return null;
+  }
+
   /** Free any resources associated with this profile (i.e. shared data structures) */
   default void release() {}
 
@@ -135,6 +150,32 @@ public interface Profile extends FeatureProcessor<SourceFeature> {
     return layers;
   }
 
+  /**
+   * Returns false if {@link #postProcessLayerFeatures(String, int, List)} and
+   * {@link #postProcessTileFeatures(TileCoord, Map)} pass through features unaltered, so that they can be decoded
+   * straight into output tiles without building a {@link VectorTile.Feature} for each one.
+   * <p>
+   * The default implementation returns true if this profile overrides either method.
+   */
+  default boolean postProcessesFeatures() {
+    return overridesPostProcessing(getClass(), Profile.class);
+  }
+
+  /**
+   * Returns true if {@code profileClass} overrides {@link #postProcessLayerFeatures(String, int, List)} or
+   * {@link #postProcessTileFeatures(TileCoord, Map)} from {@code base} or its supertypes.
+   */
+  static boolean overridesPostProcessing(Class<? extends Profile> profileClass, Class<? extends Profile> base) {
+    try {
+      return !profileClass.getMethod("postProcessLayerFeatures", String.class, int.class, List.class)
+        .getDeclaringClass().isAssignableFrom(base) ||
+        !profileClass.getMethod("postProcessTileFeatures", TileCoord.class, Map.class)
+          .getDeclaringClass().isAssignableFrom(base);
+    } catch (NoSuchMethodException e) {
+      return true;
+    }
+  }
+
   /**
    * Returns the name of the generated tileset to put into {@link Mbtiles} metadata
    *
@@ -250,6 +291,10 @@ public interface Profile extends FeatureProcessor<SourceFeature> {
   /**
    * Returns false if this profile will ignore every feature in a set where {@linkplain Expression.PartialInput partial
    * attributes} are known ahead of time.
+   * <p>
+   * When the {@code osm_node_filter} option is set, this also gets called with the complete tags of each OSM way to
+   * decide whether to store locations for the nodes in that way. Ways in multipolygons or in relations that
+   * {@link #preprocessOsmRelation(OsmElement.Relation)} returned info for are always kept.
    */
   default boolean caresAbout(Expression.PartialInput input) {
     return true;
@@ -269,6 +314,11 @@ public interface Profile extends FeatureProcessor<SourceFeature> {
       return items;
     }
 
+    @Override
+    public boolean postProcessesFeatures() {
+      return Profile.overridesPostProcessing(getClass(), NullProfile.class);
+    }
+
     @Override
     public String name() {
       return "Null";
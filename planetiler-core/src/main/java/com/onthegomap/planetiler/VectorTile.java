@@ -29,14 +29,18 @@ import com.onthegomap.planetiler.geo.MutableCoordinateSequence;
 import com.onthegomap.planetiler.reader.WithTags;
 import com.onthegomap.planetiler.util.Hilbert;
 import com.onthegomap.planetiler.util.LayerAttrStats;
+import com.onthegomap.planetiler.util.TileSizeStats;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -445,11 +449,15 @@ public class VectorTile {
    * Returns the number of internal geometries in this feature including points/lines/polygons inside multigeometries.
    */
   public static int countGeometries(VectorTileProto.Tile.Feature feature) {
+    return countGeometries(Ints.toArray(feature.getGeometryList()));
+  }
+
+  private static int countGeometries(int[] commands) {
     int result = 0;
     int idx = 0;
-    int geomCount = feature.getGeometryCount();
+    int geomCount = commands.length;
     while (idx < geomCount) {
-      int length = feature.getGeometry(idx);
+      int length = commands[idx];
       int command = length & ((1 << 3) - 1);
       length = length >> 3;
       if (command == Command.MOVE_TO.value) {
@@ -502,6 +510,35 @@ public class VectorTile {
     return this;
   }
 
+  /**
+   * Adds a single feature to a layer in this tile, with attributes that {@code tags} passes to a callback instead of
+   * through a map, so they can be written straight into the layer key/value tables as they are decoded from another
+   * format.
+   *
+   * @param layerName name of the layer in this tile to add the feature to
+   * @param id        the feature ID, or {@link #NO_FEATURE_ID}
+   * @param geometry  the encoded feature geometry
+   * @param tags      source of attribute keys and values, attributes without a value are skipped
+   * @return this encoder for chaining
+   */
+  public VectorTile addLayerFeature(String layerName, long id, VectorGeometry geometry, TagSource tags) {
+    if (geometry.commands().length == 0) {
+      return this;
+    }
+    Layer layer = layers.computeIfAbsent(layerName, name -> new Layer());
+    var statsTracker = layerStatsTracker.forLayer(layerName);
+    EncodedFeature outFeature = new EncodedFeature(new IntArrayList(), id, geometry);
+    tags.forEachTag((key, value) -> {
+      if (value != null) {
+        outFeature.tags.add(layer.key(key));
+        outFeature.tags.add(layer.value(value));
+        statsTracker.accept(key, value);
+      }
+    });
+    layer.encodedFeatures.add(outFeature);
+    return this;
+  }
+
   /**
    * Returns a vector tile protobuf object with all features in this tile.
    */
@@ -552,10 +589,41 @@ public class VectorTile {
   /**
    * Creates a vector tile protobuf with all features in this tile and serializes it as a byte array.
    * <p>
-   * Does not compress the result.
+   * Writes the protobuf wire format directly without building the intermediate objects that {@link #toProto()}
+   * returns. Does not compress the result.
    */
   public byte[] encode() {
-    return toProto().toByteArray();
+    return encode(null);
+  }
+
+  /**
+   * Serializes this tile like {@link #encode()} and also returns the size and statistics for each layer that
+   * {@link TileSizeStats#computeTileStats(VectorTileProto.Tile)} would compute from the result.
+   */
+  public Encoded encodeWithLayerStats() {
+    List<TileSizeStats.LayerStats> layerStats = new ArrayList<>(layers.size());
+    byte[] bytes = encode(layerStats);
+    layerStats.sort(Comparator.naturalOrder());
+    return new Encoded(bytes, layerStats);
+  }
+
+  private byte[] encode(List<TileSizeStats.LayerStats> layerStats) {
+    // compute the size of every message up front so each one can be written after its length in a single pass
+    List<SerializedLayer> serializedLayers = new ArrayList<>(layers.size());
+    int tileSize = 0;
+    for (Map.Entry<String, Layer> e : layers.entrySet()) {
+      SerializedLayer layer = new SerializedLayer(e.getKey(), e.getValue());
+      serializedLayers.add(layer);
+      tileSize += ProtoWriter.messageSize(layer.size);
+      if (layerStats != null) {
+        layerStats.add(layer.stats());
+      }
+    }
+    ProtoWriter writer = new ProtoWriter(tileSize);
+    for (SerializedLayer layer : serializedLayers) {
+      layer.writeTo(writer);
+    }
+    return writer.bytes();
   }
 
   /**
@@ -613,6 +681,13 @@ public class VectorTile {
     this.layerStatsTracker = layerStats;
   }
 
+  /** Passes each attribute key and value of a feature to a callback, see {@link #addLayerFeature}. */
+  @FunctionalInterface
+  public interface TagSource {
+
+    void forEachTag(BiConsumer<String, Object> consumer);
+  }
+
   enum Command {
     MOVE_TO(1),
     LINE_TO(2),
@@ -1217,6 +1292,9 @@ public class VectorTile {
     }
   }
 
+  /** A serialized vector tile protobuf, and the size and statistics for each layer in it. */
+  public record Encoded(byte[] bytes, List<TileSizeStats.LayerStats> layerStats) {}
+
   private record EncodedFeature(IntArrayList tags, long id, VectorGeometry geometry) {
 
     EncodedFeature(Feature in) {
@@ -1267,4 +1345,258 @@ public class VectorTile {
       return "Layer{" + encodedFeatures.size() + "}";
     }
   }
+
+  /**
+   * The size of each message in a layer of the vector tile protobuf, computed before writing it out with
+   * {@link ProtoWriter}.
+   * <p>
+   * Fields are written in field number order so the result is identical to what {@link #toProto()} serializes to.
+   */
+  private static final class SerializedLayer {
+
+    private static final int TILE_LAYERS = 3;
+    private static final int NAME = 1;
+    private static final int FEATURES = 2;
+    private static final int KEYS = 3;
+    private static final int VALUES = 4;
+    private static final int EXTENT_FIELD = 5;
+    private static final int VERSION = 15;
+    private static final int FEATURE_ID = 1;
+    private static final int FEATURE_TAGS = 2;
+    private static final int FEATURE_TYPE = 3;
+    private static final int FEATURE_GEOMETRY = 4;
+    private static final int STRING_VALUE = 1;
+    private static final int FLOAT_VALUE = 2;
+    private static final int DOUBLE_VALUE = 3;
+    private static final int SINT_VALUE = 6;
+    private static final int BOOL_VALUE = 7;
+
+    private final String name;
+    private final byte[] nameBytes;
+    private final List<EncodedFeature> features;
+    private final byte[][] keys;
+    private final Object[] values;
+    private final int[] valueSizes;
+    private final int[] featureSizes;
+    private final int[] tagsSizes;
+    private final int[] geometrySizes;
+    private final int size;
+    private final int attrSize;
+    private final int geometries;
+
+    SerializedLayer(String name, Layer layer) {
+      this.name = name;
+      this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+      this.features = layer.encodedFeatures;
+      int layerSize = ProtoWriter.messageSize(nameBytes.length);
+      int attrBytes = 0;
+
+      keys = new byte[layer.keys.size()][];
+      int keyIdx = 0;
+      for (String key : layer.keys.keySet()) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        keys[keyIdx++] = bytes;
+        layerSize += ProtoWriter.messageSize(bytes.length);
+        attrBytes += bytes.length;
+      }
+
+      values = new Object[layer.values.size()];
+      valueSizes = new int[values.length];
+      int valueIdx = 0;
+      for (Object value : layer.values.keySet()) {
+        Object normalized = switch (value) {
+          case String string -> string.getBytes(StandardCharsets.UTF_8);
+          case Integer intValue -> intValue.longValue();
+          case Long longValue -> longValue;
+          case Float floatValue -> floatValue;
+          case Double doubleValue -> doubleValue;
+          case Boolean booleanValue -> booleanValue;
+          case Object other -> other.toString().getBytes(StandardCharsets.UTF_8);
+        };
+        int valueSize = switch (normalized) {
+          case byte[] bytes -> ProtoWriter.messageSize(bytes.length);
+          case Long longValue -> 1 + ProtoWriter.varintSize(ProtoWriter.zigZag(longValue));
+          case Float ignored -> 1 + Float.BYTES;
+          case Double ignored -> 1 + Double.BYTES;
+          case Boolean ignored -> 1 + 1;
+          default -> throw new IllegalStateException("Unexpected value: " + normalized);
+        };
+        values[valueIdx] = normalized;
+        valueSizes[valueIdx++] = valueSize;
+        layerSize += ProtoWriter.messageSize(valueSize);
+        attrBytes += valueSize;
+      }
+
+      featureSizes = new int[features.size()];
+      tagsSizes = new int[features.size()];
+      geometrySizes = new int[features.size()];
+      int geometryCount = 0;
+      for (int i = 0; i < featureSizes.length; i++) {
+        EncodedFeature feature = features.get(i);
+        int featureSize = 1 + ProtoWriter.varintSize(feature.geometry.geomType().asProtobufType().getNumber());
+        if (feature.id != NO_FEATURE_ID) {
+          featureSize += 1 + ProtoWriter.varintSize(feature.id);
+        }
+        int tagsSize = ProtoWriter.packedSize(feature.tags.buffer, feature.tags.size());
+        if (tagsSize > 0) {
+          featureSize += ProtoWriter.messageSize(tagsSize);
+        }
+        int[] commands = feature.geometry.commands();
+        int geometrySize = ProtoWriter.packedSize(commands, commands.length);
+        if (geometrySize > 0) {
+          featureSize += ProtoWriter.messageSize(geometrySize);
+        }
+        tagsSizes[i] = tagsSize;
+        geometrySizes[i] = geometrySize;
+        featureSizes[i] = featureSize;
+        layerSize += ProtoWriter.messageSize(featureSize);
+        geometryCount += countGeometries(commands);
+      }
+
+      layerSize += 1 + ProtoWriter.varintSize(EXTENT);
+      layerSize += 1 + ProtoWriter.varintSize(2);
+      this.size = layerSize;
+      this.attrSize = attrBytes;
+      this.geometries = geometryCount;
+    }
+
+    TileSizeStats.LayerStats stats() {
+      return new TileSizeStats.LayerStats(name, size, features.size(), geometries, attrSize, keys.length,
+        values.length);
+    }
+
+    void writeTo(ProtoWriter writer) {
+      writer.writeMessageHeader(TILE_LAYERS, size);
+      writer.writeBytes(NAME, nameBytes);
+      for (int i = 0; i < featureSizes.length; i++) {
+        EncodedFeature feature = features.get(i);
+        writer.writeMessageHeader(FEATURES, featureSizes[i]);
+        if (feature.id != NO_FEATURE_ID) {
+          writer.writeVarint(FEATURE_ID, feature.id);
+        }
+        if (tagsSizes[i] > 0) {
+          writer.writeMessageHeader(FEATURE_TAGS, tagsSizes[i]);
+          writer.writePacked(feature.tags.buffer, feature.tags.size());
+        }
+        writer.writeVarint(FEATURE_TYPE, feature.geometry.geomType().asProtobufType().getNumber());
+        if (geometrySizes[i] > 0) {
+          int[] commands = feature.geometry.commands();
+          writer.writeMessageHeader(FEATURE_GEOMETRY, geometrySizes[i]);
+          writer.writePacked(commands, commands.length);
+        }
+      }
+      for (byte[] key : keys) {
+        writer.writeBytes(KEYS, key);
+      }
+      for (int i = 0; i < values.length; i++) {
+        writer.writeMessageHeader(VALUES, valueSizes[i]);
+        switch (values[i]) {
+          case byte[] bytes -> writer.writeBytes(STRING_VALUE, bytes);
+          case Long longValue -> writer.writeVarint(SINT_VALUE, ProtoWriter.zigZag(longValue));
+          case Float floatValue -> writer.writeFixed32(FLOAT_VALUE, Float.floatToRawIntBits(floatValue));
+          case Double doubleValue -> writer.writeFixed64(DOUBLE_VALUE, Double.doubleToRawLongBits(doubleValue));
+          case Boolean booleanValue -> writer.writeVarint(BOOL_VALUE, booleanValue ? 1 : 0);
+          default -> throw new IllegalStateException("Unexpected value: " + values[i]);
+        }
+      }
+      writer.writeVarint(EXTENT_FIELD, EXTENT);
+      writer.writeVarint(VERSION, 2);
+    }
+  }
+
+  /**
+   * Writes protobuf wire format into an array that was sized ahead of time.
+   * <p>
+   * Only supports field numbers up to 15 which fit in a single tag byte.
+   */
+  private static final class ProtoWriter {
+
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int LENGTH_DELIMITED = 2;
+    private static final int FIXED32 = 5;
+    private final byte[] bytes;
+    private int position = 0;
+
+    ProtoWriter(int size) {
+      this.bytes = new byte[size];
+    }
+
+    /** Returns the number of bytes {@code value} takes as a varint, treating negative values as unsigned. */
+    static int varintSize(long value) {
+      return (70 - Long.numberOfLeadingZeros(value | 1)) / 7;
+    }
+
+    static long zigZag(long value) {
+      return (value << 1) ^ (value >> 63);
+    }
+
+    /** Returns the size of a length-delimited field with {@code length} bytes including its tag and length. */
+    static int messageSize(int length) {
+      return 1 + varintSize(length) + length;
+    }
+
+    /** Returns the size of the first {@code length} unsigned ints in {@code values} as packed varints. */
+    static int packedSize(int[] values, int length) {
+      int result = 0;
+      for (int i = 0; i < length; i++) {
+        result += varintSize(Integer.toUnsignedLong(values[i]));
+      }
+      return result;
+    }
+
+    private void writeTag(int field, int wireType) {
+      bytes[position++] = (byte) ((field << 3) | wireType);
+    }
+
+    private void writeRawVarint(long value) {
+      while ((value & ~0x7FL) != 0) {
+        bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      bytes[position++] = (byte) value;
+    }
+
+    void writeVarint(int field, long value) {
+      writeTag(field, VARINT);
+      writeRawVarint(value);
+    }
+
+    void writeFixed32(int field, int value) {
+      writeTag(field, FIXED32);
+      for (int i = 0; i < Integer.BYTES; i++) {
+        bytes[position++] = (byte) (value >>> (i * 8));
+      }
+    }
+
+    void writeFixed64(int field, long value) {
+      writeTag(field, FIXED64);
+      for (int i = 0; i < Long.BYTES; i++) {
+        bytes[position++] = (byte) (value >>> (i * 8));
+      }
+    }
+
+    /** Writes the tag and length of a length-delimited field, the caller must write the next {@code length} bytes. */
+    void writeMessageHeader(int field, int length) {
+      writeTag(field, LENGTH_DELIMITED);
+      writeRawVarint(length);
+    }
+
+    void writeBytes(int field, byte[] value) {
+      writeMessageHeader(field, value.length);
+      System.arraycopy(value, 0, bytes, position, value.length);
+      position += value.length;
+    }
+
+    void writePacked(int[] values, int length) {
+      for (int i = 0; i < length; i++) {
+        writeRawVarint(Integer.toUnsignedLong(values[i]));
+      }
+    }
+
+    byte[] bytes() {
+      assert position == bytes.length : "wrote " + position + " bytes but expected " + bytes.length;
+      return bytes;
+    }
+  }
 }
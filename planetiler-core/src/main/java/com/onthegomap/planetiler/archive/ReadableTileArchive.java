@@ -44,6 +44,14 @@ public interface ReadableTileArchive extends Closeable {
     return getAllTileCoords().map(coord -> new Tile(coord, getTile(coord)));
   }
 
+  /**
+   * Returns an iterator over all tiles in this archive in the same order as {@link #getAllTiles()}, where
+   * implementations may use up to {@code threads} background threads to read tiles ahead of the caller.
+   */
+  default CloseableIterator<Tile> getAllTiles(int threads) {
+    return getAllTiles();
+  }
+
   /**
    * Returns the metadata stored in this archive.
    */
@@ -224,7 +224,7 @@ public record TileArchiveConfig(
   public Path getPathForMultiThreadedWriter(int index) {
     return switch (format) {
       case CSV, TSV, JSON, PROTO, PBF -> StreamArchiveUtils.constructIndexedPath(getLocalPath(), index);
-      case FILES -> getLocalPath();
+      case FILES, PMTILES -> getLocalPath();
       default -> throw new UnsupportedOperationException("not supported by " + format);
     };
   }
@@ -233,7 +233,7 @@ public record TileArchiveConfig(
     MBTILES("mbtiles",
       false /* TODO mbtiles could support append in the future by using insert statements with an "on conflict"-clause (i.e. upsert) and by creating tables only if they don't exist, yet */,
       false, TileOrder.TMS),
-    PMTILES("pmtiles", false, false, TileOrder.HILBERT),
+    PMTILES("pmtiles", false, true, TileOrder.HILBERT),
 
     // should be before PBF in order to avoid collisions
     FILES("files", true, true, TileOrder.TMS) {
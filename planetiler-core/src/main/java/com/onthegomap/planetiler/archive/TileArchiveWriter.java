@@ -1,6 +1,5 @@
 package com.onthegomap.planetiler.archive;
 
-import static com.onthegomap.planetiler.util.Gzip.gzip;
 import static com.onthegomap.planetiler.worker.Worker.joinFutures;
 
 import com.onthegomap.planetiler.VectorTile;
@@ -8,7 +7,6 @@ import com.onthegomap.planetiler.collection.FeatureGroup;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.geo.TileCoord;
 import com.onthegomap.planetiler.stats.Counter;
-import com.onthegomap.planetiler.stats.ProcessInfo;
 import com.onthegomap.planetiler.stats.ProgressLoggers;
 import com.onthegomap.planetiler.stats.Stats;
 import com.onthegomap.planetiler.stats.Timer;
@@ -16,9 +14,11 @@ import com.onthegomap.planetiler.util.DiskBacked;
 import com.onthegomap.planetiler.util.Format;
 import com.onthegomap.planetiler.util.Hashing;
 import com.onthegomap.planetiler.util.LayerAttrStats;
+import com.onthegomap.planetiler.util.MemoryBudget;
 import com.onthegomap.planetiler.util.TileSizeStats;
 import com.onthegomap.planetiler.util.TileWeights;
 import com.onthegomap.planetiler.util.TilesetSummaryStatistics;
+import com.onthegomap.planetiler.worker.WeightedHandoffQueue;
 import com.onthegomap.planetiler.worker.WorkQueue;
 import com.onthegomap.planetiler.worker.Worker;
 import com.onthegomap.planetiler.worker.WorkerPipeline;
@@ -34,6 +34,7 @@ import java.util.OptionalLong;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.LongSupplier;
@@ -51,30 +52,42 @@ public class TileArchiveWriter {
   private static final Logger LOGGER = LoggerFactory.getLogger(TileArchiveWriter.class);
   private static final long MAX_FEATURES_PER_BATCH = 10_000;
   private static final long MAX_TILES_PER_BATCH = 1_000;
+  // split into more ranges than read threads so one slow range doesn't leave the other threads idle at the end
+  private static final int RANGES_PER_READ_THREAD = 4;
+  // heap to budget for each batch of tiles waiting in the reader and writer queues
+  private static final long BYTES_PER_QUEUED_BATCH = 20_000_000;
+  private static final int MIN_QUEUE_SIZE = 100;
   private final Counter.Readable featuresProcessed;
   private final Counter memoizedTiles;
+  private final Counter.Readable encodeCacheHits;
+  private final Counter.Readable encodeCacheMisses;
+  private final TileEncodeCache encodeCache;
   private final WriteableTileArchive archive;
   private final PlanetilerConfig config;
   private final Stats stats;
   private final Counter.Readable[] tilesByZoom;
-  private final Iterable<FeatureGroup.TileFeatures> inputTiles;
   private final AtomicReference<TileCoord> lastTileWritten = new AtomicReference<>();
   private final TileArchiveMetadata tileArchiveMetadata;
   private final TilesetSummaryStatistics tileStats;
   private final LayerAttrStats layerAttrStats = new LayerAttrStats();
 
-  private TileArchiveWriter(Iterable<FeatureGroup.TileFeatures> inputTiles, WriteableTileArchive archive,
-    PlanetilerConfig config, TileArchiveMetadata tileArchiveMetadata, Stats stats) {
+  private TileArchiveWriter(WriteableTileArchive archive, PlanetilerConfig config,
+    TileArchiveMetadata tileArchiveMetadata, Stats stats) {
     this.tileStats = new TilesetSummaryStatistics(TileWeights.readFromFile(config.tileWeights()));
-    this.inputTiles = inputTiles;
     this.archive = archive;
     this.config = config;
     this.tileArchiveMetadata = tileArchiveMetadata;
     this.stats = stats;
+    // fail fast if tiles can not be compressed with this codec, each encoder thread creates its own compressor
+    config.tileCompression().newCompressor(config.tileCompressionLevel()).close();
     tilesByZoom = IntStream.rangeClosed(0, config.maxzoom())
       .mapToObj(i -> Counter.newSingleThreadCounter())
       .toArray(Counter.Readable[]::new);
     memoizedTiles = stats.longCounter("archive_memoized_tiles");
+    encodeCache = new TileEncodeCache(config.tileEncodeCacheSize());
+    encodeCacheHits = stats.longCounter("archive_encode_cache_hits");
+    encodeCacheMisses = stats.longCounter("archive_encode_cache_misses");
+    stats.gauge("archive_encode_cache_hit_rate", this::encodeCacheHitRate);
     featuresProcessed = stats.longCounter("archive_features_processed");
     Map<String, LongSupplier> countsByZoom = new LinkedHashMap<>();
     for (int zoom = config.minzoom(); zoom <= config.maxzoom(); zoom++) {
@@ -86,6 +99,32 @@ public class TileArchiveWriter {
   /** Reads all {@code features}, encodes them in parallel, and writes to {@code output}. */
   public static void writeOutput(FeatureGroup features, WriteableTileArchive output, DiskBacked fileSize,
     TileArchiveMetadata tileArchiveMetadata, Path layerStatsPath, PlanetilerConfig config, Stats stats) {
+    writeOutput(features, output, fileSize, tileArchiveMetadata, layerStatsPath, config, stats, MemoryBudget.forJvm());
+  }
+
+  /**
+   * Alias for {@link #writeOutput(FeatureGroup, WriteableTileArchive, DiskBacked, TileArchiveMetadata, Path,
+   * PlanetilerConfig, Stats)} that sizes the tile queues from the memory {@code memoryBudget} has available and
+   * reserves it until writing finishes.
+   */
+  public static void writeOutput(FeatureGroup features, WriteableTileArchive output, DiskBacked fileSize,
+    TileArchiveMetadata tileArchiveMetadata, Path layerStatsPath, PlanetilerConfig config, Stats stats,
+    MemoryBudget memoryBudget) {
+    // a larger tile queue size helps keep cores busy, but needs a lot of RAM
+    // 5k works fine with 100GB of RAM, so adjust the queue size down from there
+    // but no less than 100
+    try (
+      var queueMemory = memoryBudget.reserveUpTo("archive_queues", MIN_QUEUE_SIZE * BYTES_PER_QUEUED_BATCH,
+        memoryBudget.available())
+    ) {
+      int queueSize = (int) (queueMemory.bytes() / BYTES_PER_QUEUED_BATCH);
+      writeOutput(features, output, fileSize, tileArchiveMetadata, layerStatsPath, config, stats, queueSize);
+    }
+  }
+
+  private static void writeOutput(FeatureGroup features, WriteableTileArchive output, DiskBacked fileSize,
+    TileArchiveMetadata tileArchiveMetadata, Path layerStatsPath, PlanetilerConfig config, Stats stats,
+    int queueSize) {
     var timer = stats.startStage("archive");
 
     int chunksToRead = Math.max(1, features.chunksToRead());
@@ -96,12 +135,18 @@ public class TileArchiveWriter {
 
     // when using more than 1 read thread: (N read threads) -> (1 merge thread) -> ...
     // when using 1 read thread we just have: (1 read & merge thread) -> ...
+    // when splitting into ranges: (N read & merge threads that each handle one range of tiles at a time) -> ...
     Worker readWorker = null;
-    Iterable<FeatureGroup.TileFeatures> inputTiles;
+    Iterable<FeatureGroup.TileFeatures> inputTiles = null;
+    List<Iterable<FeatureGroup.TileFeatures>> ranges = null;
     String secondStageName;
     if (readThreads == 1) {
       secondStageName = "read";
       inputTiles = features;
+    } else if (config.featureReadRanges()) {
+      secondStageName = "read";
+      ranges = features.rangeIterators(readThreads * RANGES_PER_READ_THREAD);
+      LOGGER.info("Split tiles into {} ranges to read with {} threads", ranges.size(), readThreads);
     } else {
       secondStageName = "merge";
       var reader = features.parallelIterator(readThreads);
@@ -109,52 +154,120 @@ public class TileArchiveWriter {
       readWorker = reader.readWorker();
     }
 
-    TileArchiveWriter writer = new TileArchiveWriter(inputTiles, output, config, tileArchiveMetadata, stats);
+    TileArchiveWriter writer = new TileArchiveWriter(output, config, tileArchiveMetadata, stats);
 
     var pipeline = WorkerPipeline.start("archive", stats);
 
-    // a larger tile queue size helps keep cores busy, but needs a lot of RAM
-    // 5k works fine with 100GB of RAM, so adjust the queue size down from there
-    // but no less than 100
-    int queueSize = Math.max(
-      100,
-      (int) (5_000d * ProcessInfo.getMaxMemoryBytes() / 100_000_000_000d)
-    );
-
     /*
      * To emit tiles in order, fork the input queue and send features to both the encoder and writer. The writer
      * waits on them to be encoded in the order they were received, and the encoder processes them in parallel.
      * One batch might take a long time to process, so make the queues very big to avoid idle encoding CPUs.
      *
-     * Note:
-     * In the future emitting tiles out order might be especially interesting when tileWriteThreads>1,
-     * since when multiple threads/files are included there's no order that needs to be preserved.
-     * So some of the restrictions could be lifted then.
+     * Archives that don't need tiles in order get each batch from the encoder as soon as it is done instead, so one
+     * slow batch does not hold up the writers while the encoders sit idle.
      */
+    boolean writeInOrder = output.requiresOrderedWrites();
     WorkQueue<TileBatch> writerQueue = new WorkQueue<>("archive_writer_queue", queueSize, 1, stats);
     WorkQueue<TileBatch> layerStatsQueue = new WorkQueue<>("archive_layerstats_queue", queueSize, 1, stats);
-    WorkerPipeline<TileBatch> encodeBranch = pipeline
-      .<TileBatch>fromGenerator(secondStageName, next -> {
+    Consumer<TileBatch> onEncoded = batch -> {
+      if (!writeInOrder) {
+        writerQueue.accept(batch);
+        if (config.outputLayerStats()) {
+          layerStatsQueue.accept(batch);
+        }
+      }
+    };
+    WorkerPipeline<TileBatch> encodeBranch;
+    Worker stitchWorker = null;
+    if (ranges == null) {
+      Iterable<FeatureGroup.TileFeatures> allTiles = inputTiles;
+      encodeBranch = pipeline
+        .<TileBatch>fromGenerator(secondStageName, next -> {
+          if (!writeInOrder) {
+            writer.readFeaturesAndBatch(allTiles, next);
+            return;
+          }
+          try (writerQueue; layerStatsQueue) {
+            var writerEnqueuer = writerQueue.threadLocalWriter();
+            var statsEnqueuer = layerStatsQueue.threadLocalWriter();
+            writer.readFeaturesAndBatch(allTiles, batch -> {
+              next.accept(batch);
+              writerEnqueuer.accept(batch); // also send immediately to writer
+              if (config.outputLayerStats()) {
+                statsEnqueuer.accept(batch);
+              }
+            });
+          }
+          // use only 1 thread since readFeaturesAndBatch needs to be single-threaded
+        }, 1)
+        .addBuffer("reader_queue", queueSize)
+        .sinkTo("encode", processThreads, prev -> writer.tileEncoderSink(prev, onEncoded));
+    } else if (!writeInOrder) {
+      // each read thread takes the next range of tiles and sends batches to the encoder, no need to stitch them back
+      List<Iterable<FeatureGroup.TileFeatures>> tileRanges = ranges;
+      AtomicInteger nextRange = new AtomicInteger(0);
+      encodeBranch = pipeline
+        .<TileBatch>fromGenerator(secondStageName, next -> {
+          int range;
+          while ((range = nextRange.getAndIncrement()) < tileRanges.size()) {
+            writer.readFeaturesAndBatch(tileRanges.get(range), next);
+          }
+        }, readThreads)
+        .addBuffer("reader_queue", queueSize)
+        .sinkTo("encode", processThreads, prev -> writer.tileEncoderSink(prev, onEncoded));
+    } else {
+      /*
+       * Each read thread takes the next range of tiles in order, and sends batches immediately to the encoder, and
+       * also to a queue for that range. A single thread stitches the range queues back together in order for the
+       * writer, so ranges ahead of the one being written can only get a limited number of batches ahead.
+       */
+      List<Iterable<FeatureGroup.TileFeatures>> tileRanges = ranges;
+      List<WeightedHandoffQueue<TileBatch>> rangeQueues = tileRanges.stream()
+        .map(range -> new WeightedHandoffQueue<TileBatch>(Math.max(1, queueSize / readThreads), 1))
+        .toList();
+      AtomicInteger nextRange = new AtomicInteger(0);
+      encodeBranch = pipeline
+        .<TileBatch>fromGenerator(secondStageName, next -> {
+          int range;
+          while ((range = nextRange.getAndIncrement()) < tileRanges.size()) {
+            try (var rangeQueue = rangeQueues.get(range)) {
+              writer.readFeaturesAndBatch(tileRanges.get(range), batch -> {
+                next.accept(batch);
+                rangeQueue.accept(batch, 1);
+              });
+            }
+          }
+        }, readThreads)
+        .addBuffer("reader_queue", queueSize)
+        .sinkTo("encode", processThreads, prev -> writer.tileEncoderSink(prev, onEncoded));
+      stitchWorker = new Worker("archive_stitch", stats, 1, () -> {
         try (writerQueue; layerStatsQueue) {
           var writerEnqueuer = writerQueue.threadLocalWriter();
           var statsEnqueuer = layerStatsQueue.threadLocalWriter();
-          writer.readFeaturesAndBatch(batch -> {
-            next.accept(batch);
-            writerEnqueuer.accept(batch); // also send immediately to writer
-            if (config.outputLayerStats()) {
-              statsEnqueuer.accept(batch);
+          for (var rangeQueue : rangeQueues) {
+            for (var batch : rangeQueue) {
+              writerEnqueuer.accept(batch);
+              if (config.outputLayerStats()) {
+                statsEnqueuer.accept(batch);
+              }
             }
-          });
+          }
         }
-        // use only 1 thread since readFeaturesAndBatch needs to be single-threaded
-      }, 1)
-      .addBuffer("reader_queue", queueSize)
-      .sinkTo("encode", processThreads, writer::tileEncoderSink);
+      });
+    }
 
     // ensure to initialize the archive BEFORE starting to write any tiles
     output.initialize();
 
-    // the tile writer will wait on the result of each batch to ensure tiles are written in order
+    if (!writeInOrder) {
+      // encoders hand off batches as they finish, so the writers are done once all encoders are
+      encodeBranch.done().whenComplete((result, error) -> {
+        writerQueue.close();
+        layerStatsQueue.close();
+      });
+    }
+
+    // when writing in order, the tile writer waits on the result of each batch in the order they were read
     WorkerPipeline<TileBatch> writeBranch = pipeline.readFromQueue(writerQueue)
       .sinkTo("write", tileWriteThreads, writer::tileWriter);
 
@@ -176,6 +289,9 @@ public class TileArchiveWriter {
     if (readWorker != null) {
       loggers.addThreadPoolStats("read", readWorker);
     }
+    if (stitchWorker != null) {
+      loggers.addThreadPoolStats("stitch", stitchWorker);
+    }
     loggers.addPipelineStats(encodeBranch)
       .addPipelineStats(writeBranch);
     if (layerStatsBranch != null) {
@@ -190,7 +306,11 @@ public class TileArchiveWriter {
     final CompletableFuture<Void> archiveFinisher =
       CompletableFuture.allOf(tileWritersFuture, layerStatsFuture).thenRun(writer::finishArchive);
 
-    var doneFuture = joinFutures(tileWritersFuture, layerStatsFuture, encodeBranch.done(), archiveFinisher);
+    final CompletableFuture<Void> stitchFuture =
+      stitchWorker == null ? CompletableFuture.completedFuture(null) : stitchWorker.done();
+
+    var doneFuture =
+      joinFutures(tileWritersFuture, layerStatsFuture, encodeBranch.done(), stitchFuture, archiveFinisher);
     loggers.awaitAndLog(doneFuture, config.logInterval());
     writer.printTileStats();
     timer.stop();
@@ -227,7 +347,7 @@ public class TileArchiveWriter {
     return "last tile: " + blurb;
   }
 
-  private void readFeaturesAndBatch(Consumer<TileBatch> next) {
+  private void readFeaturesAndBatch(Iterable<FeatureGroup.TileFeatures> inputTiles, Consumer<TileBatch> next) {
     int currentZoom = Integer.MIN_VALUE;
     TileBatch batch = new TileBatch();
     long featuresInThisBatch = 0;
@@ -256,86 +376,80 @@ public class TileArchiveWriter {
     }
   }
 
-  private void tileEncoderSink(Iterable<TileBatch> prev) throws IOException {
+  private void tileEncoderSink(Iterable<TileBatch> prev, Consumer<TileBatch> onEncoded) throws IOException {
     /*
      * To optimize emitting many identical consecutive tiles (like large ocean areas), memoize output to avoid
-     * recomputing if the input hasn't changed.
+     * recomputing if the input hasn't changed. Tiles that are likely to be repeated elsewhere also go into a cache
+     * shared by all encoder threads to avoid recomputing identical tiles that are not adjacent.
      */
-    byte[] lastBytes = null, lastEncoded = null;
-    Long lastTileDataHash = null;
-    boolean lastIsFill = false;
-    List<TileSizeStats.LayerStats> lastLayerStats = null;
+    TileEncodeCache.Value lastValue = null;
     boolean skipFilled = config.skipFilledTiles();
     var layerStatsSerializer = TileSizeStats.newThreadLocalSerializer();
-
-    var tileStatsUpdater = tileStats.threadLocalUpdater();
-    var layerAttrStatsUpdater = layerAttrStats.handlerForThread();
-    for (TileBatch batch : prev) {
-      List<TileEncodingResult> result = new ArrayList<>(batch.size());
-      FeatureGroup.TileFeatures last = null;
-      // each batch contains tile ordered by tile-order ID ascending
-      for (int i = 0; i < batch.in.size(); i++) {
-        FeatureGroup.TileFeatures tileFeatures = batch.in.get(i);
-        featuresProcessed.incBy(tileFeatures.getNumFeaturesProcessed());
-        byte[] bytes, encoded;
-        List<TileSizeStats.LayerStats> layerStats;
-        Long tileDataHash;
-        if (tileFeatures.hasSameContents(last)) {
-          bytes = lastBytes;
-          encoded = lastEncoded;
-          tileDataHash = lastTileDataHash;
-          layerStats = lastLayerStats;
-          memoizedTiles.inc();
-        } else {
-          VectorTile tile = tileFeatures.getVectorTile(layerAttrStatsUpdater);
-          if (skipFilled && (lastIsFill = tile.containsOnlyFills())) {
-            encoded = null;
-            layerStats = null;
-            bytes = null;
+    try (var compressor = config.tileCompression().newCompressor(config.tileCompressionLevel())) {
+      var tileStatsUpdater = tileStats.threadLocalUpdater();
+      var layerAttrStatsUpdater = layerAttrStats.handlerForThread();
+      for (TileBatch batch : prev) {
+        List<TileEncodingResult> result = new ArrayList<>(batch.size());
+        FeatureGroup.TileFeatures last = null;
+        // each batch contains tile ordered by tile-order ID ascending
+        for (int i = 0; i < batch.in.size(); i++) {
+          FeatureGroup.TileFeatures tileFeatures = batch.in.get(i);
+          featuresProcessed.incBy(tileFeatures.getNumFeaturesProcessed());
+          TileEncodeCache.Value value;
+          if (tileFeatures.hasSameContents(last)) {
+            value = lastValue;
+            memoizedTiles.inc();
           } else {
-            var proto = tile.toProto();
-            encoded = proto.toByteArray();
-            bytes = switch (config.tileCompression()) {
-              case GZIP -> gzip(encoded);
-              case NONE -> encoded;
-              case UNKNOWN -> throw new IllegalArgumentException("cannot compress \"UNKNOWN\"");
-            };
-            layerStats = TileSizeStats.computeTileStats(proto);
-            if (encoded.length > config.tileWarningSizeBytes()) {
-              LOGGER.warn("{} {}kb uncompressed",
-                tileFeatures.tileCoord(),
-                encoded.length / 1024);
+            long contentHash = encodeCache.enabled() ? tileFeatures.contentHash() : 0;
+            value = encodeCache.get(tileFeatures, contentHash);
+            if (value != null) {
+              encodeCacheHits.inc();
+            } else {
+              encodeCacheMisses.inc();
+              VectorTile tile = tileFeatures.getVectorTile(layerAttrStatsUpdater);
+              if (skipFilled && tile.containsOnlyFills()) {
+                value = new TileEncodeCache.Value(null, 0, null, null);
+              } else {
+                var encodedTile = tile.encodeWithLayerStats();
+                byte[] encoded = encodedTile.bytes();
+                byte[] bytes = compressor.compress(encoded);
+                if (encoded.length > config.tileWarningSizeBytes()) {
+                  LOGGER.warn("{} {}kb uncompressed",
+                    tileFeatures.tileCoord(),
+                    encoded.length / 1024);
+                }
+                Long tileDataHash = archive.deduplicates() && tile.likelyToBeDuplicated() ?
+                  generateContentHash(bytes) : null;
+                value = new TileEncodeCache.Value(bytes, encoded.length, tileDataHash, encodedTile.layerStats());
+              }
+              if (value.bytes() == null || tile.likelyToBeDuplicated()) {
+                encodeCache.put(tileFeatures, contentHash, value);
+              }
             }
+            lastValue = value;
+            last = tileFeatures;
           }
-          lastLayerStats = layerStats;
-          lastEncoded = encoded;
-          lastBytes = bytes;
-          last = tileFeatures;
-          if (archive.deduplicates() && tile.likelyToBeDuplicated() && bytes != null) {
-            tileDataHash = generateContentHash(bytes);
-          } else {
-            tileDataHash = null;
+          byte[] bytes = value.bytes();
+          if (bytes != null) {
+            tileStatsUpdater.recordTile(tileFeatures.tileCoord(), bytes.length, value.layerStats());
+            List<String> layerStatsRows = config.outputLayerStats() ?
+              layerStatsSerializer.formatOutputRows(tileFeatures.tileCoord(), bytes.length, value.layerStats()) :
+              List.of();
+            result.add(
+              new TileEncodingResult(
+                tileFeatures.tileCoord(),
+                bytes,
+                value.encodedLength(),
+                value.tileDataHash() == null ? OptionalLong.empty() : OptionalLong.of(value.tileDataHash()),
+                layerStatsRows
+              )
+            );
           }
-          lastTileDataHash = tileDataHash;
-        }
-        if ((!skipFilled || !lastIsFill) && bytes != null) {
-          tileStatsUpdater.recordTile(tileFeatures.tileCoord(), bytes.length, layerStats);
-          List<String> layerStatsRows = config.outputLayerStats() ?
-            layerStatsSerializer.formatOutputRows(tileFeatures.tileCoord(), bytes.length, layerStats) :
-            List.of();
-          result.add(
-            new TileEncodingResult(
-              tileFeatures.tileCoord(),
-              bytes,
-              encoded.length,
-              tileDataHash == null ? OptionalLong.empty() : OptionalLong.of(tileDataHash),
-              layerStatsRows
-            )
-          );
         }
+        // hand result off to writer
+        batch.out.complete(result);
+        onEncoded.accept(batch);
       }
-      // hand result off to writer
-      batch.out.complete(result);
     }
   }
 
@@ -349,6 +463,7 @@ public class TileArchiveWriter {
     f.setMaximumFractionDigits(5);
 
     var order = archive.tileOrder();
+    boolean inOrder = archive.requiresOrderedWrites();
 
     TileCoord lastTile = null;
     Timer time = null;
@@ -357,12 +472,13 @@ public class TileArchiveWriter {
       for (TileBatch batch : tileBatches) {
         for (var encodedTile : batch.out.get()) {
           TileCoord tileCoord = encodedTile.coord();
-          assert lastTile == null ||
+          assert !inOrder || lastTile == null ||
             order.encode(tileCoord) > order.encode(lastTile) : "Tiles out of order %s before %s"
               .formatted(lastTile, tileCoord);
           lastTile = encodedTile.coord();
           int z = tileCoord.z();
-          if (z != currentZ) {
+          // when writing out of order, a batch from a lower zoom level may still finish after higher ones
+          if (z > currentZ) {
             // for multiple writers the starting/finish log message of the _first_ tilewriter
             // is not 100% accurate in terms of overall "zoom-progress",
             // but it should be a "good-enough" indicator for "zoom-progress"-logging
@@ -396,6 +512,16 @@ public class TileArchiveWriter {
     Format format = Format.defaultInstance();
     tileStats.printStats(config.debugUrlPattern());
     LOGGER.debug(" # features: {}", format.integer(featuresProcessed.get()));
+    if (encodeCache.enabled()) {
+      LOGGER.debug(" # encode cache hits: {} ({})", format.integer(encodeCacheHits.get()),
+        format.percent(encodeCacheHitRate()));
+    }
+  }
+
+  private double encodeCacheHitRate() {
+    long hits = encodeCacheHits.get();
+    long lookups = hits + encodeCacheMisses.get();
+    return lookups == 0 ? 0 : hits * 1d / lookups;
   }
 
   private long tilesEmitted() {
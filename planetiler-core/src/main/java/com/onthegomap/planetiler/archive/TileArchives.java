@@ -51,7 +51,7 @@ public class TileArchives {
         // pass-through legacy arguments for fallback
         Mbtiles.newWriteToFileDatabase(archive.getLocalPath(), options.orElse(config.arguments()
           .subset(Mbtiles.LEGACY_VACUUM_ANALYZE, Mbtiles.LEGACY_COMPACT_DB, Mbtiles.LEGACY_SKIP_INDEX_CREATION)));
-      case PMTILES -> WriteablePmtiles.newWriteToFile(archive.getLocalPath());
+      case PMTILES -> WriteablePmtiles.newWriteToFile(archive.getLocalPath(), options, config.tileWriteThreads());
       case CSV, TSV -> WriteableCsvArchive.newWriteToFile(format, archive.getLocalPath(),
         new StreamArchiveConfig(config, options));
       case PROTO, PBF -> WriteableProtoStreamArchive.newWriteToFile(archive.getLocalPath(),
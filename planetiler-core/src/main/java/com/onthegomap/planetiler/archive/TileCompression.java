@@ -5,12 +5,12 @@ import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.onthegomap.planetiler.util.Gzip;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 @JsonDeserialize(using = TileCompression.Deserializer.class)
 public enum TileCompression {
@@ -19,6 +19,11 @@ public enum TileCompression {
   NONE("none"),
   @JsonProperty("gzip")
   GZIP("gzip"),
+  @JsonProperty("zstd")
+  ZSTD("zstd"),
+  /** Recognized when reading archives, but planetiler does not have a brotli encoder or decoder. */
+  @JsonProperty("brotli")
+  BROTLI("brotli"),
   @JsonProperty("unknown")
   UNKNOWN("unknown");
 
@@ -28,27 +33,68 @@ public enum TileCompression {
     this.id = id;
   }
 
+  /**
+   * Returns the codec with {@code id} that tiles can be written with.
+   *
+   * @throws IllegalArgumentException if {@code id} is not one of {@link #availableValues()}
+   */
   public static TileCompression fromId(String id) {
-    return findById(id)
+    return availableValues()
+      .stream()
+      .filter(tdc -> tdc.id().equals(id))
+      .findFirst()
       .orElseThrow(() -> new IllegalArgumentException("invalid compression ID; expected one of " +
-        Stream.of(TileCompression.values()).map(TileCompression::id).toList()));
+        availableValues().stream().map(TileCompression::id).sorted().toList()));
   }
 
+  /** Returns the codec with {@code id}, including ones that can only be recognized when reading archives. */
   public static Optional<TileCompression> findById(String id) {
-    return availableValues()
-      .stream()
-      .filter(tdc -> tdc.id().equals(id))
+    return Arrays.stream(TileCompression.values())
+      .filter(tdc -> tdc != UNKNOWN && tdc.id().equals(id))
       .findFirst();
   }
 
+  /** Returns the codecs that tiles can be written with. */
   public static Set<TileCompression> availableValues() {
-    return Arrays.stream(TileCompression.values()).filter(tc -> tc != UNKNOWN).collect(Collectors.toUnmodifiableSet());
+    return Arrays.stream(TileCompression.values()).filter(tc -> tc != UNKNOWN && tc != BROTLI)
+      .collect(Collectors.toUnmodifiableSet());
   }
 
   public String id() {
     return id;
   }
 
+  /**
+   * Returns a new compressor for this codec at {@code level}, or the codec's default level when {@code level} is
+   * {@code -1}.
+   * <p>
+   * Compressors reuse buffers between tiles so each thread needs its own.
+   *
+   * @throws IllegalArgumentException if tiles can not be compressed with this codec
+   */
+  public TileCompressor newCompressor(int level) {
+    return switch (this) {
+      case NONE -> bytes -> bytes;
+      case GZIP -> new TileCompressor.GzipCompressor(level);
+      case ZSTD -> new TileCompressor.ZstdCompressor(level);
+      case BROTLI, UNKNOWN -> throw new IllegalArgumentException("cannot compress \"" + id + "\" tiles");
+    };
+  }
+
+  /**
+   * Returns the uncompressed contents of a tile compressed with this codec.
+   *
+   * @throws IllegalArgumentException if tiles can not be decompressed with this codec
+   */
+  public byte[] decompress(byte[] bytes) throws IOException {
+    return switch (this) {
+      case NONE -> bytes;
+      case GZIP -> Gzip.gunzip(bytes);
+      case ZSTD -> TileCompressor.ZstdCompressor.decompress(bytes);
+      case BROTLI, UNKNOWN -> throw new IllegalArgumentException("cannot decompress \"" + id + "\" tiles");
+    };
+  }
+
   static class Deserializer extends JsonDeserializer<TileCompression> {
     @Override
     public TileCompression deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
@@ -0,0 +1,103 @@
+package com.onthegomap.planetiler.archive;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Compresses encoded tiles with a {@link TileCompression} codec.
+ * <p>
+ * Implementations reuse native compression state and buffers between tiles, so each thread needs its own instance from
+ * {@link TileCompression#newCompressor(int)} and must close it when done to release that native state.
+ */
+@NotThreadSafe
+@FunctionalInterface
+public interface TileCompressor extends Closeable {
+
+  /** Returns the compressed contents of {@code bytes}. */
+  byte[] compress(byte[] bytes);
+
+  @Override
+  default void close() {}
+
+  /**
+   * Writes gzip output with a {@link Deflater} that gets reset between tiles instead of allocating a new one and its
+   * native zlib state for every tile like {@link java.util.zip.GZIPOutputStream} does.
+   */
+  final class GzipCompressor implements TileCompressor {
+
+    // same header that GZIPOutputStream writes: magic number, deflate, no flags, mtime, extra flags and unknown OS
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int TRAILER_BYTES = 8;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private byte[] buffer = new byte[1024];
+
+    GzipCompressor(int level) {
+      this.deflater = new Deflater(level, true);
+    }
+
+    @Override
+    public byte[] compress(byte[] bytes) {
+      deflater.reset();
+      deflater.setInput(bytes);
+      deflater.finish();
+      crc.reset();
+      crc.update(bytes);
+      System.arraycopy(HEADER, 0, buffer, 0, HEADER.length);
+      int length = HEADER.length;
+      while (!deflater.finished()) {
+        if (length == buffer.length) {
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        length += deflater.deflate(buffer, length, buffer.length - length);
+      }
+      byte[] result = Arrays.copyOf(buffer, length + TRAILER_BYTES);
+      ByteBuffer.wrap(result, length, TRAILER_BYTES).order(ByteOrder.LITTLE_ENDIAN)
+        .putInt((int) crc.getValue())
+        .putInt(bytes.length);
+      return result;
+    }
+
+    @Override
+    public void close() {
+      deflater.end();
+    }
+  }
+
+  /** Compresses tiles with zstd, reusing the same native compression context between tiles. */
+  final class ZstdCompressor implements TileCompressor {
+
+    private final ZstdCompressCtx context = new ZstdCompressCtx();
+
+    ZstdCompressor(int level) {
+      context.setLevel(level == -1 ? Zstd.defaultCompressionLevel() : level);
+      // record the uncompressed size so readers can allocate the output array up front
+      context.setContentSize(true);
+    }
+
+    static byte[] decompress(byte[] bytes) {
+      long size = Zstd.getFrameContentSize(bytes);
+      if (size < 0) {
+        throw new IllegalArgumentException("zstd tile does not record its uncompressed size");
+      }
+      return Zstd.decompress(bytes, Math.toIntExact(size));
+    }
+
+    @Override
+    public byte[] compress(byte[] bytes) {
+      return context.compress(bytes);
+    }
+
+    @Override
+    public void close() {
+      context.close();
+    }
+  }
+}
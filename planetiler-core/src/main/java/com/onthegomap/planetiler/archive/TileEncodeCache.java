@@ -0,0 +1,71 @@
+package com.onthegomap.planetiler.archive;
+
+import com.onthegomap.planetiler.collection.FeatureGroup;
+import com.onthegomap.planetiler.util.TileSizeStats;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A bounded cache shared by all encoder threads from the contents of a tile to its encoded and compressed bytes, so
+ * that identical tiles which are not adjacent in tile order (i.e. ocean tiles split across batches, or repeated fill
+ * and edge patterns) are only encoded and compressed once.
+ * <p>
+ * Each content hash maps to a single slot, and a tile that lands in an occupied slot replaces what was there. Entries
+ * are keyed by zoom level as well as contents since profiles can post-process features differently at each zoom, and
+ * hash collisions are ruled out by comparing the features in a tile before returning a cached result.
+ */
+@ThreadSafe
+class TileEncodeCache {
+
+  private final AtomicReferenceArray<Entry> slots;
+
+  /** Creates a new cache that holds up to {@code size} tiles, or caches nothing if {@code size} is 0. */
+  TileEncodeCache(int size) {
+    this.slots = new AtomicReferenceArray<>(size);
+  }
+
+  /** Returns true if this cache holds any tiles. */
+  boolean enabled() {
+    return slots.length() > 0;
+  }
+
+  /**
+   * Returns the result of encoding a tile with identical contents to {@code tile} at the same zoom level, or null if
+   * none are in the cache.
+   *
+   * @param tile the features in the tile
+   * @param hash the value of {@link FeatureGroup.TileFeatures#contentHash()} for {@code tile}
+   */
+  Value get(FeatureGroup.TileFeatures tile, long hash) {
+    if (!enabled()) {
+      return null;
+    }
+    Entry entry = slots.get(slot(hash));
+    return entry != null && entry.hash == hash && entry.zoom == tile.tileCoord().z() &&
+      entry.tile.hasSameContents(tile) ? entry.value : null;
+  }
+
+  /** Stores {@code value} as the result of encoding tiles with identical contents to {@code tile} at its zoom level. */
+  void put(FeatureGroup.TileFeatures tile, long hash, Value value) {
+    if (enabled()) {
+      slots.set(slot(hash), new Entry(hash, tile.tileCoord().z(), tile, value));
+    }
+  }
+
+  private int slot(long hash) {
+    return (int) Long.remainderUnsigned(hash, slots.length());
+  }
+
+  /**
+   * The result of encoding a tile.
+   *
+   * @param bytes         the encoded and compressed tile, or null if the tile was skipped for only containing fills
+   * @param encodedLength length of the tile before compression
+   * @param tileDataHash  hash of {@code bytes} for archives that deduplicate tiles, or null
+   * @param layerStats    size of each layer in the tile
+   */
+  record Value(byte[] bytes, int encodedLength, Long tileDataHash, List<TileSizeStats.LayerStats> layerStats) {}
+
+  private record Entry(long hash, int zoom, FeatureGroup.TileFeatures tile, Value value) {}
+}
@@ -26,6 +26,16 @@ public interface WriteableTileArchive extends Closeable {
    */
   TileOrder tileOrder();
 
+  /**
+   * Returns false if this archive accepts tiles in any order, so each batch of tiles can go to a {@link TileWriter} as
+   * soon as it is encoded instead of waiting for batches before it.
+   * <p>
+   * If true, then tiles are written in {@link #tileOrder()}.
+   */
+  default boolean requiresOrderedWrites() {
+    return true;
+  }
+
   /**
    * Called before any tiles are written into {@link TileWriter}. Implementations of TileArchive should set up any
    * required state here.
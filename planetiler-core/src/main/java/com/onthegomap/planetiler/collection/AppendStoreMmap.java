@@ -32,12 +32,18 @@ abstract class AppendStoreMmap implements AppendStore {
   long outIdx = 0;
   private volatile MappedByteBuffer[] segments; // NOSONAR - array is not thread-safe, but it's immutable after creation
   private volatile FileChannel channel; // NOSONAR - channel is not thread-safe, but we only map over it once then close
+  private volatile boolean prefetchFailed = false;
 
   AppendStoreMmap(Path path, boolean madvise) {
     this(path, 1 << 30, madvise); // 1GB
   }
 
   AppendStoreMmap(Path path, long segmentSizeBytes, boolean madvise) {
+    this(path, segmentSizeBytes, madvise, false);
+  }
+
+  /** When {@code existing} is true, map the data already in {@code path} read-only instead of writing a new file. */
+  AppendStoreMmap(Path path, long segmentSizeBytes, boolean madvise, boolean existing) {
     FileUtils.createParentDirectories(path);
     this.madvise = madvise;
     segmentBits = (int) (Math.log(segmentSizeBytes) / Math.log(2));
@@ -47,10 +53,15 @@ abstract class AppendStoreMmap implements AppendStore {
       throw new IllegalArgumentException("segment size must be a multiple of 8 and power of 2: " + segmentSizeBytes);
     }
     this.path = path;
-    try {
-      this.outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 50_000));
-    } catch (IOException e) {
-      throw new IllegalStateException("Could not create SequentialWriteRandomReadFile output stream", e);
+    if (existing) {
+      this.outputStream = null;
+      this.outIdx = FileUtils.size(path);
+    } else {
+      try {
+        this.outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 50_000));
+      } catch (IOException e) {
+        throw new IllegalStateException("Could not create SequentialWriteRandomReadFile output stream", e);
+      }
     }
   }
 
@@ -60,7 +71,9 @@ abstract class AppendStoreMmap implements AppendStore {
         if (segments == null) {
           try {
             // prepare the memory mapped file: stop writing, start reading
-            outputStream.close();
+            if (outputStream != null) {
+              outputStream.close();
+            }
             channel = FileChannel.open(path, StandardOpenOption.READ);
             segments = ByteBufferUtil.mapFile(channel, outIdx, segmentBytes, madvise);
           } catch (IOException e) {
@@ -74,7 +87,9 @@ abstract class AppendStoreMmap implements AppendStore {
 
   @Override
   public void close() throws IOException {
-    outputStream.close();
+    if (outputStream != null) {
+      outputStream.close();
+    }
     synchronized (this) {
       if (channel != null) {
         channel.close();
@@ -95,6 +110,25 @@ abstract class AppendStoreMmap implements AppendStore {
     return FileUtils.size(path);
   }
 
+  /**
+   * Hints to the OS that reads are about to happen at each byte offset in {@code sortedOffsets}, if madvise is enabled.
+   */
+  void willNeed(long[] sortedOffsets, int length, int bytesPerOffset) {
+    if (madvise && !prefetchFailed) {
+      try {
+        ByteBufferUtil.willNeed(getSegments(), segmentBits, sortedOffsets, length, bytesPerOffset);
+      } catch (IOException e) {
+        prefetchFailed = true;
+      }
+    }
+  }
+
+  /** Finishes writing and saves a copy of the data to {@code to} that can be re-opened read-only later. */
+  void persist(Path to) {
+    getSegments();
+    FileUtils.linkOrCopy(path, to);
+  }
+
   static class Ints extends AppendStoreMmap implements AppendStore.Ints {
 
     Ints(Storage.Params params) {
@@ -149,6 +183,15 @@ abstract class AppendStoreMmap implements AppendStore {
       super(path, segmentSizeBytes, madvise);
     }
 
+    private Longs(Path path, boolean madvise, boolean existing) {
+      super(path, 1 << 30, madvise, existing);
+    }
+
+    /** Returns a read-only array over longs that were saved to {@code path} by {@link #persist(Path)}. */
+    static AppendStoreMmap.Longs open(Path path, boolean madvise) {
+      return new AppendStoreMmap.Longs(path, madvise, true);
+    }
+
     @Override
     public void appendLong(long value) {
       try {
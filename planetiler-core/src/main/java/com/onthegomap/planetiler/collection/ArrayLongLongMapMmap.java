@@ -32,7 +32,7 @@ import java.util.concurrent.atomic.AtomicInteger;
  * During write phase, values are stored in a sliding window of {@link ByteBuffer ByteBuffers} and flushed to disk when
  * the segment slides out of the window. During read phase, they file is memory-mapped and read.
  */
-class ArrayLongLongMapMmap implements LongLongMap.ParallelWrites {
+class ArrayLongLongMapMmap implements LongLongMap.ParallelWrites, LongLongMap.Persistable {
   /*
    * In order to limit the number of in-memory segments during writes and ensure liveliness, keep track
    * of the current segment index that each worker is working on in the "segments" array. Then use
@@ -48,6 +48,7 @@ class ArrayLongLongMapMmap implements LongLongMap.ParallelWrites {
   private static final int DEFAULT_SEGMENT_BITS = 27;
   // work on up to 5GB of data at a time
   private static final long MAX_BYTES_TO_USE = 5_000_000_000L;
+  private static final String VALUES_FILE = "values";
   private final boolean madvise;
   private final int segmentBits;
   private final long segmentMask;
@@ -63,6 +64,8 @@ class ArrayLongLongMapMmap implements LongLongMap.ParallelWrites {
   private FileChannel readChannel = null;
   private volatile int tail = 0;
   private volatile boolean initialized = false;
+  private volatile boolean prefetchFailed = false;
+  private final boolean readOnly;
 
   ArrayLongLongMapMmap(Path path, boolean madvise) {
     this(
@@ -84,6 +87,7 @@ class ArrayLongLongMapMmap implements LongLongMap.ParallelWrites {
     segmentBytes = 1L << segmentBits;
     slidingWindow = new SlidingWindow(maxPendingSegments);
     this.path = path;
+    this.readOnly = false;
     try {
       writeChannel = FileChannel.open(path, WRITE, CREATE);
     } catch (IOException e) {
@@ -91,6 +95,31 @@ class ArrayLongLongMapMmap implements LongLongMap.ParallelWrites {
     }
   }
 
+  /** Maps a file that {@link #persist(Path)} saved earlier. */
+  private ArrayLongLongMapMmap(Path path, boolean madvise, FileChannel readChannel) throws IOException {
+    this.activeSegments = new Semaphore(0);
+    this.madvise = madvise;
+    this.segmentBits = DEFAULT_SEGMENT_BITS;
+    segmentMask = (1L << segmentBits) - 1;
+    segmentBytes = 1L << segmentBits;
+    slidingWindow = new SlidingWindow(1);
+    this.path = path;
+    this.readOnly = true;
+    this.readChannel = readChannel;
+    // the file is sparse and unused segments are all 0's, which reads treat the same as a missing segment
+    segmentsArray = ByteBufferUtil.mapFile(readChannel, readChannel.size(), segmentBytes, madvise);
+    initialized = true;
+  }
+
+  static ArrayLongLongMapMmap open(Path dir, boolean madvise) {
+    Path path = dir.resolve(VALUES_FILE);
+    try {
+      return new ArrayLongLongMapMmap(path, madvise, FileChannel.open(path, READ));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
   private static int guessPendingChunkLimit(long chunkSize) {
     int minChunks = 1;
     int maxChunks = (int) (MAX_BYTES_TO_USE / chunkSize);
@@ -119,9 +148,18 @@ class ArrayLongLongMapMmap implements LongLongMap.ParallelWrites {
 
   @Override
   public Writer newWriter() {
+    if (readOnly) {
+      throw new IllegalStateException("Cannot write to " + path + " after it was persisted");
+    }
     return new Writer();
   }
 
+  @Override
+  public void persist(Path dir) {
+    initOnce();
+    FileUtils.linkOrCopy(path, dir.resolve(VALUES_FILE));
+  }
+
   private void initOnce() {
     if (!initialized) {
       synchronized (this) {
@@ -150,6 +188,31 @@ class ArrayLongLongMapMmap implements LongLongMap.ParallelWrites {
     return result == 0 ? LongLongMap.MISSING_VALUE : result;
   }
 
+  @Override
+  public boolean benefitsFromMultiGet() {
+    return true;
+  }
+
+  @Override
+  public long[] multiGet(long[] keys) {
+    initOnce();
+    return SortedMultiGet.multiGet(keys, this::prefetch, this::get);
+  }
+
+  private void prefetch(long[] sortedKeys, int length) {
+    if (madvise && !prefetchFailed) {
+      long[] offsets = new long[length];
+      for (int i = 0; i < length; i++) {
+        offsets[i] = sortedKeys[i] << 3;
+      }
+      try {
+        ByteBufferUtil.willNeed(segmentsArray, segmentBits, offsets, length, 8);
+      } catch (IOException e) {
+        prefetchFailed = true;
+      }
+    }
+  }
+
   @Override
   public long diskUsageBytes() {
     return FileUtils.size(path);
@@ -174,7 +237,9 @@ class ArrayLongLongMapMmap implements LongLongMap.ParallelWrites {
       readChannel.close();
       readChannel = null;
     }
-    FileUtils.delete(path);
+    if (!readOnly) {
+      FileUtils.delete(path);
+    }
   }
 
   /**
@@ -0,0 +1,83 @@
+package com.onthegomap.planetiler.collection;
+
+import com.onthegomap.planetiler.util.CommonStringEncoder;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A bounded dictionary of short attribute values (i.e. {@code class=residential}), filled while features are being
+ * written so that each feature can store a small reference instead of the full string.
+ * <p>
+ * A value gets added the first time it is seen, and once the dictionary has {@code maxValues} values it stops
+ * changing, so every occurrence of a value in the same run gets encoded the same way and features with identical
+ * attributes end up with identical bytes.
+ * <p>
+ * Also tracks how many values were found in the dictionary per layer.
+ */
+@ThreadSafe
+class AttributeValueDictionary {
+
+  private final CommonStringEncoder dictionary;
+  private final int maxValueLength;
+  private final LongAdder[] hits = new LongAdder[256];
+  private final LongAdder[] misses = new LongAdder[256];
+  private volatile boolean full = false;
+
+  AttributeValueDictionary(int maxValues, int maxValueLength) {
+    this.dictionary = new CommonStringEncoder(maxValues);
+    this.maxValueLength = maxValueLength;
+    for (int i = 0; i < hits.length; i++) {
+      hits[i] = new LongAdder();
+      misses[i] = new LongAdder();
+    }
+  }
+
+  /** Returns the dictionary ID for {@code value} of an attribute on a feature in {@code layer}, or -1 if not found. */
+  int encode(byte layer, String value) {
+    int id = lookup(value);
+    (id >= 0 ? hits : misses)[layer & 0xff].increment();
+    return id;
+  }
+
+  private int lookup(String value) {
+    if (value.length() > maxValueLength) {
+      return -1;
+    }
+    int id = dictionary.lookup(value);
+    if (id >= 0 || full) {
+      return id;
+    }
+    // once this fails no other value can get added, so a value left out stays inline for the rest of the run
+    id = dictionary.tryEncode(value);
+    if (id < 0) {
+      full = true;
+    }
+    return id;
+  }
+
+  /**
+   * Returns the value for {@code id}.
+   *
+   * @throws IllegalArgumentException if there is no value for {@code id}.
+   */
+  String decode(int id) {
+    return dictionary.decode(id);
+  }
+
+  /** Returns the number of values found in the dictionary for features in {@code layer}. */
+  long hits(byte layer) {
+    return hits[layer & 0xff].sum();
+  }
+
+  /** Returns the number of values that were stored inline for features in {@code layer}. */
+  long misses(byte layer) {
+    return misses[layer & 0xff].sum();
+  }
+
+  /** Returns the fraction of values for features in {@code layer} that were found in the dictionary. */
+  double hitRate(byte layer) {
+    long hit = hits(layer);
+    long total = hit + misses(layer);
+    return total == 0 ? 0 : hit * 1d / total;
+  }
+}
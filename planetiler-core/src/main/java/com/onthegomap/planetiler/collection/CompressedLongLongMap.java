@@ -0,0 +1,224 @@
+package com.onthegomap.planetiler.collection;
+
+import static com.onthegomap.planetiler.util.MemoryEstimator.estimateSize;
+
+import java.io.IOException;
+
+/**
+ * A longlong map that splits the key space into blocks of 256 consecutive keys, and bit-packs the values in each block
+ * against the smallest value in that block.
+ * <p>
+ * Each value is treated as 2 unsigned 32-bit halves which for encoded node locations are the x and y coordinates.
+ * Sequential OSM node IDs tend to be close together, so each half only needs as many bits as it takes to store the
+ * difference from the block minimum. Each block is stored as a sequence of longs:
+ * <ol>
+ * <li>the minimum high and low 32 bits of all values in the block</li>
+ * <li>a header with the number of bits used for each half, the number of values, the offset of the first key in the
+ * block, and whether keys are contiguous</li>
+ * <li>if keys are not contiguous, a 256-bit bitmap of which keys in the block are present</li>
+ * <li>the bit-packed differences from the block minimum</li>
+ * </ol>
+ * Reads only need to touch a handful of longs in a single block so they are safe to do in parallel from many threads.
+ */
+public class CompressedLongLongMap implements LongLongMap, LongLongMap.SequentialWrites {
+
+  private static final int BLOCK_BITS = 8;
+  private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+  private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+  private static final int BITMAP_LONGS = BLOCK_SIZE / Long.SIZE;
+  private static final long NO_BLOCK = -1;
+
+  // header layout: 6 bits for each half, 9 bits for count, 8 bits for the first offset, 1 bit for whether there is a
+  // presence bitmap
+  private static final int HI_BITS_SHIFT = 0;
+  private static final int LO_BITS_SHIFT = 6;
+  private static final int COUNT_SHIFT = 12;
+  private static final int FIRST_OFFSET_SHIFT = 21;
+  private static final int BITMAP_FLAG_SHIFT = 29;
+
+  // index in values where each block starts, or NO_BLOCK if there are no keys in it
+  private final AppendStore.Longs blockStarts = new AppendStoreRam.Longs(false);
+  private final AppendStore.Longs values;
+
+  // the block currently being written
+  private final int[] pendingOffsets = new int[BLOCK_SIZE];
+  private final long[] pendingValues = new long[BLOCK_SIZE];
+  private int pendingCount = 0;
+  private long pendingBlock = -1;
+  private long lastKey = -1;
+  private volatile boolean finished = false;
+
+  public CompressedLongLongMap(AppendStore.Longs values) {
+    this.values = values;
+  }
+
+  private static long mask(int bits) {
+    return bits == 64 ? -1L : (1L << bits) - 1;
+  }
+
+  private static int bitsNeeded(long range) {
+    return Long.SIZE - Long.numberOfLeadingZeros(range);
+  }
+
+  @Override
+  public void put(long key, long value) {
+    if (finished) {
+      throw new IllegalStateException("Cannot write after reading from " + getClass().getSimpleName());
+    }
+    if (key <= lastKey) {
+      throw new IllegalArgumentException("Nodes must be sorted ascending by ID, " + key + " came after " + lastKey);
+    }
+    lastKey = key;
+    long block = key >>> BLOCK_BITS;
+    if (block != pendingBlock) {
+      flushBlock();
+      pendingBlock = block;
+    }
+    pendingOffsets[pendingCount] = (int) (key & BLOCK_MASK);
+    pendingValues[pendingCount++] = value;
+  }
+
+  private void flushBlock() {
+    if (pendingCount == 0) {
+      return;
+    }
+    while (blockStarts.size() < pendingBlock) {
+      blockStarts.appendLong(NO_BLOCK);
+    }
+    blockStarts.appendLong(values.size());
+
+    long minHi = Long.MAX_VALUE, maxHi = 0, minLo = Long.MAX_VALUE, maxLo = 0;
+    for (int i = 0; i < pendingCount; i++) {
+      long hi = pendingValues[i] >>> 32;
+      long lo = pendingValues[i] & 0xFFFFFFFFL;
+      minHi = Math.min(minHi, hi);
+      maxHi = Math.max(maxHi, hi);
+      minLo = Math.min(minLo, lo);
+      maxLo = Math.max(maxLo, lo);
+    }
+    int hiBits = bitsNeeded(maxHi - minHi);
+    int loBits = bitsNeeded(maxLo - minLo);
+    int firstOffset = pendingOffsets[0];
+    boolean contiguous = pendingOffsets[pendingCount - 1] - firstOffset == pendingCount - 1;
+
+    values.appendLong((minHi << 32) | minLo);
+    values.appendLong(((long) hiBits << HI_BITS_SHIFT) |
+      ((long) loBits << LO_BITS_SHIFT) |
+      ((long) pendingCount << COUNT_SHIFT) |
+      ((long) firstOffset << FIRST_OFFSET_SHIFT) |
+      ((contiguous ? 0L : 1L) << BITMAP_FLAG_SHIFT));
+    if (!contiguous) {
+      long[] bitmap = new long[BITMAP_LONGS];
+      for (int i = 0; i < pendingCount; i++) {
+        int offset = pendingOffsets[i];
+        bitmap[offset >>> 6] |= 1L << (offset & 63);
+      }
+      for (long word : bitmap) {
+        values.appendLong(word);
+      }
+    }
+
+    int bits = hiBits + loBits;
+    long word = 0;
+    int used = 0;
+    for (int i = 0; i < pendingCount && bits > 0; i++) {
+      long packed = (((pendingValues[i] >>> 32) - minHi) << loBits) | ((pendingValues[i] & 0xFFFFFFFFL) - minLo);
+      word |= packed << used;
+      used += bits;
+      if (used >= 64) {
+        values.appendLong(word);
+        used -= 64;
+        // bits of this value that did not fit in the last word
+        word = used == 0 ? 0 : packed >>> (bits - used);
+      }
+    }
+    if (used > 0) {
+      values.appendLong(word);
+    }
+    pendingCount = 0;
+  }
+
+  private void finishOnce() {
+    if (!finished) {
+      synchronized (this) {
+        if (!finished) {
+          flushBlock();
+          finished = true;
+        }
+      }
+    }
+  }
+
+  @Override
+  public long get(long key) {
+    finishOnce();
+    long block = key >>> BLOCK_BITS;
+    if (block >= blockStarts.size()) {
+      return MISSING_VALUE;
+    }
+    long start = blockStarts.getLong(block);
+    if (start == NO_BLOCK) {
+      return MISSING_VALUE;
+    }
+    int offset = (int) (key & BLOCK_MASK);
+    long header = values.getLong(start + 1);
+    int count = (int) ((header >>> COUNT_SHIFT) & 511);
+    int firstOffset = (int) ((header >>> FIRST_OFFSET_SHIFT) & 255);
+    long dataStart = start + 2;
+    int rank;
+    if (((header >>> BITMAP_FLAG_SHIFT) & 1) == 0) {
+      rank = offset - firstOffset;
+      if (rank < 0 || rank >= count) {
+        return MISSING_VALUE;
+      }
+    } else {
+      int wordIdx = offset >>> 6;
+      long word = values.getLong(dataStart + wordIdx);
+      long bit = 1L << (offset & 63);
+      if ((word & bit) == 0) {
+        return MISSING_VALUE;
+      }
+      rank = Long.bitCount(word & (bit - 1));
+      for (int i = 0; i < wordIdx; i++) {
+        rank += Long.bitCount(values.getLong(dataStart + i));
+      }
+      dataStart += BITMAP_LONGS;
+    }
+
+    long base = values.getLong(start);
+    int hiBits = (int) ((header >>> HI_BITS_SHIFT) & 63);
+    int loBits = (int) ((header >>> LO_BITS_SHIFT) & 63);
+    int bits = hiBits + loBits;
+    long packed = 0;
+    if (bits > 0) {
+      long bitIdx = (long) rank * bits;
+      long wordIdx = dataStart + (bitIdx >>> 6);
+      int shift = (int) (bitIdx & 63);
+      packed = values.getLong(wordIdx) >>> shift;
+      if (shift + bits > 64) {
+        packed |= values.getLong(wordIdx + 1) << (64 - shift);
+      }
+      packed &= mask(bits);
+    }
+    long hi = (base >>> 32) + (packed >>> loBits);
+    long lo = (base & 0xFFFFFFFFL) + (packed & mask(loBits));
+    return (hi << 32) | lo;
+  }
+
+  @Override
+  public long diskUsageBytes() {
+    return values.diskUsageBytes();
+  }
+
+  @Override
+  public long estimateMemoryUsageBytes() {
+    return values.estimateMemoryUsageBytes() + blockStarts.estimateMemoryUsageBytes() +
+      estimateSize(pendingOffsets) + estimateSize(pendingValues);
+  }
+
+  @Override
+  public void close() throws IOException {
+    values.close();
+    blockStarts.close();
+  }
+}
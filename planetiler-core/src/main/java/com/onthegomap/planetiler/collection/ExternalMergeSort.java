@@ -2,6 +2,9 @@ package com.onthegomap.planetiler.collection;
 
 import static com.onthegomap.planetiler.util.Exceptions.throwFatalException;
 
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.LongArrayList;
+import com.carrotsearch.hppc.sorting.IndirectSort;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.stats.ProcessInfo;
 import com.onthegomap.planetiler.stats.ProgressLoggers;
@@ -11,7 +14,15 @@ import com.onthegomap.planetiler.util.BinPack;
 import com.onthegomap.planetiler.util.ByteBufferUtil;
 import com.onthegomap.planetiler.util.CloseableConsumer;
 import com.onthegomap.planetiler.util.FileUtils;
+import com.onthegomap.planetiler.util.Format;
+import com.onthegomap.planetiler.util.MemoryBudget;
 import com.onthegomap.planetiler.worker.WorkerPipeline;
+import io.airlift.compress.Compressor;
+import io.airlift.compress.Decompressor;
+import io.airlift.compress.lz4.Lz4Compressor;
+import io.airlift.compress.lz4.Lz4Decompressor;
+import io.airlift.compress.zstd.ZstdCompressor;
+import io.airlift.compress.zstd.ZstdDecompressor;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.Closeable;
@@ -34,8 +45,16 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -62,63 +81,120 @@ class ExternalMergeSort implements FeatureSort {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ExternalMergeSort.class);
   private static final long MAX_CHUNK_SIZE = 2_000_000_000; // 2GB
+  // long key followed by int value length
+  private static final int RECORD_HEADER_BYTES = Long.BYTES + Integer.BYTES;
+  // uncompressed size of each block in lz4 and zstd compressed chunk files
+  static final int TEMP_BLOCK_SIZE = 1 << 16;
+  // file offset, uncompressed length, and compressed length of each block
+  private static final int BLOCK_INDEX_ENTRY_BYTES = Long.BYTES + Integer.BYTES + Integer.BYTES;
+  // number of records between each key sampled into the sparse index of a sorted chunk
+  static final int SPARSE_INDEX_INTERVAL = 1_000;
+  // number of features to decode from each chunk at a time when reading ahead
+  private static final int READ_AHEAD_BATCH_SIZE = 500;
   private final Path dir;
   private final Stats stats;
   private final int chunkSizeLimit;
   private final int workers;
+  private final int maxWorkers;
+  private final MemoryBudget memoryBudget;
   private final AtomicLong features = new AtomicLong(0);
   private final List<Chunk> chunks = new CopyOnWriteArrayList<>();
   private final AtomicInteger chunkNum = new AtomicInteger(0);
-  private final boolean compress;
+  private final Compression compression;
+  private final AtomicLong rawBytesWritten = new AtomicLong(0);
+  private final AtomicLong compressedBytesWritten = new AtomicLong(0);
   private final PlanetilerConfig config;
   private final int readerLimit;
   private final int writerLimit;
   private final boolean mmapIO;
   private final boolean parallelSort;
+  private final boolean radixSort;
+  private final boolean readAhead;
   private final boolean madvise;
   private final AtomicBoolean madviseFailed = new AtomicBoolean(false);
+  private final ExecutorService backgroundSorter;
+  private final List<Future<?>> backgroundSorts = new CopyOnWriteArrayList<>();
+  private final AtomicInteger presortedChunks = new AtomicInteger(0);
+  private final AtomicLong backgroundSortBytes = new AtomicLong(0);
   private volatile boolean sorted = false;
+  private volatile boolean sortStarted = false;
 
   ExternalMergeSort(Path tempDir, PlanetilerConfig config, Stats stats) {
+    this(tempDir, config, stats, MemoryBudget.forJvm());
+  }
+
+  /**
+   * Creates a sorter that writes chunks sized from the total {@code memoryBudget}, then reserves memory from it to sort
+   * them in-memory when {@link #sort()} starts.
+   * <p>
+   * Writing chunks does not hold them in memory, so the sort can use the memory that earlier stages (like node
+   * locations) released by then to sort larger groups of chunks, or more of them in parallel.
+   */
+  ExternalMergeSort(Path tempDir, PlanetilerConfig config, Stats stats, MemoryBudget memoryBudget) {
     this(
       tempDir,
       config.threads(),
       (int) Math.min(
         MAX_CHUNK_SIZE,
-        ProcessInfo.getMaxMemoryBytes() / 3
+        memoryBudget.total() / 3
       ),
       config.compressTempStorage(),
       config.mmapTempStorage(),
       true,
       true,
       config,
-      stats
+      stats,
+      memoryBudget
     );
   }
 
   ExternalMergeSort(Path dir, int workers, int chunkSizeLimit, boolean compress, boolean mmap, boolean parallelSort,
     boolean madvise, PlanetilerConfig config, Stats stats) {
+    this(dir, workers, chunkSizeLimit, compress, mmap, parallelSort, madvise, config, stats, null);
+  }
+
+  private ExternalMergeSort(Path dir, int workers, int chunkSizeLimit, boolean compress, boolean mmap,
+    boolean parallelSort, boolean madvise, PlanetilerConfig config, Stats stats, MemoryBudget memoryBudget) {
     this.config = config;
+    this.memoryBudget = memoryBudget;
     this.madvise = madvise;
     this.dir = dir;
     this.stats = stats;
     this.parallelSort = parallelSort;
     this.chunkSizeLimit = chunkSizeLimit;
-    if (compress && mmap) {
-      LOGGER.warn("--compress-temp option not supported with --mmap-temp, falling back to --mmap-temp=false");
+    this.compression = Compression.from(compress, config.compressTempCodec());
+    if (compression == Compression.SNAPPY && mmap) {
+      LOGGER.warn(
+        "--compress-temp option with snappy codec not supported with --mmap-temp, falling back to --mmap-temp=false");
       mmap = false;
     }
-    this.compress = compress;
     this.mmapIO = mmap;
-    long memLimit = ProcessInfo.getMaxMemoryBytes() / 3;
+    if (compression != Compression.NONE) {
+      stats.counter("sort_temp_bytes_written", "type", () -> Map.of(
+        "raw", rawBytesWritten::get,
+        "compressed", compressedBytesWritten::get
+      ));
+    }
+    long memLimit = (memoryBudget == null ? ProcessInfo.getMaxMemoryBytes() : memoryBudget.total()) / 3;
     if (chunkSizeLimit > memLimit) {
       throw new IllegalStateException("Not enough memory for chunkSize=" + chunkSizeLimit + " limit=" + memLimit);
     }
     int maxWorkersBasedOnMemory = Math.max(1, (int) (memLimit / Math.max(1, chunkSizeLimit)));
+    this.maxWorkers = workers;
     this.workers = Math.min(workers, maxWorkersBasedOnMemory);
     this.readerLimit = Math.max(1, config.sortMaxReaders());
     this.writerLimit = Math.max(1, config.sortMaxWriters());
-    LOGGER.info("Using merge sort feature map, chunk size={}mb max workers={}", chunkSizeLimit / 1_000_000, workers);
+    this.radixSort = config.sortRadix();
+    this.readAhead = config.sortReadAhead();
+    this.backgroundSorter = config.sortBackground() ? Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "sort_background");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    }) : null;
+    LOGGER.info("Using merge sort feature map, chunk size={}mb max workers={}{}{}", chunkSizeLimit / 1_000_000,
+      workers, radixSort ? " radix sort" : "",
+      compression == Compression.NONE ? "" : " " + compression.name().toLowerCase(Locale.ROOT) + " compression");
     try {
       FileUtils.deleteDirectory(dir);
       Files.createDirectories(dir);
@@ -148,17 +224,59 @@ class ExternalMergeSort implements FeatureSort {
 
   @Override
   public long estimateMemoryUsageBytes() {
-    return 0;
+    return backgroundSortBytes.get();
+  }
+
+  /** Sorts a full chunk in place in the background, unless the final {@link #sort()} has already started. */
+  private void sortInBackground(Chunk chunk) {
+    backgroundSorts.add(backgroundSorter.submit(() -> {
+      if (!sortStarted) {
+        // writers keep filling new chunks in the meantime, so this holds an extra chunk in memory
+        int bytes = chunk.bytesInMemory;
+        var reservation = memoryBudget == null ? null : memoryBudget.reserve("sort_background", bytes);
+        backgroundSortBytes.addAndGet(bytes);
+        try {
+          chunk.readAllAndMergeIn(List.of()).sort().flush();
+          chunk.presorted = true;
+          presortedChunks.incrementAndGet();
+        } finally {
+          backgroundSortBytes.addAndGet(-bytes);
+          if (reservation != null) {
+            reservation.close();
+          }
+        }
+      }
+    }));
+  }
+
+  /** Waits for the chunk that is currently being sorted in the background and skips the rest. */
+  private void stopBackgroundSorts() {
+    sortStarted = true;
+    if (backgroundSorter == null) {
+      return;
+    }
+    backgroundSorter.shutdown();
+    try {
+      for (var future : backgroundSorts) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throwFatalException(e);
+    } catch (ExecutionException e) {
+      throwFatalException(e);
+    }
   }
 
   @Override
   public void sort() {
     assert !sorted;
+    stopBackgroundSorts();
     for (var chunk : chunks) {
       try {
         chunk.close();
       } catch (IOException e) {
-        // ok
+        throw new UncheckedIOException(e);
       }
     }
     var timer = stats.startStage("sort");
@@ -172,53 +290,76 @@ class ExternalMergeSort implements FeatureSort {
     // we may end up with many small chunks because each thread-local writer starts a new one
     // so group together smaller chunks that can be sorted together in-memory to minimize the
     // number of chunks that the reader needs to deal with
-    List<List<ExternalMergeSort.Chunk>> groups = BinPack.pack(
-      chunks,
-      chunkSizeLimit,
-      chunk -> chunk.bytesInMemory
-    );
-
-    LOGGER.info("Grouped {} chunks into {}", chunks.size(), groups.size());
-
-    var pipeline = WorkerPipeline.start("sort", stats)
-      .readFromTiny("item_queue", groups)
-      .sinkToConsumer("worker", workers, group -> {
-        try {
-          readSemaphore.acquire();
-          var chunk = group.getFirst();
-          var others = group.stream().skip(1).toList();
-          var toSort = time(reading, () -> {
-            // merge all chunks into first one, and remove the others
-            var result = chunk.readAllAndMergeIn(others);
-            for (var other : others) {
-              other.remove();
-            }
-            return result;
-          });
-          readSemaphore.release();
-
-          time(sorting, toSort::sort);
-
-          writeSemaphore.acquire();
-          time(writing, toSort::flush);
-          writeSemaphore.release();
-
-          doneCounter.incrementAndGet();
-        } catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
-          throwFatalException(e);
-        }
-      });
+    // sorting is the only large consumer of memory left once other stages give theirs back to the budget, so
+    // use half of what is available to sort larger groups of chunks in parallel and leave the rest for overhead
+    int groupSizeLimit = chunkSizeLimit;
+    int sortWorkers = workers;
+    MemoryBudget.Reservation reservation = null;
+    if (memoryBudget != null) {
+      reservation = memoryBudget.reserveUpTo("sort", chunkSizeLimit, memoryBudget.available() / 2);
+      groupSizeLimit = (int) Math.clamp(reservation.bytes(), chunkSizeLimit, MAX_CHUNK_SIZE);
+      sortWorkers = Math.clamp(reservation.bytes() / groupSizeLimit, 1, maxWorkers);
+      LOGGER.info("Reserved {} to sort chunks in groups up to {}mb with {} workers",
+        Format.defaultInstance().storage(reservation.bytes()), groupSizeLimit / 1_000_000, sortWorkers);
+    }
+    try {
+      List<Chunk> unsorted = chunks.stream().filter(chunk -> !chunk.presorted).toList();
+      List<List<ExternalMergeSort.Chunk>> groups = BinPack.pack(
+        unsorted,
+        groupSizeLimit,
+        chunk -> chunk.bytesInMemory
+      );
+
+      if (unsorted.size() < chunks.size()) {
+        LOGGER.info("{} chunks were already sorted in the background", chunks.size() - unsorted.size());
+      }
+      LOGGER.info("Grouped {} chunks into {}", unsorted.size(), groups.size());
+
+      var pipeline = WorkerPipeline.start("sort", stats)
+        .readFromTiny("item_queue", groups)
+        .sinkToConsumer("worker", sortWorkers, group -> {
+          try {
+            readSemaphore.acquire();
+            var chunk = group.getFirst();
+            var others = group.stream().skip(1).toList();
+            var toSort = time(reading, () -> {
+              // merge all chunks into first one, and remove the others
+              var result = chunk.readAllAndMergeIn(others);
+              for (var other : others) {
+                other.remove();
+              }
+              return result;
+            });
+            readSemaphore.release();
+
+            time(sorting, toSort::sort);
+
+            writeSemaphore.acquire();
+            time(writing, toSort::flush);
+            writeSemaphore.release();
+
+            doneCounter.incrementAndGet();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throwFatalException(e);
+          }
+        });
 
-    ProgressLoggers loggers = ProgressLoggers.create()
-      .addPercentCounter("chunks", groups.size(), doneCounter)
-      .addFileSize(this)
-      .newLine()
-      .addProcessStats()
-      .newLine()
-      .addPipelineStats(pipeline);
+      ProgressLoggers loggers = ProgressLoggers.create()
+        .addPercentCounter("chunks", groups.size(), doneCounter)
+        .addFileSize(this)
+        .newLine()
+        .addProcessStats()
+        .newLine()
+        .addPipelineStats(pipeline);
 
-    pipeline.awaitAndLog(loggers, config.logInterval());
+      pipeline.awaitAndLog(loggers, config.logInterval());
+    } finally {
+      // give the memory back even if sorting fails
+      if (reservation != null) {
+        reservation.close();
+      }
+    }
 
     sorted = true;
     timer.stop();
@@ -226,6 +367,31 @@ class ExternalMergeSort implements FeatureSort {
       Duration.ofNanos(reading.get()).toSeconds(),
       Duration.ofNanos(writing.get()).toSeconds(),
       Duration.ofNanos(sorting.get()).toSeconds());
+    if (compression != Compression.NONE) {
+      LOGGER.info("Compressed {} of temp features to {} ({})",
+        Format.defaultInstance().storage(rawBytesWritten.get()),
+        Format.defaultInstance().storage(compressedBytesWritten.get()),
+        Format.defaultInstance().percent(compressionRatio()));
+    }
+  }
+
+  /** Returns the total size of compressed chunk files written so far over their uncompressed size. */
+  double compressionRatio() {
+    long raw = rawBytesWritten.get();
+    return raw == 0 ? 1 : compressedBytesWritten.get() * 1d / raw;
+  }
+
+  /** Returns the uncompressed size of all the sorted chunk files written so far. */
+  long rawBytesWritten() {
+    return rawBytesWritten.get();
+  }
+
+  /** Counts the size of a sorted chunk file once it has been written for the last time. */
+  private void countBytesWritten(Path path, long rawBytes) {
+    if (compression != Compression.NONE) {
+      rawBytesWritten.addAndGet(rawBytes);
+      compressedBytesWritten.addAndGet(FileUtils.size(path));
+    }
   }
 
   @Override
@@ -249,13 +415,45 @@ class ExternalMergeSort implements FeatureSort {
     for (int i = shard; i < chunks.size(); i += shards) {
       var chunk = chunks.get(i);
       if (chunk.itemCount > 0) {
-        iterators.add(chunk.newReader());
+        iterators.add(readAhead(chunk.newReader()));
       }
     }
 
     return LongMerger.mergeIterators(iterators, SortableFeature.COMPARE_BYTES);
   }
 
+  @Override
+  public long[] splitKeys(int ranges) {
+    assert sorted;
+    LongArrayList samples = new LongArrayList();
+    for (var chunk : chunks) {
+      samples.addAll(chunk.sparseIndex.keys);
+    }
+    long[] keys = samples.toArray();
+    Arrays.sort(keys);
+    return splitSortedKeys(keys, ranges);
+  }
+
+  @Override
+  public Iterator<SortableFeature> rangeIterator(long fromKey, long toKey) {
+    assert sorted;
+    // k-way merge of the part of each sorted chunk in the range, starting from the closest sampled key
+    List<Reader> iterators = new ArrayList<>();
+    for (var chunk : chunks) {
+      if (chunk.itemCount > 0 && chunk.sparseIndex.overlaps(fromKey, toKey)) {
+        var reader = chunk.newRangeReader(fromKey, toKey);
+        if (reader.hasNext()) {
+          iterators.add(readAhead(reader));
+        }
+      }
+    }
+    return LongMerger.mergeIterators(iterators, SortableFeature.COMPARE_BYTES);
+  }
+
+  private Reader readAhead(Reader reader) {
+    return readAhead ? new ReadAheadReader(reader) : reader;
+  }
+
   @Override
   public int chunksToRead() {
     return chunks.size();
@@ -265,6 +463,11 @@ class ExternalMergeSort implements FeatureSort {
     return chunks.size();
   }
 
+  /** Returns the number of full chunks that have been sorted in the background so far. */
+  int presortedChunks() {
+    return presortedChunks.get();
+  }
+
   private void tryMadviseSequential(ByteBuffer buffer) {
     try {
       ByteBufferUtil.posixMadvise(buffer, ByteBufferUtil.Madvice.SEQUENTIAL);
@@ -278,6 +481,9 @@ class ExternalMergeSort implements FeatureSort {
   private interface Writer extends Closeable {
 
     void write(SortableFeature feature) throws IOException;
+
+    /** Writes a feature whose value is the {@code length} bytes in {@code source} starting at {@code offset}. */
+    void write(long key, ByteBuffer source, int offset, int length) throws IOException;
   }
 
   private interface Reader extends Closeable, Iterator<SortableFeature> {
@@ -293,14 +499,16 @@ class ExternalMergeSort implements FeatureSort {
     private final DataInputStream input;
     private int read = 0;
 
-    ReaderBuffered(Path path, int count, boolean compress) {
+    ReaderBuffered(Path path, int count, boolean compress, int startRecord, long startOffset) {
       this.count = count;
+      this.read = startRecord;
       try {
         InputStream inputStream = new BufferedInputStream(Files.newInputStream(path));
         if (compress) {
           inputStream = new SnappyInputStream(inputStream);
         }
         input = new DataInputStream(inputStream);
+        input.skipNBytes(startOffset);
         next = readNextFeature();
       } catch (IOException e) {
         throw new UncheckedIOException(e);
@@ -338,6 +546,7 @@ class ExternalMergeSort implements FeatureSort {
   private static class WriterBuffered implements Writer {
 
     private final DataOutputStream out;
+    private byte[] scratch = new byte[0];
 
     WriterBuffered(Path path, boolean compress) {
       try {
@@ -362,6 +571,17 @@ class ExternalMergeSort implements FeatureSort {
       out.writeInt(feature.value().length);
       out.write(feature.value());
     }
+
+    @Override
+    public void write(long key, ByteBuffer source, int offset, int length) throws IOException {
+      if (scratch.length < length) {
+        scratch = new byte[Math.max(length, scratch.length * 2)];
+      }
+      source.get(offset, scratch, 0, length);
+      out.writeLong(key);
+      out.writeInt(length);
+      out.write(scratch, 0, length);
+    }
   }
 
   /** Common functionality between {@link ReaderMmap} and {@link ReaderBuffered}. */
@@ -422,6 +642,9 @@ class ExternalMergeSort implements FeatureSort {
       FileUtils.deleteOnExit(chunkPath);
       if (currentChunk != null) {
         currentChunk.close();
+        if (backgroundSorter != null) {
+          sortInBackground(currentChunk);
+        }
       }
       chunks.add(currentChunk = new Chunk(chunkPath));
     }
@@ -468,6 +691,14 @@ class ExternalMergeSort implements FeatureSort {
       buffer.putInt(feature.value().length);
       buffer.put(feature.value());
     }
+
+    @Override
+    public void write(long key, ByteBuffer source, int offset, int length) throws IOException {
+      buffer.putLong(key);
+      buffer.putInt(length);
+      buffer.put(buffer.position(), source, offset, length);
+      buffer.position(buffer.position() + length);
+    }
   }
 
   /**
@@ -476,10 +707,17 @@ class ExternalMergeSort implements FeatureSort {
   private class Chunk implements Closeable {
 
     private final Path path;
-    private final Writer writer;
+    // null once the chunk has been closed for writing
+    private Writer writer;
     // estimate how much RAM it would take to sort this chunk
     private int bytesInMemory = 0;
     private int itemCount = 0;
+    // size of the uncompressed chunk file
+    private long rawBytes = 0;
+    // set once a background thread has sorted this chunk
+    private volatile boolean presorted = false;
+    // set when the sorted chunk gets written back out
+    private SparseIndex sparseIndex = new SparseIndex();
 
     private Chunk(Path path) {
       this.path = path;
@@ -488,6 +726,13 @@ class ExternalMergeSort implements FeatureSort {
 
     public void add(SortableFeature entry) throws IOException {
       writer.write(entry);
+      itemCount++;
+      rawBytes += RECORD_HEADER_BYTES + entry.value().length;
+      if (radixSort) {
+        // the raw record in one buffer, plus a key and offset in the sort array and its scratch copy
+        bytesInMemory += RECORD_HEADER_BYTES + entry.value().length + 4 * Long.BYTES;
+        return;
+      }
       bytesInMemory +=
         // pointer to feature
         8 +
@@ -499,13 +744,13 @@ class ExternalMergeSort implements FeatureSort {
           8 +
           // byte array size
           24 + entry.value().length;
-      itemCount++;
     }
 
-    private SortableChunk readAllAndMergeIn(Collection<Chunk> others) {
+    private Sortable readAllAndMergeIn(Collection<Chunk> others) {
       // first, grow this chunk
       int newItems = itemCount;
       int newBytes = bytesInMemory;
+      long newRawBytes = rawBytes;
       for (var other : others) {
         if (Integer.MAX_VALUE - newItems < other.itemCount) {
           throw new IllegalStateException("Too many items in merged chunk: " + itemCount + "+" +
@@ -517,12 +762,28 @@ class ExternalMergeSort implements FeatureSort {
         }
         newItems += other.itemCount;
         newBytes += other.bytesInMemory;
+        newRawBytes += other.rawBytes;
       }
       // then read items from all chunks into memory
+      if (radixSort) {
+        if (newRawBytes > Integer.MAX_VALUE) {
+          throw new IllegalStateException("Too big merged chunk: " + newRawBytes + " bytes");
+        }
+        RadixSortableChunk result = new RadixSortableChunk(newItems, (int) newRawBytes);
+        result.readAll(this);
+        for (var other : others) {
+          result.readAll(other);
+        }
+        itemCount = newItems;
+        bytesInMemory = newBytes;
+        rawBytes = newRawBytes;
+        return result;
+      }
       SortableChunk result = new SortableChunk(newItems);
       result.readAll(this);
       itemCount = newItems;
       bytesInMemory = newBytes;
+      rawBytes = newRawBytes;
       for (var other : others) {
         result.readAll(other);
       }
@@ -533,16 +794,41 @@ class ExternalMergeSort implements FeatureSort {
     }
 
     private Writer newWriter(Path path) {
-      return mmapIO ? new WriterMmap(path) : new WriterBuffered(path, compress);
+      if (compression.blocks()) {
+        return new WriterBlocks(path);
+      }
+      return mmapIO ? new WriterMmap(path) : new WriterBuffered(path, compression == Compression.SNAPPY);
     }
 
     private Reader newReader() {
-      return mmapIO ? new ReaderMmap(path, itemCount) : new ReaderBuffered(path, itemCount, compress);
+      return newReader(0, 0);
     }
 
+    /** Returns a reader that starts at record number {@code startRecord}, {@code startOffset} uncompressed bytes in. */
+    private Reader newReader(int startRecord, long startOffset) {
+      if (compression.blocks()) {
+        return new ReaderBlocks(path, itemCount, startRecord, startOffset);
+      }
+      return mmapIO ? new ReaderMmap(path, itemCount, startRecord, startOffset) :
+        new ReaderBuffered(path, itemCount, compression == Compression.SNAPPY, startRecord, startOffset);
+    }
+
+    /** Returns a reader over records with keys from {@code fromKey} (inclusive) to {@code toKey} (exclusive). */
+    private Reader newRangeReader(long fromKey, long toKey) {
+      int sample = sparseIndex.lastSampleBefore(fromKey);
+      Reader reader = sample < 0 ? newReader() :
+        newReader(sparseIndex.records.get(sample), sparseIndex.offsets.get(sample));
+      return new RangeReader(reader, fromKey, toKey);
+    }
+
+    /** Closes the writer for this chunk, if it has not been closed already. */
     @Override
     public void close() throws IOException {
-      writer.close();
+      if (writer != null) {
+        var toClose = writer;
+        writer = null;
+        toClose.close();
+      }
     }
 
     public void remove() {
@@ -553,7 +839,7 @@ class ExternalMergeSort implements FeatureSort {
     /**
      * A container for all features in a chunk read into memory for sorting.
      */
-    private class SortableChunk {
+    private class SortableChunk implements Sortable {
 
       private SortableFeature[] featuresToSort;
       private int i = 0;
@@ -562,6 +848,7 @@ class ExternalMergeSort implements FeatureSort {
         this.featuresToSort = new SortableFeature[itemCount];
       }
 
+      @Override
       public SortableChunk sort() {
         if (parallelSort) {
           Arrays.parallelSort(featuresToSort);
@@ -571,16 +858,21 @@ class ExternalMergeSort implements FeatureSort {
         return this;
       }
 
+      @Override
       public SortableChunk flush() {
+        SparseIndex index = new SparseIndex();
         try (Writer out = newWriter(path)) {
           for (SortableFeature feature : featuresToSort) {
+            index.add(feature.key(), feature.value().length);
             out.write(feature);
           }
+          sparseIndex = index;
           featuresToSort = null;
-          return this;
         } catch (IOException e) {
           throw new UncheckedIOException(e);
         }
+        countBytesWritten(path, rawBytes);
+        return this;
       }
 
       private void readAll(Chunk chunk) {
@@ -591,6 +883,210 @@ class ExternalMergeSort implements FeatureSort {
         }
       }
     }
+
+    /**
+     * A container that reads the raw records from all chunks in a group into one off-heap buffer, and sorts an array of
+     * their keys and offsets instead of a {@link SortableFeature} object per record.
+     * <p>
+     * Keys get sorted with a least-significant-digit radix sort, then runs of records with the same key are sorted by
+     * their value bytes to match {@link SortableFeature#compareTo(SortableFeature)}.
+     */
+    private class RadixSortableChunk implements Sortable {
+
+      private ByteBuffer buffer;
+      // key of each record at 2*i, and its offset in buffer at 2*i+1
+      private long[] pairs;
+      private int i = 0;
+
+      private RadixSortableChunk(int itemCount, int rawBytes) {
+        this.buffer = ByteBuffer.allocateDirect(rawBytes);
+        this.pairs = new long[itemCount * 2];
+      }
+
+      private void readAll(Chunk chunk) {
+        int start = buffer.position();
+        try {
+          if (compression.blocks()) {
+            try (var blocks = new BlockFileReader(chunk.path)) {
+              for (int block = 0; block < blocks.blocks(); block++) {
+                blocks.decompress(block, buffer);
+              }
+            }
+          } else if (compression == Compression.SNAPPY) {
+            try (var input = new SnappyInputStream(new BufferedInputStream(Files.newInputStream(chunk.path)))) {
+              byte[] bytes = new byte[50_000];
+              int read;
+              while ((read = input.read(bytes)) > 0) {
+                buffer.put(bytes, 0, read);
+              }
+            }
+          } else {
+            try (var channel = FileChannel.open(chunk.path, StandardOpenOption.READ)) {
+              while (channel.read(buffer) > 0) {
+                // keep reading until the end of the file
+              }
+            }
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        int end = buffer.position();
+        for (int offset = start; offset < end; i++) {
+          pairs[i * 2] = buffer.getLong(offset);
+          pairs[i * 2 + 1] = offset;
+          offset += RECORD_HEADER_BYTES + buffer.getInt(offset + Long.BYTES);
+        }
+      }
+
+      @Override
+      public RadixSortableChunk sort() {
+        if (i * 2 != pairs.length) {
+          throw new IllegalStateException("Expected " + pairs.length / 2 + " features in " + path + " got " + i);
+        }
+        radixSortPairs(pairs);
+        // break ties between records with the same key by comparing their values
+        int n = pairs.length / 2;
+        for (int start = 0; start < n; ) {
+          int end = start + 1;
+          while (end < n && pairs[end * 2] == pairs[start * 2]) {
+            end++;
+          }
+          if (end - start > 1) {
+            sortRunByValue(start, end);
+          }
+          start = end;
+        }
+        return this;
+      }
+
+      private void sortRunByValue(int start, int end) {
+        int length = end - start;
+        if (length <= 16) {
+          // most runs are short, so sort the offsets in place
+          for (int j = start + 1; j < end; j++) {
+            long offset = pairs[j * 2 + 1];
+            int k = j - 1;
+            while (k >= start && compareValues((int) pairs[k * 2 + 1], (int) offset) > 0) {
+              pairs[k * 2 + 3] = pairs[k * 2 + 1];
+              k--;
+            }
+            pairs[k * 2 + 3] = offset;
+          }
+        } else {
+          int[] order = IndirectSort.mergesort(start, length,
+            (a, b) -> compareValues((int) pairs[a * 2 + 1], (int) pairs[b * 2 + 1]));
+          long[] offsets = new long[length];
+          for (int j = 0; j < length; j++) {
+            offsets[j] = pairs[order[j] * 2 + 1];
+          }
+          for (int j = 0; j < length; j++) {
+            pairs[(start + j) * 2 + 1] = offsets[j];
+          }
+        }
+      }
+
+      private int compareValues(int a, int b) {
+        int lengthA = buffer.getInt(a + Long.BYTES), lengthB = buffer.getInt(b + Long.BYTES);
+        int length = Math.min(lengthA, lengthB);
+        a += RECORD_HEADER_BYTES;
+        b += RECORD_HEADER_BYTES;
+        int j = 0;
+        // the buffer is big-endian, so comparing 8 bytes as an unsigned long matches comparing them one at a time
+        for (; j + Long.BYTES <= length; j += Long.BYTES) {
+          long valueA = buffer.getLong(a + j), valueB = buffer.getLong(b + j);
+          if (valueA != valueB) {
+            return Long.compareUnsigned(valueA, valueB);
+          }
+        }
+        for (; j < length; j++) {
+          byte valueA = buffer.get(a + j), valueB = buffer.get(b + j);
+          if (valueA != valueB) {
+            return Byte.compareUnsigned(valueA, valueB);
+          }
+        }
+        return Integer.compare(lengthA, lengthB);
+      }
+
+      @Override
+      public RadixSortableChunk flush() {
+        SparseIndex index = new SparseIndex();
+        try (Writer out = newWriter(path)) {
+          for (int j = 0; j < pairs.length; j += 2) {
+            int offset = (int) pairs[j + 1];
+            int length = buffer.getInt(offset + Long.BYTES);
+            index.add(pairs[j], length);
+            out.write(pairs[j], buffer, offset + RECORD_HEADER_BYTES, length);
+          }
+          sparseIndex = index;
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        } finally {
+          pairs = null;
+          try {
+            ByteBufferUtil.free(buffer);
+          } catch (IOException e) {
+            LOGGER.info("Unable to free sort buffer", e);
+          }
+          buffer = null;
+        }
+        countBytesWritten(path, rawBytes);
+        return this;
+      }
+    }
+  }
+
+  /**
+   * Sorts {@code (key, value)} pairs stored at {@code 2*i} and {@code 2*i+1} by signed key using a
+   * least-significant-digit radix sort, 8 bits at a time. The sort is stable, and passes where every key has the same
+   * digit get skipped.
+   */
+  static void radixSortPairs(long[] pairs) {
+    int n = pairs.length / 2;
+    if (n < 2) {
+      return;
+    }
+    long[] from = pairs;
+    long[] to = new long[pairs.length];
+    int[] counts = new int[256];
+    for (int shift = 0; shift < Long.SIZE; shift += 8) {
+      Arrays.fill(counts, 0);
+      for (int j = 0; j < n; j++) {
+        counts[digit(from[j * 2], shift)]++;
+      }
+      if (counts[digit(from[0], shift)] == n) {
+        continue;
+      }
+      int total = 0;
+      for (int d = 0; d < 256; d++) {
+        int count = counts[d];
+        counts[d] = total;
+        total += count;
+      }
+      for (int j = 0; j < n; j++) {
+        int dest = counts[digit(from[j * 2], shift)]++ * 2;
+        to[dest] = from[j * 2];
+        to[dest + 1] = from[j * 2 + 1];
+      }
+      long[] tmp = from;
+      from = to;
+      to = tmp;
+    }
+    if (from != pairs) {
+      System.arraycopy(from, 0, pairs, 0, pairs.length);
+    }
+  }
+
+  private static int digit(long key, int shift) {
+    // flip the sign bit so negative keys sort first
+    return (int) (((key ^ Long.MIN_VALUE) >>> shift) & 0xFF);
+  }
+
+  /** Chunk contents read into memory that can be sorted then written back out. */
+  private interface Sortable {
+
+    Sortable sort();
+
+    Sortable flush();
   }
 
   /** Memory-map the chunk file, then iterate through all features in it. */
@@ -601,8 +1097,9 @@ class ExternalMergeSort implements FeatureSort {
     private final MappedByteBuffer buffer;
     private int read = 0;
 
-    ReaderMmap(Path path, int count) {
+    ReaderMmap(Path path, int count, int startRecord, long startOffset) {
       this.count = count;
+      this.read = startRecord;
       try {
         channel = FileChannel.open(path, StandardOpenOption.READ);
         buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
@@ -610,6 +1107,7 @@ class ExternalMergeSort implements FeatureSort {
           // give the OS a hint that pages will be read sequentially so it can read-ahead and drop as soon as we're done
           tryMadviseSequential(buffer);
         }
+        buffer.position((int) startOffset);
         next = readNextFeature();
       } catch (IOException e) {
         throw new UncheckedIOException(e);
@@ -644,4 +1142,476 @@ class ExternalMergeSort implements FeatureSort {
       }
     }
   }
+
+  /** How chunk files get compressed. */
+  enum Compression {
+    NONE,
+    /** Compress the whole file as one stream, which needs to be read sequentially through an input stream. */
+    SNAPPY,
+    /** Compress fixed-size blocks independently so they can be read through a memory-mapped file. */
+    LZ4,
+    ZSTD;
+
+    static Compression from(boolean compress, String codec) {
+      if (!compress) {
+        return NONE;
+      }
+      return switch (codec.toLowerCase(Locale.ROOT)) {
+        case "snappy" -> SNAPPY;
+        case "lz4" -> LZ4;
+        case "zstd" -> ZSTD;
+        default -> throw new IllegalArgumentException("Unknown compress_temp_codec: " + codec);
+      };
+    }
+
+    boolean blocks() {
+      return this == LZ4 || this == ZSTD;
+    }
+
+    Compressor newCompressor() {
+      return this == ZSTD ? new ZstdCompressor() : new Lz4Compressor();
+    }
+
+    Decompressor newDecompressor() {
+      return this == ZSTD ? new ZstdDecompressor() : new Lz4Decompressor();
+    }
+  }
+
+  /**
+   * Write features to a chunk file as blocks of up to {@link #TEMP_BLOCK_SIZE} uncompressed bytes that each get
+   * compressed independently, followed by an index of where each block starts and the number of blocks.
+   * <p>
+   * Records never span blocks, so a record larger than the block size gets a block of its own.
+   */
+  private class WriterBlocks implements Writer {
+
+    private final FileChannel channel;
+    private final Compressor compressor = compression.newCompressor();
+    // file offset of each block at 2*i, and its uncompressed and compressed lengths packed into 2*i+1
+    private final LongArrayList index = new LongArrayList();
+    private ByteBuffer block = ByteBuffer.allocate(TEMP_BLOCK_SIZE);
+    private byte[] compressed = new byte[0];
+    private long position = 0;
+
+    WriterBlocks(Path path) {
+      try {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    public void write(SortableFeature feature) throws IOException {
+      ensureSpace(RECORD_HEADER_BYTES + feature.value().length);
+      block.putLong(feature.key());
+      block.putInt(feature.value().length);
+      block.put(feature.value());
+    }
+
+    @Override
+    public void write(long key, ByteBuffer source, int offset, int length) throws IOException {
+      ensureSpace(RECORD_HEADER_BYTES + length);
+      block.putLong(key);
+      block.putInt(length);
+      block.put(block.position(), source, offset, length);
+      block.position(block.position() + length);
+    }
+
+    private void ensureSpace(int bytes) throws IOException {
+      if (block.remaining() < bytes) {
+        flushBlock();
+        if (block.capacity() < bytes) {
+          block = ByteBuffer.allocate(bytes);
+        }
+      }
+    }
+
+    private void flushBlock() throws IOException {
+      int rawLength = block.position();
+      if (rawLength == 0) {
+        return;
+      }
+      int maxLength = compressor.maxCompressedLength(rawLength);
+      if (compressed.length < maxLength) {
+        compressed = new byte[maxLength];
+      }
+      int compressedLength = compressor.compress(block.array(), 0, rawLength, compressed, 0, maxLength);
+      writeFully(ByteBuffer.wrap(compressed, 0, compressedLength));
+      index.add(position, ((long) rawLength << 32) | compressedLength);
+      position += compressedLength;
+      block.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!channel.isOpen()) {
+        return;
+      }
+      flushBlock();
+      int blocks = index.size() / 2;
+      ByteBuffer footer = ByteBuffer.allocate(blocks * BLOCK_INDEX_ENTRY_BYTES + Integer.BYTES);
+      for (int i = 0; i < blocks; i++) {
+        long lengths = index.get(i * 2 + 1);
+        footer.putLong(index.get(i * 2));
+        footer.putInt((int) (lengths >>> 32));
+        footer.putInt((int) lengths);
+      }
+      footer.putInt(blocks);
+      writeFully(footer.flip());
+      channel.close();
+    }
+  }
+
+  /**
+   * Reads the block index from the end of a chunk file written by {@link WriterBlocks}, then decompresses blocks from a
+   * memory-mapped copy of the file if {@code --mmap-temp} is set, otherwise by reading them through a file channel.
+   */
+  private class BlockFileReader implements Closeable {
+
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+    private final Decompressor decompressor = compression.newDecompressor();
+    private final long[] offsets;
+    // offset of each block in the uncompressed chunk
+    private final long[] rawOffsets;
+    private final int[] rawLengths;
+    private final int[] compressedLengths;
+    private ByteBuffer scratch = ByteBuffer.allocate(0);
+
+    BlockFileReader(Path path) throws IOException {
+      channel = FileChannel.open(path, StandardOpenOption.READ);
+      long size = channel.size();
+      int blocks = readFully(size - Integer.BYTES, Integer.BYTES).getInt();
+      long indexStart = size - Integer.BYTES - (long) blocks * BLOCK_INDEX_ENTRY_BYTES;
+      ByteBuffer index = readFully(indexStart, blocks * BLOCK_INDEX_ENTRY_BYTES);
+      offsets = new long[blocks];
+      rawOffsets = new long[blocks];
+      rawLengths = new int[blocks];
+      compressedLengths = new int[blocks];
+      long rawOffset = 0;
+      for (int i = 0; i < blocks; i++) {
+        offsets[i] = index.getLong();
+        rawOffsets[i] = rawOffset;
+        rawLengths[i] = index.getInt();
+        compressedLengths[i] = index.getInt();
+        rawOffset += rawLengths[i];
+      }
+      if (mmapIO && blocks > 0) {
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, indexStart);
+        if (madvise) {
+          tryMadviseSequential(mapped);
+        }
+      } else {
+        mapped = null;
+      }
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+      if (scratch.capacity() < length) {
+        scratch = ByteBuffer.allocate(Math.max(length, scratch.capacity() * 2));
+      }
+      ByteBuffer result = scratch.clear().limit(length);
+      while (result.hasRemaining()) {
+        if (channel.read(result, position + result.position()) < 0) {
+          throw new IOException("Unexpected end of chunk file");
+        }
+      }
+      return result.flip();
+    }
+
+    int blocks() {
+      return offsets.length;
+    }
+
+    int rawLength(int block) {
+      return rawLengths[block];
+    }
+
+    long rawOffset(int block) {
+      return rawOffsets[block];
+    }
+
+    /** Returns the block that contains the byte {@code rawOffset} bytes into the uncompressed chunk. */
+    int blockContaining(long rawOffset) {
+      int index = Arrays.binarySearch(rawOffsets, rawOffset);
+      return index >= 0 ? index : -index - 2;
+    }
+
+    /** Decompresses {@code block} into {@code dest} starting at its current position, and advances the position. */
+    void decompress(int block, ByteBuffer dest) throws IOException {
+      ByteBuffer source = mapped != null ? mapped.slice((int) offsets[block], compressedLengths[block]) :
+        readFully(offsets[block], compressedLengths[block]);
+      int start = dest.position();
+      decompressor.decompress(source, dest);
+      if (dest.position() - start != rawLengths[block]) {
+        throw new IOException(
+          "Expected " + rawLengths[block] + " bytes in block " + block + " got " + (dest.position() - start));
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!channel.isOpen()) {
+        return;
+      }
+      if (mapped != null) {
+        ByteBufferUtil.free(mapped);
+      }
+      channel.close();
+    }
+  }
+
+  /** Decompress each block of a chunk file written by {@link WriterBlocks}, then iterate through features in it. */
+  private class ReaderBlocks extends BaseReader {
+
+    private final int count;
+    private final BlockFileReader blocks;
+    private ByteBuffer block = ByteBuffer.allocate(0);
+    private int nextBlock = 0;
+    private int read = 0;
+
+    ReaderBlocks(Path path, int count, int startRecord, long startOffset) {
+      this.count = count;
+      this.read = startRecord;
+      try {
+        blocks = new BlockFileReader(path);
+        if (startOffset > 0) {
+          nextBlock = blocks.blockContaining(startOffset);
+          readBlock();
+          block.position((int) (startOffset - blocks.rawOffset(nextBlock - 1)));
+        }
+        next = readNextFeature();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    SortableFeature readNextFeature() {
+      if (read >= count) {
+        return null;
+      }
+      try {
+        if (!block.hasRemaining()) {
+          readBlock();
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      long nextSort = block.getLong();
+      int length = block.getInt();
+      byte[] bytes = new byte[length];
+      block.get(bytes);
+      read++;
+      return new SortableFeature(nextSort, bytes);
+    }
+
+    private void readBlock() throws IOException {
+      int rawLength = blocks.rawLength(nextBlock);
+      if (block.capacity() < rawLength) {
+        block = ByteBuffer.allocate(rawLength);
+      }
+      block.clear();
+      blocks.decompress(nextBlock++, block);
+      block.flip();
+    }
+
+    @Override
+    public void close() {
+      try {
+        blocks.close();
+      } catch (IOException e) {
+        LOGGER.warn("Error closing chunk", e);
+      }
+    }
+  }
+
+  /** Returns {@code ranges - 1} keys at even intervals through {@code sortedKeys}, without duplicates. */
+  static long[] splitSortedKeys(long[] sortedKeys, int ranges) {
+    LongArrayList result = new LongArrayList();
+    for (int i = 1; i < ranges && sortedKeys.length > 0; i++) {
+      long key = sortedKeys[(int) ((long) sortedKeys.length * i / ranges)];
+      if (result.isEmpty() || key > result.get(result.size() - 1)) {
+        result.add(key);
+      }
+    }
+    return result.toArray();
+  }
+
+  /**
+   * The key, record number, and uncompressed offset of every {@link #SPARSE_INDEX_INTERVAL}-th record in a sorted chunk
+   * file, so that readers can start near the first record in a range of keys instead of at the beginning of the file.
+   */
+  private static class SparseIndex {
+
+    private final LongArrayList keys = new LongArrayList();
+    private final IntArrayList records = new IntArrayList();
+    private final LongArrayList offsets = new LongArrayList();
+    private long lastKey = Long.MIN_VALUE;
+    private int count = 0;
+    private long offset = 0;
+
+    /** Records that the next record written to the chunk has {@code key} and a {@code length}-byte value. */
+    void add(long key, int length) {
+      if (count % SPARSE_INDEX_INTERVAL == 0) {
+        keys.add(key);
+        records.add(count);
+        offsets.add(offset);
+      }
+      lastKey = key;
+      count++;
+      offset += RECORD_HEADER_BYTES + length;
+    }
+
+    /** Returns false if no record in the chunk can have a key from {@code fromKey} (inclusive) to {@code toKey}. */
+    boolean overlaps(long fromKey, long toKey) {
+      return keys.isEmpty() || (keys.get(0) < toKey && lastKey >= fromKey);
+    }
+
+    /** Returns the last sample with a key less than {@code key}, or -1 if there are none. */
+    int lastSampleBefore(long key) {
+      int lo = 0, hi = keys.size();
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (keys.get(mid) < key) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo - 1;
+    }
+  }
+
+  /** Iterate through features from {@code reader} with keys from {@code fromKey} (inclusive) to {@code toKey}. */
+  private static class RangeReader extends BaseReader {
+
+    private final Reader reader;
+    private final long fromKey;
+    private final long toKey;
+    private boolean closed = false;
+
+    RangeReader(Reader reader, long fromKey, long toKey) {
+      this.reader = reader;
+      this.fromKey = fromKey;
+      this.toKey = toKey;
+      if ((next = readNextFeature()) == null) {
+        close();
+      }
+    }
+
+    @Override
+    SortableFeature readNextFeature() {
+      while (reader.hasNext()) {
+        SortableFeature feature = reader.next();
+        if (feature.key() >= toKey) {
+          return null;
+        } else if (feature.key() >= fromKey) {
+          return feature;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public void close() {
+      // the underlying reader closes itself once it runs out of features
+      if (!closed) {
+        closed = true;
+        if (reader.hasNext()) {
+          reader.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Decodes features from {@code reader} in batches on a virtual thread, so the merging thread only needs to pick
+   * features out of an array. The two batch arrays get reused, one is filled while the other is read.
+   */
+  private static class ReadAheadReader extends BaseReader {
+
+    private static final SortableFeature[] DONE = new SortableFeature[0];
+    // both batches, plus the DONE marker
+    private final BlockingQueue<SortableFeature[]> full = new ArrayBlockingQueue<>(3);
+    private final BlockingQueue<SortableFeature[]> empty = new ArrayBlockingQueue<>(2);
+    private final Thread thread;
+    private volatile Throwable error = null;
+    private SortableFeature[] batch = null;
+    private int position = 0;
+    private boolean closed = false;
+
+    ReadAheadReader(Reader reader) {
+      empty.add(new SortableFeature[READ_AHEAD_BATCH_SIZE]);
+      empty.add(new SortableFeature[READ_AHEAD_BATCH_SIZE]);
+      thread = Thread.ofVirtual().name("sort_read_ahead").start(() -> readAhead(reader));
+      if ((next = readNextFeature()) == null) {
+        close();
+      }
+    }
+
+    private void readAhead(Reader reader) {
+      try {
+        while (reader.hasNext()) {
+          SortableFeature[] buffer = empty.take();
+          int n = 0;
+          // features get cleared as they are read, so the rest of a partially filled batch is null
+          while (n < buffer.length && reader.hasNext()) {
+            buffer[n++] = reader.next();
+          }
+          full.put(buffer);
+        }
+      } catch (InterruptedException e) {
+        // the merging thread stopped reading early
+        return;
+      } catch (Throwable e) { // NOSONAR
+        error = e;
+      } finally {
+        // the reader closes itself once it runs out of features
+        if (reader.hasNext()) {
+          reader.close();
+        }
+      }
+      full.add(DONE);
+    }
+
+    @Override
+    SortableFeature readNextFeature() {
+      while (batch == null || position >= batch.length || batch[position] == null) {
+        if (batch == DONE) {
+          if (error != null) {
+            throwFatalException(error);
+          }
+          return null;
+        } else if (batch != null) {
+          empty.add(batch);
+        }
+        try {
+          batch = full.take();
+        } catch (InterruptedException e) {
+          throwFatalException(e);
+        }
+        position = 0;
+      }
+      SortableFeature result = batch[position];
+      batch[position++] = null;
+      return result;
+    }
+
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        thread.interrupt();
+      }
+    }
+  }
 }
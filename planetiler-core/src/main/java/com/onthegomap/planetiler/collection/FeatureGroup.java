@@ -2,6 +2,9 @@ package com.onthegomap.planetiler.collection;
 
 import static com.onthegomap.planetiler.util.MutableCollections.makeMutable;
 
+import com.carrotsearch.hppc.BitMixer;
+import com.carrotsearch.hppc.ByteArrayList;
+import com.carrotsearch.hppc.LongArrayList;
 import com.carrotsearch.hppc.LongLongHashMap;
 import com.onthegomap.planetiler.Profile;
 import com.onthegomap.planetiler.VectorTile;
@@ -15,10 +18,15 @@ import com.onthegomap.planetiler.stats.Stats;
 import com.onthegomap.planetiler.util.CloseableConsumer;
 import com.onthegomap.planetiler.util.CommonStringEncoder;
 import com.onthegomap.planetiler.util.DiskBacked;
+import com.onthegomap.planetiler.util.Format;
+import com.onthegomap.planetiler.util.Hashing;
 import com.onthegomap.planetiler.util.LayerAttrStats;
+import com.onthegomap.planetiler.util.MemoryBudget;
+import com.onthegomap.planetiler.util.VarInt;
 import com.onthegomap.planetiler.worker.Worker;
 import java.io.Closeable;
-import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -27,16 +35,13 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
 import javax.annotation.concurrent.NotThreadSafe;
-import org.msgpack.core.MessageBufferPacker;
-import org.msgpack.core.MessagePack;
-import org.msgpack.core.MessageUnpacker;
-import org.msgpack.value.Value;
-import org.msgpack.value.ValueFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,6 +52,23 @@ import org.slf4j.LoggerFactory;
  * <p>
  * Limitation: layer name and attribute key strings get compressed into a single byte, so only 250 unique values are
  * supported (see {@link CommonStringEncoder})
+ * <p>
+ * Each feature value gets stored as:
+ * <ul>
+ * <li>group ID and limit as varints, only if the key says it has a group</li>
+ * <li>feature ID as a zigzag varint</li>
+ * <li>one byte with the geometry type and scale</li>
+ * <li>a 4-byte hash of the attribute keys and values, or 0 if there are no attributes</li>
+ * <li>the length in bytes of the attributes, then each attribute as a varint with the dictionary ID of its key and the
+ * type of its value, followed by the value - or for short string values, the ID of the value in an
+ * {@link AttributeValueDictionary}</li>
+ * <li>the number of geometry commands, then each command as a varint until the end of the value - parameters of
+ * vector tile geometry commands are already zigzag encoded</li>
+ * </ul>
+ * Attributes come before the geometry so that ties between features with the same key get broken by ID, geometry
+ * type, then attributes (features without attributes first), and only then by geometry. Key and value IDs depend on
+ * the order threads first see them, so the hash of the decoded attributes goes first to keep that order the same
+ * between runs.
  */
 @NotThreadSafe
 public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>, DiskBacked {
@@ -56,14 +78,31 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
   public static final int SORT_KEY_MIN = -(1 << (SORT_KEY_BITS - 1));
   private static final int SORT_KEY_MASK = (1 << SORT_KEY_BITS) - 1;
   private static final Logger LOGGER = LoggerFactory.getLogger(FeatureGroup.class);
+  // attribute value types, stored in the low bits of the varint with the attribute key ID
+  private static final int VALUE_TYPE_BITS = 3;
+  private static final int VALUE_TYPE_MASK = (1 << VALUE_TYPE_BITS) - 1;
+  private static final int VALUE_STRING = 0;
+  private static final int VALUE_STRING_REF = 1;
+  private static final int VALUE_LONG = 2;
+  private static final int VALUE_FLOAT = 3;
+  private static final int VALUE_DOUBLE = 4;
+  private static final int VALUE_TRUE = 5;
+  private static final int VALUE_FALSE = 6;
+  // only short string values go in the dictionary since those are the ones that tend to repeat (i.e. class=primary)
+  private static final int MAX_DICTIONARY_VALUE_LENGTH = 32;
+  private static final int MAX_DICTIONARY_VALUES = 100_000;
   private final FeatureSort sorter;
   private final Profile profile;
   private final CommonStringEncoder.AsByte commonLayerStrings = new CommonStringEncoder.AsByte();
   private final CommonStringEncoder commonValueStrings = new CommonStringEncoder(100_000);
+  private final AttributeValueDictionary attrValueDictionary =
+    new AttributeValueDictionary(MAX_DICTIONARY_VALUES, MAX_DICTIONARY_VALUE_LENGTH);
   private final Stats stats;
   private final PlanetilerConfig config;
   private volatile boolean prepared = false;
   private final TileOrder tileOrder;
+  // when the profile doesn't post-process features, decode them straight into vector tiles
+  private boolean postProcessFeatures = true;
 
 
   FeatureGroup(FeatureSort sorter, TileOrder tileOrder, Profile profile, PlanetilerConfig config, Stats stats) {
@@ -72,6 +111,27 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
     this.profile = profile;
     this.config = config;
     this.stats = stats;
+    stats.counter("feature_attr_values_from_dictionary", "layer", () -> countsByLayer(attrValueDictionary::hits));
+    stats.counter("feature_attr_values_inline", "layer", () -> countsByLayer(attrValueDictionary::misses));
+  }
+
+  private Map<String, LongSupplier> countsByLayer(ToLongFunction<Byte> counts) {
+    Map<String, LongSupplier> result = new TreeMap<>();
+    for (byte layer : usedLayers()) {
+      result.put(commonLayerStrings.decode(layer), () -> counts.applyAsLong(layer));
+    }
+    return result;
+  }
+
+  private List<Byte> usedLayers() {
+    List<Byte> result = new ArrayList<>();
+    for (int i = 0; i < 256; i++) {
+      byte layer = (byte) i;
+      if (attrValueDictionary.hits(layer) + attrValueDictionary.misses(layer) > 0) {
+        result.add(layer);
+      }
+    }
+    return result;
   }
 
   /** Returns a feature grouper that stores all feature in-memory. Only suitable for toy use-cases like unit tests. */
@@ -87,8 +147,17 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
    */
   public static FeatureGroup newDiskBackedFeatureGroup(TileOrder tileOrder, Path tempDir, Profile profile,
     PlanetilerConfig config, Stats stats) {
+    return newDiskBackedFeatureGroup(tileOrder, tempDir, profile, config, stats, MemoryBudget.forJvm());
+  }
+
+  /**
+   * Alias for {@link #newDiskBackedFeatureGroup(TileOrder, Path, Profile, PlanetilerConfig, Stats)} that sizes the
+   * chunks to sort in memory from what is available in {@code memoryBudget}.
+   */
+  public static FeatureGroup newDiskBackedFeatureGroup(TileOrder tileOrder, Path tempDir, Profile profile,
+    PlanetilerConfig config, Stats stats, MemoryBudget memoryBudget) {
     return new FeatureGroup(
-      new ExternalMergeSort(tempDir, config, stats),
+      new ExternalMergeSort(tempDir, config, stats, memoryBudget),
       tileOrder, profile, config, stats
     );
   }
@@ -119,13 +188,18 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
   }
 
   private static RenderedFeature.Group peekAtGroupInfo(byte[] encoded) {
-    try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(encoded)) {
-      long group = unpacker.unpackLong();
-      int limit = unpacker.unpackInt();
-      return new RenderedFeature.Group(group, limit);
-    } catch (IOException e) {
-      throw new IllegalStateException(e);
-    }
+    ByteBuffer buffer = ByteBuffer.wrap(encoded);
+    long group = zigZagDecode(VarInt.getVarLong(buffer));
+    int limit = (int) zigZagDecode(VarInt.getVarLong(buffer));
+    return new RenderedFeature.Group(group, limit);
+  }
+
+  private static long zigZagEncode(long n) {
+    return (n << 1) ^ (n >> 63);
+  }
+
+  private static long zigZagDecode(long n) {
+    return (n >>> 1) ^ -(n & 1);
   }
 
   static GeometryType decodeGeomType(byte geomTypeAndScale) {
@@ -150,8 +224,9 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
   public RenderedFeatureEncoder newRenderedFeatureEncoder() {
     return new RenderedFeatureEncoder() {
       // This method gets called billions of times when generating the planet, so these optimizations make a big difference:
-      // 1) Re-use the same buffer packer to avoid allocating and resizing new byte arrays for every feature.
-      private final MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+      // 1) Re-use the same buffer to avoid allocating and resizing new byte arrays for every feature.
+      private final ByteArrayList buffer = new ByteArrayList();
+      private final ByteArrayList attrBuffer = new ByteArrayList();
       // 2) Avoid re-encoding values for identical filled geometries (i.e. ocean) by memoizing the encoded values
       // FeatureRenderer ensures that a separate VectorTileEncoder.Feature is used for each zoom level
       private VectorTile.Feature lastFeature = null;
@@ -163,20 +238,21 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
         var thisFeature = feature.vectorTileFeature();
         byte[] encodedValue;
         if (group != null) { // don't bother memoizing if group is present
-          encodedValue = encodeValue(thisFeature, group, packer);
+          encodedValue = encodeValue(thisFeature, group, buffer, attrBuffer);
         } else if (lastFeature == thisFeature) {
           encodedValue = lastEncodedValue;
         } else { // feature changed, memoize new value
           lastFeature = thisFeature;
-          lastEncodedValue = encodedValue = encodeValue(feature.vectorTileFeature(), null, packer);
+          lastEncodedValue = encodedValue = encodeValue(feature.vectorTileFeature(), null, buffer, attrBuffer);
         }
 
         return new SortableFeature(encodeKey(feature), encodedValue);
       }
 
       @Override
-      public void close() throws IOException {
-        packer.close();
+      public void close() {
+        buffer.release();
+        attrBuffer.release();
       }
     };
   }
@@ -194,45 +270,128 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
   }
 
   private byte[] encodeValue(VectorTile.Feature vectorTileFeature, RenderedFeature.Group group,
-    MessageBufferPacker packer) {
-    packer.clear();
-    try {
-      // hasGroup bit in key will tell consumers whether they need to decode group info from value
-      if (group != null) {
-        packer.packLong(group.group());
-        packer.packInt(group.limit());
-      }
-      packer.packLong(vectorTileFeature.id());
-      packer.packByte(encodeGeomTypeAndScale(vectorTileFeature.geometry()));
-      var attrs = vectorTileFeature.tags();
-      packer.packMapHeader((int) attrs.values().stream().filter(Objects::nonNull).count());
-      for (Map.Entry<String, Object> entry : attrs.entrySet()) {
-        Object value = entry.getValue();
-        if (value != null) {
-          packer.packInt(commonValueStrings.encode(entry.getKey()));
-          packer.packValue(switch (value) {
-            case String string -> ValueFactory.newString(string);
-            case Integer integer -> ValueFactory.newInteger(integer.longValue());
-            case Long longValue -> ValueFactory.newInteger(longValue);
-            case Float floatValue -> ValueFactory.newFloat(floatValue);
-            case Double doubleValue -> ValueFactory.newFloat(doubleValue);
-            case Boolean booleanValue -> ValueFactory.newBoolean(booleanValue);
-            case Object other -> ValueFactory.newString(other.toString());
-          });
+    ByteArrayList buffer, ByteArrayList attrBuffer) {
+    buffer.clear();
+    // hasGroup bit in key will tell consumers whether they need to decode group info from value
+    if (group != null) {
+      VarInt.putVarLong(zigZagEncode(group.group()), buffer);
+      VarInt.putVarLong(zigZagEncode(group.limit()), buffer);
+    }
+    VarInt.putVarLong(zigZagEncode(vectorTileFeature.id()), buffer);
+    buffer.add(encodeGeomTypeAndScale(vectorTileFeature.geometry()));
+    putFixed(hashTags(vectorTileFeature.tags()), Integer.BYTES, buffer);
+    encodeTags(vectorTileFeature, attrBuffer);
+    VarInt.putVarLong(attrBuffer.size(), buffer);
+    buffer.add(attrBuffer.buffer, 0, attrBuffer.size());
+    // Use the same binary format for encoding geometries in output vector tiles. Benchmarking showed
+    // it was faster and smaller for encoding/decoding intermediate geometries than alternatives like WKB.
+    int[] commands = vectorTileFeature.geometry().commands();
+    VarInt.putVarLong(commands.length, buffer);
+    for (int command : commands) {
+      VarInt.putVarLong(Integer.toUnsignedLong(command), buffer);
+    }
+    return buffer.toArray();
+  }
+
+  private void encodeTags(VectorTile.Feature vectorTileFeature, ByteArrayList buffer) {
+    buffer.clear();
+    byte layer = commonLayerStrings.encode(vectorTileFeature.layer());
+    for (Map.Entry<String, Object> entry : vectorTileFeature.tags().entrySet()) {
+      Object value = entry.getValue();
+      if (value != null) {
+        long key = (long) commonValueStrings.encode(entry.getKey()) << VALUE_TYPE_BITS;
+        switch (value) {
+          case String string -> encodeString(layer, key, string, buffer);
+          case Integer integer -> {
+            VarInt.putVarLong(key | VALUE_LONG, buffer);
+            VarInt.putVarLong(zigZagEncode(integer), buffer);
+          }
+          case Long longValue -> {
+            VarInt.putVarLong(key | VALUE_LONG, buffer);
+            VarInt.putVarLong(zigZagEncode(longValue), buffer);
+          }
+          case Float floatValue -> {
+            VarInt.putVarLong(key | VALUE_FLOAT, buffer);
+            putFixed(Float.floatToIntBits(floatValue), Integer.BYTES, buffer);
+          }
+          case Double doubleValue -> {
+            VarInt.putVarLong(key | VALUE_DOUBLE, buffer);
+            putFixed(Double.doubleToLongBits(doubleValue), Long.BYTES, buffer);
+          }
+          case Boolean booleanValue -> VarInt.putVarLong(key | (booleanValue ? VALUE_TRUE : VALUE_FALSE), buffer);
+          case Object other -> encodeString(layer, key, other.toString(), buffer);
         }
       }
-      // Use the same binary format for encoding geometries in output vector tiles. Benchmarking showed
-      // it was faster and smaller for encoding/decoding intermediate geometries than alternatives like WKB.
-      int[] commands = vectorTileFeature.geometry().commands();
-      packer.packArrayHeader(commands.length);
-      for (int command : commands) {
-        packer.packInt(command);
+    }
+  }
+
+  /**
+   * Returns a hash of the attributes that only depends on their keys and values as they get decoded, not on the order
+   * of the map or the IDs they get encoded with, or 0 if there are none.
+   */
+  static int hashTags(Map<String, Object> tags) {
+    int hash = 0;
+    boolean empty = true;
+    for (Map.Entry<String, Object> entry : tags.entrySet()) {
+      Object value = entry.getValue();
+      if (value != null) {
+        int valueHash = switch (value) {
+          case String string -> string.hashCode();
+          case Integer integer -> Long.hashCode(integer);
+          case Long longValue -> Long.hashCode(longValue);
+          case Float floatValue -> Float.hashCode(floatValue);
+          case Double doubleValue -> Double.hashCode(doubleValue);
+          case Boolean booleanValue -> Boolean.hashCode(booleanValue);
+          case Object other -> other.toString().hashCode();
+        };
+        // sum over entries so the result doesn't depend on iteration order
+        hash += BitMixer.mix32(31 * entry.getKey().hashCode() + valueHash);
+        empty = false;
       }
-      packer.close();
-    } catch (IOException e) {
-      throw new IllegalStateException(e);
     }
-    return packer.toByteArray();
+    return empty ? 0 : hash == 0 ? 1 : hash;
+  }
+
+  private void encodeString(byte layer, long key, String string, ByteArrayList buffer) {
+    int id = attrValueDictionary.encode(layer, string);
+    if (id >= 0) {
+      VarInt.putVarLong(key | VALUE_STRING_REF, buffer);
+      VarInt.putVarLong(id, buffer);
+    } else {
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      VarInt.putVarLong(key | VALUE_STRING, buffer);
+      VarInt.putVarLong(bytes.length, buffer);
+      buffer.add(bytes);
+    }
+  }
+
+  private static void putFixed(long value, int bytes, ByteArrayList buffer) {
+    for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+      buffer.add((byte) (value >>> shift));
+    }
+  }
+
+  /** Passes each attribute from the current position of {@code buffer} until its limit to {@code consumer}. */
+  private void decodeTags(ByteBuffer buffer, BiConsumer<String, Object> consumer) {
+    while (buffer.hasRemaining()) {
+      long key = VarInt.getVarLong(buffer);
+      Object value = switch ((int) (key & VALUE_TYPE_MASK)) {
+        case VALUE_STRING -> {
+          int length = (int) VarInt.getVarLong(buffer);
+          String string = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+          buffer.position(buffer.position() + length);
+          yield string;
+        }
+        case VALUE_STRING_REF -> attrValueDictionary.decode((int) VarInt.getVarLong(buffer));
+        case VALUE_LONG -> zigZagDecode(VarInt.getVarLong(buffer));
+        case VALUE_FLOAT -> (double) buffer.getFloat();
+        case VALUE_DOUBLE -> buffer.getDouble();
+        case VALUE_TRUE -> true;
+        case VALUE_FALSE -> false;
+        default -> throw new IllegalStateException("Unexpected attribute value type: " + (key & VALUE_TYPE_MASK));
+      };
+      consumer.accept(commonValueStrings.decode((int) (key >>> VALUE_TYPE_BITS)), value);
+    }
   }
 
   /** Returns a new feature writer that can be used for a single thread. */
@@ -259,6 +418,33 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
     return new Reader(parIter.reader(), () -> groupIntoTiles(parIter.iterator()));
   }
 
+  /**
+   * Splits the sorted features into up to {@code ranges} ranges of whole tiles with roughly the same number of features
+   * in each, so that each range can be merged and grouped into tiles on a different thread.
+   *
+   * @param ranges The maximum number of ranges to split features into
+   * @return an {@link Iterable} over tiles in each range, ordered by tile
+   */
+  public List<Iterable<TileFeatures>> rangeIterators(int ranges) {
+    prepare();
+    LongArrayList bounds = new LongArrayList();
+    bounds.add(Long.MIN_VALUE);
+    for (long key : sorter.splitKeys(ranges)) {
+      // move each split to the start of its tile so that features in a tile never get split across ranges
+      long tileStart = extractTileFromKey(key) << 29L;
+      if (tileStart > bounds.get(bounds.size() - 1)) {
+        bounds.add(tileStart);
+      }
+    }
+    bounds.add(Long.MAX_VALUE);
+    List<Iterable<TileFeatures>> result = new ArrayList<>();
+    for (int i = 0; i < bounds.size() - 1; i++) {
+      long fromKey = bounds.get(i), toKey = bounds.get(i + 1);
+      result.add(() -> groupIntoTiles(sorter.rangeIterator(fromKey, toKey)));
+    }
+    return result;
+  }
+
   private Iterator<TileFeatures> groupIntoTiles(Iterator<SortableFeature> entries) {
     // entries are sorted by tile ID, so group consecutive entries in same tile into tiles
     if (!entries.hasNext()) {
@@ -310,13 +496,28 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
     if (!prepared) {
       synchronized (this) {
         if (!prepared) {
+          logAttrValueDictionaryHitRates();
           sorter.sort();
+          // handlers may get registered after this feature group is created, so wait until now to check
+          postProcessFeatures = profile.postProcessesFeatures();
           prepared = true;
         }
       }
     }
   }
 
+  private void logAttrValueDictionaryHitRates() {
+    var format = Format.defaultInstance();
+    StringBuilder hitRates = new StringBuilder();
+    for (byte layer : usedLayers()) {
+      hitRates.append(' ').append(commonLayerStrings.decode(layer)).append('=')
+        .append(format.percent(attrValueDictionary.hitRate(layer)));
+    }
+    if (!hitRates.isEmpty()) {
+      LOGGER.info("Attribute value dictionary hit rate by layer:{}", hitRates);
+    }
+  }
+
   public int chunksToRead() {
     return sorter.chunksToRead();
   }
@@ -339,18 +540,11 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
     }
 
     private static void unscaleAndRemovePointsOutsideBuffer(List<VectorTile.Feature> features, double maxPointBuffer) {
-      boolean checkPoints = maxPointBuffer <= 256 && maxPointBuffer >= -128;
       for (int i = 0; i < features.size(); i++) {
         var feature = features.get(i);
         if (feature != null) {
-          VectorTile.VectorGeometry geometry = feature.geometry();
-          var orig = geometry;
-          if (geometry.scale() != 0) {
-            geometry = geometry.unscale();
-          }
-          if (checkPoints && geometry.geomType() == GeometryType.POINT && !geometry.isEmpty()) {
-            geometry = geometry.filterPointsOutsideBuffer(maxPointBuffer);
-          }
+          var orig = feature.geometry();
+          var geometry = unscaleAndRemovePointsOutsideBuffer(orig, maxPointBuffer);
           if (geometry.isEmpty()) {
             features.set(i, null);
           } else if (geometry != orig) {
@@ -360,6 +554,18 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
       }
     }
 
+    private static VectorTile.VectorGeometry unscaleAndRemovePointsOutsideBuffer(VectorTile.VectorGeometry geometry,
+      double maxPointBuffer) {
+      if (geometry.scale() != 0) {
+        geometry = geometry.unscale();
+      }
+      boolean checkPoints = maxPointBuffer <= 256 && maxPointBuffer >= -128;
+      if (checkPoints && geometry.geomType() == GeometryType.POINT && !geometry.isEmpty()) {
+        geometry = geometry.filterPointsOutsideBuffer(maxPointBuffer);
+      }
+      return geometry;
+    }
+
     /** Returns the number of features read including features discarded from being over the limit in a group. */
     public long getNumFeaturesProcessed() {
       return numFeaturesProcessed.get();
@@ -396,51 +602,73 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
       return true;
     }
 
+    /**
+     * Returns a hash over the layer, geometry, and attributes of features in this tile that is the same for any tile
+     * where {@link #hasSameContents(TileFeatures)} returns true, to look up identical tiles that are not adjacent.
+     */
+    public long contentHash() {
+      long hash = Hashing.FNV1_64_INIT;
+      for (SortableFeature entry : entries) {
+        hash = Hashing.fnv1a64(hash, extractLayerIdFromKey(entry.key()));
+        hash = Hashing.fnv1a64(hash, entry.value());
+      }
+      return hash;
+    }
+
 
     private VectorTile.Feature decodeVectorTileFeature(SortableFeature entry) {
-      try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(entry.value())) {
-        long group;
-        if (extractHasGroupFromKey(entry.key())) {
-          group = unpacker.unpackLong();
-          unpacker.unpackInt(); // groupLimit - features over the limit were already discarded
-        } else {
-          group = VectorTile.Feature.NO_GROUP;
-        }
-        long id = unpacker.unpackLong();
-        byte geomTypeAndScale = unpacker.unpackByte();
-        GeometryType geomType = decodeGeomType(geomTypeAndScale);
-        int scale = decodeScale(geomTypeAndScale);
-        int mapSize = unpacker.unpackMapHeader();
-        Map<String, Object> attrs = HashMap.newHashMap(mapSize);
-        for (int i = 0; i < mapSize; i++) {
-          String key = commonValueStrings.decode(unpacker.unpackInt());
-          Value v = unpacker.unpackValue();
-          if (v.isStringValue()) {
-            attrs.put(key, v.asStringValue().asString());
-          } else if (v.isIntegerValue()) {
-            attrs.put(key, v.asIntegerValue().toLong());
-          } else if (v.isFloatValue()) {
-            attrs.put(key, v.asFloatValue().toDouble());
-          } else if (v.isBooleanValue()) {
-            attrs.put(key, v.asBooleanValue().getBoolean());
-          }
-        }
-        int commandSize = unpacker.unpackArrayHeader();
-        int[] commands = new int[commandSize];
-        for (int i = 0; i < commandSize; i++) {
-          commands[i] = unpacker.unpackInt();
-        }
-        String layer = commonLayerStrings.decode(extractLayerIdFromKey(entry.key()));
-        return new VectorTile.Feature(
-          layer,
-          id,
-          new VectorTile.VectorGeometry(commands, geomType, scale),
-          attrs,
-          group
-        );
-      } catch (IOException e) {
-        throw new IllegalStateException(e);
+      ByteBuffer buffer = ByteBuffer.wrap(entry.value());
+      long group;
+      if (extractHasGroupFromKey(entry.key())) {
+        group = zigZagDecode(VarInt.getVarLong(buffer));
+        VarInt.getVarLong(buffer); // groupLimit - features over the limit were already discarded
+      } else {
+        group = VectorTile.Feature.NO_GROUP;
       }
+      long id = zigZagDecode(VarInt.getVarLong(buffer));
+      VectorTile.VectorGeometry geometry = decodeGeometryAfterTags(buffer);
+      Map<String, Object> attrs = new HashMap<>();
+      decodeTags(buffer, attrs::put);
+      String layer = commonLayerStrings.decode(extractLayerIdFromKey(entry.key()));
+      return new VectorTile.Feature(
+        layer,
+        id,
+        geometry,
+        attrs,
+        group
+      );
+    }
+
+    /** Adds a feature to {@code tile} without building an intermediate {@link VectorTile.Feature} or attribute map. */
+    private void decodeInto(VectorTile tile, SortableFeature entry) {
+      ByteBuffer buffer = ByteBuffer.wrap(entry.value());
+      if (extractHasGroupFromKey(entry.key())) {
+        VarInt.getVarLong(buffer); // group
+        VarInt.getVarLong(buffer); // groupLimit
+      }
+      long id = zigZagDecode(VarInt.getVarLong(buffer));
+      VectorTile.VectorGeometry geometry = unscaleAndRemovePointsOutsideBuffer(decodeGeometryAfterTags(buffer),
+        config.maxPointBuffer());
+      String layer = commonLayerStrings.decode(extractLayerIdFromKey(entry.key()));
+      tile.addLayerFeature(layer, id, geometry, consumer -> decodeTags(buffer, consumer));
+    }
+
+    /**
+     * Decodes the geometry that follows the attributes, then leaves {@code buffer} positioned at the start of the
+     * attributes with its limit at their end.
+     */
+    private static VectorTile.VectorGeometry decodeGeometryAfterTags(ByteBuffer buffer) {
+      byte geomTypeAndScale = buffer.get();
+      buffer.position(buffer.position() + Integer.BYTES); // hash of the attributes
+      int tagsLength = (int) VarInt.getVarLong(buffer);
+      int tagsStart = buffer.position();
+      buffer.position(tagsStart + tagsLength);
+      int[] commands = new int[(int) VarInt.getVarLong(buffer)];
+      for (int i = 0; i < commands.length; i++) {
+        commands[i] = (int) VarInt.getVarLong(buffer);
+      }
+      buffer.position(tagsStart).limit(tagsStart + tagsLength);
+      return new VectorTile.VectorGeometry(commands, decodeGeomType(geomTypeAndScale), decodeScale(geomTypeAndScale));
     }
 
     public VectorTile getVectorTile() {
@@ -452,6 +680,12 @@ public final class FeatureGroup implements Iterable<FeatureGroup.TileFeatures>,
       if (layerStats != null) {
         tile.trackLayerStats(layerStats.forZoom(tileCoord.z()));
       }
+      if (!postProcessFeatures) {
+        for (SortableFeature entry : entries) {
+          decodeInto(tile, entry);
+        }
+        return tile;
+      }
       List<VectorTile.Feature> items = new ArrayList<>();
       String currentLayer = null;
       Map<String, List<VectorTile.Feature>> layerFeatures = new TreeMap<>();
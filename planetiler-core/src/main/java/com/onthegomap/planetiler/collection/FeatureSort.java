@@ -75,6 +75,18 @@ interface FeatureSort extends Iterable<SortableFeature>, DiskBacked, MemoryEstim
           .iterator();
       }
 
+      @Override
+      public long[] splitKeys(int ranges) {
+        return ExternalMergeSort.splitSortedKeys(list.stream().mapToLong(SortableFeature::key).toArray(), ranges);
+      }
+
+      @Override
+      public Iterator<SortableFeature> rangeIterator(long fromKey, long toKey) {
+        return list.stream()
+          .filter(feature -> feature.key() >= fromKey && feature.key() < toKey)
+          .iterator();
+      }
+
       @Override
       public int chunksToRead() {
         return list.size();
@@ -139,6 +151,20 @@ interface FeatureSort extends Iterable<SortableFeature>, DiskBacked, MemoryEstim
     return new ParallelIterator(reader, LongMerger.mergeSuppliers(queues, SortableFeature.COMPARE_BYTES));
   }
 
+  /**
+   * Returns up to {@code ranges - 1} ascending keys that split the sorted features into ranges with roughly the same
+   * number of features in each, estimated from a sample of the keys.
+   */
+  long[] splitKeys(int ranges);
+
+  /**
+   * Returns an iterator over the sorted features with keys from {@code fromKey} (inclusive) to {@code toKey}
+   * (exclusive).
+   * <p>
+   * Iterators over disjoint ranges can be read from different threads at the same time.
+   */
+  Iterator<SortableFeature> rangeIterator(long fromKey, long toKey);
+
   int chunksToRead();
 
   record ParallelIterator(Worker reader, @Override Iterator<SortableFeature> iterator)
@@ -46,6 +46,7 @@ public interface LongLongMap extends Closeable, MemoryEstimator.HasEstimate, Dis
     return switch (type) {
       case NOOP -> noop();
       case SPARSE_ARRAY -> new SparseArrayLongLongMap(AppendStore.Longs.create(storage, params));
+      case COMPRESSED -> new CompressedLongLongMap(AppendStore.Longs.create(storage, params));
       case SORTED_TABLE -> new SortedTableLongLongMap(
         new AppendStore.SmallLongs(i -> AppendStore.Ints.create(storage, params.resolve("keys-" + i))),
         AppendStore.Longs.create(storage, params.resolve("values"))
@@ -58,6 +59,33 @@ public interface LongLongMap extends Closeable, MemoryEstimator.HasEstimate, Dis
     };
   }
 
+  /**
+   * Returns {@code true} if maps created from {@code type} and {@code storage} implement {@link Persistable} so their
+   * contents can be saved with {@link Persistable#persist(Path)} and re-opened later with
+   * {@link #open(Type, Path, boolean)}.
+   */
+  static boolean isPersistable(Type type, Storage storage) {
+    return storage == Storage.MMAP && (type == Type.ARRAY || type == Type.SPARSE_ARRAY);
+  }
+
+  /**
+   * Returns a read-only longlong map over data that was saved to {@code dir} by {@link Persistable#persist(Path)}.
+   *
+   * @param type    The {@link Type} implementation that saved the data
+   * @param dir     directory the data was saved to
+   * @param madvise whether to use linux madvise random to improve read performance
+   * @return A longlong map instance that throws on writes and does not delete {@code dir} when closed
+   * @throws IllegalArgumentException if {@code type} can not be persisted
+   */
+  static LongLongMap open(Type type, Path dir, boolean madvise) {
+    return switch (type) {
+      case ARRAY -> ArrayLongLongMapMmap.open(dir, madvise);
+      case SPARSE_ARRAY -> SparseArrayLongLongMap.open(dir, madvise);
+      case NOOP, SORTED_TABLE, COMPRESSED ->
+        throw new IllegalArgumentException("Cannot open persisted long long map: " + type);
+    };
+  }
+
   /** Returns a new long map using {@link Type#SORTED_TABLE} and {@link Storage#RAM}. */
   static LongLongMap newInMemorySortedTable() {
     return from(Type.SORTED_TABLE, Storage.RAM, new Storage.Params(Path.of("."), false));
@@ -106,6 +134,11 @@ public interface LongLongMap extends Closeable, MemoryEstimator.HasEstimate, Dis
     return 0;
   }
 
+  /**
+   * Returns the values for each key in {@code key}. Same as calling {@link #get(long)} on each element, but
+   * implementations backed by memory-mapped files read keys in ascending order and hint to the OS which pages they
+   * need, so callers should look up all the keys they need for a batch of work at once.
+   */
   default long[] multiGet(long[] key) {
     long[] result = new long[key.length];
     for (int i = 0; i < key.length; i++) {
@@ -114,6 +147,14 @@ public interface LongLongMap extends Closeable, MemoryEstimator.HasEstimate, Dis
     return result;
   }
 
+  /**
+   * Returns true if {@link #multiGet(long[])} is faster than calling {@link #get(long)} on each key, which is only the
+   * case for implementations backed by memory-mapped files.
+   */
+  default boolean benefitsFromMultiGet() {
+    return false;
+  }
+
   /** Which long map implementation to use. */
   enum Type {
     /** Ignore writes and throw an exception on reads. */
@@ -139,6 +180,17 @@ public interface LongLongMap extends Closeable, MemoryEstimator.HasEstimate, Dis
      */
     SPARSE_ARRAY("sparsearray"),
 
+    /**
+     * Stores values in blocks of 256 consecutive keys, bit-packed against the smallest value in each block.
+     * <p>
+     * Node locations with sequential IDs are usually close together, so this uses around ~4-5 bytes per value stored
+     * for a full-planet import, about half of {@link #SPARSE_ARRAY}. Ideal for fitting node locations in RAM on a
+     * machine that would otherwise need {@link Storage#MMAP} storage.
+     * <p>
+     * NOTE: Requires ordered writes from a single thread.
+     */
+    COMPRESSED("compressed"),
+
     /**
      * Stores values in indexed by key, without compressing unused ranges from the key space so that writes can be done
      * from multiple threads in parallel.
@@ -198,4 +250,15 @@ public interface LongLongMap extends Closeable, MemoryEstimator.HasEstimate, Dis
   /** Implementations that support parallel writes from multiple threads. */
   interface ParallelWrites extends LongLongMap {}
 
+  /** Implementations that can save their contents to disk to be re-opened by a later run. */
+  interface Persistable extends LongLongMap {
+
+    /**
+     * Saves the contents of this map to {@code dir} so that {@link LongLongMap#open(Type, Path, boolean)} can read it
+     * back after this map is closed. Must be called after all writes have finished, and no writes can be performed
+     * after.
+     */
+    void persist(Path dir);
+  }
+
 }
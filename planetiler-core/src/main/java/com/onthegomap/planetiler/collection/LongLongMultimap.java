@@ -32,6 +32,16 @@ public interface LongLongMultimap extends MemoryEstimator.HasEstimate, DiskBacke
     return new DenseOrderedMultimap(storage, params);
   }
 
+  /**
+   * Returns a new multimap where each write sets the list of values for a key, and that order is preserved on read.
+   * <p>
+   * When {@code deltaEncoded} is true, values are stored as {@link DeltaEncodedMultimap zigzag varint deltas}, which
+   * uses much less space for lists of nearby values like OSM node IDs in a way.
+   */
+  static Replaceable newReplaceableMultimap(Storage storage, Storage.Params params, boolean deltaEncoded) {
+    return deltaEncoded ? new DeltaEncodedMultimap(storage, params) : newReplaceableMultimap(storage, params);
+  }
+
   /** Returns a new replaceable multimap held in-memory. */
   static Replaceable newInMemoryReplaceableMultimap() {
     return newReplaceableMultimap(Storage.RAM, null);
@@ -52,7 +62,21 @@ public interface LongLongMultimap extends MemoryEstimator.HasEstimate, DiskBacke
    * @throws IllegalArgumentException if {@code name} or {@code storage} is not valid
    */
   static Replaceable newReplaceableMultimap(String storage, Path path, boolean madvise) {
-    return newReplaceableMultimap(Storage.from(storage), new Storage.Params(path, madvise));
+    return newReplaceableMultimap(storage, path, madvise, false);
+  }
+
+  /**
+   * Returns a new longlong multimap from config strings.
+   *
+   * @param storage      name of the {@link Storage} implementation to use
+   * @param path         where to store data (if mmap)
+   * @param madvise      whether to use linux madvise random to improve read performance
+   * @param deltaEncoded whether to store values as {@link DeltaEncodedMultimap zigzag varint deltas}
+   * @return A longlong map instance
+   * @throws IllegalArgumentException if {@code name} or {@code storage} is not valid
+   */
+  static Replaceable newReplaceableMultimap(String storage, Path path, boolean madvise, boolean deltaEncoded) {
+    return newReplaceableMultimap(Storage.from(storage), new Storage.Params(path, madvise), deltaEncoded);
   }
 
   /**
@@ -300,4 +324,124 @@ public interface LongLongMultimap extends MemoryEstimator.HasEstimate, DiskBacke
       }
     }
   }
+
+  /**
+   * A {@link Replaceable} multimap that stores each list of values as the zigzag-encoded varint difference from the
+   * previous value, packed 8 bytes at a time into an {@link AppendStore.Longs}.
+   * <p>
+   * Each list starts with a header that holds the number of values in the upper 32 bits and the number of encoded
+   * bytes in the lower 32 bits. Node IDs in a way tend to be close together, so most of them take 1-3 bytes instead of
+   * 8.
+   */
+  class DeltaEncodedMultimap implements Replaceable {
+
+    private static final LongArrayList EMPTY_LIST = new LongArrayList();
+    private final LongIntHashMap keyToValuesIndex = Hppc.newLongIntHashMap();
+    private final AppendStore.Longs values;
+    // reused between writes, which are not thread-safe
+    private byte[] buffer = new byte[1024];
+    private long rawBytes = 0;
+    private long encodedBytes = 0;
+
+    public DeltaEncodedMultimap(Storage storage, Storage.Params params) {
+      values = switch (storage) {
+        case MMAP -> new AppendStoreMmap.Longs(params);
+        case RAM -> new AppendStoreRam.Longs(false);
+        case DIRECT -> new AppendStoreRam.Longs(true);
+      };
+    }
+
+    @Override
+    public void replaceValues(long key, LongArrayList values) {
+      int num = values.size();
+      if (num == 0) {
+        return;
+      }
+      if (buffer.length < num * 10) {
+        buffer = new byte[num * 10];
+      }
+      int length = 0;
+      long last = 0;
+      for (int i = 0; i < num; i++) {
+        long value = values.get(i);
+        long zigzag = ((value - last) << 1) ^ ((value - last) >> 63);
+        last = value;
+        while ((zigzag & ~0x7FL) != 0) {
+          buffer[length++] = (byte) ((zigzag & 0x7F) | 0x80);
+          zigzag >>>= 7;
+        }
+        buffer[length++] = (byte) zigzag;
+      }
+      keyToValuesIndex.put(key, (int) this.values.size());
+      this.values.appendLong(((long) num << 32) | length);
+      for (int i = 0; i < length; i += Long.BYTES) {
+        long packed = 0;
+        for (int j = 0; j < Long.BYTES && i + j < length; j++) {
+          packed |= (buffer[i + j] & 0xFFL) << (j * 8);
+        }
+        this.values.appendLong(packed);
+      }
+      rawBytes += (num + 1L) * Long.BYTES;
+      encodedBytes += (1L + (length + Long.BYTES - 1) / Long.BYTES) * Long.BYTES;
+    }
+
+    @Override
+    public LongArrayList get(long key) {
+      int index = keyToValuesIndex.getOrDefault(key, -1);
+      if (index < 0) {
+        return EMPTY_LIST;
+      }
+      long header = values.getLong(index);
+      int num = (int) (header >>> 32);
+      LongArrayList result = new LongArrayList(num);
+      long next = index + 1L;
+      long packed = 0;
+      int bytesLeft = 0;
+      long last = 0;
+      for (int i = 0; i < num; i++) {
+        long zigzag = 0;
+        int shift = 0;
+        byte b;
+        do {
+          if (bytesLeft == 0) {
+            packed = values.getLong(next++);
+            bytesLeft = Long.BYTES;
+          }
+          b = (byte) packed;
+          packed >>>= 8;
+          bytesLeft--;
+          zigzag |= (b & 0x7FL) << shift;
+          shift += 7;
+        } while (b < 0);
+        last += (zigzag >>> 1) ^ -(zigzag & 1);
+        result.add(last);
+      }
+      return result;
+    }
+
+    /** Returns how many times smaller the stored values are than they would be with 8 bytes per value. */
+    public double compressionRatio() {
+      return encodedBytes == 0 ? 1 : rawBytes * 1d / encodedBytes;
+    }
+
+    @Override
+    public long estimateMemoryUsageBytes() {
+      return estimateSize(keyToValuesIndex) + estimateSize(values);
+    }
+
+    @Override
+    public long diskUsageBytes() {
+      return values.diskUsageBytes();
+    }
+
+    @Override
+    public void close() {
+      keyToValuesIndex.release();
+      try {
+        values.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
 }
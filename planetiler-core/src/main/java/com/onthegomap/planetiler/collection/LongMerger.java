@@ -13,6 +13,8 @@ import java.util.function.Supplier;
 public class LongMerger {
   // Has a general-purpose KWayMerge implementation using a min heap and specialized (faster)
   // TwoWayMerge/ThreeWayMerge implementations when a small number of lists are being merged.
+  // LoserTreeMerge is an alternative to KWayMerge that BenchmarkKWayMerge compares against, but
+  // it has not been faster than the 4-ary array heap in practice.
 
   private LongMerger() {}
 
@@ -34,6 +36,12 @@ public class LongMerger {
     };
   }
 
+  /** Merges sorted iterators using a loser tree instead of a min heap, to compare against in benchmarks. */
+  static <T extends HasLongSortKey> Iterator<T> mergeIteratorsWithLoserTree(List<? extends Iterator<T>> iterators,
+    Comparator<T> tieBreaker) {
+    return new LoserTreeMerge<>(iterators, tieBreaker);
+  }
+
   private static class TwoWayMerge<T extends HasLongSortKey> implements Iterator<T> {
 
     private final Comparator<T> tieBreaker;
@@ -236,4 +244,105 @@ public class LongMerger {
       return result;
     }
   }
+
+  /**
+   * A tournament tree where each internal node holds the input that lost the comparison at that node, and the root
+   * holds the overall winner. Replacing the winner only needs one comparison per level against the losers on its path
+   * to the root.
+   */
+  private static class LoserTreeMerge<T extends HasLongSortKey> implements Iterator<T> {
+    private final Comparator<T> tieBreaker;
+    private final int size;
+    // leaf i is at node size+i, internal node n stores the key of the input that lost there at 2*n and its index at
+    // 2*n+1 so that replaying a path only touches one array
+    private final long[] tree;
+    private final T[] items;
+    private final Iterator<T>[] iterators;
+    private int winner;
+
+    @SuppressWarnings("unchecked")
+    LoserTreeMerge(List<? extends Iterator<T>> inputIterators, Comparator<T> tieBreaker) {
+      this.tieBreaker = tieBreaker;
+      List<? extends Iterator<T>> nonEmpty = inputIterators.stream().filter(Iterator::hasNext).toList();
+      this.size = Math.max(1, nonEmpty.size());
+      this.tree = new long[size * 2];
+      this.items = (T[]) new HasLongSortKey[size];
+      this.iterators = (Iterator<T>[]) new Iterator<?>[size];
+      long[] keys = new long[size];
+      for (int i = 0; i < size; i++) {
+        keys[i] = Long.MAX_VALUE;
+        if (i < nonEmpty.size()) {
+          iterators[i] = nonEmpty.get(i);
+          keys[i] = advance(i);
+        }
+      }
+      // play the initial tournament bottom-up, keeping track of the winner at each node
+      int[] winners = new int[size * 2];
+      for (int i = 0; i < size; i++) {
+        winners[size + i] = i;
+      }
+      for (int node = size - 1; node >= 1; node--) {
+        int left = winners[node * 2], right = winners[node * 2 + 1];
+        int loser;
+        if (lessThan(keys[right], right, keys[left], left)) {
+          winners[node] = right;
+          loser = left;
+        } else {
+          winners[node] = left;
+          loser = right;
+        }
+        tree[node * 2] = keys[loser];
+        tree[node * 2 + 1] = loser;
+      }
+      winner = winners[1];
+    }
+
+    /** Moves to the next item from {@code input} and returns its key, or {@link Long#MAX_VALUE} when there are none. */
+    private long advance(int input) {
+      Iterator<T> iterator = iterators[input];
+      if (iterator != null && iterator.hasNext()) {
+        T item = iterator.next();
+        items[input] = item;
+        return item.key();
+      } else {
+        items[input] = null;
+        iterators[input] = null;
+        return Long.MAX_VALUE;
+      }
+    }
+
+    private boolean lessThan(long ak, int a, long bk, int b) {
+      return ak < bk || (ak == bk && lessThanCmp(items[a], items[b], tieBreaker));
+    }
+
+    @Override
+    public boolean hasNext() {
+      return items[winner] != null;
+    }
+
+    @Override
+    public T next() {
+      int current = winner;
+      T result = items[current];
+      if (result == null) {
+        throw new NoSuchElementException();
+      }
+      long key = advance(current);
+      // replay the path from the winner's leaf to the root against the losers stored there
+      for (int node = (size + current) >> 1; node >= 1; node >>= 1) {
+        long loserKey = tree[node * 2];
+        if (loserKey <= key) {
+          int loser = (int) tree[node * 2 + 1];
+          if (loserKey < key || lessThan(loserKey, loser, key, current)) {
+            tree[node * 2] = key;
+            tree[node * 2 + 1] = current;
+            current = loser;
+            key = loserKey;
+          }
+        }
+      }
+      winner = current;
+      return result;
+    }
+  }
 }
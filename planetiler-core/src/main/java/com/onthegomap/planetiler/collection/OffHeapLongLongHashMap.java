@@ -0,0 +1,182 @@
+package com.onthegomap.planetiler.collection;
+
+import com.onthegomap.planetiler.util.ByteBufferUtil;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * An open-addressed hash map from long keys to long values that keeps its table outside the JVM heap in
+ * {@link ByteBuffer#allocateDirect(int) direct byte buffers}, so that large maps do not put pressure on the garbage
+ * collector.
+ * <p>
+ * Uses linear probing and doubles the table size when it gets over 3/4 full. Like {@link AppendStoreRam}, the table
+ * is split across slabs of up to 1GB each so that it can grow past the size of a single direct byte buffer. The table
+ * is freed immediately on {@link #close()}.
+ */
+@NotThreadSafe
+public class OffHeapLongLongHashMap implements Closeable {
+
+  // each slot is a 16-byte key/value pair
+  private static final int SLOT_BYTES = 16;
+  // 1GB, the largest power of 2 that fits in a single direct byte buffer
+  private static final int MAX_SLAB_BITS = 26;
+  private final int maxSlabBits;
+  // key 0 marks an empty slot, so store its value separately
+  private boolean hasZeroKey = false;
+  private long zeroKeyValue = 0;
+  private ByteBuffer[] slabs;
+  private int slabBits;
+  private int slabMask;
+  private long mask;
+  private long size = 0;
+  private long resizeAt;
+
+  /** Creates a new empty map with room for {@code expectedSize} entries before it needs to grow. */
+  public OffHeapLongLongHashMap(int expectedSize) {
+    this(expectedSize, MAX_SLAB_BITS);
+  }
+
+  public OffHeapLongLongHashMap() {
+    this(1 << 10);
+  }
+
+  /** Creates a new empty map that splits its table into slabs of at most {@code 2^maxSlabBits} slots. */
+  OffHeapLongLongHashMap(int expectedSize, int maxSlabBits) {
+    this.maxSlabBits = maxSlabBits;
+    allocate(Long.highestOneBit(Math.max(16, expectedSize * 4L / 3)) << 1);
+  }
+
+  private static long hash(long key) {
+    // murmur3 64-bit finalizer
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return key;
+  }
+
+  private void allocate(long slots) {
+    int bits = Long.numberOfTrailingZeros(slots);
+    if (bits > Integer.SIZE - 2 + maxSlabBits) {
+      throw new IllegalStateException("Too many entries for off-heap hash map: " + size);
+    }
+    slabBits = Math.min(bits, maxSlabBits);
+    slabMask = (1 << slabBits) - 1;
+    slabs = new ByteBuffer[(int) (slots >>> slabBits)];
+    for (int i = 0; i < slabs.length; i++) {
+      slabs[i] = ByteBuffer.allocateDirect((1 << slabBits) * SLOT_BYTES);
+    }
+    mask = slots - 1;
+    resizeAt = slots * 3 / 4;
+  }
+
+  private ByteBuffer slab(long slot) {
+    return slabs[(int) (slot >>> slabBits)];
+  }
+
+  private int offset(long slot) {
+    return ((int) slot & slabMask) * SLOT_BYTES;
+  }
+
+  /** Returns the number of entries in this map. */
+  public long size() {
+    return size;
+  }
+
+  /** Returns the value stored for {@code key} or {@code missing} if it is not in the map. */
+  public long getOrDefault(long key, long missing) {
+    if (key == 0) {
+      return hasZeroKey ? zeroKeyValue : missing;
+    }
+    for (long slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+      ByteBuffer slab = slab(slot);
+      int offset = offset(slot);
+      long existing = slab.getLong(offset);
+      if (existing == key) {
+        return slab.getLong(offset + Long.BYTES);
+      } else if (existing == 0) {
+        return missing;
+      }
+    }
+  }
+
+  /** Returns true if there is a value stored for {@code key}. */
+  public boolean containsKey(long key) {
+    if (key == 0) {
+      return hasZeroKey;
+    }
+    for (long slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+      long existing = slab(slot).getLong(offset(slot));
+      if (existing == key) {
+        return true;
+      } else if (existing == 0) {
+        return false;
+      }
+    }
+  }
+
+  /** Stores {@code value} for {@code key}, replacing any existing value. */
+  public void put(long key, long value) {
+    if (key == 0) {
+      if (!hasZeroKey) {
+        hasZeroKey = true;
+        size++;
+      }
+      zeroKeyValue = value;
+    } else if (insert(key, value)) {
+      size++;
+      if (size >= resizeAt) {
+        grow();
+      }
+    }
+  }
+
+  private boolean insert(long key, long value) {
+    for (long slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+      ByteBuffer slab = slab(slot);
+      int offset = offset(slot);
+      long existing = slab.getLong(offset);
+      if (existing == 0 || existing == key) {
+        slab.putLong(offset, key);
+        slab.putLong(offset + Long.BYTES, value);
+        return existing == 0;
+      }
+    }
+  }
+
+  private void grow() {
+    ByteBuffer[] oldSlabs = slabs;
+    int oldSlabSlots = slabMask + 1;
+    allocate((mask + 1) << 1);
+    for (ByteBuffer oldSlab : oldSlabs) {
+      for (int slot = 0; slot < oldSlabSlots; slot++) {
+        long key = oldSlab.getLong(slot * SLOT_BYTES);
+        if (key != 0) {
+          insert(key, oldSlab.getLong(slot * SLOT_BYTES + Long.BYTES));
+        }
+      }
+      free(oldSlab);
+    }
+  }
+
+  private static void free(ByteBuffer buffer) {
+    try {
+      ByteBufferUtil.free(buffer);
+    } catch (IOException e) {
+      // the garbage collector will free it eventually
+    }
+  }
+
+  @Override
+  public void close() {
+    if (slabs != null) {
+      for (ByteBuffer slab : slabs) {
+        free(slab);
+      }
+      slabs = null;
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package com.onthegomap.planetiler.collection;
+
+import java.util.Arrays;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Utility for {@link LongLongMap#multiGet(long[])} implementations backed by memory-mapped files that looks up each
+ * distinct key once in ascending order, so that reads scan forward through the file instead of jumping around, then
+ * scatters the results back to the order they were requested in.
+ */
+final class SortedMultiGet {
+
+  private SortedMultiGet() {}
+
+  /** Callback that gets a chance to hint to the OS which parts of a file the upcoming reads will touch. */
+  @FunctionalInterface
+  interface Prefetcher {
+
+    /** Called with the first {@code length} elements of {@code sortedKeys} that are about to be read in order. */
+    void prefetch(long[] sortedKeys, int length);
+  }
+
+  static long[] multiGet(long[] keys, Prefetcher prefetcher, LongUnaryOperator get) {
+    long[] sorted = keys.clone();
+    Arrays.sort(sorted);
+    int distinct = 0;
+    for (long key : sorted) {
+      if (distinct == 0 || sorted[distinct - 1] != key) {
+        sorted[distinct++] = key;
+      }
+    }
+    prefetcher.prefetch(sorted, distinct);
+    long[] values = new long[distinct];
+    for (int i = 0; i < distinct; i++) {
+      values[i] = get.applyAsLong(sorted[i]);
+    }
+    long[] result = new long[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      result[i] = values[Arrays.binarySearch(sorted, 0, distinct, keys[i])];
+    }
+    return result;
+  }
+}
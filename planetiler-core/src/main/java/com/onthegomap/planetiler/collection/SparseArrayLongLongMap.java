@@ -3,13 +3,23 @@ package com.onthegomap.planetiler.collection;
 import static com.onthegomap.planetiler.util.MemoryEstimator.estimateSize;
 
 import com.carrotsearch.hppc.ByteArrayList;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 /**
  * A longlong map that only stores values and uses the key as an index into the array, with some tweaks to avoid storing
  * many sequential 0's.
  */
-public class SparseArrayLongLongMap implements LongLongMap, LongLongMap.SequentialWrites {
+public class SparseArrayLongLongMap implements LongLongMap, LongLongMap.SequentialWrites, LongLongMap.Persistable {
+
+  private static final String VALUES_FILE = "values";
+  private static final String INDEX_FILE = "index";
 
   // The key space is broken into chunks of 256 and for each chunk, store:
   // 1) the index in the outputs array for the first key in the block
@@ -26,6 +36,26 @@ public class SparseArrayLongLongMap implements LongLongMap, LongLongMap.Sequenti
     this.values = values;
   }
 
+  static SparseArrayLongLongMap open(Path dir, boolean madvise) {
+    var result = new SparseArrayLongLongMap(AppendStoreMmap.Longs.open(dir.resolve(VALUES_FILE), madvise));
+    try (
+      var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(dir.resolve(INDEX_FILE)), 50_000))
+    ) {
+      int chunks = input.readInt();
+      for (int i = 0; i < chunks; i++) {
+        result.offsets.appendLong(input.readLong());
+      }
+      for (int i = 0; i < chunks; i++) {
+        result.offsetStartPad.add(input.readByte());
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    // all writes fail after this
+    result.lastKey = Long.MAX_VALUE;
+    return result;
+  }
+
   @Override
   public void put(long key, long value) {
     if (key <= lastKey) {
@@ -55,10 +85,16 @@ public class SparseArrayLongLongMap implements LongLongMap, LongLongMap.Sequenti
 
   @Override
   public long get(long key) {
+    long index = indexOf(key);
+    return index < 0 ? MISSING_VALUE : values.getLong(index);
+  }
+
+  /** Returns the index of {@code key} in {@link #values}, or -1 if it is not present. */
+  private long indexOf(long key) {
     int chunk = (int) (key >>> 8);
     int offset = (int) (key & 255);
     if (chunk >= offsets.size()) {
-      return MISSING_VALUE;
+      return -1;
     }
 
     long lo = offsets.getLong(chunk);
@@ -68,10 +104,56 @@ public class SparseArrayLongLongMap implements LongLongMap, LongLongMap.Sequenti
     long index = lo + offset - startPad;
 
     if (index > hi || index < lo) {
-      return MISSING_VALUE;
+      return -1;
+    }
+
+    return index;
+  }
+
+  @Override
+  public boolean benefitsFromMultiGet() {
+    return values instanceof AppendStoreMmap;
+  }
+
+  @Override
+  public long[] multiGet(long[] keys) {
+    if (!(values instanceof AppendStoreMmap mmap)) {
+      return LongLongMap.SequentialWrites.super.multiGet(keys);
     }
+    return SortedMultiGet.multiGet(keys, (sortedKeys, length) -> {
+      // indexes increase with keys, so byte offsets of the values come out sorted too
+      long[] byteOffsets = new long[length];
+      int found = 0;
+      for (int i = 0; i < length; i++) {
+        long index = indexOf(sortedKeys[i]);
+        if (index >= 0) {
+          byteOffsets[found++] = index << 3;
+        }
+      }
+      mmap.willNeed(byteOffsets, found, 8);
+    }, this::get);
+  }
 
-    return values.getLong(index);
+  @Override
+  public void persist(Path dir) {
+    if (!(values instanceof AppendStoreMmap mmap)) {
+      throw new UnsupportedOperationException("Only mmap storage can be persisted");
+    }
+    lastKey = Long.MAX_VALUE;
+    mmap.persist(dir.resolve(VALUES_FILE));
+    try (
+      var output = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(dir.resolve(INDEX_FILE)), 50_000))
+    ) {
+      int chunks = (int) offsets.size();
+      output.writeInt(chunks);
+      for (int i = 0; i < chunks; i++) {
+        output.writeLong(offsets.getLong(i));
+      }
+      output.write(offsetStartPad.buffer, 0, chunks);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
 
   @Override
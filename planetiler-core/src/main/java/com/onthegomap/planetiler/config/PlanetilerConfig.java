@@ -22,6 +22,7 @@ public record PlanetilerConfig(
   int featureWriteThreads,
   int featureProcessThreads,
   int featureReadThreads,
+  boolean featureReadRanges,
   int tileWriteThreads,
   Duration logInterval,
   int minzoom,
@@ -30,14 +31,19 @@ public record PlanetilerConfig(
   boolean force,
   boolean append,
   boolean compressTempStorage,
+  String compressTempCodec,
   boolean mmapTempStorage,
   int sortMaxReaders,
   int sortMaxWriters,
+  boolean sortRadix,
+  boolean sortBackground,
+  boolean sortReadAhead,
   String nodeMapType,
   String nodeMapStorage,
   boolean nodeMapMadvise,
   String multipolygonGeometryStorage,
   boolean multipolygonGeometryMadvise,
+  boolean multipolygonGeometryDeltaEncoding,
   String httpUserAgent,
   Duration httpTimeout,
   int httpRetries,
@@ -50,11 +56,17 @@ public record PlanetilerConfig(
   double simplifyToleranceAtMaxZoom,
   double simplifyToleranceBelowMaxZoom,
   boolean osmLazyReads,
+  boolean osmWireDecoder,
+  boolean osmNodeFilter,
+  Path osmPass1Cache,
+  boolean osmBlockIndex,
   boolean skipFilledTiles,
   int tileWarningSizeBytes,
   Boolean color,
   boolean keepUnzippedSources,
   TileCompression tileCompression,
+  int tileCompressionLevel,
+  int tileEncodeCacheSize,
   boolean outputLayerStats,
   String debugUrlPattern,
   Path tmpDir,
@@ -134,6 +146,10 @@ public record PlanetilerConfig(
       featureProcessThreads,
       arguments.getInteger("feature_read_threads", "number of threads to use when reading features at tile write time",
         threads < 32 ? 1 : 2),
+      arguments.getBoolean("feature_read_ranges",
+        "split tiles into ranges that each feature read thread merges and batches on its own, instead of merging " +
+          "features from every read thread on one thread",
+        false),
       arguments.getInteger("tile_write_threads",
         "number of threads used to write tiles - only supported by " + Stream.of(TileArchiveConfig.Format.values())
           .filter(TileArchiveConfig.Format::supportsConcurrentWrites).map(TileArchiveConfig.Format::id).toList(),
@@ -149,11 +165,23 @@ public record PlanetilerConfig(
         false),
       arguments.getBoolean("compress_temp|gzip_temp",
         "compress temporary feature storage (uses more CPU, but less disk space)", false),
+      arguments.getString("compress_temp_codec",
+        "codec to use with --compress_temp: snappy compresses each temp file as a stream and does not support --mmap_temp, lz4 or zstd compress fixed-size blocks that can be read through memory-mapped files",
+        "snappy"),
       arguments.getBoolean("mmap_temp", "use memory-mapped IO for temp feature files", true),
       arguments.getInteger("sort_max_readers", "maximum number of concurrent read threads to use when sorting chunks",
         6),
       arguments.getInteger("sort_max_writers", "maximum number of concurrent write threads to use when sorting chunks",
         6),
+      arguments.getBoolean("sort_radix",
+        "sort each chunk of temp features off-heap with a radix sort on their keys instead of as objects on the heap, which allows larger chunks",
+        false),
+      arguments.getBoolean("sort_background",
+        "sort full chunks of temp features in a low-priority background thread while features are still being generated (uses memory for one more chunk)",
+        false),
+      arguments.getBoolean("sort_read_ahead",
+        "decode the next batch of features from each sorted chunk on a separate virtual thread while merging chunks (only helps with spare CPUs)",
+        false),
       arguments
         .getString("nodemap_type", "type of node location map, one of " + Stream.of(LongLongMap.Type.values()).map(
           t -> t.id()).toList(), LongLongMap.Type.SPARSE_ARRAY.id()),
@@ -165,6 +193,9 @@ public record PlanetilerConfig(
         defaultTempStorage),
       arguments.getBoolean("multipolygon_geometry_madvise",
         "use linux madvise(random) for temporary multipolygon geometry storage", defaultMadvise),
+      arguments.getBoolean("multipolygon_geometry_delta_encoding",
+        "store the node IDs of multipolygon ways as varint deltas to reduce temporary multipolygon geometry storage",
+        false),
       arguments.getString("http_user_agent", "User-Agent header to set when downloading files over HTTP",
         "Planetiler downloader (https://github.com/onthegomap/planetiler)"),
       arguments.getDuration("http_timeout", "Timeout to use when downloading files over HTTP", "30s"),
@@ -189,6 +220,18 @@ public record PlanetilerConfig(
       arguments.getBoolean("osm_lazy_reads",
         "Read OSM blocks from disk in worker threads",
         true),
+      arguments.getBoolean("osm_wire_decoder",
+        "Decode OSM blocks straight from the protobuf wire format, set to false to use the protobuf-java parser instead",
+        true),
+      arguments.getBoolean("osm_node_filter",
+        "Scan OSM ways and relations before pass 1 to only store locations of nodes in ways the profile cares about (preprocesses relations before nodes and ways)",
+        false),
+      arguments.file("osm_pass1_cache",
+        "Directory to save OSM node locations and relation info to after pass 1 and reuse them on later runs over the same input file (requires an mmap array or sparsearray nodemap)",
+        null),
+      arguments.getBoolean("osm_block_index",
+        "Save an index of the area each block covers next to the OSM input file and use it to skip reading nodes outside of the bounds or polygon in pass 2",
+        false),
       arguments.getBoolean("skip_filled_tiles",
         "Skip writing tiles containing only polygon fills to the output",
         false),
@@ -203,6 +246,12 @@ public record PlanetilerConfig(
           "the tile compression, one of " +
             TileCompression.availableValues().stream().map(TileCompression::id).toList(),
           "gzip")),
+      arguments.getInteger("tile_compression_level",
+        "the level to compress tiles at, or -1 for the default level of the tile compression codec", -1),
+      arguments.getInteger("tile_encode_cache_size",
+        "number of encoded tiles likely to be repeated (i.e. ocean) to reuse when the same contents appear again, " +
+          "or 0 to disable",
+        10_000),
       arguments.getBoolean("output_layerstats", "output a tsv.gz file for each tile/layer size", false),
       arguments.getString("debug_url", "debug url to use for displaying tiles with {z} {lat} {lon} placeholders",
         "https://onthegomap.github.io/planetiler-demo/#{z}/{lat}/{lon}"),
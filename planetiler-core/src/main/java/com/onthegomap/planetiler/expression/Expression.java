@@ -475,7 +475,11 @@ public interface Expression extends Simplifiable<Expression> {
     @Override
     public Expression partialEvaluate(PartialInput input) {
       Object value = input.getTag(field);
-      return value == null ? this : constBool(evaluate(new ArrayList<>(), value));
+      if (value == null) {
+        // a custom value getter may compute a value even when the raw tag is missing
+        return input.completeTags() && valueGetter == GET_TAG ? constBool(matchWhenMissing) : this;
+      }
+      return constBool(evaluate(new ArrayList<>(), value));
     }
 
     private boolean evaluate(List<String> matchKeys, Object value) {
@@ -579,7 +583,10 @@ public interface Expression extends Simplifiable<Expression> {
 
     @Override
     public Expression partialEvaluate(PartialInput input) {
-      return input.hasTag(field) ? TRUE : this;
+      if (input.hasTag(field)) {
+        return TRUE;
+      }
+      return input.completeTags() ? FALSE : this;
     }
   }
 
@@ -679,10 +686,18 @@ public interface Expression extends Simplifiable<Expression> {
    * <p>
    * Features within this set will only add tags but not change them, and the source/layer/geometry type will be one of
    * the values specified in those sets. If the set is empty, the values are not known ahead of time.
+   * <p>
+   * When {@code completeTags} is {@code true}, {@code tags} holds every tag of the features (for example a single OSM
+   * element) so expressions on missing tags can be resolved instead of being left for later.
    */
-  record PartialInput(Set<String> source, Set<String> layer, Map<String, Object> tags, Set<GeometryType> types)
+  record PartialInput(Set<String> source, Set<String> layer, Map<String, Object> tags, Set<GeometryType> types,
+    boolean completeTags)
     implements WithTags {
 
+    public PartialInput(Set<String> source, Set<String> layer, Map<String, Object> tags, Set<GeometryType> types) {
+      this(source, layer, tags, types, false);
+    }
+
     public static PartialInput ofSource(String source) {
       return new PartialInput(Set.of(source), Set.of(), Map.of(), Set.of());
     }
@@ -94,6 +94,12 @@ public class WriteableFilesArchive implements WriteableTileArchive {
     return tileOrder;
   }
 
+  @Override
+  public boolean requiresOrderedWrites() {
+    // each tile goes to its own file
+    return false;
+  }
+
   @Override
   public TileWriter newTileWriter() {
     return new TileFilesWriter(basePath, tileSchemeEncoder, bytesWritten.counterForThread());
@@ -0,0 +1,163 @@
+package com.onthegomap.planetiler.pmtiles;
+
+import com.carrotsearch.hppc.sorting.IndirectSort;
+import com.onthegomap.planetiler.collection.AppendStore;
+import com.onthegomap.planetiler.collection.Storage;
+import com.onthegomap.planetiler.util.FileUtils;
+import java.io.Closeable;
+import java.io.IOException;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Columnar storage for the tile ID, offset, length, and run length of every {@link Pmtiles.Entry} in an archive, using
+ * an {@link AppendStore} for each so that entries for a large archive can live outside the JVM heap or in a
+ * memory-mapped file until the directories get built.
+ * <p>
+ * The last entry stays in fields until the next one is added so that its run length can still be incremented, and
+ * gets appended to the columns once entries are read back.
+ */
+@NotThreadSafe
+class EntryStore implements Pmtiles.Entries, Closeable {
+
+  private final Storage storage;
+  private final Storage.Params params;
+  private final AppendStore.Longs tileIds;
+  private final AppendStore.Longs offsets;
+  private final AppendStore.Ints lengths;
+  private final AppendStore.Ints runLengths;
+  private boolean hasLast = false;
+  private long lastTileId;
+  private long lastOffset;
+  private int lastLength;
+  private int lastRunLength;
+
+  /**
+   * Creates a new empty store.
+   *
+   * @param storage how to store the entries
+   * @param params  options for {@code storage}, where {@link Storage.Params#path()} is a directory to write files to
+   *                for {@link Storage#MMAP}
+   */
+  EntryStore(Storage storage, Storage.Params params) {
+    this.storage = storage;
+    this.params = params;
+    if (storage == Storage.MMAP) {
+      FileUtils.createDirectory(params.path());
+    }
+    tileIds = AppendStore.Longs.create(storage, resolve(params, "tile_ids"));
+    offsets = AppendStore.Longs.create(storage, resolve(params, "offsets"));
+    lengths = AppendStore.Ints.create(storage, resolve(params, "lengths"));
+    runLengths = AppendStore.Ints.create(storage, resolve(params, "run_lengths"));
+  }
+
+  private static Storage.Params resolve(Storage.Params params, String name) {
+    return params == null ? null : params.resolve(name);
+  }
+
+  /** Adds a new entry after all the existing ones. */
+  void add(long tileId, long offset, int length, int runLength) {
+    flush();
+    hasLast = true;
+    lastTileId = tileId;
+    lastOffset = offset;
+    lastLength = length;
+    lastRunLength = runLength;
+  }
+
+  /** Returns true if the last entry added ends right before {@code tileId} and points to the data at {@code offset}. */
+  boolean canExtendLast(long tileId, long offset) {
+    return hasLast && lastTileId + lastRunLength == tileId && lastOffset == offset;
+  }
+
+  /** Increments the run length of the last entry added. */
+  void extendLast() {
+    lastRunLength++;
+  }
+
+  /** Returns the tile ID of the last entry added, or -1 if there are none. */
+  long lastTileId() {
+    return hasLast ? lastTileId : -1;
+  }
+
+  private void flush() {
+    if (hasLast) {
+      tileIds.appendLong(lastTileId);
+      offsets.appendLong(lastOffset);
+      lengths.appendInt(lastLength);
+      runLengths.appendInt(lastRunLength);
+      hasLast = false;
+    }
+  }
+
+  /**
+   * Returns a new store with the same entries sorted by tile ID, and adjacent runs that point to the same tile data
+   * merged into a single entry, since tiles written out of order could not be merged as they were written.
+   * <p>
+   * Sorting needs 4 bytes of heap per entry for the sort order.
+   */
+  EntryStore sorted(Storage.Params sortedParams) {
+    flush();
+    if (tileIds.size() > Integer.MAX_VALUE) {
+      throw new IllegalStateException("Too many entries to sort: " + tileIds.size());
+    }
+    int[] order = IndirectSort.mergesort(0, (int) tileIds.size(),
+      (a, b) -> Long.compare(tileIds.getLong(a), tileIds.getLong(b)));
+    EntryStore result = new EntryStore(storage, sortedParams);
+    for (int i : order) {
+      long tileId = tileIds.getLong(i);
+      long offset = offsets.getLong(i);
+      int length = lengths.getInt(i);
+      int runLength = runLengths.getInt(i);
+      if (result.hasLast && result.lastTileId + result.lastRunLength == tileId && result.lastOffset == offset &&
+        result.lastLength == length) {
+        result.lastRunLength += runLength;
+      } else {
+        result.add(tileId, offset, length, runLength);
+      }
+    }
+    result.flush();
+    return result;
+  }
+
+  @Override
+  public long size() {
+    flush();
+    return tileIds.size();
+  }
+
+  @Override
+  public long tileId(long index) {
+    return tileIds.getLong(index);
+  }
+
+  @Override
+  public long offset(long index) {
+    return offsets.getLong(index);
+  }
+
+  @Override
+  public int length(long index) {
+    return lengths.getInt(index);
+  }
+
+  @Override
+  public int runLength(long index) {
+    return runLengths.getInt(index);
+  }
+
+  /** Returns a new {@link Pmtiles.Entry} with the fields of the entry at {@code index}. */
+  Pmtiles.Entry get(long index) {
+    return new Pmtiles.Entry(tileId(index), offset(index), length(index), runLength(index));
+  }
+
+  @Override
+  public void close() throws IOException {
+    tileIds.close();
+    offsets.close();
+    lengths.close();
+    runLengths.close();
+    if (storage == Storage.MMAP) {
+      FileUtils.delete(params.path());
+    }
+  }
+}
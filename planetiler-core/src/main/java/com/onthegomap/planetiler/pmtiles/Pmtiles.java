@@ -30,7 +30,9 @@ public class Pmtiles {
   public enum Compression {
     UNKNOWN((byte) 0),
     NONE((byte) 1),
-    GZIP((byte) 2);
+    GZIP((byte) 2),
+    BROTLI((byte) 3),
+    ZSTD((byte) 4);
 
     private final byte value;
 
@@ -271,6 +273,52 @@ public class Pmtiles {
   }
 
 
+  /**
+   * Random access to the fields of directory entries, without needing an {@link Entry} object for each one.
+   */
+  interface Entries {
+
+    /** Returns a view over the entries in {@code list}. */
+    static Entries of(List<Entry> list) {
+      return new Entries() {
+        @Override
+        public long size() {
+          return list.size();
+        }
+
+        @Override
+        public long tileId(long index) {
+          return list.get((int) index).tileId;
+        }
+
+        @Override
+        public long offset(long index) {
+          return list.get((int) index).offset;
+        }
+
+        @Override
+        public int length(long index) {
+          return list.get((int) index).length;
+        }
+
+        @Override
+        public int runLength(long index) {
+          return list.get((int) index).runLength;
+        }
+      };
+    }
+
+    long size();
+
+    long tileId(long index);
+
+    long offset(long index);
+
+    int length(long index);
+
+    int runLength(long index);
+  }
+
   /**
    * Convert a range of entries from a directory to bytes.
    *
@@ -280,7 +328,7 @@ public class Pmtiles {
    * @return the uncompressed bytes of the directory.
    */
   public static byte[] directoryToBytes(List<Entry> slice, int start, int end) {
-    return directoryToBytes(start == 0 && end == slice.size() ? slice : slice.subList(start, end));
+    return directoryToBytes(Entries.of(slice), start, end);
   }
 
   /**
@@ -290,32 +338,47 @@ public class Pmtiles {
    * @return the uncompressed bytes of the directory.
    */
   public static byte[] directoryToBytes(List<Entry> slice) {
+    return directoryToBytes(Entries.of(slice), 0, slice.size());
+  }
+
+  /**
+   * Convert a range of entries from a directory to bytes, reading each field of the entries directly from
+   * {@code entries}.
+   *
+   * @param entries entries sorted by ascending {@code tileId}.
+   * @param start   the start index to serialize, inclusive.
+   * @param end     the end index, exclusive.
+   * @return the uncompressed bytes of the directory.
+   */
+  static byte[] directoryToBytes(Entries entries, long start, long end) {
     ByteArrayList dir = new ByteArrayList();
 
-    VarInt.putVarLong(slice.size(), dir);
+    VarInt.putVarLong(end - start, dir);
 
     long lastId = 0;
-    for (var entry : slice) {
-      VarInt.putVarLong(entry.tileId - lastId, dir);
-      lastId = entry.tileId;
+    for (long i = start; i < end; i++) {
+      long tileId = entries.tileId(i);
+      VarInt.putVarLong(tileId - lastId, dir);
+      lastId = tileId;
     }
 
-    for (var entry : slice) {
-      VarInt.putVarLong(entry.runLength, dir);
+    for (long i = start; i < end; i++) {
+      VarInt.putVarLong(entries.runLength(i), dir);
     }
 
-    for (var entry : slice) {
-      VarInt.putVarLong(entry.length, dir);
+    for (long i = start; i < end; i++) {
+      VarInt.putVarLong(entries.length(i), dir);
     }
 
-    Entry last = null;
-    for (var entry : slice) {
-      if (last != null && entry.offset == last.offset + last.length) {
+    long lastEnd = -1;
+    for (long i = start; i < end; i++) {
+      long offset = entries.offset(i);
+      if (offset == lastEnd) {
         VarInt.putVarLong(0, dir);
       } else {
-        VarInt.putVarLong(entry.offset + 1, dir);
+        VarInt.putVarLong(offset + 1, dir);
       }
-      last = entry;
+      lastEnd = offset + entries.length(i);
     }
 
     return dir.toArray();
@@ -1,46 +1,150 @@
 package com.onthegomap.planetiler.pmtiles;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.onthegomap.planetiler.archive.ReadableTileArchive;
 import com.onthegomap.planetiler.archive.Tile;
 import com.onthegomap.planetiler.archive.TileArchiveMetadata;
 import com.onthegomap.planetiler.archive.TileCompression;
 import com.onthegomap.planetiler.geo.TileCoord;
+import com.onthegomap.planetiler.util.ByteBufferUtil;
 import com.onthegomap.planetiler.util.CloseableIterator;
 import com.onthegomap.planetiler.util.Gzip;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import javax.annotation.concurrent.ThreadSafe;
 import org.locationtech.jts.geom.Coordinate;
 
+/**
+ * Reads tiles from a PMTiles archive.
+ * <p>
+ * {@link #getTile(int, int, int)} is safe to call from many threads at once: archives opened with
+ * {@link #newReadFromFile(Path)} are memory-mapped and archives backed by a {@link FileChannel} use positional reads
+ * so neither needs a lock, and parsed directories are kept in a bounded cache keyed by their offset so that lookups do
+ * not re-read and re-gunzip the same root and leaf directories.
+ *
+ * @see <a href="https://github.com/protomaps/PMTiles/blob/main/spec/v3/spec.md">PMTiles Specification</a>
+ */
+@ThreadSafe
 public class ReadablePmtiles implements ReadableTileArchive {
+  // 1GB segments, so that each fits in a single MappedByteBuffer
+  private static final int SEGMENT_BITS = 30;
+  private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+  // number of directory entries to keep parsed in memory, around 40 bytes each
+  private static final long DEFAULT_DIRECTORY_CACHE_ENTRIES = 1_000_000;
+  // number of root directory tile entries each worker reads at once in getAllTiles(threads)
+  private static final int ROOT_ENTRIES_PER_BATCH = 1_000;
   private final SeekableByteChannel channel;
+  private final FileChannel fileChannel;
+  private final MappedByteBuffer[] segments;
   private final Pmtiles.Header header;
+  private final Cache<Long, List<Pmtiles.Entry>> directoryCache;
+  // iterators from getAllTiles(threads) with workers that may still be reading from the archive
+  private final Set<ParallelTileIterator> openIterators = ConcurrentHashMap.newKeySet();
 
   public ReadablePmtiles(SeekableByteChannel channel) throws IOException {
+    this(channel, null, DEFAULT_DIRECTORY_CACHE_ENTRIES);
+  }
+
+  private ReadablePmtiles(SeekableByteChannel channel, MappedByteBuffer[] segments, long directoryCacheEntries)
+    throws IOException {
     this.channel = channel;
+    this.fileChannel = channel instanceof FileChannel file ? file : null;
+    this.segments = segments;
+    this.directoryCache = CacheBuilder.newBuilder()
+      .maximumWeight(directoryCacheEntries)
+      .<Long, List<Pmtiles.Entry>>weigher((offset, entries) -> entries.size())
+      .build();
 
     this.header = Pmtiles.Header.fromBytes(getBytes(0, Pmtiles.HEADER_LEN));
   }
 
+  /** Returns a new reader that memory-maps the archive at {@code path}. */
   public static ReadableTileArchive newReadFromFile(Path path) throws IOException {
-    return new ReadablePmtiles(FileChannel.open(path, StandardOpenOption.READ));
+    return newReadFromFile(path, true);
+  }
+
+  /**
+   * Returns a new reader for the archive at {@code path} that memory-maps it if {@code mmap} is true, or uses
+   * positional reads otherwise.
+   */
+  public static ReadablePmtiles newReadFromFile(Path path, boolean mmap) throws IOException {
+    var file = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      var segments = mmap ? ByteBufferUtil.mapFile(file, file.size(), 1L << SEGMENT_BITS, false) : null;
+      return new ReadablePmtiles(file, segments, DEFAULT_DIRECTORY_CACHE_ENTRIES);
+    } catch (IOException | RuntimeException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  private byte[] getBytes(long start, int length) throws IOException {
+    if (segments != null) {
+      return getMappedBytes(start, length);
+    } else if (fileChannel != null) {
+      var buf = ByteBuffer.allocate(length);
+      while (buf.hasRemaining()) {
+        if (fileChannel.read(buf, start + buf.position()) < 0) {
+          break;
+        }
+      }
+      return buf.array();
+    }
+    return getBytesFromChannel(start, length);
   }
 
-  private synchronized byte[] getBytes(long start, int length) throws IOException {
+  private synchronized byte[] getBytesFromChannel(long start, int length) throws IOException {
     channel.position(start);
     var buf = ByteBuffer.allocate(length);
     channel.read(buf);
     return buf.array();
   }
 
+  private byte[] getMappedBytes(long start, int length) {
+    byte[] result = new byte[length];
+    int copied = 0;
+    while (copied < length) {
+      long position = start + copied;
+      int segment = (int) (position >>> SEGMENT_BITS);
+      if (segment >= segments.length) {
+        break;
+      }
+      int offset = (int) (position & SEGMENT_MASK);
+      var buffer = segments[segment];
+      int toCopy = Math.min(length - copied, buffer.limit() - offset);
+      // absolute get does not touch the buffer position, so concurrent reads are safe
+      buffer.get(offset, result, copied, toCopy);
+      copied += toCopy;
+    }
+    return result;
+  }
+
   /**
    * Finds the relevant entry for a tileId in a list of entries.
    * <p>
@@ -77,12 +181,7 @@ public class ReadablePmtiles implements ReadableTileArchive {
       int dirLength = (int) header.rootDirLength();
 
       for (int depth = 0; depth <= 3; depth++) {
-        byte[] dirBytes = getBytes(dirOffset, dirLength);
-        if (header.internalCompression() == Pmtiles.Compression.GZIP) {
-          dirBytes = Gzip.gunzip(dirBytes);
-        }
-
-        var dir = Pmtiles.directoryFromBytes(dirBytes);
+        var dir = getCachedDir(dirOffset, dirLength);
         var entry = findTile(dir, tileId);
         if (entry != null) {
           if (entry.runLength() > 0) {
@@ -121,6 +220,8 @@ public class ReadablePmtiles implements ReadableTileArchive {
     TileCompression tileCompression = switch (header.tileCompression()) {
       case GZIP -> TileCompression.GZIP;
       case NONE -> TileCompression.NONE;
+      case BROTLI -> TileCompression.BROTLI;
+      case ZSTD -> TileCompression.ZSTD;
       case UNKNOWN -> TileCompression.UNKNOWN;
     };
 
@@ -156,6 +257,14 @@ public class ReadablePmtiles implements ReadableTileArchive {
     }
   }
 
+  private List<Pmtiles.Entry> getCachedDir(long offset, int length) throws IOException {
+    try {
+      return directoryCache.get(offset, () -> readDir(offset, length));
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof IOException ioe ? ioe : new IOException(e.getCause());
+    }
+  }
+
   private List<Pmtiles.Entry> readDir(long offset, int length) {
     try {
       var buf = getBytes(offset, length);
@@ -204,8 +313,160 @@ public class ReadablePmtiles implements ReadableTileArchive {
     return CloseableIterator.of(getTiles(rootDir));
   }
 
+  /**
+   * Returns an iterator over all tiles in the archive in tile order like {@link #getAllTiles()}, but uses
+   * {@code threads} background threads to read leaf directories and tile data ahead of the caller.
+   */
+  @Override
+  public CloseableIterator<Tile> getAllTiles(int threads) {
+    if (threads <= 1) {
+      return getAllTiles();
+    }
+    List<Pmtiles.Entry> rootDir = readDir(header.rootDirOffset(), (int) header.rootDirLength());
+    List<Callable<List<LoadedEntry>>> batches = new ArrayList<>();
+    List<Pmtiles.Entry> rootTiles = new ArrayList<>();
+    for (var entry : rootDir) {
+      if (entry.runLength() == 0) {
+        addBatch(batches, rootTiles);
+        rootTiles = new ArrayList<>();
+        batches.add(() -> loadEntries(readDir(header.leafDirectoriesOffset() + entry.offset(), entry.length())));
+      } else {
+        rootTiles.add(entry);
+        if (rootTiles.size() >= ROOT_ENTRIES_PER_BATCH) {
+          addBatch(batches, rootTiles);
+          rootTiles = new ArrayList<>();
+        }
+      }
+    }
+    addBatch(batches, rootTiles);
+    var iterator = new ParallelTileIterator(batches.iterator(), threads, openIterators::remove);
+    openIterators.add(iterator);
+    return iterator;
+  }
+
+  private void addBatch(List<Callable<List<LoadedEntry>>> batches, List<Pmtiles.Entry> entries) {
+    if (!entries.isEmpty()) {
+      batches.add(() -> loadEntries(entries));
+    }
+  }
+
+  /** Reads the tile data for every entry in {@code dir}, and every entry in leaf directories under it. */
+  private List<LoadedEntry> loadEntries(List<Pmtiles.Entry> dir) throws IOException {
+    List<LoadedEntry> result = new ArrayList<>(dir.size());
+    for (var entry : dir) {
+      if (entry.runLength() == 0) {
+        result.addAll(loadEntries(readDir(header.leafDirectoriesOffset() + entry.offset(), entry.length())));
+      } else {
+        result.add(new LoadedEntry(entry, getBytes(header.tileDataOffset() + entry.offset(), entry.length())));
+      }
+    }
+    return result;
+  }
+
   @Override
   public void close() throws IOException {
+    // stop background readers before unmapping the segments they read from
+    for (var iterator : List.copyOf(openIterators)) {
+      iterator.close();
+    }
     channel.close();
+    directoryCache.invalidateAll();
+    if (segments != null) {
+      ByteBufferUtil.free(segments);
+    }
+  }
+
+  private record LoadedEntry(Pmtiles.Entry entry, byte[] data) {}
+
+  /**
+   * Emits tiles from batches of directory entries in order, while a pool of threads loads the next batches in the
+   * background.
+   * <p>
+   * Runs of repeated tiles are only expanded into {@link Tile} instances as the caller consumes them.
+   */
+  private static class ParallelTileIterator implements CloseableIterator<Tile> {
+    private final Iterator<Callable<List<LoadedEntry>>> batches;
+    private final ExecutorService executor;
+    private final Queue<Future<List<LoadedEntry>>> pending = new ArrayDeque<>();
+    private final int maxPending;
+    private final Consumer<ParallelTileIterator> onClose;
+    private Iterator<LoadedEntry> entries = Collections.emptyIterator();
+    private LoadedEntry current = null;
+    private int indexInRun = 0;
+
+    ParallelTileIterator(Iterator<Callable<List<LoadedEntry>>> batches, int threads,
+      Consumer<ParallelTileIterator> onClose) {
+      this.batches = batches;
+      this.maxPending = threads * 2;
+      this.onClose = onClose;
+      this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+        Thread thread = new Thread(runnable, "pmtiles_read");
+        thread.setDaemon(true);
+        return thread;
+      });
+      fillQueue();
+    }
+
+    private void fillQueue() {
+      while (pending.size() < maxPending && batches.hasNext()) {
+        pending.add(executor.submit(batches.next()));
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (current == null || indexInRun >= current.entry().runLength()) {
+        if (entries.hasNext()) {
+          current = entries.next();
+          indexInRun = 0;
+        } else if (pending.isEmpty()) {
+          return false;
+        } else {
+          entries = awaitNextBatch().iterator();
+        }
+      }
+      return true;
+    }
+
+    private List<LoadedEntry> awaitNextBatch() {
+      try {
+        var result = pending.poll().get();
+        fillQueue();
+        return result;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Failed to iterate through pmtiles archive", e.getCause());
+      }
+    }
+
+    @Override
+    public Tile next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      long tileId = current.entry().tileId() + indexInRun++;
+      return new Tile(TileCoord.hilbertDecode((int) tileId), current.data());
+    }
+
+    /** Stops loading batches and waits for workers to finish the ones they are reading. */
+    @Override
+    public void close() {
+      executor.shutdownNow();
+      boolean interrupted = false;
+      while (!executor.isTerminated()) {
+        try {
+          executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+          // keep waiting, otherwise the archive could get unmapped while a worker is still reading from it
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      onClose.accept(this);
+    }
   }
 }
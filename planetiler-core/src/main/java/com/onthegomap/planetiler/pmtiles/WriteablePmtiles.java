@@ -1,11 +1,13 @@
 package com.onthegomap.planetiler.pmtiles;
 
 import com.carrotsearch.hppc.ByteArrayList;
-import com.carrotsearch.hppc.LongLongHashMap;
 import com.onthegomap.planetiler.archive.TileArchiveMetadata;
 import com.onthegomap.planetiler.archive.TileEncodingResult;
 import com.onthegomap.planetiler.archive.WriteableTileArchive;
-import com.onthegomap.planetiler.collection.Hppc;
+import com.onthegomap.planetiler.collection.AppendStore;
+import com.onthegomap.planetiler.collection.OffHeapLongLongHashMap;
+import com.onthegomap.planetiler.collection.Storage;
+import com.onthegomap.planetiler.config.Arguments;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.geo.GeoUtils;
 import com.onthegomap.planetiler.geo.TileCoord;
@@ -14,6 +16,8 @@ import com.onthegomap.planetiler.util.FileUtils;
 import com.onthegomap.planetiler.util.Format;
 import com.onthegomap.planetiler.util.Gzip;
 import com.onthegomap.planetiler.util.SeekableInMemoryByteChannel;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
@@ -23,11 +27,13 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.OptionalLong;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.LongSupplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,25 +45,61 @@ import org.slf4j.LoggerFactory;
  */
 public final class WriteablePmtiles implements WriteableTileArchive {
 
+  // Options that can be set through "file.pmtiles?clustered=false" query parameters
+  // or "file.pmtiles" with "--pmtiles-clustered=false" command-line flag
+  public static final String CLUSTERED = "clustered";
+  public static final String INDEX_STORAGE = "index_storage";
+
   static final int INIT_SECTION = 16384;
   private static final Logger LOGGER = LoggerFactory.getLogger(WriteablePmtiles.class);
-  final LongLongHashMap hashToOffset = Hppc.newLongLongHashMap();
-  final ArrayList<Pmtiles.Entry> entries = new ArrayList<>();
   private final SeekableByteChannel out;
-  private long currentOffset = 0;
-  private long numUnhashedTiles = 0;
-  private long numAddressedTiles = 0;
-  private boolean isClustered = true;
+  // tile data written straight to the archive, or merged into it from each tile writer's segment in finish
+  private final Segment output;
+  private final List<Segment> segments = Collections.synchronizedList(new ArrayList<>());
+  private final AtomicInteger segmentIds = new AtomicInteger(0);
 
   private final LongSupplier bytesWritten;
-
-  private WriteablePmtiles(SeekableByteChannel channel, LongSupplier bytesWritten) throws IOException {
+  private final boolean clustered;
+  private final Storage indexStorage;
+  private final Path indexDir;
+  private final int tileWriteThreads;
+  private final Path segmentDir;
+
+  private WriteablePmtiles(SeekableByteChannel channel, LongSupplier bytesWritten, Path tempPath, Arguments options,
+    int tileWriteThreads) throws IOException {
+    this.clustered = options.getBoolean(
+      CLUSTERED,
+      "pmtiles: write tile data in tile order, otherwise write tiles as soon as they are encoded and sort the " +
+        "directory at the end",
+      true
+    );
+    this.indexStorage = Storage.from(options.getString(
+      INDEX_STORAGE,
+      "pmtiles: storage for the directory entries while writing, one of " +
+        Arrays.stream(Storage.values()).map(Storage::id).toList(),
+      Storage.DIRECT.id()
+    ));
+    if (indexStorage == Storage.MMAP && tempPath == null) {
+      throw new IllegalArgumentException("pmtiles: " + INDEX_STORAGE + "=mmap requires writing to a file");
+    }
+    this.indexDir = indexStorage == Storage.MMAP ? tempPath.resolveSibling(tempPath.getFileName() + ".index") : null;
+    this.tileWriteThreads = tileWriteThreads;
+    this.segmentDir =
+      tileWriteThreads > 1 && tempPath != null ? tempPath.resolveSibling(tempPath.getFileName() + ".segments") : null;
+    if (segmentDir != null) {
+      FileUtils.createDirectory(segmentDir);
+    }
     this.out = channel;
+    this.output = new Segment(channel, new EntryStore(indexStorage, indexParams("entries")), false);
     out.write(ByteBuffer.allocate(INIT_SECTION));
     this.bytesWritten = bytesWritten;
   }
 
-  private static Directories makeDirectoriesWithLeaves(List<Pmtiles.Entry> subEntries, int leafSize, int attemptNum)
+  private Storage.Params indexParams(String name) {
+    return indexDir == null ? null : new Storage.Params(indexDir.resolve(name), false);
+  }
+
+  private static Directories makeDirectoriesWithLeaves(Pmtiles.Entries subEntries, int leafSize, int attemptNum)
     throws IOException {
     LOGGER.info("Building directories with {} entries per leaf, attempt {}...", leafSize, attemptNum);
     ArrayList<Pmtiles.Entry> rootEntries = new ArrayList<>();
@@ -65,15 +107,12 @@ public final class WriteablePmtiles implements WriteableTileArchive {
     int leavesLength = 0;
     int numLeaves = 0;
 
-    for (int i = 0; i < subEntries.size(); i += leafSize) {
+    for (long i = 0; i < subEntries.size(); i += leafSize) {
       numLeaves++;
-      int end = i + leafSize;
-      if (i + leafSize > subEntries.size()) {
-        end = subEntries.size();
-      }
+      long end = Math.min(i + leafSize, subEntries.size());
       byte[] leafBytes = Pmtiles.directoryToBytes(subEntries, i, end);
       leafBytes = Gzip.gzip(leafBytes);
-      rootEntries.add(new Pmtiles.Entry(subEntries.get(i).tileId(), leavesLength, leafBytes.length, 0));
+      rootEntries.add(new Pmtiles.Entry(subEntries.tileId(i), leavesLength, leafBytes.length, 0));
       leavesOutputStream.add(leafBytes);
       leavesLength += leafBytes.length;
     }
@@ -94,6 +133,15 @@ public final class WriteablePmtiles implements WriteableTileArchive {
    * @throws IOException if compression fails
    */
   static Directories makeDirectories(List<Pmtiles.Entry> entries) throws IOException {
+    return makeDirectories(Pmtiles.Entries.of(entries));
+  }
+
+  /**
+   * Serialize all entries into bytes, streaming over {@code entries} without copying them into a list.
+   *
+   * @see #makeDirectories(List)
+   */
+  static Directories makeDirectories(Pmtiles.Entries entries) throws IOException {
     int maxEntriesRootOnly = 16384;
     int attemptNum = 1;
     if (entries.size() < maxEntriesRootOnly) {
@@ -118,14 +166,52 @@ public final class WriteablePmtiles implements WriteableTileArchive {
   }
 
   public static WriteablePmtiles newWriteToFile(Path path) throws IOException {
+    return newWriteToFile(path, Arguments.of());
+  }
+
+  /** Returns a new pmtiles writer to {@code path} with extra pmtiles options set from {@code options}. */
+  public static WriteablePmtiles newWriteToFile(Path path, Arguments options) throws IOException {
     return new WriteablePmtiles(
       FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE),
-      () -> FileUtils.size(path)
+      () -> FileUtils.size(path),
+      path,
+      options,
+      1
+    );
+  }
+
+  /**
+   * Returns a new pmtiles writer to {@code path} where each of {@code tileWriteThreads} tile writers appends tile data
+   * to its own temporary segment file that gets merged into the archive in {@link #finish(TileArchiveMetadata)}.
+   */
+  public static WriteablePmtiles newWriteToFile(Path path, Arguments options, int tileWriteThreads)
+    throws IOException {
+    return new WriteablePmtiles(
+      FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE),
+      () -> FileUtils.size(path),
+      path,
+      options,
+      tileWriteThreads
     );
   }
 
   public static WriteablePmtiles newWriteToMemory(SeekableInMemoryByteChannel bytes) throws IOException {
-    return new WriteablePmtiles(bytes, () -> 0);
+    return newWriteToMemory(bytes, Arguments.of());
+  }
+
+  /** Returns a new pmtiles writer to {@code bytes} with extra pmtiles options set from {@code options}. */
+  public static WriteablePmtiles newWriteToMemory(SeekableInMemoryByteChannel bytes, Arguments options)
+    throws IOException {
+    return newWriteToMemory(bytes, options, 1);
+  }
+
+  /**
+   * Returns a new pmtiles writer to {@code bytes} where each of {@code tileWriteThreads} tile writers appends tile data
+   * to its own in-memory segment.
+   */
+  public static WriteablePmtiles newWriteToMemory(SeekableInMemoryByteChannel bytes, Arguments options,
+    int tileWriteThreads) throws IOException {
+    return new WriteablePmtiles(bytes, () -> 0, null, options, tileWriteThreads);
   }
 
   @Override
@@ -138,13 +224,138 @@ public final class WriteablePmtiles implements WriteableTileArchive {
     return TileOrder.HILBERT;
   }
 
+  @Override
+  public boolean requiresOrderedWrites() {
+    // segments get sorted when they are merged, so writers can take tiles in any order
+    return clustered && tileWriteThreads <= 1;
+  }
+
+  /**
+   * Appends the tile data from each segment to the archive, skipping tile contents that an earlier segment already
+   * wrote, then adds each segment's entries to {@link #output} with offsets rebased to where its data ended up.
+   * <p>
+   * Contents get written to a segment back-to-back, so their local offsets only increase and the content an entry
+   * points to can be found with a binary search over them.
+   */
+  private void mergeSegments() throws IOException {
+    LOGGER.info("Merging {} segments...", segments.size());
+    for (var segment : segments) {
+      try (
+        var localOffsets = AppendStore.Longs.create(Storage.DIRECT, null);
+        var rebasedOffsets = AppendStore.Longs.create(Storage.DIRECT, null)
+      ) {
+        long localOffset = 0;
+        long copyStart = 0;
+        long copyLength = 0;
+        for (long i = 0; i < segment.contentLengths.size(); i++) {
+          int length = segment.contentLengths.getInt(i);
+          boolean hashed = !segment.unhashedContents.get(Math.toIntExact(i));
+          long hash = segment.contentHashes.getLong(i);
+          long existing = hashed ? output.hashToOffset.getOrDefault(hash, -1) : -1;
+          localOffsets.appendLong(localOffset);
+          if (existing >= 0) {
+            copy(segment.channel, copyStart, copyLength);
+            copyLength = 0;
+            rebasedOffsets.appendLong(existing);
+          } else {
+            if (hashed) {
+              output.hashToOffset.put(hash, output.currentOffset);
+            } else {
+              output.numUnhashedTiles++;
+            }
+            if (copyLength == 0) {
+              copyStart = localOffset;
+            }
+            copyLength += length;
+            rebasedOffsets.appendLong(output.currentOffset);
+            output.currentOffset += length;
+          }
+          localOffset += length;
+        }
+        copy(segment.channel, copyStart, copyLength);
+        for (long i = 0; i < segment.entries.size(); i++) {
+          long content = indexOf(localOffsets, segment.entries.offset(i));
+          output.entries.add(segment.entries.tileId(i), rebasedOffsets.getLong(content), segment.entries.length(i),
+            segment.entries.runLength(i));
+        }
+        output.numAddressedTiles += segment.numAddressedTiles;
+      }
+      segment.close();
+    }
+    // tile data is grouped by segment now instead of in tile order
+    output.isClustered = false;
+    LOGGER.info("Done merging segments.");
+  }
+
+  /** Returns the index of {@code value} in {@code sorted}, which must contain it. */
+  private static long indexOf(AppendStore.Longs sorted, long value) {
+    long lo = 0;
+    long hi = sorted.size() - 1;
+    while (lo <= hi) {
+      long mid = (lo + hi) >>> 1;
+      long midValue = sorted.getLong(mid);
+      if (midValue < value) {
+        lo = mid + 1;
+      } else if (midValue > value) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    throw new IllegalStateException("No tile data at offset " + value);
+  }
+
+  /** Appends {@code length} bytes starting at {@code start} in {@code from} to the archive. */
+  private void copy(SeekableByteChannel from, long start, long length) throws IOException {
+    if (from instanceof FileChannel file) {
+      for (long copied = 0; copied < length;) {
+        long transferred = file.transferTo(start + copied, length - copied, out);
+        if (transferred <= 0) {
+          throw new EOFException("Unexpected end of segment at " + (start + copied));
+        }
+        copied += transferred;
+      }
+    } else {
+      from.position(start);
+      var buffer = ByteBuffer.allocate((int) Math.min(length, 1 << 20));
+      for (long remaining = length; remaining > 0;) {
+        buffer.clear().limit((int) Math.min(remaining, buffer.capacity()));
+        if (from.read(buffer) < 0) {
+          throw new EOFException("Unexpected end of segment at " + (start + length - remaining));
+        }
+        buffer.flip();
+        remaining -= buffer.remaining();
+        while (buffer.hasRemaining()) {
+          out.write(buffer);
+        }
+      }
+    }
+  }
+
   @Override
   public void finish(TileArchiveMetadata tileArchiveMetadata) {
-    if (!isClustered) {
+    try {
+      if (!segments.isEmpty()) {
+        mergeSegments();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    if (!output.isClustered) {
       LOGGER.info("Tile data was not written in order, sorting entries...");
-      Collections.sort(entries);
+      var sorted = output.entries.sorted(indexParams("sorted"));
+      try {
+        output.entries.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      output.entries = sorted;
       LOGGER.info("Done sorting.");
     }
+    var entries = output.entries;
+    long numAddressedTiles = output.numAddressedTiles;
+    long numTileContents = output.hashToOffset.size() + output.numUnhashedTiles;
+    long currentOffset = output.currentOffset;
     try {
       Directories directories = makeDirectories(entries);
       // use treemap to ensure consistent ouput between runs
@@ -180,6 +391,8 @@ public final class WriteablePmtiles implements WriteableTileArchive {
       Pmtiles.Compression tileCompression = switch (tileArchiveMetadata.tileCompression()) {
         case GZIP -> Pmtiles.Compression.GZIP;
         case NONE -> Pmtiles.Compression.NONE;
+        case BROTLI -> Pmtiles.Compression.BROTLI;
+        case ZSTD -> Pmtiles.Compression.ZSTD;
         default -> Pmtiles.Compression.UNKNOWN;
       };
 
@@ -195,8 +408,8 @@ public final class WriteablePmtiles implements WriteableTileArchive {
         currentOffset,
         numAddressedTiles,
         entries.size(),
-        hashToOffset.size() + numUnhashedTiles,
-        isClustered,
+        numTileContents,
+        output.isClustered,
         Pmtiles.Compression.GZIP,
         tileCompression,
         outputFormat,
@@ -226,7 +439,7 @@ public final class WriteablePmtiles implements WriteableTileArchive {
       if (LOGGER.isInfoEnabled()) {
         LOGGER.info("# addressed tiles: {}", numAddressedTiles);
         LOGGER.info("# of tile entries: {}", entries.size());
-        LOGGER.info("# of tile contents: {}", (hashToOffset.size() + numUnhashedTiles));
+        LOGGER.info("# of tile contents: {}", numTileContents);
         LOGGER.info("Root directory: {}B", format.storage(directories.root.length, false));
 
         LOGGER.info("# leaves: {}", directories.numLeaves);
@@ -254,10 +467,33 @@ public final class WriteablePmtiles implements WriteableTileArchive {
   @Override
   public void close() throws IOException {
     out.close();
+    output.close();
+    for (var segment : segments) {
+      segment.close();
+    }
+    if (indexDir != null) {
+      FileUtils.delete(indexDir);
+    }
+    if (segmentDir != null) {
+      FileUtils.delete(segmentDir);
+    }
   }
 
   public WriteableTileArchive.TileWriter newTileWriter() {
-    return new DeduplicatingTileWriter();
+    if (tileWriteThreads <= 1) {
+      return new DeduplicatingTileWriter(output);
+    }
+    try {
+      String name = "segment-" + segmentIds.getAndIncrement();
+      var channel = segmentDir == null ? new SeekableInMemoryByteChannel(0) :
+        FileChannel.open(segmentDir.resolve(name), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+          StandardOpenOption.WRITE);
+      var segment = new Segment(channel, new EntryStore(indexStorage, indexParams(name)), true);
+      segments.add(segment);
+      return new DeduplicatingTileWriter(segment);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
 
   public record Directories(byte[] root, byte[] leaves, int numLeaves, int leafSize, int numAttempts) {
@@ -292,12 +528,75 @@ public final class WriteablePmtiles implements WriteableTileArchive {
     }
   }
 
-  private class DeduplicatingTileWriter implements TileWriter {
-    Pmtiles.Entry lastEntry = null;
+  /**
+   * Tile data and directory entries written by a tile writer, either straight to the archive or to a temporary segment
+   * that gets merged into it later.
+   */
+  private class Segment implements Closeable {
+    private final SeekableByteChannel channel;
+    private final OffHeapLongLongHashMap hashToOffset = new OffHeapLongLongHashMap();
+    private EntryStore entries;
+    private long currentOffset = 0;
+    private long numUnhashedTiles = 0;
+    private long numAddressedTiles = 0;
+    private boolean isClustered = true;
+    // hash and length of each tile's data in the order it was written, for deduplicating across segments
+    private final AppendStore.Longs contentHashes;
+    private final AppendStore.Ints contentLengths;
+    private final BitSet unhashedContents;
+    private boolean closed = false;
+
+    Segment(SeekableByteChannel channel, EntryStore entries, boolean trackContents) {
+      this.channel = channel;
+      this.entries = entries;
+      this.contentHashes = trackContents ? AppendStore.Longs.create(Storage.DIRECT, null) : null;
+      this.contentLengths = trackContents ? AppendStore.Ints.create(Storage.DIRECT, null) : null;
+      this.unhashedContents = trackContents ? new BitSet() : null;
+    }
+
+    private void writeTileData(byte[] data, OptionalLong hash) throws IOException {
+      if (contentLengths != null) {
+        if (hash.isEmpty()) {
+          unhashedContents.set(Math.toIntExact(contentLengths.size()));
+        }
+        contentHashes.appendLong(hash.orElse(0));
+        contentLengths.appendInt(data.length);
+      }
+      var buffer = ByteBuffer.wrap(data);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      currentOffset += data.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!closed) {
+        closed = true;
+        if (channel != out) {
+          channel.close();
+        }
+        entries.close();
+        hashToOffset.close();
+        if (contentLengths != null) {
+          contentHashes.close();
+          contentLengths.close();
+        }
+      }
+    }
+  }
+
+  private static class DeduplicatingTileWriter implements TileWriter {
+    private final Segment segment;
+
+    DeduplicatingTileWriter(Segment segment) {
+      this.segment = segment;
+    }
 
     @Override
     public void write(TileEncodingResult encodingResult) {
-      numAddressedTiles++;
+      var entries = segment.entries;
+      segment.numAddressedTiles++;
       boolean writeTileData;
       long offset;
       OptionalLong tileDataHashOpt = encodingResult.tileDataHash();
@@ -306,46 +605,44 @@ public final class WriteablePmtiles implements WriteableTileArchive {
 
       long tileId = coord.hilbertEncoded();
 
-      if (!entries.isEmpty()) {
-        if (tileId < lastEntry.tileId()) {
-          isClustered = false;
-        } else if (tileId == lastEntry.tileId()) {
+      long lastTileId = entries.lastTileId();
+      if (lastTileId >= 0) {
+        if (tileId < lastTileId) {
+          segment.isClustered = false;
+        } else if (tileId == lastTileId) {
           LOGGER.error("Duplicate tile detected in writer");
         }
       }
 
       if (tileDataHashOpt.isPresent()) {
         long tileDataHash = tileDataHashOpt.getAsLong();
-        if (hashToOffset.containsKey(tileDataHash)) {
-          offset = hashToOffset.get(tileDataHash);
+        long existing = segment.hashToOffset.getOrDefault(tileDataHash, -1);
+        if (existing >= 0) {
+          offset = existing;
           writeTileData = false;
-          if (lastEntry != null && lastEntry.tileId() + lastEntry.runLength() == tileId &&
-            lastEntry.offset() == offset) {
-            lastEntry.runLength++;
+          if (entries.canExtendLast(tileId, offset)) {
+            entries.extendLast();
             return;
           }
         } else {
-          hashToOffset.put(tileDataHash, currentOffset);
-          offset = currentOffset;
+          segment.hashToOffset.put(tileDataHash, segment.currentOffset);
+          offset = segment.currentOffset;
           writeTileData = true;
         }
       } else {
-        numUnhashedTiles++;
-        offset = currentOffset;
+        segment.numUnhashedTiles++;
+        offset = segment.currentOffset;
         writeTileData = true;
       }
 
-      var newEntry = new Pmtiles.Entry(tileId, offset, data.length, 1);
-      entries.add(newEntry);
-      lastEntry = newEntry;
+      entries.add(tileId, offset, data.length, 1);
 
       if (writeTileData) {
         try {
-          out.write(ByteBuffer.wrap(data));
+          segment.writeTileData(data, tileDataHashOpt);
         } catch (IOException e) {
           throw new UncheckedIOException(e);
         }
-        currentOffset += data.length;
       }
     }
 
@@ -0,0 +1,235 @@
+package com.onthegomap.planetiler.reader.osm;
+
+import com.carrotsearch.hppc.LongHashSet;
+import com.carrotsearch.hppc.LongObjectHashMap;
+import com.carrotsearch.hppc.cursors.LongObjectCursor;
+import com.onthegomap.planetiler.collection.Hppc;
+import com.onthegomap.planetiler.util.FileUtils;
+import com.onthegomap.planetiler.util.Format;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.function.LongPredicate;
+import javax.annotation.concurrent.ThreadSafe;
+import org.locationtech.jts.geom.Envelope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An index saved next to an {@code .osm.pbf} file that records the type of elements in each block and the bounding box
+ * of each block of nodes, so that reads limited to a smaller area can skip node blocks without decompressing them.
+ * <p>
+ * Entries get recorded the first time a block is decoded in full, so the first pass over a file completes the index.
+ * Once every block in the file has an entry, {@link #filter(Envelope)} skips node blocks outside of the bounds. Way,
+ * relation, and mixed blocks are always read so that ways and multipolygons that cross the edge of the bounds stay
+ * complete.
+ */
+@ThreadSafe
+public class OsmBlockIndex {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(OsmBlockIndex.class);
+  private static final int MAGIC = 0x4f534d42; // "OSMB"
+  private static final int FORMAT_VERSION = 2;
+  private static final Format FORMAT = Format.defaultInstance();
+
+  private final Path path;
+  private final long inputSize;
+  private final long inputModified;
+  private final LongObjectHashMap<Entry> entries;
+  private int blockCount;
+  private boolean dirty = false;
+
+  private OsmBlockIndex(Path path, long inputSize, long inputModified, LongObjectHashMap<Entry> entries,
+    int blockCount) {
+    this.path = path;
+    this.inputSize = inputSize;
+    this.inputModified = inputModified;
+    this.entries = entries;
+    this.blockCount = blockCount;
+  }
+
+  /** Returns where the index for {@code input} gets saved. */
+  public static Path indexPath(Path input) {
+    return input.resolveSibling(input.getFileName() + ".blockindex");
+  }
+
+  /** Returns the index saved next to {@code input}, or an empty one if it is missing or was built from another file. */
+  public static OsmBlockIndex open(Path input) {
+    Path path = indexPath(input);
+    long size, modified;
+    try {
+      size = FileUtils.size(input);
+      modified = FileUtils.getLastModifiedTime(input);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    if (Files.exists(path)) {
+      try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 50_000))) {
+        if (in.readInt() == MAGIC && in.readInt() == FORMAT_VERSION && in.readLong() == size &&
+          in.readLong() == modified) {
+          int count = in.readInt();
+          LongObjectHashMap<Entry> entries = Hppc.newLongObjectHashMap(count);
+          for (int i = 0; i < count; i++) {
+            long offset = in.readLong();
+            entries.put(offset, new Entry(OsmElement.Type.values()[in.readByte()], in.readDouble(), in.readDouble(),
+              in.readDouble(), in.readDouble()));
+          }
+          LOGGER.info("Loaded OSM block index with {} blocks from {}", FORMAT.integer(count), path);
+          return new OsmBlockIndex(path, size, modified, entries, count);
+        }
+        LOGGER.info("OSM block index {} was built from a different input file, rebuilding it", path);
+      } catch (IOException e) {
+        LOGGER.warn("Unable to read OSM block index {}, rebuilding it: {}", path, e.toString());
+      }
+    }
+    return new OsmBlockIndex(path, size, modified, Hppc.newLongObjectHashMap(), -1);
+  }
+
+  /** Returns {@code true} if every block in the input file has an entry. */
+  public synchronized boolean isComplete() {
+    return blockCount >= 0 && entries.size() == blockCount;
+  }
+
+  /** Records the total number of data blocks after a read over the whole file. */
+  synchronized void setBlockCount(int count) {
+    blockCount = count;
+  }
+
+  /**
+   * Returns a predicate that tests the file offset of each block and returns {@code false} if it is a block of nodes
+   * outside {@code latLonBounds}, or one that reads everything if this index is not complete yet.
+   */
+  public synchronized LongPredicate filter(Envelope latLonBounds) {
+    if (latLonBounds == null || !isComplete()) {
+      return offset -> true;
+    }
+    int nodeBlocks = 0;
+    LongHashSet skip = new LongHashSet();
+    for (LongObjectCursor<Entry> cursor : entries) {
+      Entry entry = cursor.value;
+      if (entry.type == OsmElement.Type.NODE) {
+        nodeBlocks++;
+        if (!entry.envelope().intersects(latLonBounds)) {
+          skip.add(cursor.key);
+        }
+      }
+    }
+    LOGGER.info("Skipping {}/{} node blocks outside of {}", FORMAT.integer(skip.size()), FORMAT.integer(nodeBlocks),
+      latLonBounds);
+    return offset -> !skip.contains(offset);
+  }
+
+  /**
+   * Returns {@code block} as-is if it already has an entry, otherwise wraps it so that the entry gets recorded once its
+   * elements have all been iterated through.
+   */
+  OsmBlockSource.Block wrap(long offset, OsmBlockSource.Block block) {
+    synchronized (this) {
+      if (entries.containsKey(offset)) {
+        return block;
+      }
+    }
+    return () -> {
+      Iterable<OsmElement> elements = block.decodeElements();
+      return () -> new RecordingIterator(offset, elements.iterator());
+    };
+  }
+
+  private synchronized void record(long offset, Entry entry) {
+    if (!entries.containsKey(offset)) {
+      entries.put(offset, entry);
+      dirty = true;
+    }
+  }
+
+  /** Saves the index next to the input file if it is complete and has new entries. */
+  public synchronized void save() {
+    if (!dirty || !isComplete()) {
+      return;
+    }
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 50_000))) {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeLong(inputSize);
+      out.writeLong(inputModified);
+      out.writeInt(entries.size());
+      for (LongObjectCursor<Entry> cursor : entries) {
+        Entry entry = cursor.value;
+        out.writeLong(cursor.key);
+        out.writeByte(entry.type.ordinal());
+        out.writeDouble(entry.minLon);
+        out.writeDouble(entry.minLat);
+        out.writeDouble(entry.maxLon);
+        out.writeDouble(entry.maxLat);
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Unable to save OSM block index to {}: {}", path, e.toString());
+      FileUtils.delete(tmp);
+      return;
+    }
+    FileUtils.move(tmp, path);
+    dirty = false;
+    LOGGER.info("Saved OSM block index with {} blocks to {}", FORMAT.integer(entries.size()), path);
+  }
+
+  /**
+   * Summary of one block: {@code type} is {@link OsmElement.Type#OTHER} if it contains more than one type of element
+   * or none, and the envelope covers the nodes in a node block.
+   */
+  record Entry(OsmElement.Type type, double minLon, double minLat, double maxLon, double maxLat) {
+
+    Envelope envelope() {
+      return new Envelope(minLon, maxLon, minLat, maxLat);
+    }
+  }
+
+  /** Builds the entry for a block while its elements are iterated through. */
+  private class RecordingIterator implements Iterator<OsmElement> {
+
+    private final long offset;
+    private final Iterator<OsmElement> delegate;
+    private OsmElement.Type type = null;
+    private boolean mixed = false;
+    private final Envelope envelope = new Envelope();
+    private boolean recorded = false;
+
+    private RecordingIterator(long offset, Iterator<OsmElement> delegate) {
+      this.offset = offset;
+      this.delegate = delegate;
+    }
+
+    @Override
+    public boolean hasNext() {
+      boolean hasNext = delegate.hasNext();
+      if (!hasNext && !recorded) {
+        recorded = true;
+        record(offset, mixed || type == null ?
+          new Entry(OsmElement.Type.OTHER, 0, 0, 0, 0) :
+          new Entry(type, envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(), envelope.getMaxY()));
+      }
+      return hasNext;
+    }
+
+    @Override
+    public OsmElement next() {
+      OsmElement element = delegate.next();
+      OsmElement.Type elementType = element.type();
+      if (type == null) {
+        type = elementType;
+      } else if (type != elementType) {
+        mixed = true;
+      }
+      if (element instanceof OsmElement.Node node) {
+        envelope.expandToInclude(node.lon(), node.lat());
+      }
+      return element;
+    }
+  }
+}
@@ -1,7 +1,9 @@
 package com.onthegomap.planetiler.reader.osm;
 
 import java.io.Closeable;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.function.Consumer;
 
 /**
@@ -13,6 +15,31 @@ public interface OsmBlockSource extends Closeable {
   /** Calls {@code consumer} for each block from the input file sequentially in a single thread. */
   void forEachBlock(Consumer<Block> consumer);
 
+  /**
+   * Calls {@code consumer} for each block from the input file sequentially in a single thread, starting with the last
+   * block.
+   * <p>
+   * Blocks should be cheap to skip, so this is used to scan relations then ways at the end of a sorted file without
+   * decoding nodes. The default implementation holds every block from {@link #forEachBlock(Consumer)} in memory first
+   * so sources backed by large files should override it.
+   */
+  default void forEachBlockReversed(Consumer<Block> consumer) {
+    List<Block> blocks = new ArrayList<>();
+    forEachBlock(blocks::add);
+    blocks.reversed().forEach(consumer);
+  }
+
+  /**
+   * Calls {@code consumer} for each block from the input file sequentially in a single thread, but may leave out
+   * blocks of nodes that are known to be outside the bounds of the output.
+   * <p>
+   * Only use this once everything that needs nodes outside the bounds, like way geometries, has been read from
+   * {@link #forEachBlock(Consumer)}. The default implementation returns every block.
+   */
+  default void forEachBlockInBounds(Consumer<Block> consumer) {
+    forEachBlock(consumer);
+  }
+
   @Override
   default void close() {}
 
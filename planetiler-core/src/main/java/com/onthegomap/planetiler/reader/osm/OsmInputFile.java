@@ -1,5 +1,7 @@
 package com.onthegomap.planetiler.reader.osm;
 
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.LongArrayList;
 import com.onthegomap.planetiler.config.Bounds;
 import com.onthegomap.planetiler.reader.FileFormatException;
 import com.onthegomap.planetiler.util.ByteBufferUtil;
@@ -14,6 +16,7 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.LongPredicate;
 import java.util.function.Supplier;
 import org.locationtech.jts.geom.Envelope;
 import org.slf4j.Logger;
@@ -30,17 +33,35 @@ public class OsmInputFile implements Bounds.Provider, Supplier<OsmBlockSource>,
 
   private final Path path;
   private final boolean lazy;
+  private final boolean wireDecoder;
+  private OsmBlockIndex blockIndex = null;
+  private Envelope blockIndexBounds = null;
 
   /**
    * Creates a new OSM input file reader.
    *
+   * @param path        Path to the file
+   * @param lazyReads   If {@code true}, defers reading the actual content of each block from disk until the block is
+   *                    decoded in a worker thread.
+   * @param wireDecoder If {@code true}, decodes blocks straight from the protobuf wire format with
+   *                    {@link PbfWireDecoder} instead of building intermediate protobuf objects with
+   *                    {@link PbfDecoder}.
+   */
+  public OsmInputFile(Path path, boolean lazyReads, boolean wireDecoder) {
+    this.path = path;
+    lazy = lazyReads;
+    this.wireDecoder = wireDecoder;
+  }
+
+  /**
+   * Creates a new OSM input file reader that decodes blocks with {@link PbfWireDecoder}.
+   *
    * @param path      Path to the file
    * @param lazyReads If {@code true}, defers reading the actual content of each block from disk until the block is
    *                  decoded in a worker thread.
    */
   public OsmInputFile(Path path, boolean lazyReads) {
-    this.path = path;
-    lazy = lazyReads;
+    this(path, lazyReads, true);
   }
 
   public OsmInputFile(Path path) {
@@ -74,6 +95,20 @@ public class OsmInputFile implements Bounds.Provider, Supplier<OsmBlockSource>,
     return buf.flip().array();
   }
 
+  /**
+   * Records a summary of each block in {@code index} as it gets decoded, and once the index covers the whole file, lets
+   * {@link OsmBlockSource#forEachBlockInBounds(Consumer)} skip node blocks outside {@code latLonBounds}.
+   *
+   * @param index        index of blocks in this file
+   * @param latLonBounds area to limit reads to, or {@code null} to read every block
+   * @return this input file for chaining
+   */
+  public OsmInputFile setBlockIndex(OsmBlockIndex index, Envelope latLonBounds) {
+    this.blockIndex = index;
+    this.blockIndexBounds = latLonBounds;
+    return this;
+  }
+
   public static OsmBlockSource readFrom(Path path) {
     return new OsmInputFile(path).get();
   }
@@ -144,30 +179,39 @@ public class OsmInputFile implements Bounds.Provider, Supplier<OsmBlockSource>,
    * An OSM block reader that iterates through the input file in a single thread, reading the raw bytes of each block
    * and passing them off to worker threads.
    */
-  private class EagerReader implements OsmBlockSource {
+  private class EagerReader extends ReversibleReader {
 
     @Override
-    public void forEachBlock(Consumer<Block> consumer) {
+    void read(LongPredicate filter, Consumer<Block> consumer) {
+      int dataBlocks = 0;
       try (FileChannel channel = openChannel()) {
         final long size = channel.size();
         while (channel.position() < size) {
           BlobHeader header = readBlobHeader(channel);
-          byte[] blockBytes = readBytes(channel, header.getDatasize());
+          long blockStartPosition = channel.position();
           String headerType = header.getType();
           if ("OSMData".equals(headerType)) {
-            consumer.accept(new EagerBlock(blockBytes));
+            dataBlocks++;
+            if (filter.test(blockStartPosition)) {
+              byte[] blockBytes = readBytes(channel, header.getDatasize());
+              consumer.accept(indexed(blockStartPosition, new EagerBlock(blockBytes)));
+            } else {
+              channel.position(blockStartPosition + header.getDatasize());
+            }
           } else if ("OSMHeader".equals(headerType)) {
-            validateHeader(blockBytes);
+            validateHeader(readBytes(channel, header.getDatasize()));
           } else {
             LOGGER.warn("Unrecognized OSM PBF blob header type: {}", headerType);
+            channel.position(blockStartPosition + header.getDatasize());
           }
         }
       } catch (IOException e) {
         throw new UncheckedIOException(e);
       }
+      finishedReading(dataBlocks);
     }
 
-    private static final class EagerBlock implements Block {
+    private final class EagerBlock implements Block {
       // not a record since would need to override equals/hashcode for byte array anyway
       private final byte[] bytes;
 
@@ -176,7 +220,7 @@ public class OsmInputFile implements Bounds.Provider, Supplier<OsmBlockSource>,
       }
 
       public Iterable<OsmElement> decodeElements() {
-        return PbfDecoder.decode(bytes);
+        return wireDecoder ? PbfWireDecoder.decode(bytes) : PbfDecoder.decode(bytes);
       }
     }
   }
@@ -187,12 +231,11 @@ public class OsmInputFile implements Bounds.Provider, Supplier<OsmBlockSource>,
    * <p>
    * This may result in a speedup on some systems.
    */
-  private class LazyReader implements OsmBlockSource {
-
-    final FileChannel lazyReadChannel = openChannel();
+  private class LazyReader extends ReversibleReader {
 
     @Override
-    public void forEachBlock(Consumer<Block> consumer) {
+    void read(LongPredicate filter, Consumer<Block> consumer) {
+      int dataBlocks = 0;
       try (FileChannel channel = openChannel()) {
         final long size = channel.size();
         while (channel.position() < size) {
@@ -201,7 +244,11 @@ public class OsmInputFile implements Bounds.Provider, Supplier<OsmBlockSource>,
           String headerType = header.getType();
           long blockStartPosition = channel.position();
           if ("OSMData".equals(headerType)) {
-            consumer.accept(new LazyBlock(blockStartPosition, blockSize, lazyReadChannel));
+            dataBlocks++;
+            if (filter.test(blockStartPosition)) {
+              consumer.accept(indexed(blockStartPosition,
+                new LazyBlock(blockStartPosition, blockSize, lazyReadChannel, wireDecoder)));
+            }
           } else if ("OSMHeader".equals(headerType)) {
             validateHeader(readBytes(channel, blockStartPosition, blockSize));
           } else {
@@ -212,28 +259,90 @@ public class OsmInputFile implements Bounds.Provider, Supplier<OsmBlockSource>,
       } catch (IOException e) {
         throw new UncheckedIOException(e);
       }
+      finishedReading(dataBlocks);
+    }
+  }
+
+  /**
+   * Base class for OSM block readers that can iterate through blocks from the end of the file by scanning block headers
+   * first, then passing the position/offset of each data block to workers so they can read the contents from disk.
+   */
+  private abstract class ReversibleReader implements OsmBlockSource {
+
+    final FileChannel lazyReadChannel = openChannel();
+
+    /** Calls {@code consumer} for each data block whose file offset matches {@code filter}. */
+    abstract void read(LongPredicate filter, Consumer<Block> consumer);
+
+    @Override
+    public void forEachBlock(Consumer<Block> consumer) {
+      read(offset -> true, consumer);
+    }
+
+    @Override
+    public void forEachBlockInBounds(Consumer<Block> consumer) {
+      read(blockIndex == null ? offset -> true : blockIndex.filter(blockIndexBounds), consumer);
+    }
+
+    Block indexed(long offset, Block block) {
+      return blockIndex == null ? block : blockIndex.wrap(offset, block);
+    }
+
+    void finishedReading(int dataBlocks) {
+      if (blockIndex != null) {
+        blockIndex.setBlockCount(dataBlocks);
+      }
+    }
+
+    @Override
+    public void forEachBlockReversed(Consumer<Block> consumer) {
+      LongArrayList offsets = new LongArrayList();
+      IntArrayList lengths = new IntArrayList();
+      try (FileChannel channel = openChannel()) {
+        final long size = channel.size();
+        while (channel.position() < size) {
+          BlobHeader header = readBlobHeader(channel);
+          int blockSize = header.getDatasize();
+          long blockStartPosition = channel.position();
+          if ("OSMData".equals(header.getType())) {
+            offsets.add(blockStartPosition);
+            lengths.add(blockSize);
+          }
+          channel.position(blockStartPosition + blockSize);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      for (int i = offsets.size() - 1; i >= 0; i--) {
+        consumer.accept(indexed(offsets.get(i),
+          new LazyBlock(offsets.get(i), lengths.get(i), lazyReadChannel, wireDecoder)));
+      }
     }
 
     @Override
     public void close() {
+      if (blockIndex != null) {
+        blockIndex.save();
+      }
       try {
         lazyReadChannel.close();
       } catch (IOException e) {
         throw new UncheckedIOException(e);
       }
     }
+  }
 
-    private record LazyBlock(long offset, int length, FileChannel channel) implements Block {
+  private record LazyBlock(long offset, int length, FileChannel channel, boolean wireDecoder)
+    implements OsmBlockSource.Block {
 
-      public Iterable<OsmElement> decodeElements() {
-        try {
-          var buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
-          var result = PbfDecoder.decode(buffer);
-          ByteBufferUtil.free(buffer);
-          return result;
-        } catch (IOException e) {
-          throw new UncheckedIOException(e);
-        }
+    public Iterable<OsmElement> decodeElements() {
+      try {
+        var buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        var result = wireDecoder ? PbfWireDecoder.decode(buffer) : PbfDecoder.decode(buffer);
+        ByteBufferUtil.free(buffer);
+        return result;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
       }
     }
   }
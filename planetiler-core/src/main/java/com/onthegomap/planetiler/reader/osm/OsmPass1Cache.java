@@ -0,0 +1,305 @@
+package com.onthegomap.planetiler.reader.osm;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.onthegomap.planetiler.Profile;
+import com.onthegomap.planetiler.collection.LongLongMap;
+import com.onthegomap.planetiler.util.FileUtils;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import org.roaringbitmap.longlong.Roaring64Bitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A directory that holds the output of {@link OsmReader#pass1} so that later runs over the same input file can skip
+ * it.
+ * <p>
+ * Node locations and the ways that belong to multipolygons only depend on the input file and nodemap type so they get
+ * reused whenever those match. Relation info depends on the profile, so it only gets reused when
+ * {@link Profile#preprocessOsmRelationVersion()} returns the same non-null value it did when the cache was saved.
+ * <p>
+ * The manifest gets deleted before anything else in the directory changes and written last, so an interrupted run
+ * leaves a cache that the next run ignores.
+ */
+public class OsmPass1Cache {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(OsmPass1Cache.class);
+  private static final int FORMAT_VERSION = 1;
+  private static final String MANIFEST_FILE = "manifest.json";
+  private static final String NODES_DIR = "nodes";
+  private static final String MULTIPOLYGON_WAYS_FILE = "multipolygon_ways.bin";
+  private static final String RELATIONS_FILE = "relations.bin";
+  private static final long END_OF_RELATIONS = -1;
+  private static final ObjectMapper objectMapper = new ObjectMapper()
+    .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  private final Path dir;
+  private final Fingerprint fingerprint;
+  private final String relationVersion;
+  private Manifest manifest;
+
+  private OsmPass1Cache(Path dir, Fingerprint fingerprint, String relationVersion, Manifest manifest) {
+    this.dir = dir;
+    this.fingerprint = fingerprint;
+    this.relationVersion = relationVersion;
+    this.manifest = manifest;
+  }
+
+  /**
+   * Returns the pass 1 cache stored in {@code dir}, clearing anything in it that was saved from a different input file
+   * or nodemap type.
+   *
+   * @param dir             directory to save the cache in
+   * @param input           the OSM input file
+   * @param nodeMapType     nodemap implementation, which must be {@link LongLongMap#isPersistable persistable} with
+   *                        mmap storage
+   * @param relationVersion result of {@link Profile#preprocessOsmRelationVersion()}
+   */
+  public static OsmPass1Cache open(Path dir, Path input, LongLongMap.Type nodeMapType, String relationVersion) {
+    Fingerprint fingerprint;
+    try {
+      fingerprint = new Fingerprint(
+        input.toAbsolutePath().normalize().toString(),
+        FileUtils.size(input),
+        FileUtils.getLastModifiedTime(input),
+        nodeMapType.id()
+      );
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    Manifest manifest = null;
+    Path manifestPath = dir.resolve(MANIFEST_FILE);
+    if (Files.exists(manifestPath)) {
+      try {
+        manifest = objectMapper.readValue(manifestPath.toFile(), Manifest.class);
+      } catch (IOException e) {
+        LOGGER.warn("Unable to read {}, ignoring the pass 1 cache: {}", manifestPath, e.toString());
+      }
+      if (manifest != null && (manifest.formatVersion != FORMAT_VERSION || !fingerprint.equals(manifest.fingerprint))) {
+        LOGGER.info("Pass 1 cache in {} was saved from a different input file or nodemap, ignoring it", dir);
+        manifest = null;
+      }
+    }
+    if (manifest == null) {
+      FileUtils.delete(dir.resolve(NODES_DIR), dir.resolve(MULTIPOLYGON_WAYS_FILE), dir.resolve(RELATIONS_FILE));
+    }
+    FileUtils.createDirectory(dir);
+    return new OsmPass1Cache(dir, fingerprint, relationVersion, manifest);
+  }
+
+  /** Returns {@code true} if node locations and multipolygon way IDs were saved from the same input file. */
+  public boolean hasNodeLocations() {
+    return manifest != null;
+  }
+
+  /**
+   * Returns {@code true} if relation info was also saved by a profile with the same
+   * {@link Profile#preprocessOsmRelationVersion()} so all of pass 1 can be skipped.
+   */
+  public boolean hasRelations() {
+    return hasNodeLocations() && relationVersion != null && relationVersion.equals(manifest.relationVersion);
+  }
+
+  /** Returns a read-only map over the saved node locations. */
+  public LongLongMap openNodeLocations(boolean madvise) {
+    ensureSaved();
+    return LongLongMap.open(LongLongMap.Type.from(fingerprint.nodeMapType), dir.resolve(NODES_DIR), madvise);
+  }
+
+  Counts counts() {
+    ensureSaved();
+    return manifest.counts;
+  }
+
+  Roaring64Bitmap readWaysInMultipolygon() {
+    ensureSaved();
+    Roaring64Bitmap result = new Roaring64Bitmap();
+    try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(multipolygonWaysPath())))) {
+      result.deserialize(input);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return result;
+  }
+
+  void readRelations(Consumer<Relation> consumer) {
+    if (!hasRelations()) {
+      throw new IllegalStateException("No relations saved for version " + relationVersion + " in " + dir);
+    }
+    try (var input = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(relationsPath())))) {
+      long id;
+      while ((id = input.readLong()) != END_OF_RELATIONS) {
+        @SuppressWarnings("unchecked") List<OsmRelationInfo> infos = (List<OsmRelationInfo>) input.readObject();
+        int numMembers = input.readInt();
+        List<OsmElement.Relation.Member> members = new ArrayList<>(numMembers);
+        for (int i = 0; i < numMembers; i++) {
+          long ref = input.readLong();
+          members.add(new OsmElement.Relation.Member(OsmElement.Type.WAY, ref, input.readUTF()));
+        }
+        consumer.accept(new Relation(id, infos, members));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException("Unable to read relation info from " + relationsPath(), e);
+    }
+  }
+
+  /**
+   * Returns a writer that saves relation info as {@link OsmReader} preprocesses it, or {@code null} if the profile
+   * does not support reusing relation info.
+   */
+  RelationWriter newRelationWriter() {
+    if (relationVersion == null) {
+      return null;
+    }
+    invalidate();
+    try {
+      return new RelationWriter(relationsPath());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Saves node locations (unless they came from this cache), multipolygon way IDs, relation info, and element counts
+   * from pass 1 then writes the manifest.
+   */
+  void save(LongLongMap nodeLocations, Roaring64Bitmap waysInMultipolygon, RelationWriter relations, Counts counts) {
+    boolean nodesSaved = hasNodeLocations();
+    invalidate();
+    if (!nodesSaved) {
+      if (!(nodeLocations instanceof LongLongMap.Persistable persistable)) {
+        throw new IllegalArgumentException("Node locations can not be persisted: " + nodeLocations);
+      }
+      Path nodesDir = dir.resolve(NODES_DIR);
+      FileUtils.delete(nodesDir);
+      FileUtils.createDirectory(nodesDir);
+      persistable.persist(nodesDir);
+    }
+    try (var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(multipolygonWaysPath())))) {
+      waysInMultipolygon.serialize(output);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    boolean relationsSaved = relations != null && relations.finish();
+    if (!relationsSaved) {
+      FileUtils.delete(relationsPath());
+    }
+    manifest = new Manifest(FORMAT_VERSION, fingerprint, relationsSaved ? relationVersion : null, counts);
+    try {
+      objectMapper.writeValue(dir.resolve(MANIFEST_FILE).toFile(), manifest);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    LOGGER.info("Saved pass 1 cache to {}{}", dir, relationsSaved ? " with relations version " + relationVersion : "");
+  }
+
+  private void invalidate() {
+    FileUtils.delete(dir.resolve(MANIFEST_FILE));
+  }
+
+  private void ensureSaved() {
+    if (manifest == null) {
+      throw new IllegalStateException("No pass 1 cache saved in " + dir);
+    }
+  }
+
+  private Path multipolygonWaysPath() {
+    return dir.resolve(MULTIPOLYGON_WAYS_FILE);
+  }
+
+  private Path relationsPath() {
+    return dir.resolve(RELATIONS_FILE);
+  }
+
+  /** Identifies the input file and nodemap type that a cache was saved from. */
+  record Fingerprint(String input, long inputSize, long inputModified, String nodeMapType) {}
+
+  /** Number of elements pass 1 read, to report progress in pass 2. */
+  record Counts(long nodes, long ways, long relations, long blocks) {}
+
+  record Manifest(int formatVersion, Fingerprint fingerprint, String relationVersion, Counts counts) {}
+
+  /** Relation info that {@link Profile#preprocessOsmRelation(OsmElement.Relation)} returned, and its way members. */
+  record Relation(long id, List<OsmRelationInfo> infos, List<OsmElement.Relation.Member> wayMembers) {}
+
+  /** Appends relation info to the cache. Not thread safe, callers need to synchronize access. */
+  static class RelationWriter {
+    private static final int RESET_INTERVAL = 1_000;
+    private final Path path;
+    private ObjectOutputStream output;
+    private int written = 0;
+
+    private RelationWriter(Path path) throws IOException {
+      this.path = path;
+      this.output = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 50_000));
+    }
+
+    void write(long id, List<OsmRelationInfo> infos, List<OsmElement.Relation.Member> members) {
+      if (output == null) {
+        return;
+      }
+      try {
+        output.writeLong(id);
+        output.writeObject(new ArrayList<>(infos));
+        int numWays = (int) members.stream().filter(m -> m.type() == OsmElement.Type.WAY).count();
+        output.writeInt(numWays);
+        for (var member : members) {
+          if (member.type() == OsmElement.Type.WAY) {
+            output.writeLong(member.ref());
+            output.writeUTF(Objects.requireNonNullElse(member.role(), ""));
+          }
+        }
+        // drop references to objects already written so the stream does not hold onto every relation info
+        if (++written % RESET_INTERVAL == 0) {
+          output.reset();
+        }
+      } catch (IOException e) {
+        LOGGER.warn("Unable to save relation info to the pass 1 cache, it will be recomputed on the next run: {}",
+          e.toString());
+        abort();
+      }
+    }
+
+    /** Finishes writing and returns {@code true} if all relations were saved. */
+    boolean finish() {
+      if (output == null) {
+        return false;
+      }
+      try {
+        output.writeLong(END_OF_RELATIONS);
+        output.close();
+        output = null;
+        return true;
+      } catch (IOException e) {
+        LOGGER.warn("Unable to save relation info to the pass 1 cache: {}", e.toString());
+        abort();
+        return false;
+      }
+    }
+
+    private void abort() {
+      try {
+        output.close();
+      } catch (IOException e) {
+        // ignore, the file gets deleted anyway
+      }
+      output = null;
+      FileUtils.delete(path);
+    }
+  }
+}
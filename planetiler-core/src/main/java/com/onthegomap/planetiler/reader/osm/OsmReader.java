@@ -5,6 +5,7 @@ import static com.onthegomap.planetiler.worker.Worker.joinFutures;
 
 import com.carrotsearch.hppc.IntObjectHashMap;
 import com.carrotsearch.hppc.LongArrayList;
+import com.carrotsearch.hppc.LongLongHashMap;
 import com.carrotsearch.hppc.LongObjectHashMap;
 import com.carrotsearch.hppc.ObjectIntHashMap;
 import com.onthegomap.planetiler.FeatureCollector;
@@ -16,15 +17,17 @@ import com.onthegomap.planetiler.collection.LongLongMultimap;
 import com.onthegomap.planetiler.collection.SortableFeature;
 import com.onthegomap.planetiler.collection.Storage;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
+import com.onthegomap.planetiler.expression.Expression;
 import com.onthegomap.planetiler.geo.GeoUtils;
 import com.onthegomap.planetiler.geo.GeometryException;
+import com.onthegomap.planetiler.geo.GeometryType;
 import com.onthegomap.planetiler.reader.SourceFeature;
 import com.onthegomap.planetiler.render.FeatureRenderer;
 import com.onthegomap.planetiler.stats.Counter;
-import com.onthegomap.planetiler.stats.ProcessInfo;
 import com.onthegomap.planetiler.stats.ProgressLoggers;
 import com.onthegomap.planetiler.stats.Stats;
 import com.onthegomap.planetiler.util.Format;
+import com.onthegomap.planetiler.util.MemoryBudget;
 import com.onthegomap.planetiler.util.MemoryEstimator;
 import com.onthegomap.planetiler.util.ResourceUsage;
 import com.onthegomap.planetiler.worker.Distributor;
@@ -35,11 +38,13 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -85,11 +90,12 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
   private LongObjectHashMap<OsmRelationInfo> relationInfo = Hppc.newLongObjectHashMap();
   // ~800mb, ~1.6GB when sorting
   private LongLongMultimap.Appendable wayToRelations = LongLongMultimap.newAppendableMultimap();
-  private final Object wayToRelationsLock = new Object();
+  // workers collect relation info into a RelationBuffer then merge it in while holding this lock once they finish
+  private final Object relationsLock = new Object();
+  private final Counter.MultiThreadCounter relationsLockWaitNanos;
   // for multipolygons need to store way info (20m ways, 800m nodes) to use when processing relations (4.5m)
   // ~300mb
   private Roaring64Bitmap waysInMultipolygon = new Roaring64Bitmap();
-  private final Object waysInMultipolygonLock = new Object();
   // ~7GB
   private LongLongMultimap.Replaceable multipolygonWayGeometries;
   // keep track of data needed to encode/decode role strings into a long
@@ -97,6 +103,16 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
   private final IntObjectHashMap<String> roleIdsReverse = new IntObjectHashMap<>();
   private final AtomicLong roleSizes = new AtomicLong(0);
   private final OsmPhaser pass1Phaser = new OsmPhaser(0);
+  // when the node filter is enabled, only nodes in ways the profile needs get stored in the node location db
+  private Roaring64Bitmap nodeFilter = null;
+  private Roaring64Bitmap waysInNodeFilter = null;
+  private boolean relationsPreprocessed = false;
+  // when a pass 1 cache is set, node locations and relations get loaded from or saved to it
+  private OsmPass1Cache pass1Cache = null;
+  private OsmPass1Cache.RelationWriter relationCacheWriter = null;
+  private OsmPass1Cache.Counts pass1Counts = new OsmPass1Cache.Counts(0, 0, 0, 0);
+  // memory not reserved by other stages limits how many parsed elements pass 1 can buffer
+  private MemoryBudget memoryBudget = MemoryBudget.forJvm();
 
   /**
    * Constructs a new {@code OsmReader} from an {@code osmSourceProvider} that will use {@code nodeLocationDb} as a
@@ -125,6 +141,7 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
       "relations", pass1Phaser::relations
     ));
     this.multipolygonWayGeometries = multipolygonGeometries;
+    this.relationsLockWaitNanos = stats.nanoCounter("osm_pass1_relations_lock_wait_time_seconds");
   }
 
   /**
@@ -136,6 +153,31 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
     this(name, osmSourceProvider, nodeLocationDb, LongLongMultimap.newInMemoryReplaceableMultimap(), profile, stats);
   }
 
+  /**
+   * Sets a cache for {@link #pass1(PlanetilerConfig)} to reuse node locations and relation info from a previous run
+   * over the same input file, or save them to for the next run.
+   * <p>
+   * When {@link OsmPass1Cache#hasNodeLocations()} is true, the {@code nodeLocationDb} this reader was constructed with
+   * must come from {@link OsmPass1Cache#openNodeLocations(boolean)}.
+   *
+   * @return this reader for chaining
+   */
+  public OsmReader setPass1Cache(OsmPass1Cache pass1Cache) {
+    this.pass1Cache = pass1Cache;
+    return this;
+  }
+
+  /**
+   * Sets the budget that pass 1 sizes its buffers of parsed elements from, after memory reserved by other stages like
+   * node locations.
+   *
+   * @return this reader for chaining
+   */
+  public OsmReader setMemoryBudget(MemoryBudget memoryBudget) {
+    this.memoryBudget = memoryBudget;
+    return this;
+  }
+
   /**
    * Pre-processes all OSM elements before {@link #pass2(FeatureGroup, PlanetilerConfig)} is used to emit map features.
    * <p>
@@ -143,10 +185,26 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
    * <p>
    * Also stores the result of {@link Profile#preprocessOsmRelation(OsmElement.Relation)} so that pass2 can know the
    * relevant relations that a way belongs to.
+   * <p>
+   * If {@link PlanetilerConfig#osmNodeFilter()} is set, runs {@link #buildNodeFilter(PlanetilerConfig)} first.
+   * <p>
+   * If a {@link #setPass1Cache(OsmPass1Cache) pass 1 cache} has node locations for this input then they do not get
+   * written again, and if it also has relation info for this profile then nothing needs to be read from the input.
    *
    * @param config user-provided arguments to control the number of threads, and log interval
    */
   public void pass1(PlanetilerConfig config) {
+    if (pass1Cache != null && pass1Cache.hasRelations()) {
+      loadPass1Cache();
+      return;
+    }
+    if (config.osmNodeFilter()) {
+      buildNodeFilter(config);
+    }
+    boolean writeNodes = pass1Cache == null || !pass1Cache.hasNodeLocations();
+    if (pass1Cache != null) {
+      relationCacheWriter = pass1Cache.newRelationWriter();
+    }
     var timer = stats.startStage("osm_pass1");
     var pipeline = WorkerPipeline.start("osm_pass1", stats);
     CompletableFuture<?> done;
@@ -163,14 +221,14 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
       .newLine();
     int threads = config.threads();
 
-    if (nodeLocationDb instanceof LongLongMap.ParallelWrites) {
+    if (!writeNodes || nodeLocationDb instanceof LongLongMap.ParallelWrites) {
       // If the node location writer supports parallel writes, then parse, process, and write node locations from worker threads
       int parseThreads = Math.max(1, threads < 8 ? threads : (threads - 1));
       pass1Phaser.registerWorkers(parseThreads);
       var parallelPipeline = pipeline
         .fromGenerator("read", osmBlockSource::forEachBlock)
         .addBuffer("pbf_blocks", parseThreads * 2)
-        .sinkTo("process", parseThreads, this::processPass1Blocks);
+        .sinkTo("process", parseThreads, blocks -> processPass1Blocks(blocks, writeNodes));
       loggers.addPipelineStats(parallelPipeline);
       done = parallelPipeline.done();
     } else {
@@ -181,10 +239,11 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
       int pendingBlocks = parseThreads * 2;
       // Each worker will hand off finished elements to the single process thread. A Future<List<OsmElement>> would result
       // in too much memory usage/GC so use a WeightedHandoffQueue instead which will fill up with lightweight objects
-      // like nodes without any tags, but limit the number of pending heavy entities like relations
+      // like nodes without any tags, but limit the number of pending heavy entities like relations.
+      // Size from the whole budget since the read phase has already reserved most of what is available by now.
       int handoffQueueBatches = Math.max(
         10,
-        (int) (100d * ProcessInfo.getMaxMemoryBytes() / 20_000_000_000d)
+        (int) (100d * memoryBudget.total() / 20_000_000_000d)
       );
       record BlockWithResult(OsmBlockSource.Block block, WeightedHandoffQueue<OsmElement> result) {}
       pass1Phaser.registerWorkers(1);
@@ -213,7 +272,7 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
 
       var processBranch = pipeline
         .readFromQueue(parsedBatches)
-        .sinkTo("process", 1, this::processPass1Blocks);
+        .sinkTo("process", 1, blocks -> processPass1Blocks(blocks, true));
 
       loggers
         .addPipelineStats(readBranch)
@@ -225,13 +284,37 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
 
     LOGGER.debug("Processed " + FORMAT.integer(PASS1_BLOCKS.get()) + " blocks:");
     pass1Phaser.printSummary();
+    pass1Counts = new OsmPass1Cache.Counts(pass1Phaser.nodes(), pass1Phaser.ways(), pass1Phaser.relations(),
+      PASS1_BLOCKS.get());
+    if (pass1Cache != null) {
+      pass1Cache.save(nodeLocationDb, waysInMultipolygon, relationCacheWriter, pass1Counts);
+      relationCacheWriter = null;
+    }
+    timer.stop();
+  }
+
+  private void loadPass1Cache() {
+    var timer = stats.startStage("osm_pass1");
+    LOGGER.info("Reusing node locations and relations from pass 1 cache");
+    waysInMultipolygon = pass1Cache.readWaysInMultipolygon();
+    var buffer = new RelationBuffer();
+    pass1Cache.readRelations(
+      relation -> buffer.addRelationInfo(relation.id(), relation.infos(), relation.wayMembers()));
+    buffer.flush();
+    relationsPreprocessed = true;
+    pass1Counts = pass1Cache.counts();
     timer.stop();
   }
 
   void processPass1Blocks(Iterable<? extends Iterable<? extends OsmElement>> blocks) {
+    processPass1Blocks(blocks, true);
+  }
+
+  private void processPass1Blocks(Iterable<? extends Iterable<? extends OsmElement>> blocks, boolean writeNodes) {
     // may be called by multiple threads so need to synchronize access to any shared data structures
+    var relations = new RelationBuffer();
     try (
-      var nodeWriter = nodeLocationDb.newWriter();
+      var nodeWriter = writeNodes ? nodeLocationDb.newWriter() : LongLongMap.noop().newWriter();
       var phases = pass1Phaser.forWorker()
         .whenWorkerFinishes(OsmPhaser.Phase.NODES, nodeWriter::close)
     ) {
@@ -247,8 +330,9 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
             } catch (Exception e) {
               LOGGER.error("Error preprocessing OSM node " + node.id(), e);
             }
-            // TODO allow limiting node storage to only ones that profile cares about
-            nodeWriter.put(node.id(), node.encodedLocation());
+            if (nodeFilter == null || nodeFilter.contains(node.id())) {
+              nodeWriter.put(node.id(), node.encodedLocation());
+            }
           } else if (element instanceof OsmElement.Way way) {
             phases.arriveAndWaitForOthers(OsmPhaser.Phase.WAYS);
             try {
@@ -258,41 +342,223 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
             }
           } else if (element instanceof OsmElement.Relation relation) {
             phases.arrive(OsmPhaser.Phase.RELATIONS);
-            try {
-              List<OsmRelationInfo> infos = profile.preprocessOsmRelation(relation);
-              if (infos != null) {
-                synchronized (wayToRelationsLock) {
-                  for (OsmRelationInfo info : infos) {
-                    relationInfo.put(relation.id(), info);
-                    relationInfoSizes.addAndGet(info.estimateMemoryUsageBytes());
-                    for (var member : relation.members()) {
-                      var type = member.type();
-                      // TODO handle nodes in relations and super-relations
-                      if (type == OsmElement.Type.WAY) {
-                        wayToRelations.put(member.ref(), encodeRelationMembership(member.role(), relation.id()));
-                      }
-                    }
-                  }
-                }
-              }
-            } catch (Exception e) {
-              LOGGER.error("Error preprocessing OSM relation " + relation.id(), e);
+            if (!relationsPreprocessed) {
+              preprocessRelation(relation, relations);
             }
-            // TODO allow limiting multipolygon storage to only ones that profile cares about
-            if (isMultipolygon(relation)) {
-              synchronized (waysInMultipolygonLock) {
-                for (var member : relation.members()) {
-                  if (member.type() == OsmElement.Type.WAY) {
-                    waysInMultipolygon.add(member.ref());
-                  }
+          }
+        }
+        PASS1_BLOCKS.inc();
+      }
+    }
+    relations.flush();
+  }
+
+  private void preprocessRelation(OsmElement.Relation relation, RelationBuffer buffer) {
+    try {
+      List<OsmRelationInfo> infos = profile.preprocessOsmRelation(relation);
+      if (infos != null) {
+        buffer.addRelationInfo(relation.id(), infos, relation.members());
+        if (relationCacheWriter != null) {
+          long start = System.nanoTime();
+          synchronized (relationCacheWriter) {
+            buffer.lockWaitNanos.incBy(System.nanoTime() - start);
+            relationCacheWriter.write(relation.id(), infos, relation.members());
+          }
+        }
+      }
+    } catch (Exception e) {
+      LOGGER.error("Error preprocessing OSM relation " + relation.id(), e);
+    }
+    // TODO allow limiting multipolygon storage to only ones that profile cares about
+    if (isMultipolygon(relation)) {
+      for (var member : relation.members()) {
+        if (member.type() == OsmElement.Type.WAY) {
+          buffer.multipolygonWays.addLong(member.ref());
+        }
+      }
+    }
+  }
+
+  /**
+   * Relation info and memberships that a single worker thread collected during pass 1, to merge into the shared data
+   * structures all at once with {@link #flush()} when the worker finishes instead of locking on every relation.
+   */
+  private class RelationBuffer {
+    private final Counter lockWaitNanos = relationsLockWaitNanos.counterForThread();
+    private final LongObjectHashMap<OsmRelationInfo> infos = Hppc.newLongObjectHashMap();
+    private final Roaring64Bitmap multipolygonWays = new Roaring64Bitmap();
+    private final LongArrayList wayIds = new LongArrayList();
+    // role ID local to this buffer packed with relation ID, remapped to a global role ID on flush
+    private final LongArrayList memberships = new LongArrayList();
+    private final ObjectIntHashMap<String> roles = new ObjectIntHashMap<>();
+    private final List<String> roleList = new ArrayList<>();
+    private long infoSizes = 0;
+
+    void addRelationInfo(long relationId, List<OsmRelationInfo> relationInfos,
+      List<OsmElement.Relation.Member> members) {
+      for (OsmRelationInfo info : relationInfos) {
+        infos.put(relationId, info);
+        infoSizes += info.estimateMemoryUsageBytes();
+        for (var member : members) {
+          var type = member.type();
+          // TODO handle nodes in relations and super-relations
+          if (type == OsmElement.Type.WAY) {
+            int role = roles.getOrDefault(member.role(), -1);
+            if (role == -1) {
+              role = roleList.size();
+              roles.put(member.role(), role);
+              roleList.add(member.role());
+            }
+            wayIds.add(member.ref());
+            memberships.add(relationId | ((long) role << ROLE_SHIFT));
+          }
+        }
+      }
+    }
+
+    void flush() {
+      long start = System.nanoTime();
+      synchronized (relationsLock) {
+        lockWaitNanos.incBy(System.nanoTime() - start);
+        relationInfo.putAll(infos);
+        relationInfoSizes.addAndGet(infoSizes);
+        long[] globalRoles = new long[roleList.size()];
+        for (int i = 0; i < globalRoles.length; i++) {
+          globalRoles[i] = encodeRole(roleList.get(i));
+        }
+        for (int i = 0; i < wayIds.size(); i++) {
+          long membership = memberships.get(i);
+          int role = (int) (membership >>> ROLE_SHIFT);
+          wayToRelations.put(wayIds.get(i), globalRoles[role] | (membership & NOT_ROLE_MASK));
+        }
+        waysInMultipolygon.or(multipolygonWays);
+      }
+      infos.clear();
+      multipolygonWays.clear();
+      wayIds.clear();
+      memberships.clear();
+      infoSizes = 0;
+    }
+  }
+
+  /**
+   * Builds the set of node IDs that {@link #pass1(PlanetilerConfig)} needs to store locations for by walking backwards
+   * through the relations then ways at the end of the input file, without decoding any node blocks.
+   * <p>
+   * Nodes are kept if they belong to a way that is a member of a multipolygon, a member of a relation that
+   * {@link Profile#preprocessOsmRelation(OsmElement.Relation)} returned info for, or that
+   * {@link Profile#caresAbout(Expression.PartialInput)} given its tags and possible geometry types. This preprocesses
+   * relations before nodes and ways, and relies on the input being sorted by type like pass 1 already requires.
+   *
+   * @param config user-provided arguments to control the number of threads, and log interval
+   */
+  void buildNodeFilter(PlanetilerConfig config) {
+    var timer = stats.startStage("osm_node_filter");
+    int threads = Math.max(1, config.threads() - 1);
+    Counter.MultiThreadCounter relationsScanned = Counter.newMultiThreadCounter();
+    Counter.MultiThreadCounter waysScanned = Counter.newMultiThreadCounter();
+    Roaring64Bitmap nodes = new Roaring64Bitmap();
+    Roaring64Bitmap ways = new Roaring64Bitmap();
+
+    // relations come last in a sorted file, so stop handing out blocks once a worker sees something else
+    AtomicBoolean pastRelations = new AtomicBoolean(false);
+    var relationsPipeline = WorkerPipeline.start("osm_node_filter_relations", stats)
+      .<OsmBlockSource.Block>fromGenerator("read", next -> osmBlockSource.forEachBlockReversed(block -> {
+        if (!pastRelations.get()) {
+          next.accept(block);
+        }
+      }))
+      .addBuffer("pbf_blocks", threads * 2)
+      .sinkTo("process", threads, blocks -> {
+        Counter counter = relationsScanned.counterForThread();
+        var buffer = new RelationBuffer();
+        for (var block : blocks) {
+          for (var element : block.decodeElements()) {
+            if (element instanceof OsmElement.Relation relation) {
+              preprocessRelation(relation, buffer);
+              counter.inc();
+            } else {
+              pastRelations.set(true);
+            }
+          }
+        }
+        buffer.flush();
+      });
+    ProgressLoggers.create()
+      .addRateCounter("rels", relationsScanned, true)
+      .addInMemoryObject("hppc", this)
+      .newLine()
+      .addProcessStats()
+      .newLine()
+      .addPipelineStats(relationsPipeline)
+      .awaitAndLog(relationsPipeline.done(), config.logInterval());
+    relationsPreprocessed = true;
+
+    AtomicBoolean pastWays = new AtomicBoolean(false);
+    var waysPipeline = WorkerPipeline.start("osm_node_filter_ways", stats)
+      .<OsmBlockSource.Block>fromGenerator("read", next -> osmBlockSource.forEachBlockReversed(block -> {
+        if (!pastWays.get()) {
+          next.accept(block);
+        }
+      }))
+      .addBuffer("pbf_blocks", threads * 2)
+      .sinkTo("process", threads, blocks -> {
+        Counter counter = waysScanned.counterForThread();
+        Roaring64Bitmap nodesForThread = new Roaring64Bitmap();
+        Roaring64Bitmap waysForThread = new Roaring64Bitmap();
+        for (var block : blocks) {
+          for (var element : block.decodeElements()) {
+            if (element instanceof OsmElement.Way way) {
+              if (needsWayNodes(way)) {
+                waysForThread.addLong(way.id());
+                var wayNodes = way.nodes();
+                for (int i = 0; i < wayNodes.size(); i++) {
+                  nodesForThread.addLong(wayNodes.get(i));
                 }
               }
+              counter.inc();
+            } else if (element instanceof OsmElement.Node) {
+              pastWays.set(true);
             }
           }
         }
-        PASS1_BLOCKS.inc();
-      }
+        synchronized (nodes) {
+          nodes.or(nodesForThread);
+          ways.or(waysForThread);
+        }
+      });
+    ProgressLoggers.create()
+      .addRateCounter("ways", waysScanned, true)
+      .addInMemoryObject("hppc", this)
+      .newLine()
+      .addProcessStats()
+      .newLine()
+      .addPipelineStats(waysPipeline)
+      .awaitAndLog(waysPipeline.done(), config.logInterval());
+
+    nodeFilter = nodes;
+    waysInNodeFilter = ways;
+    LOGGER.info("Storing locations for {} nodes in {} of {} ways", FORMAT.integer(nodes.getLongCardinality()),
+      FORMAT.integer(ways.getLongCardinality()), FORMAT.integer(waysScanned.get()));
+    timer.stop();
+  }
+
+  private boolean needsWayNodes(OsmElement.Way way) {
+    if (waysInMultipolygon.contains(way.id()) || !wayToRelations.get(way.id()).isEmpty()) {
+      return true;
+    }
+    LongArrayList nodes = way.nodes();
+    boolean closed = nodes.size() > 1 && nodes.get(0) == nodes.get(nodes.size() - 1);
+    String area = way.getString("area");
+    Set<GeometryType> types = EnumSet.noneOf(GeometryType.class);
+    if (canBeLine(closed, area, nodes.size())) {
+      types.add(GeometryType.LINE);
     }
+    if (canBePolygon(closed, area, nodes.size())) {
+      types.add(GeometryType.POLYGON);
+    }
+    return !types.isEmpty() &&
+      profile.caresAbout(new Expression.PartialInput(Set.of(name), Set.of(), way.tags(), types, true));
   }
 
   private static boolean isMultipolygon(OsmElement.Relation relation) {
@@ -326,7 +592,7 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
     Distributor<OsmElement.Relation> relationDistributor = Distributor.createWithCapacity(1_000);
 
     var pipeline = WorkerPipeline.start("osm_pass2", stats)
-      .fromGenerator("read", osmBlockSource::forEachBlock)
+      .fromGenerator("read", osmBlockSource::forEachBlockInBounds)
       .addBuffer("pbf_blocks", Math.max(10, processThreads / 2))
       .<SortableFeature>addWorker("process", processThreads, (prev, next) -> {
         // avoid contention trying to get the thread-local counters by getting them once when thread starts
@@ -334,7 +600,9 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
         Counter rels = relationsProcessed.counterForThread();
 
         var featureCollectors = new FeatureCollector.Factory(config, stats);
-        final NodeLocationProvider nodeLocations = newNodeLocationProvider();
+        final NodeDbLocationProvider nodeLocations = newNodeLocationProvider();
+        List<OsmElement> elements = new ArrayList<>();
+        List<OsmElement.Way> ways = new ArrayList<>();
         try (var renderer = createFeatureRenderer(writer, config, next)) {
           var phaser = pass2Phaser.forWorker();
           var relationHandler = relationDistributor.forThread(relation -> {
@@ -345,7 +613,17 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
             rels.inc();
           });
           for (var block : prev) {
+            elements.clear();
+            ways.clear();
             for (var element : block.decodeElements()) {
+              elements.add(element);
+              if (element instanceof OsmElement.Way way) {
+                ways.add(way);
+              }
+            }
+            // look up locations for all nodes in the block at once so they get read in order
+            nodeLocations.prefetch(ways);
+            for (var element : elements) {
               SourceFeature feature = null;
               if (element instanceof OsmElement.Node node) {
                 phaser.arrive(OsmPhaser.Phase.NODES);
@@ -382,17 +660,18 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
       });
 
     var logger = ProgressLoggers.create()
-      .addRatePercentCounter("nodes", pass1Phaser.nodes(), pass2Phaser::nodes, true)
+      .addRatePercentCounter("nodes", pass1Counts.nodes(), pass2Phaser::nodes, true)
       .addFileSizeAndRam(nodeLocationDb)
-      .addRatePercentCounter("ways", pass1Phaser.ways(), pass2Phaser::ways, true)
-      .addRatePercentCounter("rels", pass1Phaser.relations(), relationsProcessed, true)
+      .addRatePercentCounter("ways", pass1Counts.ways(), pass2Phaser::ways, true)
+      .addRatePercentCounter("rels", pass1Counts.relations(), relationsProcessed, true)
       .addRateCounter("features", writer::numFeaturesWritten)
       .addFileSize(writer)
-      .addRatePercentCounter("blocks", PASS1_BLOCKS.get(), blocksProcessed, false)
+      .addRatePercentCounter("blocks", pass1Counts.blocks(), blocksProcessed, false)
       .newLine()
       .addProcessStats()
       .addInMemoryObject("relInfo", this)
       .addFileSizeAndRam("mpGeoms", multipolygonWayGeometries)
+      .add(this::multipolygonCompressionRatio)
       .newLine()
       .addPipelineStats(pipeline);
 
@@ -430,6 +709,8 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
       case NOOP -> check;
       case SPARSE_ARRAY -> check.addMemory(300_000_000L, "sparsearray node location in-memory index")
         .add(path, storage, 9 * nodes, "sparsearray node location cache");
+      case COMPRESSED -> check.addMemory(300_000_000L, "compressed node location in-memory index")
+        .add(path, storage, 5 * nodes, "compressed node location cache");
       case SORTED_TABLE -> check.addMemory(300_000_000L, "sortedtable node location in-memory index")
         .add(path, storage, 12 * nodes, "sortedtable node location cache");
       case ARRAY -> check.add(path, storage, 8 * maxNodeId,
@@ -490,6 +771,11 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
     );
   }
 
+  private String multipolygonCompressionRatio() {
+    return multipolygonWayGeometries instanceof LongLongMultimap.DeltaEncodedMultimap deltaEncoded ?
+      (" (" + FORMAT.decimal(deltaEncoded.compressionRatio()) + "x smaller)") : "";
+  }
+
   SourceFeature processNodePass2(OsmElement.Node node) {
     // nodes are simple because they already contain their location
     return new NodeSourceFeature(node);
@@ -498,6 +784,10 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
   SourceFeature processWayPass2(OsmElement.Way way, NodeLocationProvider nodeLocations) {
     // ways contain an ordered list of node IDs, so we need to join that with node locations
     // from pass1 to reconstruct the geometry.
+    if (waysInNodeFilter != null && !waysInNodeFilter.contains(way.id())) {
+      // the node filter skipped storing locations for this way since the profile does not need it
+      return null;
+    }
     LongArrayList nodes = way.nodes();
     if (waysInMultipolygon.contains(way.id())) {
       // if this is part of a multipolygon, store the node IDs for this way ID so that when
@@ -546,6 +836,8 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
   public long estimateMemoryUsageBytes() {
     long size = 0;
     size += waysInMultipolygon == null ? 0 : waysInMultipolygon.serializedSizeInBytes();
+    size += nodeFilter == null ? 0 : nodeFilter.serializedSizeInBytes();
+    size += waysInNodeFilter == null ? 0 : waysInNodeFilter.serializedSizeInBytes();
     // multipolygonWayGeometries is reported separately
     size += estimateSize(wayToRelations);
     size += estimateSize(relationInfo);
@@ -564,6 +856,8 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
     }
     wayToRelations = null;
     waysInMultipolygon = null;
+    nodeFilter = null;
+    waysInNodeFilter = null;
     relationInfo = null;
     nodeLocationDb.close();
     roleIds.release();
@@ -571,7 +865,7 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
     osmBlockSource.close();
   }
 
-  NodeLocationProvider newNodeLocationProvider() {
+  NodeDbLocationProvider newNodeLocationProvider() {
     return new NodeDbLocationProvider();
   }
 
@@ -606,8 +900,8 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
     return new RelationMembership(roleIdsReverse.get(role), encoded & NOT_ROLE_MASK);
   }
 
-  /** Packs a string role and relation into a compact long for storage. */
-  private long encodeRelationMembership(String role, long relationId) {
+  /** Returns the bits to combine with a relation ID to pack a string role and relation into a compact long. */
+  private long encodeRole(String role) {
     int roleId = roleIds.getOrDefault(role, -1);
     if (roleId == -1) {
       roleSizes.addAndGet(estimateSize(role));
@@ -618,7 +912,7 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
         throw new IllegalStateException("Too many roles to encode: " + role);
       }
     }
-    return relationId | ((long) roleId << ROLE_SHIFT);
+    return (long) roleId << ROLE_SHIFT;
   }
 
   /**
@@ -831,11 +1125,57 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
   /**
    * A thin layer on top of {@link LongLongMap} that decodes node locations stored as {@code long} values.
    */
-  private class NodeDbLocationProvider implements NodeLocationProvider {
+  class NodeDbLocationProvider implements NodeLocationProvider {
+
+    private final LongLongHashMap prefetched = Hppc.newLongLongHashMap();
+    private final boolean shouldPrefetch = nodeLocationDb.benefitsFromMultiGet();
+
+    /**
+     * Looks up locations of all nodes in {@code ways} with a single {@link LongLongMap#multiGet(long[])} call and holds
+     * onto them until the next call, which is much faster than looking up each node individually from a large
+     * memory-mapped node location map.
+     * <p>
+     * Does nothing for in-memory maps, where copying locations into another hash map would only add overhead.
+     */
+    void prefetch(List<OsmElement.Way> ways) {
+      if (!shouldPrefetch) {
+        return;
+      }
+      prefetched.clear();
+      int num = 0;
+      for (var way : ways) {
+        if (waysInNodeFilter == null || waysInNodeFilter.contains(way.id())) {
+          num += way.nodes().size();
+        }
+      }
+      if (num == 0) {
+        return;
+      }
+      long[] ids = new long[num];
+      int i = 0;
+      for (var way : ways) {
+        if (waysInNodeFilter == null || waysInNodeFilter.contains(way.id())) {
+          LongArrayList nodes = way.nodes();
+          System.arraycopy(nodes.buffer, 0, ids, i, nodes.size());
+          i += nodes.size();
+        }
+      }
+      long[] values = nodeLocationDb.multiGet(ids);
+      for (int j = 0; j < num; j++) {
+        if (values[j] != LongLongMap.MISSING_VALUE) {
+          prefetched.put(ids[j], values[j]);
+        }
+      }
+    }
+
+    private long lookup(long id) {
+      int index = prefetched.indexOf(id);
+      return prefetched.indexExists(index) ? prefetched.indexGet(index) : nodeLocationDb.get(id);
+    }
 
     @Override
     public Coordinate getCoordinate(long id) {
-      long encoded = nodeLocationDb.get(id);
+      long encoded = lookup(id);
       if (encoded == LongLongMap.MISSING_VALUE) {
         throw new IllegalArgumentException("Missing location for node: " + id);
       }
@@ -848,7 +1188,7 @@ public class OsmReader implements Closeable, MemoryEstimator.HasEstimate {
       CoordinateSequence seq = new PackedCoordinateSequence.Double(nodeIds.size(), 2, 0);
 
       for (int i = 0; i < num; i++) {
-        long encoded = nodeLocationDb.get(nodeIds.get(i));
+        long encoded = lookup(nodeIds.get(i));
         if (encoded == LongLongMap.MISSING_VALUE) {
           throw new IllegalArgumentException("Missing location for node: " + nodeIds.get(i));
         }
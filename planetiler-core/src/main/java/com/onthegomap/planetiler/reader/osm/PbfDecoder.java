@@ -8,6 +8,10 @@ import com.google.protobuf.InvalidProtocolBufferException;
 import com.onthegomap.planetiler.reader.FileFormatException;
 import crosby.binary.Fileformat;
 import crosby.binary.Osmformat;
+import io.airlift.compress.Decompressor;
+import io.airlift.compress.MalformedInputException;
+import io.airlift.compress.lz4.Lz4Decompressor;
+import io.airlift.compress.zstd.ZstdDecompressor;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
@@ -32,6 +36,10 @@ import org.locationtech.jts.geom.Envelope;
  */
 public class PbfDecoder implements Iterable<OsmElement> {
 
+  private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+  private static final ThreadLocal<Decompressor> ZSTD = ThreadLocal.withInitial(ZstdDecompressor::new);
+  private static final ThreadLocal<Decompressor> LZ4 = ThreadLocal.withInitial(Lz4Decompressor::new);
+
   private final Osmformat.PrimitiveBlock block;
   private final PbfFieldDecoder fieldDecoder;
 
@@ -47,40 +55,58 @@ public class PbfDecoder implements Iterable<OsmElement> {
     fieldDecoder = new PbfFieldDecoder(block);
   }
 
-  private static byte[] readBlobContent(ByteBuffer input) throws IOException {
+  static byte[] readBlobContent(ByteBuffer input) throws IOException {
     return readBlobContent(Fileformat.Blob.parseFrom(input));
 
   }
 
-  private static byte[] readBlobContent(byte[] input) throws IOException {
+  static byte[] readBlobContent(byte[] input) throws IOException {
     return readBlobContent(Fileformat.Blob.parseFrom(input));
   }
 
   private static byte[] readBlobContent(Fileformat.Blob blob) {
     byte[] blobData;
 
-    if (blob.hasRaw()) {
-      blobData = blob.getRaw().toByteArray();
-    } else if (blob.hasZlibData()) {
-      Inflater inflater = new Inflater();
-      inflater.setInput(blob.getZlibData().toByteArray());
-      blobData = new byte[blob.getRawSize()];
-      try {
-        inflater.inflate(blobData);
-      } catch (DataFormatException e) {
-        throw new FileFormatException("Unable to decompress PBF blob.", e);
-      }
-      if (!inflater.finished()) {
-        throw new FileFormatException("PBF blob contains incomplete compressed data.");
+    switch (blob.getDataCase()) {
+      case RAW -> blobData = blob.getRaw().toByteArray();
+      case ZLIB_DATA -> {
+        // reuse one inflater per thread since allocating native zlib state for every block is expensive
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(blob.getZlibData().toByteArray());
+        blobData = new byte[blob.getRawSize()];
+        try {
+          inflater.inflate(blobData);
+        } catch (DataFormatException e) {
+          throw new FileFormatException("Unable to decompress PBF blob.", e);
+        }
+        if (!inflater.finished()) {
+          throw new FileFormatException("PBF blob contains incomplete compressed data.");
+        }
       }
-      inflater.end();
-    } else {
-      throw new FileFormatException("PBF blob uses unsupported compression, only raw or zlib may be used.");
+      case ZSTD_DATA -> blobData = decompress(ZSTD.get(), blob.getZstdData().toByteArray(), blob.getRawSize());
+      case LZ4_DATA -> blobData = decompress(LZ4.get(), blob.getLz4Data().toByteArray(), blob.getRawSize());
+      default -> throw new FileFormatException(
+        "PBF blob uses unsupported compression, only raw, zlib, zstd, or lz4 may be used.");
     }
 
     return blobData;
   }
 
+  private static byte[] decompress(Decompressor decompressor, byte[] input, int rawSize) {
+    byte[] result = new byte[rawSize];
+    int length;
+    try {
+      length = decompressor.decompress(input, 0, input.length, result, 0, rawSize);
+    } catch (MalformedInputException e) {
+      throw new FileFormatException("Unable to decompress PBF blob.", e);
+    }
+    if (length != rawSize) {
+      throw new FileFormatException("PBF blob contains incomplete compressed data.");
+    }
+    return result;
+  }
+
   /** Decompresses and parses a block of primitive OSM elements. */
   public static Iterable<OsmElement> decode(byte[] raw) {
     try {
@@ -0,0 +1,704 @@
+package com.onthegomap.planetiler.reader.osm;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.LongArrayList;
+import com.onthegomap.planetiler.reader.FileFormatException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Converts PBF block data into decoded entities by reading the protobuf wire format straight from the inflated bytes.
+ * <p>
+ * Unlike {@link PbfDecoder}, this does not build an intermediate {@code Osmformat.PrimitiveBlock} object graph. The
+ * constructor only records where each string table entry and primitive group starts, then iterators walk each group
+ * and emit {@link OsmElement OsmElements} one at a time. Strings are decoded lazily the first time an element
+ * references them.
+ * <p>
+ * Repeated scalar fields are read in place when they use packed encoding, which every mainstream PBF writer does.
+ * Unpacked fields, or fields split across several occurrences, are collected into a reusable buffer first.
+ *
+ * @see <a href="https://protobuf.dev/programming-guides/encoding/">Protobuf wire format</a>
+ * @see <a href="https://wiki.openstreetmap.org/wiki/PBF_Format">OSM PBF Format</a>
+ */
+public class PbfWireDecoder implements Iterable<OsmElement> {
+
+  private static final int WIRE_VARINT = 0;
+  private static final int WIRE_FIXED64 = 1;
+  private static final int WIRE_LENGTH_DELIMITED = 2;
+  private static final int WIRE_FIXED32 = 5;
+
+  // PrimitiveBlock
+  private static final int BLOCK_STRINGTABLE = tag(1, WIRE_LENGTH_DELIMITED);
+  private static final int BLOCK_PRIMITIVEGROUP = tag(2, WIRE_LENGTH_DELIMITED);
+  private static final int BLOCK_GRANULARITY = tag(17, WIRE_VARINT);
+  private static final int BLOCK_LAT_OFFSET = tag(19, WIRE_VARINT);
+  private static final int BLOCK_LON_OFFSET = tag(20, WIRE_VARINT);
+  // StringTable
+  private static final int STRINGTABLE_S = tag(1, WIRE_LENGTH_DELIMITED);
+  // PrimitiveGroup
+  private static final int GROUP_NODES = tag(1, WIRE_LENGTH_DELIMITED);
+  private static final int GROUP_DENSE = tag(2, WIRE_LENGTH_DELIMITED);
+  private static final int GROUP_WAYS = tag(3, WIRE_LENGTH_DELIMITED);
+  private static final int GROUP_RELATIONS = tag(4, WIRE_LENGTH_DELIMITED);
+  // fields shared by Node, Way, and Relation
+  private static final int ELEMENT_ID = tag(1, WIRE_VARINT);
+  private static final int ELEMENT_KEYS = tag(2, WIRE_LENGTH_DELIMITED);
+  private static final int ELEMENT_VALS = tag(3, WIRE_LENGTH_DELIMITED);
+  private static final int ELEMENT_INFO = tag(4, WIRE_LENGTH_DELIMITED);
+  // Node
+  private static final int NODE_LAT = tag(8, WIRE_VARINT);
+  private static final int NODE_LON = tag(9, WIRE_VARINT);
+  // Way
+  private static final int WAY_REFS = tag(8, WIRE_LENGTH_DELIMITED);
+  // Relation
+  private static final int RELATION_ROLES_SID = tag(8, WIRE_LENGTH_DELIMITED);
+  private static final int RELATION_MEMIDS = tag(9, WIRE_LENGTH_DELIMITED);
+  private static final int RELATION_TYPES = tag(10, WIRE_LENGTH_DELIMITED);
+  // Info
+  private static final int INFO_VERSION = tag(1, WIRE_VARINT);
+  private static final int INFO_TIMESTAMP = tag(2, WIRE_VARINT);
+  private static final int INFO_CHANGESET = tag(3, WIRE_VARINT);
+  private static final int INFO_UID = tag(4, WIRE_VARINT);
+  private static final int INFO_USER_SID = tag(5, WIRE_VARINT);
+  // DenseNodes
+  private static final int DENSE_ID = tag(1, WIRE_LENGTH_DELIMITED);
+  private static final int DENSE_DENSEINFO = tag(5, WIRE_LENGTH_DELIMITED);
+  private static final int DENSE_LAT = tag(8, WIRE_LENGTH_DELIMITED);
+  private static final int DENSE_LON = tag(9, WIRE_LENGTH_DELIMITED);
+  private static final int DENSE_KEYS_VALS = tag(10, WIRE_LENGTH_DELIMITED);
+  // DenseInfo
+  private static final int DENSEINFO_VERSION = tag(1, WIRE_LENGTH_DELIMITED);
+  private static final int DENSEINFO_TIMESTAMP = tag(2, WIRE_LENGTH_DELIMITED);
+  private static final int DENSEINFO_CHANGESET = tag(3, WIRE_LENGTH_DELIMITED);
+  private static final int DENSEINFO_UID = tag(4, WIRE_LENGTH_DELIMITED);
+  private static final int DENSEINFO_USER_SID = tag(5, WIRE_LENGTH_DELIMITED);
+
+  private static final double COORDINATE_SCALING_FACTOR = 0.000000001;
+  private static final int DEFAULT_GRANULARITY = 100;
+
+  private final byte[] data;
+  private final int[] stringOffsets;
+  private final int[] stringLengths;
+  private final String[] strings;
+  private final int[] groupOffsets;
+  private final int[] groupEnds;
+  private final int granularity;
+  private final long latOffset;
+  private final long lonOffset;
+
+  PbfWireDecoder(byte[] data) {
+    this.data = data;
+    IntArrayList stringRanges = new IntArrayList();
+    IntArrayList groupRanges = new IntArrayList();
+    int blockGranularity = DEFAULT_GRANULARITY;
+    long blockLatOffset = 0;
+    long blockLonOffset = 0;
+
+    Cursor cursor = new Cursor(data, 0, data.length);
+    while (cursor.hasMore()) {
+      int tag = cursor.readTag();
+      if (tag == BLOCK_STRINGTABLE) {
+        int end = cursor.readLengthDelimitedEnd();
+        while (cursor.pos < end) {
+          int stringTag = cursor.readTag();
+          if (stringTag == STRINGTABLE_S) {
+            int stringEnd = cursor.readLengthDelimitedEnd();
+            stringRanges.add(cursor.pos, stringEnd - cursor.pos);
+            cursor.pos = stringEnd;
+          } else {
+            cursor.skipField(stringTag);
+          }
+        }
+      } else if (tag == BLOCK_PRIMITIVEGROUP) {
+        int end = cursor.readLengthDelimitedEnd();
+        groupRanges.add(cursor.pos, end);
+        cursor.pos = end;
+      } else if (tag == BLOCK_GRANULARITY) {
+        blockGranularity = cursor.readInt32();
+      } else if (tag == BLOCK_LAT_OFFSET) {
+        blockLatOffset = cursor.readVarint64();
+      } else if (tag == BLOCK_LON_OFFSET) {
+        blockLonOffset = cursor.readVarint64();
+      } else {
+        cursor.skipField(tag);
+      }
+    }
+
+    int numStrings = stringRanges.size() / 2;
+    stringOffsets = new int[numStrings];
+    stringLengths = new int[numStrings];
+    strings = new String[numStrings];
+    for (int i = 0; i < numStrings; i++) {
+      stringOffsets[i] = stringRanges.get(i * 2);
+      stringLengths[i] = stringRanges.get(i * 2 + 1);
+    }
+    int numGroups = groupRanges.size() / 2;
+    groupOffsets = new int[numGroups];
+    groupEnds = new int[numGroups];
+    for (int i = 0; i < numGroups; i++) {
+      groupOffsets[i] = groupRanges.get(i * 2);
+      groupEnds[i] = groupRanges.get(i * 2 + 1);
+    }
+    granularity = blockGranularity;
+    latOffset = blockLatOffset;
+    lonOffset = blockLonOffset;
+  }
+
+  private static int tag(int fieldNumber, int wireType) {
+    return (fieldNumber << 3) | wireType;
+  }
+
+  /** Returns true if {@code tag} is the packed repeated field {@code packedTag} or its unpacked varint form. */
+  private static boolean isRepeated(int tag, int packedTag) {
+    return tag == packedTag || tag == ((packedTag & ~0x7) | WIRE_VARINT);
+  }
+
+  /** Decompresses and parses a block of primitive OSM elements. */
+  public static Iterable<OsmElement> decode(byte[] raw) {
+    try {
+      return new PbfWireDecoder(PbfDecoder.readBlobContent(raw));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to process PBF blob", e);
+    }
+  }
+
+  /** Decompresses and parses a block of primitive OSM elements. */
+  public static Iterable<OsmElement> decode(ByteBuffer raw) {
+    try {
+      return new PbfWireDecoder(PbfDecoder.readBlobContent(raw));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to process PBF blob", e);
+    }
+  }
+
+  @Override
+  public Iterator<OsmElement> iterator() {
+    return new ElementIterator();
+  }
+
+  private String decodeString(int index) {
+    String result = strings[index];
+    if (result == null) {
+      // racing iterators may both decode the same string, but the result is identical
+      result = strings[index] = new String(data, stringOffsets[index], stringLengths[index], StandardCharsets.UTF_8);
+    }
+    return result;
+  }
+
+  private double decodeLatitude(long rawLatitude) {
+    return COORDINATE_SCALING_FACTOR * (latOffset + (granularity * rawLatitude));
+  }
+
+  private double decodeLongitude(long rawLongitude) {
+    return COORDINATE_SCALING_FACTOR * (lonOffset + (granularity * rawLongitude));
+  }
+
+  private double decodeDenseLatitude(long rawLatitude) {
+    // matches PbfDecoder exactly for the default granularity, but also handles blocks that override it
+    return granularity == DEFAULT_GRANULARITY && latOffset == 0 ? ((double) rawLatitude) / 10000000 :
+      decodeLatitude(rawLatitude);
+  }
+
+  private double decodeDenseLongitude(long rawLongitude) {
+    return granularity == DEFAULT_GRANULARITY && lonOffset == 0 ? ((double) rawLongitude) / 10000000 :
+      decodeLongitude(rawLongitude);
+  }
+
+  /** Returns the number of varints packed between {@code start} (inclusive) and {@code end} (exclusive). */
+  private static int countVarints(byte[] data, int start, int end) {
+    int count = 0;
+    for (int i = start; i < end; i++) {
+      if (data[i] >= 0) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /** A position within a length-delimited section of the raw block that reads protobuf wire primitives. */
+  private static final class Cursor {
+
+    private final byte[] data;
+    private int pos;
+    private int end;
+    // raw varint values of a repeated field that was not a single packed range of the block
+    private LongArrayList values = null;
+    private boolean materialized = false;
+
+    Cursor(byte[] data, int pos, int end) {
+      this.data = data;
+      reset(pos, end);
+    }
+
+    Cursor(byte[] data) {
+      this(data, 0, 0);
+    }
+
+    void reset(int newPos, int newEnd) {
+      this.pos = newPos;
+      this.end = newEnd;
+      this.materialized = false;
+    }
+
+    boolean hasMore() {
+      return pos < end;
+    }
+
+    long readVarint64() {
+      if (materialized) {
+        if (pos >= end) {
+          throw new FileFormatException("Truncated repeated field in PBF block");
+        }
+        return values.get(pos++);
+      }
+      long result = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        if (pos >= end) {
+          throw new FileFormatException("Truncated varint in PBF block");
+        }
+        byte b = data[pos++];
+        result |= (long) (b & 0x7F) << shift;
+        if (b >= 0) {
+          return result;
+        }
+      }
+      throw new FileFormatException("Malformed varint in PBF block");
+    }
+
+    int readTag() {
+      return (int) readVarint64();
+    }
+
+    int readInt32() {
+      return (int) readVarint64();
+    }
+
+    long readSInt64() {
+      long n = readVarint64();
+      return (n >>> 1) ^ -(n & 1);
+    }
+
+    int readSInt32() {
+      int n = (int) readVarint64();
+      return (n >>> 1) ^ -(n & 1);
+    }
+
+    /** Reads the length prefix of a length-delimited field and returns the position where that field ends. */
+    int readLengthDelimitedEnd() {
+      int length = readInt32();
+      int result = pos + length;
+      if (length < 0 || result > end) {
+        throw new FileFormatException("Length-delimited field exceeds the bounds of the PBF block");
+      }
+      return result;
+    }
+
+    void skipField(int tag) {
+      switch (tag & 0x7) {
+        case WIRE_VARINT -> readVarint64();
+        case WIRE_FIXED64 -> pos += 8;
+        case WIRE_LENGTH_DELIMITED -> pos = readLengthDelimitedEnd();
+        case WIRE_FIXED32 -> pos += 4;
+        default -> throw new FileFormatException("Unsupported protobuf wire type in PBF block: " + (tag & 0x7));
+      }
+    }
+
+    /**
+     * Reads the repeated field with {@code tag} at the current position into {@code target}.
+     * <p>
+     * The first packed occurrence just points {@code target} at its range of the block. Unpacked values, or later
+     * occurrences of the same field, get appended to the values already in {@code target} as the protobuf spec
+     * requires.
+     */
+    void readRepeated(int tag, Cursor target) {
+      if ((tag & 0x7) == WIRE_LENGTH_DELIMITED) {
+        int packedEnd = readLengthDelimitedEnd();
+        if (!target.materialized && !target.hasMore()) {
+          target.reset(pos, packedEnd);
+          pos = packedEnd;
+        } else {
+          target.materialize();
+          while (pos < packedEnd) {
+            target.values.add(readVarint64());
+          }
+          target.end = target.values.size();
+        }
+      } else {
+        target.materialize();
+        target.values.add(readVarint64());
+        target.end = target.values.size();
+      }
+    }
+
+    /** Copies the raw values remaining in this packed range into {@link #values} so more can be appended. */
+    private void materialize() {
+      if (!materialized) {
+        if (values == null) {
+          values = new LongArrayList();
+        }
+        values.clear();
+        while (pos < end) {
+          values.add(readVarint64());
+        }
+        materialized = true;
+        pos = 0;
+        end = values.size();
+      }
+    }
+
+    int countRemainingVarints() {
+      return materialized ? end - pos : countVarints(data, pos, end);
+    }
+  }
+
+  private class ElementIterator implements Iterator<OsmElement> {
+
+    private final Cursor group = new Cursor(data);
+    private final Cursor keys = new Cursor(data);
+    private final Cursor vals = new Cursor(data);
+    private final Cursor packed1 = new Cursor(data);
+    private final Cursor packed2 = new Cursor(data);
+    private final Cursor packed3 = new Cursor(data);
+    private int nextGroup = 0;
+    private DenseNodeIterator dense = null;
+    private OsmElement next = null;
+
+    @Override
+    public boolean hasNext() {
+      if (next == null) {
+        next = advance();
+      }
+      return next != null;
+    }
+
+    @Override
+    public OsmElement next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      OsmElement result = next;
+      next = null;
+      return result;
+    }
+
+    private OsmElement advance() {
+      while (true) {
+        if (dense != null) {
+          if (dense.hasNext()) {
+            return dense.next();
+          }
+          dense = null;
+        }
+        if (group.hasMore()) {
+          int tag = group.readTag();
+          if (tag == GROUP_NODES) {
+            return readNode(group.readLengthDelimitedEnd());
+          } else if (tag == GROUP_DENSE) {
+            int end = group.readLengthDelimitedEnd();
+            dense = new DenseNodeIterator(group.pos, end);
+            group.pos = end;
+          } else if (tag == GROUP_WAYS) {
+            return readWay(group.readLengthDelimitedEnd());
+          } else if (tag == GROUP_RELATIONS) {
+            return readRelation(group.readLengthDelimitedEnd());
+          } else {
+            group.skipField(tag);
+          }
+        } else if (nextGroup < groupOffsets.length) {
+          group.reset(groupOffsets[nextGroup], groupEnds[nextGroup]);
+          nextGroup++;
+        } else {
+          return null;
+        }
+      }
+    }
+
+    private OsmElement.Node readNode(int end) {
+      long id = 0;
+      long lat = 0;
+      long lon = 0;
+      OsmElement.Info info = null;
+      keys.reset(0, 0);
+      vals.reset(0, 0);
+      while (group.pos < end) {
+        int tag = group.readTag();
+        if (tag == ELEMENT_ID) {
+          id = group.readSInt64();
+        } else if (isRepeated(tag, ELEMENT_KEYS)) {
+          group.readRepeated(tag, keys);
+        } else if (isRepeated(tag, ELEMENT_VALS)) {
+          group.readRepeated(tag, vals);
+        } else if (tag == ELEMENT_INFO) {
+          info = readInfo(group.readLengthDelimitedEnd());
+        } else if (tag == NODE_LAT) {
+          lat = group.readSInt64();
+        } else if (tag == NODE_LON) {
+          lon = group.readSInt64();
+        } else {
+          group.skipField(tag);
+        }
+      }
+      return new OsmElement.Node(
+        id,
+        buildTags(),
+        decodeLatitude(lat),
+        decodeLongitude(lon),
+        info == null ? defaultInfo() : info
+      );
+    }
+
+    private OsmElement.Way readWay(int end) {
+      long id = 0;
+      OsmElement.Info info = null;
+      keys.reset(0, 0);
+      vals.reset(0, 0);
+      packed1.reset(0, 0);
+      while (group.pos < end) {
+        int tag = group.readTag();
+        if (tag == ELEMENT_ID) {
+          // unlike nodes, way and relation IDs are int64 not sint64
+          id = group.readVarint64();
+        } else if (isRepeated(tag, ELEMENT_KEYS)) {
+          group.readRepeated(tag, keys);
+        } else if (isRepeated(tag, ELEMENT_VALS)) {
+          group.readRepeated(tag, vals);
+        } else if (tag == ELEMENT_INFO) {
+          info = readInfo(group.readLengthDelimitedEnd());
+        } else if (isRepeated(tag, WAY_REFS)) {
+          group.readRepeated(tag, packed1);
+        } else {
+          group.skipField(tag);
+        }
+      }
+
+      // Node IDs are delta encoded, and the number of varints in the packed field gives the exact size up front
+      int numNodes = packed1.countRemainingVarints();
+      LongArrayList wayNodesList = new LongArrayList(numNodes);
+      wayNodesList.elementsCount = numNodes;
+      long[] wayNodes = wayNodesList.buffer;
+      long nodeId = 0;
+      for (int j = 0; j < numNodes; j++) {
+        nodeId += packed1.readSInt64();
+        wayNodes[j] = nodeId;
+      }
+
+      return new OsmElement.Way(
+        id,
+        buildTags(),
+        wayNodesList,
+        info == null ? defaultInfo() : info
+      );
+    }
+
+    private OsmElement.Relation readRelation(int end) {
+      long id = 0;
+      OsmElement.Info info = null;
+      keys.reset(0, 0);
+      vals.reset(0, 0);
+      packed1.reset(0, 0);
+      packed2.reset(0, 0);
+      packed3.reset(0, 0);
+      while (group.pos < end) {
+        int tag = group.readTag();
+        if (tag == ELEMENT_ID) {
+          id = group.readVarint64();
+        } else if (isRepeated(tag, ELEMENT_KEYS)) {
+          group.readRepeated(tag, keys);
+        } else if (isRepeated(tag, ELEMENT_VALS)) {
+          group.readRepeated(tag, vals);
+        } else if (tag == ELEMENT_INFO) {
+          info = readInfo(group.readLengthDelimitedEnd());
+        } else if (isRepeated(tag, RELATION_ROLES_SID)) {
+          group.readRepeated(tag, packed1);
+        } else if (isRepeated(tag, RELATION_MEMIDS)) {
+          group.readRepeated(tag, packed2);
+        } else if (isRepeated(tag, RELATION_TYPES)) {
+          group.readRepeated(tag, packed3);
+        } else {
+          group.skipField(tag);
+        }
+      }
+
+      int num = packed2.countRemainingVarints();
+      List<OsmElement.Relation.Member> members = new ArrayList<>(num);
+      long memberId = 0;
+      for (int j = 0; j < num; j++) {
+        memberId += packed2.readSInt64();
+        var memberType = switch (packed3.hasMore() ? packed3.readInt32() : 0) {
+          case 0 -> OsmElement.Type.NODE;
+          case 1 -> OsmElement.Type.WAY;
+          case 2 -> OsmElement.Type.RELATION;
+          default -> OsmElement.Type.OTHER;
+        };
+        members.add(new OsmElement.Relation.Member(
+          memberType,
+          memberId,
+          decodeString(packed1.hasMore() ? packed1.readInt32() : 0)
+        ));
+      }
+
+      return new OsmElement.Relation(
+        id,
+        buildTags(),
+        members,
+        info == null ? defaultInfo() : info
+      );
+    }
+
+    private OsmElement.Info readInfo(int end) {
+      // same defaults as Osmformat.Info
+      int version = -1;
+      long timestamp = 0;
+      long changeset = 0;
+      int uid = 0;
+      int userSid = 0;
+      while (group.pos < end) {
+        int tag = group.readTag();
+        if (tag == INFO_VERSION) {
+          version = group.readInt32();
+        } else if (tag == INFO_TIMESTAMP) {
+          timestamp = group.readVarint64();
+        } else if (tag == INFO_CHANGESET) {
+          changeset = group.readVarint64();
+        } else if (tag == INFO_UID) {
+          uid = group.readInt32();
+        } else if (tag == INFO_USER_SID) {
+          userSid = group.readInt32();
+        } else {
+          group.skipField(tag);
+        }
+      }
+      return new OsmElement.Info(changeset, timestamp, uid, version, decodeString(userSid));
+    }
+
+    private OsmElement.Info defaultInfo() {
+      // PbfDecoder gets a default Osmformat.Info instance when the element omits metadata
+      return new OsmElement.Info(0, 0, 0, -1, decodeString(0));
+    }
+
+    private Map<String, Object> buildTags() {
+      int num = keys.countRemainingVarints();
+      if (num > 0) {
+        Map<String, Object> tags = HashMap.newHashMap(num);
+        for (int i = 0; i < num; i++) {
+          String k = decodeString(keys.readInt32());
+          String v = decodeString(vals.readInt32());
+          tags.put(k, v);
+        }
+        return tags;
+      }
+      return Collections.emptyMap();
+    }
+  }
+
+  private class DenseNodeIterator implements Iterator<OsmElement.Node> {
+
+    private final Cursor ids = new Cursor(data);
+    private final Cursor lats = new Cursor(data);
+    private final Cursor lons = new Cursor(data);
+    private final Cursor keysVals = new Cursor(data);
+    private final Cursor versions = new Cursor(data);
+    private final Cursor timestamps = new Cursor(data);
+    private final Cursor changesets = new Cursor(data);
+    private final Cursor uids = new Cursor(data);
+    private final Cursor userSids = new Cursor(data);
+    long nodeId = 0;
+    long latitude = 0;
+    long longitude = 0;
+    // info
+    long timestamp = 0;
+    long changeset = 0;
+    int uid = 0;
+    int userSid = 0;
+
+    DenseNodeIterator(int start, int end) {
+      Cursor cursor = new Cursor(data, start, end);
+      while (cursor.hasMore()) {
+        int tag = cursor.readTag();
+        if (isRepeated(tag, DENSE_ID)) {
+          cursor.readRepeated(tag, ids);
+        } else if (isRepeated(tag, DENSE_LAT)) {
+          cursor.readRepeated(tag, lats);
+        } else if (isRepeated(tag, DENSE_LON)) {
+          cursor.readRepeated(tag, lons);
+        } else if (isRepeated(tag, DENSE_KEYS_VALS)) {
+          cursor.readRepeated(tag, keysVals);
+        } else if (tag == DENSE_DENSEINFO) {
+          int infoEnd = cursor.readLengthDelimitedEnd();
+          while (cursor.pos < infoEnd) {
+            int infoTag = cursor.readTag();
+            if (isRepeated(infoTag, DENSEINFO_VERSION)) {
+              cursor.readRepeated(infoTag, versions);
+            } else if (isRepeated(infoTag, DENSEINFO_TIMESTAMP)) {
+              cursor.readRepeated(infoTag, timestamps);
+            } else if (isRepeated(infoTag, DENSEINFO_CHANGESET)) {
+              cursor.readRepeated(infoTag, changesets);
+            } else if (isRepeated(infoTag, DENSEINFO_UID)) {
+              cursor.readRepeated(infoTag, uids);
+            } else if (isRepeated(infoTag, DENSEINFO_USER_SID)) {
+              cursor.readRepeated(infoTag, userSids);
+            } else {
+              cursor.skipField(infoTag);
+            }
+          }
+        } else {
+          cursor.skipField(tag);
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return ids.hasMore();
+    }
+
+    @Override
+    public OsmElement.Node next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      // Delta decode node fields.
+      nodeId += ids.readSInt64();
+      latitude += lats.readSInt64();
+      longitude += lons.readSInt64();
+      int version = versions.hasMore() ? versions.readInt32() : 0;
+      timestamp += timestamps.hasMore() ? timestamps.readSInt64() : 0;
+      changeset += changesets.hasMore() ? changesets.readSInt64() : 0;
+      uid += uids.hasMore() ? uids.readSInt32() : 0;
+      userSid += userSids.hasMore() ? userSids.readSInt32() : 0;
+
+      // Build the tags. The key and value string indexes are sequential
+      // in the same PBF array. Each set of tags is delimited by an index
+      // with a value of 0.
+      Map<String, Object> tags = null;
+      while (keysVals.hasMore()) {
+        int keyIndex = keysVals.readInt32();
+        if (keyIndex == 0) {
+          break;
+        }
+        int valueIndex = keysVals.readInt32();
+        if (tags == null) {
+          tags = HashMap.newHashMap(3);
+        }
+        tags.put(decodeString(keyIndex), decodeString(valueIndex));
+      }
+
+      return new OsmElement.Node(
+        nodeId,
+        tags == null ? Collections.emptyMap() : tags,
+        decodeDenseLatitude(latitude),
+        decodeDenseLongitude(longitude),
+        new OsmElement.Info(changeset, timestamp, uid, version, decodeString(userSid))
+      );
+    }
+  }
+}
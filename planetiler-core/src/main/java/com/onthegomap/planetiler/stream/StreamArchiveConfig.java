@@ -3,8 +3,12 @@ package com.onthegomap.planetiler.stream;
 import com.onthegomap.planetiler.config.Arguments;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
 
-public record StreamArchiveConfig(boolean appendToFile, Arguments moreOptions) {
+public record StreamArchiveConfig(boolean appendToFile, Arguments moreOptions, int tileWriteThreads) {
   public StreamArchiveConfig(PlanetilerConfig planetilerConfig, Arguments moreOptions) {
-    this(planetilerConfig.append(), moreOptions);
+    this(planetilerConfig.append(), moreOptions, planetilerConfig.tileWriteThreads());
+  }
+
+  public StreamArchiveConfig(boolean appendToFile, Arguments moreOptions) {
+    this(appendToFile, moreOptions, 1);
   }
 }
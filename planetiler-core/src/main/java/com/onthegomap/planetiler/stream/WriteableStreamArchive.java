@@ -20,6 +20,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  * <p>
  * Writing can be parallelized across multiple files (tile_write_threads). For the first file the base path is used. For
  * consecutive files 1, 2, ... is appended to the base bath.
+ * With more than one writer, tiles are not in order within each file since batches of tiles go to the next free writer
+ * as soon as they are encoded.
  *
  * <pre>
  * # create the pipes
@@ -40,7 +42,6 @@ abstract class WriteableStreamArchive implements WriteableTileArchive {
 
   private final OutputStream primaryOutputStream;
   private final OutputStreamSupplier outputStreamFactory;
-  @SuppressWarnings("unused")
   private final StreamArchiveConfig config;
 
   private final AtomicInteger tileWriterCounter = new AtomicInteger(0);
@@ -72,6 +73,12 @@ abstract class WriteableStreamArchive implements WriteableTileArchive {
     return TileOrder.TMS;
   }
 
+  @Override
+  public boolean requiresOrderedWrites() {
+    // tiles are already split across several files in no particular order when there are multiple writers
+    return config.tileWriteThreads() <= 1;
+  }
+
   @Override
   public final TileWriter newTileWriter() {
     final int tileWriterIndex = tileWriterCounter.getAndIncrement();
@@ -16,6 +16,7 @@ import org.slf4j.LoggerFactory;
 public class ByteBufferUtil {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ByteBufferUtil.class);
+  private static final long PREFETCH_MAX_GAP_BYTES = 1 << 16;
 
 
   /** Attempts to invoke native utility and logs an error message if not available. */
@@ -41,6 +42,47 @@ public class ByteBufferUtil {
     Madvise.posixMadvise(buffer, value.value);
   }
 
+  /**
+   * Same as {@link #posixMadvise(ByteBuffer, Madvice)} but only for {@code length} bytes starting at {@code offset}.
+   */
+  public static void posixMadvise(ByteBuffer buffer, int offset, int length, Madvice value) throws IOException {
+    Madvise.posixMadvise(buffer, offset, length, value.value);
+  }
+
+  /**
+   * Tells the OS to start reading the pages that a batch of upcoming reads will touch from disk, so they can be done
+   * in parallel instead of faulting them in one at a time.
+   * <p>
+   * Offsets that are close together get grouped into a single madvise call.
+   *
+   * @param segments       mapped segments of a file, each {@code 1 << segmentBits} bytes long except the last
+   * @param segmentBits    log2 of the segment size
+   * @param sortedOffsets  byte offsets in the file that will be read, sorted ascending
+   * @param length         number of offsets to read from {@code sortedOffsets}
+   * @param bytesPerOffset number of bytes that will be read at each offset
+   * @throws IOException If madvise not available on this system
+   */
+  public static void willNeed(MappedByteBuffer[] segments, int segmentBits, long[] sortedOffsets, int length,
+    int bytesPerOffset) throws IOException {
+    int i = 0;
+    while (i < length) {
+      int segment = (int) (sortedOffsets[i] >>> segmentBits);
+      long segmentStart = ((long) segment) << segmentBits;
+      long start = sortedOffsets[i];
+      long end = start + bytesPerOffset;
+      // extend the range while the next offset is in the same segment and within a small gap of the last one
+      while (++i < length && (sortedOffsets[i] >>> segmentBits) == segment &&
+        sortedOffsets[i] - end < PREFETCH_MAX_GAP_BYTES) {
+        end = Math.max(end, sortedOffsets[i] + bytesPerOffset);
+      }
+      MappedByteBuffer buffer = segment < segments.length ? segments[segment] : null;
+      if (buffer != null) {
+        int offset = (int) (start - segmentStart);
+        posixMadvise(buffer, offset, Math.min((int) (end - start), buffer.capacity() - offset), Madvice.WILLNEED);
+      }
+    }
+  }
+
   /**
    * Attempt to force-unmap a list of memory-mapped file segments, so it can safely be deleted.
    * <p>
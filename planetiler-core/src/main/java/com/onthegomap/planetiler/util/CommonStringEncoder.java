@@ -60,6 +60,34 @@ public class CommonStringEncoder {
     return result;
   }
 
+  /** Returns the ID of {@code string} if it has already been encoded, or {@code -1} if not. */
+  public int lookup(String string) {
+    Integer result = stringToId.get(string);
+    return result == null ? -1 : result;
+  }
+
+  /**
+   * Like {@link #encode(String)} but returns {@code -1} instead of throwing once there are already the maximum number
+   * of strings.
+   */
+  public int tryEncode(String string) {
+    Integer result = stringToId.get(string);
+    if (result == null) {
+      if (stringId.get() >= maxStrings) {
+        return -1;
+      }
+      result = stringToId.computeIfAbsent(string, s -> {
+        int id = stringId.getAndIncrement();
+        if (id >= maxStrings) {
+          return null;
+        }
+        idToString[id] = string;
+        return id;
+      });
+    }
+    return result == null ? -1 : result;
+  }
+
   /**
    * Variant of CommonStringEncoder based on byte rather than int for string indexing.
    */
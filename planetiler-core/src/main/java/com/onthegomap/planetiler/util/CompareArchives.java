@@ -159,9 +159,9 @@ public class CompareArchives {
       .<Diff>fromGenerator("enumerate", next -> {
         try (
           var reader1 = TileArchives.newReader(input1, config);
-          var tiles1 = reader1.getAllTiles();
+          var tiles1 = reader1.getAllTiles(config.featureReadThreads());
           var reader2 = TileArchives.newReader(input2, config);
-          var tiles2 = reader2.getAllTiles()
+          var tiles2 = reader2.getAllTiles(config.featureReadThreads())
         ) {
           Supplier<Tile> supplier1 = () -> tiles1.hasNext() ? tiles1.next() : null;
           Supplier<Tile> supplier2 = () -> tiles2.hasNext() ? tiles2.next() : null;
@@ -426,11 +426,10 @@ public class CompareArchives {
   }
 
   private byte[] decompress(byte[] bytes, TileCompression tileCompression) throws IOException {
-    return switch (tileCompression) {
-      case GZIP -> Gzip.gunzip(bytes);
-      case NONE -> bytes;
-      case UNKNOWN -> throw new FatalComparisonFailure("Unknown compression");
-    };
+    if (tileCompression == TileCompression.UNKNOWN) {
+      throw new FatalComparisonFailure("Unknown compression");
+    }
+    return tileCompression.decompress(bytes);
   }
 
   private VectorTileProto.Tile decode(byte[] decompressedTile) throws IOException {
@@ -206,6 +206,26 @@ public class FileUtils {
     }
   }
 
+  /**
+   * Creates a hard link at {@code to} that points to the same data as {@code from}, or falls back to copying the file
+   * if the file system does not support hard links between those locations.
+   *
+   * @throws UncheckedIOException if an error occurs
+   */
+  public static void linkOrCopy(Path from, Path to) {
+    try {
+      createParentDirectories(to);
+      Files.deleteIfExists(to);
+      try {
+        Files.createLink(to, from);
+      } catch (UnsupportedOperationException | IOException e) {
+        Files.copy(from, to);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
   /**
    * Ensures a directory and all parent directories exists.
    *
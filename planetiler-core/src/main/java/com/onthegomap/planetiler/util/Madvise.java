@@ -70,14 +70,18 @@ class Madvise {
    * @see <a href="https://man7.org/linux/man-pages/man2/madvise.2.html">madvise(2) — Linux manual page</a>
    */
   static void posixMadvise(ByteBuffer buffer, int value) throws IOException {
+    posixMadvise(buffer, 0, buffer.capacity(), value);
+  }
+
+  /** Same as {@link #posixMadvise(ByteBuffer, int)} but only for {@code length} bytes starting at {@code offset}. */
+  static void posixMadvise(ByteBuffer buffer, int offset, int length, int value) throws IOException {
     if (pageSize <= 0) {
       throw new IOException("madvise failed, pagesize not available");
     }
-    final long address = MemoryIO.getInstance().getDirectBufferAddress(buffer);
-    final int capacity = buffer.capacity();
+    final long address = MemoryIO.getInstance().getDirectBufferAddress(buffer) + offset;
 
     long alignedAddress = alignedAddress(address);
-    long alignedSize = alignedSize(alignedAddress, capacity);
+    long alignedSize = alignedSize(address, length);
     try {
       int val = nativeC.posix_madvise(alignedAddress, alignedSize, value);
       if (val != 0) {
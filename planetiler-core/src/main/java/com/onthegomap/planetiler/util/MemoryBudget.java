@@ -0,0 +1,121 @@
+package com.onthegomap.planetiler.util;
+
+import com.onthegomap.planetiler.stats.ProcessInfo;
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+import javax.annotation.concurrent.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A shared budget of JVM heap that data structures in each stage of a run reserve memory from, so that memory one stage
+ * gives back can be used by the next.
+ * <p>
+ * For example the read phase reserves memory for node locations and multipolygon geometries, then releases it when
+ * those stages finish so that the sort can load larger chunks into memory at once.
+ * <p>
+ * Reservations are advisory: they never block or fail, but components use {@link #available()} to size their buffers
+ * when they start. {@link ResourceUsage} is still responsible for failing fast before starting when the estimated
+ * memory usage exceeds the limits.
+ */
+@ThreadSafe
+public class MemoryBudget {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MemoryBudget.class);
+  private static final Format FORMAT = Format.defaultInstance();
+  private final long total;
+  private final List<Reservation> reservations = new CopyOnWriteArrayList<>();
+
+  /** Creates a new budget that hands out up to {@code total} bytes. */
+  public MemoryBudget(long total) {
+    this.total = total;
+  }
+
+  /** Returns a new budget for the maximum heap size of this JVM. */
+  public static MemoryBudget forJvm() {
+    return new MemoryBudget(ProcessInfo.getMaxMemoryBytes());
+  }
+
+  /** Returns the total number of bytes in this budget. */
+  public long total() {
+    return total;
+  }
+
+  /** Returns the number of bytes currently reserved, which may exceed {@link #total()}. */
+  public long reserved() {
+    return reservations.stream().mapToLong(Reservation::bytes).sum();
+  }
+
+  /** Returns the number of bytes not reserved yet. */
+  public long available() {
+    return Math.max(0, total - reserved());
+  }
+
+  /** Reserves a fixed number of {@code bytes} for {@code name}, even if that exceeds what is available. */
+  public Reservation reserve(String name, long bytes) {
+    return add(new Reservation(name, () -> bytes));
+  }
+
+  /**
+   * Reserves as much as is available for {@code name}, but at least {@code min} bytes and no more than {@code max}
+   * bytes.
+   */
+  public synchronized Reservation reserveUpTo(String name, long min, long max) {
+    long bytes = Math.max(min, Math.min(max, available()));
+    return reserve(name, bytes);
+  }
+
+  /** Reserves however much memory {@code object} estimates it is using at any time until the reservation is closed. */
+  public Reservation register(String name, MemoryEstimator.HasEstimate object) {
+    return add(new Reservation(name, object::estimateMemoryUsageBytes));
+  }
+
+  private synchronized Reservation add(Reservation reservation) {
+    reservations.add(reservation);
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Reserved {} for {}, {}", FORMAT.storage(reservation.bytes(), false), reservation.name, this);
+    }
+    return reservation;
+  }
+
+  @Override
+  public String toString() {
+    return "MemoryBudget{total=" + FORMAT.storage(total, false) +
+      " available=" + FORMAT.storage(available(), false) +
+      reservations.stream()
+        .map(r -> " " + r.name + "=" + FORMAT.storage(r.bytes(), false))
+        .collect(Collectors.joining()) +
+      "}";
+  }
+
+  /** Memory reserved from this budget that gets returned to it when closed. */
+  public class Reservation implements Closeable {
+
+    private final String name;
+    private final LongSupplier bytes;
+
+    private Reservation(String name, LongSupplier bytes) {
+      this.name = name;
+      this.bytes = bytes;
+    }
+
+    public String name() {
+      return name;
+    }
+
+    /** Returns the number of bytes reserved. */
+    public long bytes() {
+      return bytes.getAsLong();
+    }
+
+    @Override
+    public void close() {
+      if (reservations.remove(this) && LOGGER.isDebugEnabled()) {
+        LOGGER.debug("Released {} from {}, {}", FORMAT.storage(bytes(), false), name, MemoryBudget.this);
+      }
+    }
+  }
+}
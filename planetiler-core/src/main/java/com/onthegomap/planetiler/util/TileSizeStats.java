@@ -12,6 +12,7 @@ import com.onthegomap.planetiler.VectorTile;
 import com.onthegomap.planetiler.archive.Tile;
 import com.onthegomap.planetiler.archive.TileArchiveConfig;
 import com.onthegomap.planetiler.archive.TileArchives;
+import com.onthegomap.planetiler.archive.TileCompression;
 import com.onthegomap.planetiler.config.Arguments;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.geo.TileCoord;
@@ -22,6 +23,7 @@ import com.onthegomap.planetiler.worker.WorkerPipeline;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -78,6 +80,13 @@ public class TileSizeStats {
     var output = localPath == null ?
       arguments.file("output", "output file") :
       arguments.file("output", "output file", getDefaultLayerstatsPath(localPath));
+    TileCompression tileCompression;
+    try (var reader = TileArchives.newReader(input, config)) {
+      var metadata = reader.metadata();
+      tileCompression = metadata == null ? TileCompression.GZIP : metadata.tileCompression();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
     var counter = new AtomicLong(0);
     var timer = stats.startStage("tilestats");
     record Batch(List<Tile> tiles, CompletableFuture<List<String>> stats) {}
@@ -87,7 +96,7 @@ public class TileSizeStats {
       .<Batch>fromGenerator("enumerate", next -> {
         try (
           var reader = TileArchives.newReader(input, config);
-          var tiles = reader.getAllTiles();
+          var tiles = reader.getAllTiles(config.featureReadThreads());
           writerQueue
         ) {
           var writer = writerQueue.threadLocalWriter();
@@ -124,7 +133,7 @@ public class TileSizeStats {
           for (var tile : batch.tiles) {
             if (!Arrays.equals(zipped, tile.bytes())) {
               zipped = tile.bytes();
-              unzipped = Gzip.gunzip(tile.bytes());
+              unzipped = tileCompression.decompress(tile.bytes());
               decoded = VectorTileProto.Tile.parseFrom(unzipped);
               layerStats = computeTileStats(decoded);
             }
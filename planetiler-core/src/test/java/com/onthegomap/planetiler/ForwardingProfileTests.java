@@ -343,6 +343,45 @@ class ForwardingProfileTests {
         Map.of("c", List.of(feature, feature, feature, feature))));
   }
 
+  @Test
+  void testPostProcessesFeaturesOnlyWithPostProcessors() {
+    assertFalse(profile.postProcessesFeatures());
+    profile.registerHandler((ForwardingProfile.FinishHandler) (source, factory, next) -> {
+    });
+    assertFalse(profile.postProcessesFeatures());
+    profile.registerHandler((ForwardingProfile.TilePostProcessor) (tileCoord, layers) -> layers);
+    assertTrue(profile.postProcessesFeatures());
+
+    var layerProfile = new ForwardingProfile() {};
+    layerProfile.registerHandler(new ForwardingProfile.LayerPostProcesser() {
+      @Override
+      public List<VectorTile.Feature> postProcess(int zoom, List<VectorTile.Feature> items) {
+        return items;
+      }
+
+      @Override
+      public String name() {
+        return "a";
+      }
+    });
+    assertTrue(layerProfile.postProcessesFeatures());
+
+    assertTrue(new ForwardingProfile() {
+      @Override
+      public List<VectorTile.Feature> postProcessLayerFeatures(String layer, int zoom,
+        List<VectorTile.Feature> items) {
+        return List.of();
+      }
+    }.postProcessesFeatures());
+    assertFalse(new Profile.NullProfile().postProcessesFeatures());
+    assertTrue(new Profile.NullProfile() {
+      @Override
+      public Map<String, List<VectorTile.Feature>> postProcessTileFeatures(TileCoord tileCoord,
+        Map<String, List<VectorTile.Feature>> layers) {
+        return Map.of();
+      }
+    }.postProcessesFeatures());
+  }
 
   @Test
   void testCaresAboutSource() {
@@ -22,6 +22,7 @@ import com.onthegomap.planetiler.geo.TileCoord;
 import com.onthegomap.planetiler.geo.TileOrder;
 import com.onthegomap.planetiler.mbtiles.Mbtiles;
 import com.onthegomap.planetiler.pmtiles.ReadablePmtiles;
+import com.onthegomap.planetiler.pmtiles.WriteablePmtiles;
 import com.onthegomap.planetiler.reader.SimpleFeature;
 import com.onthegomap.planetiler.reader.SimpleReader;
 import com.onthegomap.planetiler.reader.SourceFeature;
@@ -34,6 +35,7 @@ import com.onthegomap.planetiler.stats.Stats;
 import com.onthegomap.planetiler.stream.InMemoryStreamArchive;
 import com.onthegomap.planetiler.util.BuildInfo;
 import com.onthegomap.planetiler.util.Gzip;
+import com.onthegomap.planetiler.util.SeekableInMemoryByteChannel;
 import com.onthegomap.planetiler.util.TileSizeStats;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -161,7 +163,7 @@ class PlanetilerTests {
     try (Mbtiles db = Mbtiles.newInMemoryDatabase(config.arguments())) {
       TileArchiveWriter.writeOutput(featureGroup, db, () -> 0L, new TileArchiveMetadata(profile, config),
         null, config, stats);
-      var tileMap = TestUtils.getTileMap(db);
+      var tileMap = TestUtils.getTileMap(db, config.tileCompression());
       tileMap.values().forEach(fs -> fs.forEach(f -> f.geometry().validate()));
       int tileDataCount = db.compactDb() ? TestUtils.getTilesDataCount(db) : 0;
       return new PlanetilerResults(tileMap, db.metadata().toMap(), tileDataCount);
@@ -856,6 +858,144 @@ class PlanetilerTests {
     )));
   }
 
+  @Test
+  void testFeatureReadRanges() throws Exception {
+    List<SimpleFeature> features = List.of(
+      newReaderFeature(WORLD_POLYGON, Map.of()),
+      newReaderFeature(newPoint(0.5, 0.5), Map.of("a", 1)),
+      newReaderFeature(newPoint(0.75, 0.25), Map.of("a", 2))
+    );
+    BiConsumer<SourceFeature, FeatureCollector> profile = (in, out) -> {
+      if (in.isPoint()) {
+        out.point("points").setZoomRange(0, 6).setAttr("a", in.getTag("a"));
+      } else {
+        out.polygon("layer").setZoomRange(0, 6).setBufferPixels(4);
+      }
+    };
+    var expected = runWithReaderFeatures(Map.of("threads", "1"), features, profile);
+    var results = runWithReaderFeatures(
+      Map.of("threads", "4", "feature_read_threads", "2", "feature_read_ranges", "true"),
+      features,
+      profile
+    );
+
+    assertEquals(5461, results.tiles.size());
+    assertEquals(expected.tiles, results.tiles);
+  }
+
+  @Test
+  void testTileEncodeCache() throws Exception {
+    List<SimpleFeature> features = List.of(
+      newReaderFeature(WORLD_POLYGON, Map.of()),
+      newReaderFeature(newPoint(0.5, 0.5), Map.of("a", 1)),
+      newReaderFeature(newPoint(0.75, 0.25), Map.of("a", 2))
+    );
+    BiConsumer<SourceFeature, FeatureCollector> profile = (in, out) -> {
+      if (in.isPoint()) {
+        out.point("points").setZoomRange(0, 6).setAttr("a", in.getTag("a"));
+      } else {
+        out.polygon("layer").setZoomRange(0, 6).setBufferPixels(4);
+      }
+    };
+    var expected = runWithReaderFeatures(Map.of("threads", "1", "tile_encode_cache_size", "0"), features, profile);
+    var results = runWithReaderFeatures(Map.of("threads", "4", "tile_encode_cache_size", "100"), features, profile);
+
+    assertEquals(5461, results.tiles.size());
+    assertEquals(expected.tiles, results.tiles);
+  }
+
+  @Test
+  void testUnorderedPmtilesWrites() throws Exception {
+    List<SimpleFeature> features = List.of(
+      newReaderFeature(WORLD_POLYGON, Map.of()),
+      newReaderFeature(newPoint(0.5, 0.5), Map.of("a", 1)),
+      newReaderFeature(newPoint(0.75, 0.25), Map.of("a", 2))
+    );
+    BiConsumer<SourceFeature, FeatureCollector> profileFunction = (in, out) -> {
+      if (in.isPoint()) {
+        out.point("points").setZoomRange(0, 6).setAttr("a", in.getTag("a"));
+      } else {
+        out.polygon("layer").setZoomRange(0, 6).setBufferPixels(4);
+      }
+    };
+    var expected = runWithReaderFeatures(Map.of("threads", "1"), features, profileFunction);
+
+    PlanetilerConfig config = PlanetilerConfig.from(Arguments.of(Map.of("threads", "4")));
+    var profile = TestProfile.processSourceFeatures(profileFunction);
+    FeatureGroup featureGroup = FeatureGroup.newInMemoryFeatureGroup(TileOrder.HILBERT, profile, config, stats);
+    processReaderFeatures(featureGroup, profile, config, features);
+    featureGroup.prepare();
+    var bytes = new SeekableInMemoryByteChannel(0);
+    var archive = WriteablePmtiles.newWriteToMemory(bytes, Arguments.of(WriteablePmtiles.CLUSTERED, "false"));
+    TileArchiveWriter.writeOutput(featureGroup, archive, () -> 0L, new TileArchiveMetadata(profile, config),
+      null, config, stats);
+    try (var reader = new ReadablePmtiles(bytes)) {
+      assertEquals(expected.tiles, TestUtils.getTileMap(reader));
+    }
+  }
+
+  @Test
+  void testSegmentedPmtilesWrites() throws Exception {
+    List<SimpleFeature> features = List.of(
+      newReaderFeature(WORLD_POLYGON, Map.of()),
+      newReaderFeature(newPoint(0.5, 0.5), Map.of("a", 1)),
+      newReaderFeature(newPoint(0.75, 0.25), Map.of("a", 2))
+    );
+    BiConsumer<SourceFeature, FeatureCollector> profileFunction = (in, out) -> {
+      if (in.isPoint()) {
+        out.point("points").setZoomRange(0, 6).setAttr("a", in.getTag("a"));
+      } else {
+        out.polygon("layer").setZoomRange(0, 6).setBufferPixels(4);
+      }
+    };
+    var expected = runWithReaderFeatures(Map.of("threads", "1"), features, profileFunction);
+
+    PlanetilerConfig config = PlanetilerConfig.from(Arguments.of(Map.of("threads", "4", "tile_write_threads", "3")));
+    var profile = TestProfile.processSourceFeatures(profileFunction);
+    FeatureGroup featureGroup = FeatureGroup.newInMemoryFeatureGroup(TileOrder.HILBERT, profile, config, stats);
+    processReaderFeatures(featureGroup, profile, config, features);
+    featureGroup.prepare();
+    var bytes = new SeekableInMemoryByteChannel(0);
+    var archive = WriteablePmtiles.newWriteToMemory(bytes, Arguments.of(), config.tileWriteThreads());
+    TileArchiveWriter.writeOutput(featureGroup, archive, () -> 0L, new TileArchiveMetadata(profile, config),
+      null, config, stats);
+    try (var reader = new ReadablePmtiles(bytes)) {
+      assertEquals(expected.tiles, TestUtils.getTileMap(reader));
+      assertEquals(expected.tiles.size(), reader.getHeader().numAddressedTiles());
+    }
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+    "none, -1",
+    "gzip, 1",
+    "zstd, -1",
+    "zstd, 19",
+  })
+  void testTileCompression(String codec, int level) throws Exception {
+    List<SimpleFeature> features = List.of(
+      newReaderFeature(WORLD_POLYGON, Map.of()),
+      newReaderFeature(newPoint(0.5, 0.5), Map.of("a", 1))
+    );
+    BiConsumer<SourceFeature, FeatureCollector> profile = (in, out) -> {
+      if (in.isPoint()) {
+        out.point("points").setZoomRange(0, 3).setAttr("a", in.getTag("a"));
+      } else {
+        out.polygon("layer").setZoomRange(0, 3).setBufferPixels(4);
+      }
+    };
+    var expected = runWithReaderFeatures(Map.of("threads", "1"), features, profile);
+    var results = runWithReaderFeatures(
+      Map.of("threads", "1", "tile_compression", codec, "tile_compression_level", Integer.toString(level)),
+      features,
+      profile
+    );
+
+    assertEquals(85, results.tiles.size());
+    assertEquals(expected.tiles, results.tiles);
+    assertEquals(codec, results.metadata.get("compression"));
+  }
+
   @ParameterizedTest
   @CsvSource({
     "chesapeake.wkb, 4076",
@@ -2063,6 +2203,8 @@ class PlanetilerTests {
       return TileCompression.NONE;
     } else if (args.contains("tile-compression=gzip")) {
       return TileCompression.GZIP;
+    } else if (args.contains("tile-compression=zstd")) {
+      return TileCompression.ZSTD;
     } else if (args.contains("tile-compression=")) {
       throw new IllegalArgumentException("unhandled tile compression");
     } else {
@@ -2074,6 +2216,7 @@ class PlanetilerTests {
   @ValueSource(strings = {
     "",
     "--write-threads=2 --process-threads=2 --feature-read-threads=2 --threads=4",
+    "--write-threads=2 --process-threads=2 --feature-read-threads=2 --feature-read-ranges --threads=4",
     "--free-osm-after-read",
     "--compress-temp",
     "--osm-parse-node-bounds",
@@ -2086,6 +2229,8 @@ class PlanetilerTests {
     "--output-format=files",
     "--tile-compression=none",
     "--tile-compression=gzip",
+    "--tile-compression=zstd",
+    "--output-format=pmtiles --tile-compression=zstd --tile-compression-level=9",
     "--output-layerstats",
     "--max-point-buffer=1"
   })
@@ -27,9 +27,12 @@ import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.DynamicTest.dynamicTest;
 
+import com.google.common.primitives.Bytes;
 import com.google.common.primitives.Ints;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.onthegomap.planetiler.geo.GeoUtils;
 import com.onthegomap.planetiler.geo.GeometryException;
+import com.onthegomap.planetiler.util.TileSizeStats;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -340,6 +343,43 @@ class VectorTileTest {
     assertEquals("layer2", decoded.get(2).layer());
   }
 
+  @Test
+  void testEncodeMatchesProto() throws InvalidProtocolBufferException {
+    Map<String, Object> attrs1 = new HashMap<>(Map.of(
+      "string", "value",
+      "unicode", "Zürich 東京",
+      "int", Integer.MIN_VALUE,
+      "long", Long.MAX_VALUE,
+      "float", Float.NaN,
+      "double", -1.5d,
+      "bool", true
+    ));
+    attrs1.put("other", List.of(1, 2));
+    Map<String, Object> attrs2 = Map.of("int", 0, "string", "");
+    var tile = new VectorTile().addLayerFeatures("layer1", List.of(
+      new VectorTile.Feature("layer1", VectorTile.NO_FEATURE_ID, VectorTile.encodeGeometry(newPoint(1, 2)), attrs1),
+      new VectorTile.Feature("layer1", -1, VectorTile.encodeGeometry(newLineString(0, 0, 10, 10, 20, 0)), attrs2),
+      new VectorTile.Feature("layer1", Long.MAX_VALUE, VectorTile.encodeGeometry(rectangle(0, 256)), Map.of())
+    )).addLayerFeatures("läyer2", List.of(
+      new VectorTile.Feature("läyer2", 1, VectorTile.encodeGeometry(newMultiPoint(newPoint(1, 2), newPoint(3, 4))),
+        attrs1)
+    ));
+
+    byte[] encoded = tile.encode();
+    assertArrayEquals(tile.toProto().toByteArray(), encoded);
+
+    var withStats = tile.encodeWithLayerStats();
+    assertArrayEquals(encoded, withStats.bytes());
+    assertEquals(TileSizeStats.computeTileStats(VectorTileProto.Tile.parseFrom(encoded)), withStats.layerStats());
+  }
+
+  @Test
+  void testEncodeEmptyTile() {
+    var tile = new VectorTile();
+    assertArrayEquals(new byte[0], tile.encode());
+    assertEquals(List.of(), tile.encodeWithLayerStats().layerStats());
+  }
+
   @ParameterizedTest
   @CsvSource({
     "true,true,-1,-1,257,257",
@@ -699,6 +739,10 @@ class VectorTileTest {
     );
   }
 
+  private static void assertArrayEquals(byte[] a, byte[] b) {
+    assertEquals(Bytes.asList(a), Bytes.asList(b));
+  }
+
   private void assertSameGeometry(Geometry expected, Geometry actual) {
     if (expected.isEmpty() && actual.isEmpty()) {
       // OK
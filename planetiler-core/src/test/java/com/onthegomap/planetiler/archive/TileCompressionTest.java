@@ -0,0 +1,90 @@
+package com.onthegomap.planetiler.archive;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.onthegomap.planetiler.util.Gzip;
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+class TileCompressionTest {
+
+  private static List<byte[]> inputs() {
+    byte[] random = new byte[100_000];
+    new Random(0).nextBytes(random);
+    byte[] repeated = new byte[100_000];
+    for (int i = 0; i < repeated.length; i++) {
+      repeated[i] = (byte) (i % 10);
+    }
+    return List.of(new byte[0], new byte[]{1, 2, 3}, random, repeated);
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+    "NONE,-1",
+    "GZIP,-1",
+    "GZIP,1",
+    "GZIP,9",
+    "ZSTD,-1",
+    "ZSTD,1",
+    "ZSTD,19",
+  })
+  void testRoundTrip(TileCompression compression, int level) throws IOException {
+    // reuse the same compressor for every input
+    try (var compressor = compression.newCompressor(level)) {
+      for (byte[] input : inputs()) {
+        assertArrayEquals(input, compression.decompress(compressor.compress(input)));
+      }
+    }
+  }
+
+  @Test
+  void testGzipMatchesGzipOutputStream() throws IOException {
+    try (var compressor = TileCompression.GZIP.newCompressor(-1)) {
+      for (byte[] input : inputs()) {
+        assertArrayEquals(Gzip.gzip(input), compressor.compress(input));
+      }
+    }
+  }
+
+  @Test
+  void testHigherLevelIsSmaller() {
+    byte[] input = inputs().getLast();
+    try (
+      var high = TileCompression.ZSTD.newCompressor(19);
+      var low = TileCompression.ZSTD.newCompressor(1)
+    ) {
+      assertTrue(high.compress(input).length <= low.compress(input).length);
+    }
+  }
+
+  @Test
+  void testUnsupported() {
+    assertThrows(IllegalArgumentException.class, () -> TileCompression.BROTLI.newCompressor(-1));
+    assertThrows(IllegalArgumentException.class, () -> TileCompression.UNKNOWN.newCompressor(-1));
+    assertThrows(IllegalArgumentException.class, () -> TileCompression.BROTLI.decompress(new byte[0]));
+  }
+
+  @Test
+  void testFindById() {
+    assertEquals(Optional.of(TileCompression.ZSTD), TileCompression.findById("zstd"));
+    assertEquals(Optional.of(TileCompression.BROTLI), TileCompression.findById("brotli"));
+    assertEquals(Optional.empty(), TileCompression.findById("unknown"));
+  }
+
+  @Test
+  void testFromIdOnlyAcceptsWritableCodecs() {
+    assertEquals(TileCompression.ZSTD, TileCompression.fromId("zstd"));
+    assertThrows(IllegalArgumentException.class, () -> TileCompression.fromId("brotli"));
+    assertThrows(IllegalArgumentException.class, () -> TileCompression.fromId("unknown"));
+    assertFalse(TileCompression.availableValues().contains(TileCompression.BROTLI));
+  }
+}
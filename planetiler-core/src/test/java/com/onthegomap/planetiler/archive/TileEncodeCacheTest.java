@@ -0,0 +1,94 @@
+package com.onthegomap.planetiler.archive;
+
+import static com.onthegomap.planetiler.TestUtils.newPoint;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.onthegomap.planetiler.Profile;
+import com.onthegomap.planetiler.VectorTile;
+import com.onthegomap.planetiler.collection.FeatureGroup;
+import com.onthegomap.planetiler.config.PlanetilerConfig;
+import com.onthegomap.planetiler.geo.TileCoord;
+import com.onthegomap.planetiler.geo.TileOrder;
+import com.onthegomap.planetiler.render.RenderedFeature;
+import com.onthegomap.planetiler.stats.Stats;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+
+class TileEncodeCacheTest {
+
+  private static final TileEncodeCache.Value VALUE = new TileEncodeCache.Value(new byte[]{1}, 2, null, List.of());
+
+  private final FeatureGroup featureGroup = FeatureGroup.newInMemoryFeatureGroup(TileOrder.TMS,
+    new Profile.NullProfile(), PlanetilerConfig.defaults(), Stats.inMemory());
+
+  private Map<TileCoord, FeatureGroup.TileFeatures> tiles(Map<TileCoord, Integer> attrs) {
+    var encoder = featureGroup.newRenderedFeatureEncoder();
+    try (var writer = featureGroup.writerForThread()) {
+      attrs.forEach((coord, attr) -> writer.accept(encoder.apply(new RenderedFeature(
+        coord,
+        new VectorTile.Feature("layer", 1, VectorTile.encodeGeometry(newPoint(1, 2)), Map.of("a", attr)),
+        0,
+        Optional.empty()
+      ))));
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+    featureGroup.prepare();
+    Map<TileCoord, FeatureGroup.TileFeatures> result = new HashMap<>();
+    featureGroup.forEach(tile -> result.put(tile.tileCoord(), tile));
+    return result;
+  }
+
+  @Test
+  void testReturnsIdenticalTileAtSameZoom() {
+    var tiles = tiles(Map.of(
+      TileCoord.ofXYZ(0, 0, 1), 1,
+      TileCoord.ofXYZ(1, 0, 1), 2,
+      TileCoord.ofXYZ(1, 1, 1), 1,
+      TileCoord.ofXYZ(0, 0, 2), 1
+    ));
+    var first = tiles.get(TileCoord.ofXYZ(0, 0, 1));
+    var different = tiles.get(TileCoord.ofXYZ(1, 0, 1));
+    var same = tiles.get(TileCoord.ofXYZ(1, 1, 1));
+    var otherZoom = tiles.get(TileCoord.ofXYZ(0, 0, 2));
+    var cache = new TileEncodeCache(10);
+    cache.put(first, first.contentHash(), VALUE);
+
+    assertSame(VALUE, cache.get(same, same.contentHash()));
+    assertNull(cache.get(different, different.contentHash()));
+    assertNull(cache.get(otherZoom, otherZoom.contentHash()));
+    // rules out hash collisions
+    assertNull(cache.get(different, first.contentHash()));
+  }
+
+  @Test
+  void testReplacesTilesInSameSlot() {
+    var tiles = tiles(Map.of(
+      TileCoord.ofXYZ(0, 0, 1), 1,
+      TileCoord.ofXYZ(1, 0, 1), 2
+    ));
+    var first = tiles.get(TileCoord.ofXYZ(0, 0, 1));
+    var second = tiles.get(TileCoord.ofXYZ(1, 0, 1));
+    var cache = new TileEncodeCache(1);
+    cache.put(first, first.contentHash(), VALUE);
+    cache.put(second, second.contentHash(), VALUE);
+
+    assertNull(cache.get(first, first.contentHash()));
+    assertSame(VALUE, cache.get(second, second.contentHash()));
+  }
+
+  @Test
+  void testDisabled() {
+    var tile = tiles(Map.of(TileCoord.ofXYZ(0, 0, 1), 1)).get(TileCoord.ofXYZ(0, 0, 1));
+    var cache = new TileEncodeCache(0);
+    cache.put(tile, tile.contentHash(), VALUE);
+
+    assertFalse(cache.enabled());
+    assertNull(cache.get(tile, tile.contentHash()));
+  }
+}
@@ -0,0 +1,53 @@
+package com.onthegomap.planetiler.collection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class AttributeValueDictionaryTest {
+
+  private static final byte LAYER1 = 1;
+  private static final byte LAYER2 = 2;
+
+  @Test
+  void testAddsValuesTheFirstTimeTheyAreSeen() {
+    var dictionary = new AttributeValueDictionary(10, 20);
+    int id = dictionary.encode(LAYER1, "residential");
+    assertTrue(id >= 0);
+    assertEquals(id, dictionary.encode(LAYER1, "residential"));
+    assertEquals(id, dictionary.encode(LAYER2, "residential"));
+    assertEquals("residential", dictionary.decode(id));
+  }
+
+  @Test
+  void testLongValuesStayInline() {
+    var dictionary = new AttributeValueDictionary(10, 3);
+    assertEquals(0, dictionary.encode(LAYER1, "abc"));
+    assertEquals(-1, dictionary.encode(LAYER1, "abcd"));
+    assertEquals(-1, dictionary.encode(LAYER1, "abcd"));
+  }
+
+  @Test
+  void testValuesStayInlineOnceFull() {
+    var dictionary = new AttributeValueDictionary(2, 10);
+    assertEquals(0, dictionary.encode(LAYER1, "a"));
+    assertEquals(1, dictionary.encode(LAYER1, "b"));
+    assertEquals(-1, dictionary.encode(LAYER1, "c"));
+    assertEquals(-1, dictionary.encode(LAYER1, "c"));
+    assertEquals(0, dictionary.encode(LAYER1, "a"));
+  }
+
+  @Test
+  void testHitRateByLayer() {
+    var dictionary = new AttributeValueDictionary(10, 10);
+    dictionary.encode(LAYER1, "a");
+    dictionary.encode(LAYER1, "too long value");
+    dictionary.encode(LAYER2, "a");
+    assertEquals(1, dictionary.hits(LAYER1));
+    assertEquals(1, dictionary.misses(LAYER1));
+    assertEquals(0.5, dictionary.hitRate(LAYER1));
+    assertEquals(1, dictionary.hitRate(LAYER2));
+    assertEquals(0, dictionary.hitRate((byte) 3));
+  }
+}
@@ -2,6 +2,7 @@ package com.onthegomap.planetiler.collection;
 
 import static com.onthegomap.planetiler.TestUtils.decodeSilently;
 import static com.onthegomap.planetiler.TestUtils.newPoint;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
@@ -22,6 +23,8 @@ import com.onthegomap.planetiler.util.Gzip;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -177,6 +180,29 @@ class FeatureGroupTest {
       )))), getFeaturesParallel());
   }
 
+  @Test
+  void testRangeIteratorsKeepTilesTogether() {
+    for (int tile = 0; tile < 50; tile++) {
+      for (int i = 0; i <= tile % 5; i++) {
+        put(tile, "layer" + i, Map.of("a", i), newPoint(i, i));
+      }
+    }
+    sorter.sort();
+    List<String> expected = new ArrayList<>();
+    for (var tile : features) {
+      expected.add(tile.tileCoord() + "=" + tile.getNumFeaturesToEmit());
+    }
+    var ranges = features.rangeIterators(4);
+    assertTrue(ranges.size() > 1);
+    List<String> actual = new ArrayList<>();
+    for (var range : ranges) {
+      for (var tile : range) {
+        actual.add(tile.tileCoord() + "=" + tile.getNumFeaturesToEmit());
+      }
+    }
+    assertEquals(expected, actual);
+  }
+
   @Test
   void testPutPointsWithSortKey() {
     putWithSortKey(
@@ -268,6 +294,78 @@ class FeatureGroupTest {
       )))), getFeatures());
   }
 
+  private static Map<String, Object> allAttributeTypes() {
+    Map<String, Object> attrs = new HashMap<>();
+    attrs.put("string", "value");
+    attrs.put("long string", "x".repeat(100));
+    attrs.put("unicode", "ünïcödé");
+    attrs.put("int", -1);
+    attrs.put("long", 1L << 40);
+    attrs.put("float", 1.5f);
+    attrs.put("double", 2.5);
+    attrs.put("true", true);
+    attrs.put("false", false);
+    attrs.put("other", new StringBuilder("builder"));
+    attrs.put("null", null);
+    return attrs;
+  }
+
+  @Test
+  void testDecodeAttributeTypes() {
+    List<VectorTile.Feature> decoded = new ArrayList<>();
+    features = new FeatureGroup(sorter, TileOrder.TMS, new Profile.NullProfile() {
+      @Override
+      public List<VectorTile.Feature> postProcessLayerFeatures(String layer, int zoom, List<VectorTile.Feature> items) {
+        decoded.addAll(items);
+        return items;
+      }
+    }, config, Stats.inMemory());
+    featureWriter = features.writerForThread();
+    putWithIdGroupAndSortKey(-5, 1, "layer", allAttributeTypes(), newPoint(1, 2), 0, true, -3, 2);
+    sorter.sort();
+    features.iterator().next().getVectorTile();
+    assertEquals(1, decoded.size());
+    var feature = decoded.getFirst();
+    assertEquals(-5, feature.id());
+    assertEquals(-3, feature.group());
+    assertEquals(Map.of(
+      "string", "value",
+      "long string", "x".repeat(100),
+      "unicode", "ünïcödé",
+      "int", -1L,
+      "long", 1L << 40,
+      "float", 1.5,
+      "double", 2.5,
+      "true", true,
+      "false", false,
+      "other", "builder"
+    ), feature.tags());
+  }
+
+  @Test
+  void testDecodeStraightIntoTileMatchesPostProcessedTile() {
+    List<byte[]> encoded = new ArrayList<>();
+    for (Profile profile : List.of(new Profile.NullProfile(), new Profile.NullProfile() {
+      @Override
+      public List<VectorTile.Feature> postProcessLayerFeatures(String layer, int zoom, List<VectorTile.Feature> items) {
+        return items;
+      }
+    })) {
+      var groupSorter = FeatureSort.newInMemory();
+      var group = new FeatureGroup(groupSorter, TileOrder.TMS, profile, config, Stats.inMemory());
+      var writer = group.writerForThread();
+      var encoder = group.newRenderedFeatureEncoder();
+      for (int i = 0; i < 3; i++) {
+        writer.accept(encoder.apply(new RenderedFeature(TileCoord.ofXYZ(0, 0, 1),
+          new VectorTile.Feature("layer" + (i % 2), i, VectorTile.encodeGeometry(newPoint(i, i)), allAttributeTypes()),
+          i, Optional.empty())));
+      }
+      groupSorter.sort();
+      encoded.add(group.iterator().next().getVectorTile().encode());
+    }
+    assertArrayEquals(encoded.get(0), encoded.get(1));
+  }
+
   @Test
   void testProfileChangesGeometry() {
     features = new FeatureGroup(sorter, TileOrder.TMS, new Profile.NullProfile() {
@@ -440,6 +538,22 @@ class FeatureGroupTest {
     assertEquals(expectSame, tile0.hasSameContents(tile1));
   }
 
+  @ParameterizedTest(name = "{0}")
+  @ArgumentsSource(SameFeatureGroupTestArgs.class)
+  void testContentHash(String testName, boolean expectSame, PuTileArgs args0, PuTileArgs args1) {
+    put(args0);
+    put(args1);
+    sorter.sort();
+    var iter = features.iterator();
+    var tile0 = iter.next();
+    var tile1 = iter.next();
+    if (expectSame) {
+      assertEquals(tile0.contentHash(), tile1.contentHash());
+    } else {
+      assertNotEquals(tile0.contentHash(), tile1.contentHash());
+    }
+  }
+
   @ParameterizedTest(name = "{0}")
   @ArgumentsSource(SameFeatureGroupTestArgs.class)
   void testGenerateContentHash(String testName, boolean expectSame, PuTileArgs args0, PuTileArgs args1)
@@ -461,6 +575,73 @@ class FeatureGroupTest {
     }
   }
 
+  @Test
+  void testRepeatedAttributeValuesKeepTheSameBytes() {
+    for (int tile = 1; tile <= 4; tile++) {
+      put(new PuTileArgs(1, tile, "layer", Map.of("class", "residential"), newPoint(1, 2), 0, false, 0, 0));
+    }
+    sorter.sort();
+    List<FeatureGroup.TileFeatures> tiles = new ArrayList<>();
+    features.iterator().forEachRemaining(tiles::add);
+    assertEquals(4, tiles.size());
+    for (var tile : tiles) {
+      assertTrue(tiles.getFirst().hasSameContents(tile));
+      assertEquals(tiles.getFirst().contentHash(), tile.contentHash());
+    }
+  }
+
+  @Test
+  void testHashTagsOnlyDependsOnDecodedValues() {
+    Map<String, Object> attrs = new LinkedHashMap<>();
+    attrs.put("a", 1);
+    attrs.put("b", "value");
+    Map<String, Object> reversed = new LinkedHashMap<>();
+    reversed.put("b", "value");
+    reversed.put("a", 1L);
+    reversed.put("c", null);
+    assertEquals(FeatureGroup.hashTags(attrs), FeatureGroup.hashTags(reversed));
+    assertNotEquals(0, FeatureGroup.hashTags(attrs));
+    assertNotEquals(FeatureGroup.hashTags(attrs), FeatureGroup.hashTags(Map.of("a", 1, "b", "other")));
+    assertEquals(0, FeatureGroup.hashTags(Map.of()));
+    assertEquals(0, FeatureGroup.hashTags(Collections.singletonMap("a", null)));
+  }
+
+  @Test
+  void testTieOrderDoesNotDependOnDictionaryIds() {
+    List<List<Object>> orders = new ArrayList<>();
+    for (var firstSeen : List.of(List.of("a", "b"), List.of("b", "a"))) {
+      List<Object> order = new ArrayList<>();
+      var groupSorter = FeatureSort.newInMemory();
+      var group = new FeatureGroup(groupSorter, TileOrder.TMS, new Profile.NullProfile() {
+        @Override
+        public List<VectorTile.Feature> postProcessLayerFeatures(String layer, int zoom,
+          List<VectorTile.Feature> items) {
+          if (zoom == 1) {
+            items.forEach(item -> order.add(item.tags().get("k")));
+          }
+          return items;
+        }
+      }, config, Stats.inMemory());
+      var writer = group.writerForThread();
+      var encoder = group.newRenderedFeatureEncoder();
+      // assign dictionary IDs in a different order in another tile first
+      for (String value : firstSeen) {
+        writer.accept(encoder.apply(new RenderedFeature(TileCoord.ofXYZ(0, 0, 0),
+          new VectorTile.Feature("layer", 1, VectorTile.encodeGeometry(newPoint(1, 1)), Map.of("k", value)),
+          0, Optional.empty())));
+      }
+      for (String value : List.of("a", "b")) {
+        writer.accept(encoder.apply(new RenderedFeature(TileCoord.ofXYZ(0, 0, 1),
+          new VectorTile.Feature("layer", 1, VectorTile.encodeGeometry(newPoint(1, 1)), Map.of("k", value)),
+          0, Optional.empty())));
+      }
+      groupSorter.sort();
+      group.iterator().forEachRemaining(FeatureGroup.TileFeatures::getVectorTile);
+      orders.add(order);
+    }
+    assertEquals(orders.get(0), orders.get(1));
+  }
+
   @ParameterizedTest
   @CsvSource({
     "UNKNOWN,0",
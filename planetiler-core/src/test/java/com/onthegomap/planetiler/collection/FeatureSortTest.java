@@ -1,16 +1,23 @@
 package com.onthegomap.planetiler.collection;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.onthegomap.planetiler.config.Arguments;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.stats.Stats;
+import com.onthegomap.planetiler.util.MemoryBudget;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
 import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
@@ -28,8 +35,12 @@ class FeatureSortTest {
 
 
   private FeatureSort newSorter(int workers, int chunkSizeLimit, boolean gzip, boolean mmap) {
-    return new ExternalMergeSort(tmpDir, workers, chunkSizeLimit, gzip, mmap, true, true, config,
-      Stats.inMemory());
+    return newSorter(workers, chunkSizeLimit, gzip, mmap, false);
+  }
+
+  private FeatureSort newSorter(int workers, int chunkSizeLimit, boolean gzip, boolean mmap, boolean radix) {
+    return new ExternalMergeSort(tmpDir, workers, chunkSizeLimit, gzip, mmap, true, true,
+      radix ? PlanetilerConfig.from(Arguments.of("sort_radix", "true")) : config, Stats.inMemory());
   }
 
   @Test
@@ -112,12 +123,181 @@ class FeatureSortTest {
 
   @ParameterizedTest
   @CsvSource({
-    "false,false",
-    "false,true",
-    "true,false",
-    "true,true",
+    "false,false,false",
+    "false,true,false",
+    "true,false,false",
+    "true,true,false",
+    "false,false,true",
+    "false,true,true",
+    "true,false,true",
+  })
+  void testManyItems(boolean gzip, boolean mmap, boolean radix) {
+    List<SortableFeature> sorted = new ArrayList<>();
+    List<SortableFeature> shuffled = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      shuffled.add(newEntry(i));
+      sorted.add(newEntry(i));
+    }
+    Collections.shuffle(shuffled, new Random(0));
+    FeatureSort sorter = newSorter(2, 20_000, gzip, mmap, radix);
+    var writer = sorter.writerForThread();
+    shuffled.forEach(writer);
+    sorter.sort();
+    assertEquals(sorted, sorter.toList());
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+    "false,3",
+    "true,3",
+    "false,1000",
+    "true,1000",
+  })
+  void testSameKeySortedByValue(boolean radix, int keys) {
+    Random random = new Random(0);
+    List<SortableFeature> shuffled = new ArrayList<>();
+    for (int i = 0; i < 5_000; i++) {
+      // values with long shared prefixes to compare more than 8 bytes at a time
+      byte[] value = new byte[random.nextInt(20)];
+      for (int j = 0; j < value.length; j++) {
+        value[j] = random.nextInt(4) == 0 ? (byte) random.nextInt() : (byte) 0xff;
+      }
+      shuffled.add(new SortableFeature(random.nextLong(-keys, keys) << 40, value));
+    }
+    List<SortableFeature> sorted = new ArrayList<>(shuffled);
+    Collections.sort(sorted);
+    FeatureSort sorter = newSorter(1, 1_000_000, false, false, radix);
+    var writer = sorter.writerForThread();
+    shuffled.forEach(writer);
+    sorter.sort();
+    assertEquals(sorted, sorter.toList());
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+    "false,false,",
+    "true,false,",
+    "false,true,",
+    "true,false,lz4",
+    "false,true,zstd",
+  })
+  @Timeout(30)
+  void testSortFullChunksInBackground(boolean mmap, boolean radix, String codec) throws InterruptedException {
+    List<SortableFeature> sorted = new ArrayList<>();
+    List<SortableFeature> shuffled = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      shuffled.add(newEntry(i));
+      sorted.add(newEntry(i));
+    }
+    Collections.shuffle(shuffled, new Random(0));
+    var sorter = new ExternalMergeSort(tmpDir, 2, 20_000, codec != null, mmap, true, true,
+      PlanetilerConfig.from(Arguments.of("sort_background", "true", "sort_radix", Boolean.toString(radix),
+        "compress_temp_codec", codec == null ? "snappy" : codec)),
+      Stats.inMemory());
+    var writer1 = sorter.writerForThread();
+    var writer2 = sorter.writerForThread();
+    for (int i = 0; i < shuffled.size(); i++) {
+      (i % 2 == 0 ? writer1 : writer2).accept(shuffled.get(i));
+    }
+    while (sorter.presortedChunks() == 0) {
+      Thread.sleep(10);
+    }
+    sorter.sort();
+    assertEquals(sorted, sorter.toList());
+    assertEquals(0, sorter.estimateMemoryUsageBytes());
+    if (codec != null) {
+      // each chunk file gets counted once, even if it was sorted in the background or merged with others
+      assertEquals(sorted.stream().mapToLong(f -> 12 + f.value().length).sum(), sorter.rawBytesWritten());
+    }
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+    "lz4,false,false",
+    "lz4,true,false",
+    "zstd,false,false",
+    "zstd,true,false",
+    "lz4,true,true",
+    "zstd,false,true",
+  })
+  void testBlockCompressedChunks(String codec, boolean mmap, boolean radix) {
+    List<SortableFeature> shuffled = new ArrayList<>();
+    for (int i = 0; i < 5_000; i++) {
+      byte[] value = new byte[i % 100];
+      Arrays.fill(value, (byte) i);
+      shuffled.add(new SortableFeature(i, value));
+    }
+    // larger than a block
+    shuffled.add(new SortableFeature(5_000, new byte[ExternalMergeSort.TEMP_BLOCK_SIZE * 2]));
+    List<SortableFeature> sorted = new ArrayList<>(shuffled);
+    Collections.shuffle(shuffled, new Random(0));
+    var sorter = new ExternalMergeSort(tmpDir, 2, 300_000, true, mmap, true, true,
+      PlanetilerConfig.from(Arguments.of("compress_temp_codec", codec, "sort_radix", Boolean.toString(radix))),
+      Stats.inMemory());
+    var writer = sorter.writerForThread();
+    shuffled.forEach(writer);
+    sorter.sort();
+    assertEquals(sorted, sorter.toList());
+    assertTrue(sorter.chunks() > 1);
+    assertEquals(sorted.stream().mapToLong(f -> 12 + f.value().length).sum(), sorter.rawBytesWritten());
+    assertTrue(sorter.compressionRatio() < 0.5, "ratio: " + sorter.compressionRatio());
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+    "false,,false,false",
+    "false,,true,false",
+    "true,snappy,false,false",
+    "true,lz4,false,false",
+    "true,zstd,true,false",
+    "false,,false,true",
+    "true,lz4,true,true",
   })
-  void testManyItems(boolean gzip, boolean mmap) {
+  void testRangeIterators(boolean compress, String codec, boolean mmap, boolean radix) {
+    List<SortableFeature> sorted = new ArrayList<>();
+    List<SortableFeature> shuffled = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      // several features with the same key so that ranges split inside runs of equal keys
+      byte[] value = new byte[20];
+      value[0] = (byte) (i >> 8);
+      value[1] = (byte) i;
+      var entry = new SortableFeature(i / 3, value);
+      shuffled.add(entry);
+      sorted.add(entry);
+    }
+    Collections.sort(sorted);
+    Collections.shuffle(shuffled, new Random(0));
+    var sorter = new ExternalMergeSort(tmpDir, 2, 200_000, compress, mmap, true, true,
+      PlanetilerConfig.from(Arguments.of("compress_temp_codec", codec == null ? "snappy" : codec, "sort_radix",
+        Boolean.toString(radix))),
+      Stats.inMemory());
+    var writer = sorter.writerForThread();
+    shuffled.forEach(writer);
+    sorter.sort();
+    assertTrue(sorter.chunks() > 1);
+
+    long[] splits = sorter.splitKeys(4);
+    assertEquals(3, splits.length);
+    List<SortableFeature> fromRanges = new ArrayList<>();
+    long from = Long.MIN_VALUE;
+    for (long split : splits) {
+      assertTrue(split > from);
+      sorter.rangeIterator(from, split).forEachRemaining(fromRanges::add);
+      from = split;
+    }
+    sorter.rangeIterator(from, Long.MAX_VALUE).forEachRemaining(fromRanges::add);
+    assertEquals(sorted, fromRanges);
+
+    List<SortableFeature> middle = new ArrayList<>();
+    sorter.rangeIterator(1_234, 2_345).forEachRemaining(middle::add);
+    assertEquals(sorted.stream().filter(f -> f.key() >= 1_234 && f.key() < 2_345).toList(), middle);
+
+    assertFalse(sorter.rangeIterator(100_000, 200_000).hasNext());
+  }
+
+  @ParameterizedTest
+  @CsvSource({"false", "true"})
+  void testReadAhead(boolean readAhead) {
     List<SortableFeature> sorted = new ArrayList<>();
     List<SortableFeature> shuffled = new ArrayList<>();
     for (int i = 0; i < 10_000; i++) {
@@ -125,10 +305,62 @@ class FeatureSortTest {
       sorted.add(newEntry(i));
     }
     Collections.shuffle(shuffled, new Random(0));
-    FeatureSort sorter = newSorter(2, 20_000, gzip, mmap);
+    var sorter = new ExternalMergeSort(tmpDir, 2, 20_000, false, true, true, true,
+      PlanetilerConfig.from(Arguments.of("sort_read_ahead", Boolean.toString(readAhead))), Stats.inMemory());
     var writer = sorter.writerForThread();
     shuffled.forEach(writer);
     sorter.sort();
     assertEquals(sorted, sorter.toList());
+    // stop reading part way through
+    var iterator = sorter.iterator(0, 2);
+    for (int i = 0; i < 10 && iterator.hasNext(); i++) {
+      iterator.next();
+    }
+    assertEquals(sorted, sorter.toList());
+  }
+
+  @ParameterizedTest
+  @CsvSource({"false", "true"})
+  void testSortUsesMemoryReleasedToBudget(boolean release) {
+    var budget = new MemoryBudget(30_000);
+    var readPhase = budget.reserve("read_phase", 29_000);
+    var sorter = new ExternalMergeSort(tmpDir, config, Stats.inMemory(), budget);
+    List<SortableFeature> sorted = new ArrayList<>();
+    // each writer starts a partially-full chunk that can only be grouped with others when there is more memory
+    for (int w = 0; w < 4; w++) {
+      var writer = sorter.writerForThread();
+      for (int i = 0; i < 100; i++) {
+        writer.accept(newEntry(w * 100 + i));
+        sorted.add(newEntry(w * 100 + i));
+      }
+    }
+    int chunksWritten = sorter.chunksToRead();
+    if (release) {
+      readPhase.close();
+    }
+    sorter.sort();
+    assertEquals(sorted, sorter.toList());
+    if (release) {
+      assertTrue(sorter.chunksToRead() < chunksWritten);
+      assertEquals(0, budget.reserved());
+    } else {
+      assertEquals(chunksWritten, sorter.chunksToRead());
+      assertEquals(29_000, budget.reserved());
+    }
+  }
+
+  @Test
+  void testSplitSortedKeys() {
+    assertArrayEquals(new long[]{}, ExternalMergeSort.splitSortedKeys(new long[]{}, 4));
+    assertArrayEquals(new long[]{}, ExternalMergeSort.splitSortedKeys(new long[]{1, 2, 3}, 1));
+    assertArrayEquals(new long[]{3, 5, 7}, ExternalMergeSort.splitSortedKeys(new long[]{1, 2, 3, 4, 5, 6, 7, 8}, 4));
+    assertArrayEquals(new long[]{1, 2}, ExternalMergeSort.splitSortedKeys(new long[]{1, 1, 1, 1, 1, 2, 2, 2}, 4));
+  }
+
+  @Test
+  void testRadixSortPairs() {
+    long[] pairs = {5, 0, Long.MIN_VALUE, 1, -1, 2, Long.MAX_VALUE, 3, 5, 4, 0, 5};
+    ExternalMergeSort.radixSortPairs(pairs);
+    assertArrayEquals(new long[]{Long.MIN_VALUE, 1, -1, 2, 0, 5, 5, 0, 5, 4, Long.MAX_VALUE, 3}, pairs);
   }
 }
@@ -2,13 +2,20 @@ package com.onthegomap.planetiler.collection;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.onthegomap.planetiler.geo.GeoUtils;
 import com.onthegomap.planetiler.reader.osm.OsmReader;
+import com.onthegomap.planetiler.util.FileUtils;
 import com.onthegomap.planetiler.util.Format;
 import com.onthegomap.planetiler.util.ResourceUsage;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -127,6 +134,53 @@ public abstract class LongLongMapTest {
     }
   }
 
+  public static class CompressedTest extends LongLongMapTest {
+
+    @Override
+    protected LongLongMap.SequentialWrites createSequentialWriter(Path path) {
+      return new CompressedLongLongMap(new AppendStoreRam.Longs(false));
+    }
+
+    @Test
+    void testRoundTripsClusteredNodeLocations() throws IOException {
+      Random random = new Random(0);
+      Map<Long, Long> expected = new TreeMap<>();
+      long key = 0;
+      double x = 0.5, y = 0.5;
+      for (int i = 0; i < 100_000; i++) {
+        // mostly small gaps and nearby locations, with some jumps
+        key += random.nextInt(10) == 0 ? 1 + random.nextInt(1_000) : 1;
+        if (random.nextInt(500) == 0) {
+          x = random.nextDouble();
+          y = random.nextDouble();
+        } else {
+          x = Math.clamp(x + (random.nextDouble() - 0.5) * 1e-4, 0, 1);
+          y = Math.clamp(y + (random.nextDouble() - 0.5) * 1e-4, 0, 1);
+        }
+        expected.put(key, GeoUtils.encodeFlatLocation(x, y));
+      }
+      // extreme values
+      expected.put(key + 1, 0L);
+      expected.put(key + 2, Long.MAX_VALUE);
+      expected.put(key + 3, -1L);
+      expected.put(key + 300, 5L);
+
+      var values = new AppendStoreRam.Longs(false);
+      try (var map = new CompressedLongLongMap(values)) {
+        expected.forEach(map::put);
+        for (var entry : expected.entrySet()) {
+          assertEquals(entry.getValue(), map.get(entry.getKey()), "key " + entry.getKey());
+          assertEquals(Long.MIN_VALUE, map.get(entry.getKey() + 1_000_000_000));
+        }
+        assertEquals(Long.MIN_VALUE, map.get(expected.keySet().iterator().next() - 1));
+        // should be well under the 8 bytes per value that array and sparsearray take
+        assertTrue(values.size() * 8 < 5L * expected.size(), values.size() * 8 + " bytes");
+        long nextKey = key + 301;
+        assertThrows(IllegalStateException.class, () -> map.put(nextKey, 1));
+      }
+    }
+  }
+
   static class AllTest {
 
     @Test
@@ -142,7 +196,10 @@ public abstract class LongLongMapTest {
             );
           var sizeDescription = variant + " " + Format.defaultInstance().storage(usage);
           // sanity check to ensure that the estimate size is between 60 and 100GB for a 70GB input file
-          if (type != LongLongMap.Type.NOOP) {
+          if (type == LongLongMap.Type.COMPRESSED) {
+            assertTrue(usage > 30_000_000_000L, sizeDescription);
+            assertTrue(usage < 60_000_000_000L, sizeDescription);
+          } else if (type != LongLongMap.Type.NOOP) {
             assertTrue(usage > 60_000_000_000L, sizeDescription);
             assertTrue(usage < 100_000_000_000L, sizeDescription);
           }
@@ -161,5 +218,76 @@ public abstract class LongLongMapTest {
         }
       }
     }
+
+    @Test
+    void testMultiGetUnsortedWithDuplicates(@TempDir Path path) {
+      for (Storage storage : Storage.values()) {
+        for (LongLongMap.Type type : LongLongMap.Type.values()) {
+          if (type == LongLongMap.Type.NOOP) {
+            continue;
+          }
+          var variant = storage + "-" + type;
+          try (LongLongMap map = LongLongMap.from(type, storage, new Storage.Params(path.resolve(variant), true))) {
+            try (var writer = map.newWriter()) {
+              for (int i = 1; i < 100_000; i++) {
+                writer.put(i * 10L, i);
+              }
+            }
+            long[] keys = new long[]{500_000, 10, 999_990, 500_000, 5, 10, 2_000_000, 0, 20};
+            long[] expected = new long[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+              expected[i] = map.get(keys[i]);
+            }
+            assertArrayEquals(
+              new long[]{50_000, 1, 99_999, 50_000, Long.MIN_VALUE, 1, Long.MIN_VALUE, Long.MIN_VALUE, 2},
+              expected, variant);
+            assertArrayEquals(expected, map.multiGet(keys), variant);
+            assertEquals(
+              storage == Storage.MMAP && (type == LongLongMap.Type.ARRAY || type == LongLongMap.Type.SPARSE_ARRAY),
+              map.benefitsFromMultiGet(), variant);
+            assertArrayEquals(new long[0], map.multiGet(new long[0]), variant);
+          } catch (IOException e) {
+            throw new AssertionError(e);
+          }
+        }
+      }
+    }
+
+    @Test
+    void testPersistAndOpen(@TempDir Path path) throws IOException {
+      for (LongLongMap.Type type : LongLongMap.Type.values()) {
+        for (Storage storage : Storage.values()) {
+          assertEquals(storage == Storage.MMAP && (type == LongLongMap.Type.ARRAY ||
+            type == LongLongMap.Type.SPARSE_ARRAY), LongLongMap.isPersistable(type, storage), type + "-" + storage);
+        }
+        if (!LongLongMap.isPersistable(type, Storage.MMAP)) {
+          continue;
+        }
+        Path dir = path.resolve(type.id());
+        FileUtils.createDirectory(dir);
+        try (LongLongMap map = LongLongMap.from(type, Storage.MMAP, new Storage.Params(path.resolve("tmp"), true))) {
+          try (var writer = map.newWriter()) {
+            writer.put(2, 3);
+            writer.put(1_000, 5);
+          }
+          assertInstanceOf(LongLongMap.Persistable.class, map).persist(dir);
+        }
+        FileUtils.delete(path.resolve("tmp"));
+        for (int i = 0; i < 2; i++) {
+          try (LongLongMap map = LongLongMap.open(type, dir, true)) {
+            assertEquals(Long.MIN_VALUE, map.get(1), type.id());
+            assertEquals(3, map.get(2), type.id());
+            assertEquals(5, map.get(1_000), type.id());
+            assertEquals(Long.MIN_VALUE, map.get(1_001), type.id());
+            assertEquals(Long.MIN_VALUE, map.get(1_000_000), type.id());
+            assertThrows(RuntimeException.class, () -> {
+              try (var writer = map.newWriter()) {
+                writer.put(2_000, 1);
+              }
+            });
+          }
+        }
+      }
+    }
   }
 }
@@ -186,6 +186,48 @@ public abstract class LongLongMultimapTest {
     }
   }
 
+  public static class DeltaEncodedTest extends LongLongMultimapTest {
+
+    @BeforeEach
+    public void setup() {
+      retainInputOrder = true;
+      this.map = LongLongMultimap.newReplaceableMultimap(Storage.RAM, null, true);
+    }
+
+    @Test
+    public void extremeValues() {
+      var values = LongArrayList.from(Long.MIN_VALUE, Long.MAX_VALUE, 0, -1, 1, 1L << 40, (1L << 40) + 1, -(1L << 40));
+      ((LongLongMultimap.Replaceable) map).replaceValues(1, values);
+      ((LongLongMultimap.Replaceable) map).replaceValues(2, LongArrayList.from(5));
+      assertEquals(values, map.get(1));
+      assertEquals(LongArrayList.from(5), map.get(2));
+    }
+
+    @Test
+    public void compressesNearbyValues() {
+      var deltaEncoded = (LongLongMultimap.DeltaEncodedMultimap) map;
+      deltaEncoded.replaceValues(1, LongArrayList.from(10_000_000_000L, 10_000_000_001L, 10_000_000_003L,
+        10_000_000_002L, 10_000_000_000L));
+      // 6 longs raw vs. header + 9 bytes packed into 2 longs
+      assertEquals(2, deltaEncoded.compressionRatio(), 1e-9);
+    }
+  }
+
+  public static class DeltaEncodedMmapTest extends LongLongMultimapTest {
+
+    @BeforeEach
+    public void setup(@TempDir Path dir) {
+      retainInputOrder = true;
+      this.map = LongLongMultimap.newReplaceableMultimap(Storage.MMAP,
+        new Storage.Params(dir.resolve("multimap"), true), true);
+    }
+
+    @AfterEach
+    public void teardown() {
+      this.map.close();
+    }
+  }
+
   public static class DenseOrderedMmapTest extends LongLongMultimapTest {
 
     @BeforeEach
@@ -232,6 +232,33 @@ class LongMergerTest {
     }
   }
 
+  @ParameterizedTest
+  @ValueSource(ints = {1, 2, 3, 4, 5, 7, 8, 9, 16, 33, 100, 1000})
+  void testLoserTreeMatchesHeap(int n) {
+    var random = new Random(n);
+    List<List<SortableFeature>> featureLists = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      List<SortableFeature> list = new ArrayList<>();
+      featureLists.add(list);
+      // leave some lists empty
+      int items = random.nextInt(20);
+      for (int j = 0; j < items; j++) {
+        list.add(new SortableFeature(random.nextLong(50), new byte[]{(byte) random.nextInt(256)}));
+      }
+      list.sort(Comparator.naturalOrder());
+    }
+    List<SortableFeature> expected = new ArrayList<>();
+    LongMerger.mergeIterators(featureLists.stream().map(List::iterator).toList(), SortableFeature.COMPARE_BYTES)
+      .forEachRemaining(expected::add);
+    List<SortableFeature> actual = new ArrayList<>();
+    var iter = LongMerger.mergeIteratorsWithLoserTree(featureLists.stream().map(List::iterator).toList(),
+      SortableFeature.COMPARE_BYTES);
+    iter.forEachRemaining(actual::add);
+    assertThrows(NoSuchElementException.class, iter::next);
+    assertEquals(expected, actual);
+    assertEquals(featureLists.stream().mapToInt(List::size).sum(), actual.size());
+  }
+
   private static long[] parse(String in) {
     return in == null ? new long[0] : Stream.of(in.split("\\s+"))
       .map(String::strip)
@@ -0,0 +1,88 @@
+package com.onthegomap.planetiler.collection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class OffHeapLongLongHashMapTest {
+
+  @Test
+  void testEmpty() {
+    try (var map = new OffHeapLongLongHashMap()) {
+      assertEquals(0, map.size());
+      assertFalse(map.containsKey(1));
+      assertEquals(-1, map.getOrDefault(1, -1));
+    }
+  }
+
+  @Test
+  void testPutAndGet() {
+    try (var map = new OffHeapLongLongHashMap()) {
+      map.put(1, 10);
+      map.put(-5, 20);
+      map.put(Long.MAX_VALUE, 30);
+      assertEquals(3, map.size());
+      assertTrue(map.containsKey(1));
+      assertEquals(10, map.getOrDefault(1, -1));
+      assertEquals(20, map.getOrDefault(-5, -1));
+      assertEquals(30, map.getOrDefault(Long.MAX_VALUE, -1));
+      assertEquals(-1, map.getOrDefault(2, -1));
+    }
+  }
+
+  @Test
+  void testReplaceValue() {
+    try (var map = new OffHeapLongLongHashMap()) {
+      map.put(1, 10);
+      map.put(1, 11);
+      assertEquals(1, map.size());
+      assertEquals(11, map.getOrDefault(1, -1));
+    }
+  }
+
+  @Test
+  void testZeroKey() {
+    try (var map = new OffHeapLongLongHashMap()) {
+      assertFalse(map.containsKey(0));
+      map.put(0, 5);
+      map.put(0, 6);
+      assertTrue(map.containsKey(0));
+      assertEquals(1, map.size());
+      assertEquals(6, map.getOrDefault(0, -1));
+    }
+  }
+
+  @Test
+  void testGrow() {
+    try (var map = new OffHeapLongLongHashMap(4)) {
+      for (long i = 1; i <= 100_000; i++) {
+        map.put(i * 31, i);
+      }
+      assertEquals(100_000, map.size());
+      for (long i = 1; i <= 100_000; i++) {
+        assertEquals(i, map.getOrDefault(i * 31, -1));
+      }
+      assertFalse(map.containsKey(30));
+    }
+  }
+
+  @Test
+  void testGrowAcrossSlabs() {
+    // 16 slots per slab, so the table ends up split across thousands of slabs
+    try (var map = new OffHeapLongLongHashMap(4, 4)) {
+      for (long i = 1; i <= 100_000; i++) {
+        map.put(i * 31, i);
+      }
+      map.put(0, 5);
+      assertEquals(100_001, map.size());
+      for (long i = 1; i <= 100_000; i++) {
+        assertEquals(i, map.getOrDefault(i * 31, -1));
+      }
+      assertEquals(5, map.getOrDefault(0, -1));
+      assertFalse(map.containsKey(30));
+      assertEquals(-1, map.getOrDefault(30, -1));
+    }
+  }
+}
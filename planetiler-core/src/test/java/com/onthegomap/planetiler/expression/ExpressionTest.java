@@ -335,6 +335,8 @@ class ExpressionTest {
       new PartialInput(Set.of(), Set.of(), Map.of("other", "value"), Set.of())));
     assertEquals(TRUE, matchField("field").partialEvaluate(
       new PartialInput(Set.of(), Set.of(), Map.of("field", "value"), Set.of())));
+    assertEquals(FALSE, matchField("field").partialEvaluate(
+      new PartialInput(Set.of(), Set.of(), Map.of("other", "value"), Set.of(), true)));
   }
 
   @Test
@@ -350,6 +352,17 @@ class ExpressionTest {
       new PartialInput(Set.of(), Set.of(), Map.of("field", "not a value"), Set.of())));
   }
 
+  @Test
+  void testPartialEvaluateMatchAnyCompleteTags() {
+    var expr = matchAny("field", "value1");
+    assertEquals(FALSE, expr.partialEvaluate(new PartialInput(Set.of(), Set.of(), Map.of("other", "value"), Set.of(),
+      true)));
+    assertEquals(TRUE, expr.partialEvaluate(new PartialInput(Set.of(), Set.of(), Map.of("field", "value1"), Set.of(),
+      true)));
+    assertEquals(TRUE, matchAny("field", "value1", "").partialEvaluate(
+      new PartialInput(Set.of(), Set.of(), Map.of(), Set.of(), true)));
+  }
+
   @Test
   void testPartialEvaluateMatchGeometryType() {
     var expr = matchGeometryType(GeometryType.POINT);
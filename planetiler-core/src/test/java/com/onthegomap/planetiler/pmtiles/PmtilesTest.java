@@ -9,6 +9,8 @@ import com.onthegomap.planetiler.archive.Tile;
 import com.onthegomap.planetiler.archive.TileArchiveMetadata;
 import com.onthegomap.planetiler.archive.TileCompression;
 import com.onthegomap.planetiler.archive.TileEncodingResult;
+import com.onthegomap.planetiler.collection.Storage;
+import com.onthegomap.planetiler.config.Arguments;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.geo.TileCoord;
 import com.onthegomap.planetiler.reader.FileFormatException;
@@ -17,17 +19,23 @@ import com.onthegomap.planetiler.util.SeekableInMemoryByteChannel;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.OptionalLong;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.stream.Collectors;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
 
@@ -330,6 +338,111 @@ class PmtilesTest {
     }
   }
 
+  private static List<Pmtiles.Entry> toList(EntryStore store) {
+    List<Pmtiles.Entry> result = new ArrayList<>();
+    for (long i = 0; i < store.size(); i++) {
+      result.add(store.get(i));
+    }
+    return result;
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"ram", "direct", "mmap"})
+  void testEntryStore(String storage, @TempDir Path tempDir) throws IOException {
+    try (var store = new EntryStore(Storage.from(storage), new Storage.Params(tempDir.resolve("entries"), false))) {
+      assertEquals(-1, store.lastTileId());
+      store.add(1, 0, 10, 1);
+      assertTrue(store.canExtendLast(2, 0));
+      assertFalse(store.canExtendLast(2, 10));
+      assertFalse(store.canExtendLast(3, 0));
+      store.extendLast();
+      store.add(3, 10, 5, 1);
+      assertEquals(3, store.lastTileId());
+      assertEquals(List.of(
+        new Pmtiles.Entry(1, 0, 10, 2),
+        new Pmtiles.Entry(3, 10, 5, 1)
+      ), toList(store));
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"ram", "direct", "mmap"})
+  void testSortedEntryStoreMergesRuns(String storage, @TempDir Path tempDir) throws IOException {
+    try (var store = new EntryStore(Storage.from(storage), new Storage.Params(tempDir.resolve("entries"), false))) {
+      store.add(4, 10, 10, 1);
+      store.add(1, 0, 10, 2);
+      store.add(6, 10, 10, 1);
+      store.add(0, 0, 10, 1);
+      store.add(3, 0, 10, 1);
+      try (var sorted = store.sorted(new Storage.Params(tempDir.resolve("sorted"), false))) {
+        assertEquals(List.of(
+          new Pmtiles.Entry(0, 0, 10, 4),
+          new Pmtiles.Entry(4, 10, 10, 1),
+          new Pmtiles.Entry(6, 10, 10, 1)
+        ), toList(sorted));
+      }
+    }
+  }
+
+  @Test
+  void testBuildDirectoriesFromEntryStoreMatchesList() throws IOException {
+    List<Pmtiles.Entry> list = new ArrayList<>();
+    try (var store = new EntryStore(Storage.DIRECT, null)) {
+      for (int i = 0; i < 100000; i++) {
+        list.add(new Pmtiles.Entry(i * 2L, i * 100L, 100, 1));
+        store.add(i * 2L, i * 100L, 100, 1);
+      }
+      assertEquals(WriteablePmtiles.makeDirectories(list), WriteablePmtiles.makeDirectories(store));
+    }
+  }
+
+  @Test
+  void testMmapIndexRequiresFile() {
+    var options = Arguments.of(WriteablePmtiles.INDEX_STORAGE, "mmap");
+    var channel = new SeekableInMemoryByteChannel(0);
+    assertThrows(IllegalArgumentException.class, () -> WriteablePmtiles.newWriteToMemory(channel, options));
+  }
+
+  @Test
+  void testWritePmtilesWithMmapIndex(@TempDir Path tempDir) throws IOException {
+    Path path = tempDir.resolve("output.pmtiles");
+    var config = PlanetilerConfig.defaults();
+    var metadata = new TileArchiveMetadata(new Profile.NullProfile(), config);
+    try (
+      var in = WriteablePmtiles.newWriteToFile(path,
+        Arguments.of(WriteablePmtiles.INDEX_STORAGE, "mmap", WriteablePmtiles.CLUSTERED, "false"))
+    ) {
+      in.initialize();
+      var writer = in.newTileWriter();
+      writer.write(new TileEncodingResult(TileCoord.ofXYZ(0, 0, 1), new byte[]{0xa, 0x2}, OptionalLong.of(42)));
+      writer.write(new TileEncodingResult(TileCoord.ofXYZ(0, 0, 0), new byte[]{0xa, 0x2}, OptionalLong.of(42)));
+      writer.write(new TileEncodingResult(TileCoord.ofXYZ(1, 0, 1), new byte[]{0xb}, OptionalLong.empty()));
+      assertTrue(Files.isDirectory(tempDir.resolve("output.pmtiles.index")));
+      in.finish(metadata);
+    }
+    assertFalse(Files.exists(tempDir.resolve("output.pmtiles.index")));
+    try (var reader = new ReadablePmtiles(FileChannel.open(path))) {
+      var header = reader.getHeader();
+      assertEquals(3, header.numAddressedTiles());
+      assertEquals(2, header.numTileContents());
+      assertArrayEquals(new byte[]{0xa, 0x2}, reader.getTile(0, 0, 0));
+      assertArrayEquals(new byte[]{0xa, 0x2}, reader.getTile(0, 0, 1));
+      assertArrayEquals(new byte[]{0xb}, reader.getTile(1, 0, 1));
+    }
+  }
+
+  @Test
+  void testClusteredOption() throws IOException {
+    try (
+      var clustered = WriteablePmtiles.newWriteToMemory(new SeekableInMemoryByteChannel(0));
+      var unclustered = WriteablePmtiles.newWriteToMemory(new SeekableInMemoryByteChannel(0),
+        Arguments.of(WriteablePmtiles.CLUSTERED, "false"))
+    ) {
+      assertTrue(clustered.requiresOrderedWrites());
+      assertFalse(unclustered.requiresOrderedWrites());
+    }
+  }
+
   @Test
   void testWritePmtilesUnclustered() throws IOException {
     var bytes = new SeekableInMemoryByteChannel(0);
@@ -347,7 +460,7 @@ class PmtilesTest {
       var header = reader.getHeader();
       assertEquals(2, header.numAddressedTiles());
       assertEquals(1, header.numTileContents());
-      assertEquals(2, header.numTileEntries());
+      assertEquals(1, header.numTileEntries()); // z0 and z1 are contiguous once sorted
       assertFalse(header.clustered());
       assertArrayEquals(new byte[]{0xa, 0x2}, reader.getTile(0, 0, 0));
       assertArrayEquals(new byte[]{0xa, 0x2}, reader.getTile(0, 0, 1));
@@ -413,4 +526,169 @@ class PmtilesTest {
       }
     }
   }
+
+  private static Path writeLeafDirectoriesArchive(Path path, int numTiles) throws IOException {
+    var config = PlanetilerConfig.defaults();
+    var metadata = new TileArchiveMetadata(new Profile.NullProfile(), config);
+    try (var in = WriteablePmtiles.newWriteToFile(path)) {
+      in.initialize();
+      var writer = in.newTileWriter();
+      for (int i = 0; i < numTiles; i++) {
+        // runs of 3 tiles with identical contents
+        var data = ByteBuffer.allocate(4).putInt(i / 3).array();
+        writer.write(new TileEncodingResult(TileCoord.hilbertDecode(i), data, OptionalLong.of(i / 3)));
+      }
+      in.finish(metadata);
+    }
+    return path;
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  void testConcurrentGetTileFromFile(boolean mmap, @TempDir Path tempDir) throws Exception {
+    int numTiles = 60_000;
+    Path path = writeLeafDirectoriesArchive(tempDir.resolve("output.pmtiles"), numTiles);
+    try (var reader = ReadablePmtiles.newReadFromFile(path, mmap)) {
+      assertTrue(reader.getHeader().leafDirectoriesLength() > 0);
+      var threads = new ArrayList<Thread>();
+      var failures = new ConcurrentLinkedQueue<String>();
+      for (int t = 0; t < 4; t++) {
+        int offset = t;
+        var thread = new Thread(() -> {
+          for (int i = offset; i < numTiles; i += 4) {
+            var coord = TileCoord.hilbertDecode(i);
+            if (!Arrays.equals(ByteBuffer.allocate(4).putInt(i / 3).array(), reader.getTile(coord))) {
+              failures.add(coord.toString());
+            }
+          }
+        });
+        thread.start();
+        threads.add(thread);
+      }
+      for (var thread : threads) {
+        thread.join();
+      }
+      assertEquals(List.of(), List.copyOf(failures));
+      assertNull(reader.getTile(TileCoord.hilbertDecode(numTiles)));
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(ints = {1, 2, 4})
+  void testParallelGetAllTiles(int threads, @TempDir Path tempDir) throws IOException {
+    int numTiles = 60_000;
+    Path path = writeLeafDirectoriesArchive(tempDir.resolve("output.pmtiles"), numTiles);
+    try (
+      var reader = ReadablePmtiles.newReadFromFile(path, true);
+      var sequential = reader.getAllTiles();
+      var parallel = reader.getAllTiles(threads)
+    ) {
+      int count = 0;
+      while (sequential.hasNext()) {
+        assertTrue(parallel.hasNext());
+        assertEquals(sequential.next(), parallel.next());
+        count++;
+      }
+      assertFalse(parallel.hasNext());
+      assertEquals(numTiles, count);
+    }
+  }
+
+  @Test
+  void testCloseReaderDuringParallelGetAllTiles(@TempDir Path tempDir) throws IOException {
+    Path path = writeLeafDirectoriesArchive(tempDir.resolve("output.pmtiles"), 60_000);
+    var reader = ReadablePmtiles.newReadFromFile(path, true);
+    var parallel = reader.getAllTiles(4);
+    assertTrue(parallel.hasNext());
+    parallel.next();
+    // workers are still loading batches, so the reader needs to stop them before unmapping the archive
+    reader.close();
+    parallel.close();
+  }
+
+  @Test
+  void testSegmentedWriterDoesNotRequireOrderedWrites() throws IOException {
+    try (var in = WriteablePmtiles.newWriteToMemory(new SeekableInMemoryByteChannel(0), Arguments.of(), 2)) {
+      assertFalse(in.requiresOrderedWrites());
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  void testWritePmtilesSegments(boolean toFile, @TempDir Path tempDir) throws IOException {
+    Path path = tempDir.resolve("output.pmtiles");
+    var bytes = new SeekableInMemoryByteChannel(0);
+    var config = PlanetilerConfig.defaults();
+    var metadata = new TileArchiveMetadata(new Profile.NullProfile(), config);
+    var in = toFile ? WriteablePmtiles.newWriteToFile(path, Arguments.of(), 2) :
+      WriteablePmtiles.newWriteToMemory(bytes, Arguments.of(), 2);
+    in.initialize();
+    try (var writer1 = in.newTileWriter(); var writer2 = in.newTileWriter()) {
+      // each writer gets interleaved ranges of tiles, and both write the same repeated tile
+      writer1.write(new TileEncodingResult(TileCoord.ofXYZ(0, 0, 0), new byte[]{0xa}, OptionalLong.of(1)));
+      writer2.write(new TileEncodingResult(TileCoord.ofXYZ(0, 0, 1), new byte[]{0xa}, OptionalLong.of(1)));
+      writer2.write(new TileEncodingResult(TileCoord.ofXYZ(0, 1, 1), new byte[]{0xb}, OptionalLong.empty()));
+      writer1.write(new TileEncodingResult(TileCoord.ofXYZ(1, 1, 1), new byte[]{0xc, 0xd}, OptionalLong.of(2)));
+      writer1.write(new TileEncodingResult(TileCoord.ofXYZ(1, 0, 1), new byte[]{0xa}, OptionalLong.of(1)));
+    }
+    in.finish(metadata);
+    if (toFile) {
+      // closing the in-memory archive would close the channel we read from below
+      in.close();
+      assertFalse(Files.exists(tempDir.resolve("output.pmtiles.segments")));
+    }
+    try (var reader = new ReadablePmtiles(toFile ? FileChannel.open(path) : bytes)) {
+      var header = reader.getHeader();
+      assertEquals(5, header.numAddressedTiles());
+      assertEquals(3, header.numTileContents());
+      assertEquals(4, header.numTileEntries()); // z0 and the first z1 tile are contiguous once merged
+      assertEquals(4, header.tileDataLength());
+      assertFalse(header.clustered());
+      assertArrayEquals(new byte[]{0xa}, reader.getTile(0, 0, 0));
+      assertArrayEquals(new byte[]{0xa}, reader.getTile(0, 0, 1));
+      assertArrayEquals(new byte[]{0xb}, reader.getTile(0, 1, 1));
+      assertArrayEquals(new byte[]{0xc, 0xd}, reader.getTile(1, 1, 1));
+      assertArrayEquals(new byte[]{0xa}, reader.getTile(1, 0, 1));
+      assertEquals(List.of(
+        TileCoord.ofXYZ(0, 0, 0),
+        TileCoord.ofXYZ(0, 0, 1),
+        TileCoord.ofXYZ(0, 1, 1),
+        TileCoord.ofXYZ(1, 1, 1),
+        TileCoord.ofXYZ(1, 0, 1)
+      ), reader.getAllTileCoords().stream().toList());
+    }
+  }
+
+  @Test
+  void testWritePmtilesSegmentLargerThanOneSlab(@TempDir Path tempDir) throws IOException {
+    // enough unique contents in one segment that the arrays tracking them while merging span several slabs
+    int numTiles = 400_000;
+    Path path = tempDir.resolve("output.pmtiles");
+    var in = WriteablePmtiles.newWriteToFile(path, Arguments.of(), 2);
+    in.initialize();
+    try (var writer1 = in.newTileWriter(); var writer2 = in.newTileWriter()) {
+      for (int i = 0; i < numTiles; i++) {
+        int value = expectedSegmentTileValue(i);
+        // later tiles in the first segment repeat earlier contents, and some in the second segment are not hashed
+        var hash = i % 2 == 1 && i % 7 == 0 ? OptionalLong.empty() : OptionalLong.of(value);
+        byte[] data = ByteBuffer.allocate(4).putInt(value).array();
+        (i % 2 == 0 ? writer1 : writer2).write(new TileEncodingResult(TileCoord.hilbertDecode(i), data, hash));
+      }
+    }
+    in.finish(new TileArchiveMetadata(new Profile.NullProfile(), PlanetilerConfig.defaults()));
+    in.close();
+    try (var reader = ReadablePmtiles.newReadFromFile(path, false); var tiles = reader.getAllTiles()) {
+      assertEquals(numTiles, reader.getHeader().numAddressedTiles());
+      for (int i = 0; i < numTiles; i++) {
+        var tile = tiles.next();
+        assertEquals(TileCoord.hilbertDecode(i), tile.coord());
+        assertEquals(expectedSegmentTileValue(i), ByteBuffer.wrap(tile.bytes()).getInt(), "tile " + i);
+      }
+      assertFalse(tiles.hasNext());
+    }
+  }
+
+  private static int expectedSegmentTileValue(int i) {
+    return i % 2 == 1 ? (i / 2) % 200_000 : i < 300_000 ? i / 2 : (i / 2) % 1000;
+  }
 }
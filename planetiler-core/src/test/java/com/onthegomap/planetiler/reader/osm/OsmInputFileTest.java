@@ -1,21 +1,27 @@
 package com.onthegomap.planetiler.reader.osm;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.carrotsearch.hppc.LongArrayList;
 import com.onthegomap.planetiler.TestUtils;
 import com.onthegomap.planetiler.stats.Stats;
 import com.onthegomap.planetiler.worker.WorkerPipeline;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
-import org.junit.jupiter.params.provider.ValueSource;
+import org.junit.jupiter.params.provider.CsvSource;
 import org.locationtech.jts.geom.Envelope;
 
 class OsmInputFileTest {
@@ -76,9 +82,14 @@ class OsmInputFileTest {
   }
 
   @ParameterizedTest
-  @ValueSource(booleans = {false, true})
+  @CsvSource({
+    "false, false",
+    "false, true",
+    "true, false",
+    "true, true",
+  })
   @Timeout(30)
-  void testReadMonacoTwice(boolean lazy) {
+  void testReadMonacoTwice(boolean lazy, boolean wireDecoder) {
     for (int i = 1; i <= 2; i++) {
       AtomicInteger nodes = new AtomicInteger(0);
       AtomicInteger ways = new AtomicInteger(0);
@@ -86,7 +97,7 @@ class OsmInputFileTest {
       AtomicReference<OsmElement.Node> node = new AtomicReference<>();
       AtomicReference<OsmElement.Way> way = new AtomicReference<>();
       AtomicReference<OsmElement.Relation> rel = new AtomicReference<>();
-      var file = new OsmInputFile(path, lazy);
+      var file = new OsmInputFile(path, lazy, wireDecoder);
       try (var osmReader = file.get()) {
         WorkerPipeline.start("test", Stats.inMemory())
           .fromGenerator("pbf", osmReader::forEachBlock)
@@ -123,9 +134,14 @@ class OsmInputFileTest {
   }
 
   @ParameterizedTest
-  @ValueSource(booleans = {false, true})
+  @CsvSource({
+    "false, false",
+    "false, true",
+    "true, false",
+    "true, true",
+  })
   @Timeout(30)
-  void testReadMonacoWithoutChangesetsTwice(boolean lazy) {
+  void testReadMonacoWithoutChangesetsTwice(boolean lazy, boolean wireDecoder) {
     for (int i = 1; i <= 2; i++) {
       AtomicInteger nodes = new AtomicInteger(0);
       AtomicInteger ways = new AtomicInteger(0);
@@ -133,7 +149,8 @@ class OsmInputFileTest {
       AtomicReference<OsmElement.Node> node = new AtomicReference<>();
       AtomicReference<OsmElement.Way> way = new AtomicReference<>();
       AtomicReference<OsmElement.Relation> rel = new AtomicReference<>();
-      var file = new OsmInputFile(TestUtils.pathToResource("monaco-latest-without-changesets.osm.pbf"), lazy);
+      var file =
+        new OsmInputFile(TestUtils.pathToResource("monaco-latest-without-changesets.osm.pbf"), lazy, wireDecoder);
       try (var osmReader = file.get()) {
         WorkerPipeline.start("test", Stats.inMemory())
           .fromGenerator("pbf", osmReader::forEachBlock)
@@ -166,4 +183,62 @@ class OsmInputFileTest {
       }
     }
   }
+
+  @ParameterizedTest
+  @CsvSource({"false", "true"})
+  void testBlockIndexSkipsNodeBlocksOutsideBoundsInPass2(boolean lazy, @TempDir Path tmp) throws IOException {
+    Path input = tmp.resolve("monaco.osm.pbf");
+    Files.copy(path, input);
+    // read every block once like pass 1 does, then return what a second read like pass 2 sees
+    Function<Envelope, List<OsmElement>> run = bounds -> {
+      List<OsmElement> pass1 = new ArrayList<>();
+      List<OsmElement> pass2 = new ArrayList<>();
+      try (var reader = new OsmInputFile(input, lazy).setBlockIndex(OsmBlockIndex.open(input), bounds).get()) {
+        reader.forEachBlock(block -> block.decodeElements().forEach(pass1::add));
+        reader.forEachBlockInBounds(block -> block.decodeElements().forEach(pass2::add));
+      }
+      assertEquals(25_423 + 4_106 + 243, pass1.size());
+      return pass2;
+    };
+    Envelope elsewhere = new Envelope(0, 1, 0, 1);
+
+    var firstRun = run.apply(elsewhere);
+    assertTrue(Files.exists(OsmBlockIndex.indexPath(input)));
+    assertEquals(0, firstRun.stream().filter(OsmElement.Node.class::isInstance).count());
+    assertEquals(4_106, firstRun.stream().filter(OsmElement.Way.class::isInstance).count());
+    assertEquals(243, firstRun.stream().filter(OsmElement.Relation.class::isInstance).count());
+    assertEquals(firstRun, run.apply(elsewhere));
+
+    assertEquals(25_423 + 4_106 + 243, run.apply(expectedBounds).size());
+  }
+
+  @Test
+  void testWireDecoderMatchesProtobufDecoder() {
+    List<OsmElement> fromProtobuf = new ArrayList<>();
+    List<OsmElement> fromWire = new ArrayList<>();
+    new OsmInputFile(path, false, false).get().forEachBlock(block -> block.decodeElements().forEach(fromProtobuf::add));
+    new OsmInputFile(path, false, true).get().forEachBlock(block -> block.decodeElements().forEach(fromWire::add));
+    assertEquals(fromProtobuf.size(), fromWire.size());
+    for (int i = 0; i < fromProtobuf.size(); i++) {
+      assertEquals(fromProtobuf.get(i), fromWire.get(i), "element " + i);
+    }
+  }
+
+  @ParameterizedTest
+  @CsvSource({"false", "true"})
+  void testReadBlocksReversed(boolean lazy) {
+    List<List<OsmElement>> forward = new ArrayList<>();
+    List<List<OsmElement>> reversed = new ArrayList<>();
+    try (var reader = new OsmInputFile(path, lazy).get()) {
+      reader.forEachBlock(block -> forward.add(toList(block)));
+      reader.forEachBlockReversed(block -> reversed.add(toList(block)));
+    }
+    assertEquals(forward, reversed.reversed());
+  }
+
+  private static List<OsmElement> toList(OsmBlockSource.Block block) {
+    List<OsmElement> result = new ArrayList<>();
+    block.decodeElements().forEach(result::add);
+    return result;
+  }
 }
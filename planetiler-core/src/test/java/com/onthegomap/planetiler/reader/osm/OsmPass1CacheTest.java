@@ -0,0 +1,161 @@
+package com.onthegomap.planetiler.reader.osm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.onthegomap.planetiler.Profile;
+import com.onthegomap.planetiler.collection.LongLongMap;
+import com.onthegomap.planetiler.collection.LongLongMultimap;
+import com.onthegomap.planetiler.collection.Storage;
+import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.config.PlanetilerConfig;
+import com.onthegomap.planetiler.geo.GeometryException;
+import com.onthegomap.planetiler.stats.Stats;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class OsmPass1CacheTest {
+
+  private record TestRelInfo(long id, String version) implements OsmRelationInfo, Serializable {}
+
+  private static OsmElement.Node node(long id, double x, double y) {
+    return new OsmElement.Node(id, y, x);
+  }
+
+  private final PlanetilerConfig config = PlanetilerConfig.from(Arguments.of("threads", "2"));
+  private final Stats stats = Stats.inMemory();
+  private final AtomicInteger blocksRead = new AtomicInteger(0);
+  private final AtomicInteger relationsPreprocessed = new AtomicInteger(0);
+  private final OsmElement.Way way = new OsmElement.Way(10);
+  private final OsmBlockSource source;
+  @TempDir
+  Path tmp;
+
+  OsmPass1CacheTest() {
+    way.nodes().add(1, 2);
+    way.setTag("highway", "primary");
+    var relation = new OsmElement.Relation(20);
+    relation.setTag("type", "route");
+    relation.members().add(new OsmElement.Relation.Member(OsmElement.Type.WAY, 10, "role"));
+    source = next -> {
+      next.accept(OsmBlockSource.Block.of(List.of(node(1, 0.1, 0.1), node(2, 0.2, 0.2))));
+      next.accept(OsmBlockSource.Block.of(List.of(way)));
+      next.accept(OsmBlockSource.Block.of(List.of(relation)));
+      blocksRead.addAndGet(3);
+    };
+  }
+
+  private Profile profile(String version) {
+    return new Profile.NullProfile() {
+      @Override
+      public List<OsmRelationInfo> preprocessOsmRelation(OsmElement.Relation relation) {
+        relationsPreprocessed.incrementAndGet();
+        return List.of(new TestRelInfo(relation.id(), version));
+      }
+
+      @Override
+      public String preprocessOsmRelationVersion() {
+        return version;
+      }
+    };
+  }
+
+  /** Runs pass 1 and returns what it was able to reuse from the cache: "nothing", "nodes", or "all". */
+  private String run(Path input, LongLongMap.Type type, String version) throws GeometryException, IOException {
+    var cache = OsmPass1Cache.open(tmp.resolve("cache"), input, type, version);
+    String reused = cache.hasRelations() ? "all" : cache.hasNodeLocations() ? "nodes" : "nothing";
+    try (
+      var nodes = cache.hasNodeLocations() ? cache.openNodeLocations(false) :
+        LongLongMap.from(type, Storage.MMAP, new Storage.Params(tmp.resolve("node.db"), false));
+      var reader = new OsmReader("osm", () -> source, nodes, LongLongMultimap.newInMemoryReplaceableMultimap(),
+        profile(version), stats).setPass1Cache(cache)
+    ) {
+      reader.pass1(config);
+      var feature = reader.processWayPass2(way, reader.newNodeLocationProvider());
+      assertEquals(2, feature.line().getNumPoints());
+      assertEquals(List.of(new OsmReader.RelationMember<>("role", new TestRelInfo(20, version))),
+        feature.relationInfo(TestRelInfo.class));
+    } finally {
+      Files.deleteIfExists(tmp.resolve("node.db"));
+    }
+    assertTrue(cache.hasNodeLocations());
+    return reused;
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"array", "sparsearray"})
+  void testReusesNodesAndRelations(String typeName) throws IOException, GeometryException {
+    var type = LongLongMap.Type.from(typeName);
+    Path input = tmp.resolve("input.osm.pbf");
+    Files.writeString(input, "input");
+
+    assertEquals("nothing", run(input, type, "v1"));
+    assertEquals(3, blocksRead.get());
+    assertEquals(1, relationsPreprocessed.get());
+
+    // same input and profile version: nothing gets read
+    assertEquals("all", run(input, type, "v1"));
+    assertEquals(3, blocksRead.get());
+    assertEquals(1, relationsPreprocessed.get());
+
+    // new profile version: reuse node locations but preprocess relations again
+    assertEquals("nodes", run(input, type, "v2"));
+    assertEquals(6, blocksRead.get());
+    assertEquals(2, relationsPreprocessed.get());
+    assertEquals("all", run(input, type, "v2"));
+    assertEquals(6, blocksRead.get());
+
+    // profile without a version: can't reuse relations
+    assertEquals("nodes", run(input, type, null));
+    assertEquals("nodes", run(input, type, null));
+    assertEquals(12, blocksRead.get());
+    assertEquals(4, relationsPreprocessed.get());
+
+    // input changed: start over
+    Files.writeString(input, "input2");
+    assertEquals("nothing", run(input, type, "v1"));
+    assertEquals(15, blocksRead.get());
+    assertFalse(OsmPass1Cache.open(tmp.resolve("cache"), input, LongLongMap.Type.from(
+      type == LongLongMap.Type.ARRAY ? "sparsearray" : "array"), "v1").hasNodeLocations());
+  }
+
+  @Test
+  void testRelationInfoNotSerializable() throws IOException {
+    record NotSerializable(long id) implements OsmRelationInfo {}
+    Path input = tmp.resolve("input.osm.pbf");
+    Files.writeString(input, "input");
+    var profile = new Profile.NullProfile() {
+      @Override
+      public List<OsmRelationInfo> preprocessOsmRelation(OsmElement.Relation relation) {
+        return List.of(new NotSerializable(relation.id()));
+      }
+
+      @Override
+      public String preprocessOsmRelationVersion() {
+        return "v1";
+      }
+    };
+    var cache = OsmPass1Cache.open(tmp.resolve("cache"), input, LongLongMap.Type.ARRAY, "v1");
+    try (
+      var nodes = LongLongMap.from(LongLongMap.Type.ARRAY, Storage.MMAP, new Storage.Params(tmp.resolve("node.db"),
+        false));
+      var reader = new OsmReader("osm", () -> source, nodes, profile, stats).setPass1Cache(cache)
+    ) {
+      reader.pass1(config);
+    }
+    assertTrue(cache.hasNodeLocations());
+    assertFalse(cache.hasRelations());
+    cache = OsmPass1Cache.open(tmp.resolve("cache"), input, LongLongMap.Type.ARRAY, "v1");
+    assertTrue(cache.hasNodeLocations());
+    assertFalse(cache.hasRelations());
+  }
+}
@@ -7,15 +7,24 @@ import com.onthegomap.planetiler.Profile;
 import com.onthegomap.planetiler.TestUtils;
 import com.onthegomap.planetiler.collection.LongLongMap;
 import com.onthegomap.planetiler.collection.LongLongMultimap;
+import com.onthegomap.planetiler.collection.Storage;
+import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.config.PlanetilerConfig;
+import com.onthegomap.planetiler.expression.Expression;
 import com.onthegomap.planetiler.geo.GeoUtils;
 import com.onthegomap.planetiler.geo.GeometryException;
 import com.onthegomap.planetiler.reader.SourceFeature;
 import com.onthegomap.planetiler.stats.Stats;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
@@ -94,6 +103,38 @@ class OsmReaderTest {
     assertEquals(Map.of("key", "value"), feature.tags());
   }
 
+  @Test
+  void testPrefetchWayNodeLocations(@TempDir Path tmp) throws GeometryException, IOException {
+    try (
+      var nodes =
+        LongLongMap.from(LongLongMap.Type.ARRAY, Storage.MMAP, new Storage.Params(tmp.resolve("nodes"), true));
+      var reader = new OsmReader("osm", () -> osmSource, nodes, multipolygons, profile, stats)
+    ) {
+      var nodeCache = reader.newNodeLocationProvider();
+      var way1 = new OsmElement.Way(10);
+      way1.nodes().add(3, 1, 2, 3);
+      var way2 = new OsmElement.Way(11);
+      way2.nodes().add(2, 1);
+      processPass1Block(reader, List.of(node(1, 0.5, 0.5), node(2, 0.5, 0.75), node(3, 0.75, 0.75), node(4, 0.6,
+        0.6), way1, way2));
+
+      nodeCache.prefetch(List.of(way1, way2));
+      assertSameNormalizedFeature(
+        newLineString(0.75, 0.75, 0.5, 0.5, 0.5, 0.75, 0.75, 0.75),
+        reader.processWayPass2(way1, nodeCache).line()
+      );
+      assertSameNormalizedFeature(
+        newLineString(0.5, 0.75, 0.5, 0.5),
+        reader.processWayPass2(way2, nodeCache).line()
+      );
+      // nodes outside the prefetched ways still get looked up
+      assertEquals(0.6, nodeCache.getCoordinate(4).x, 1e-5);
+      assertThrows(IllegalArgumentException.class, () -> nodeCache.getCoordinate(5));
+      nodeCache.prefetch(List.of());
+      assertEquals(0.5, nodeCache.getCoordinate(1).y, 1e-5);
+    }
+  }
+
   @Test
   void testPolygonAreaNotSpecified() throws GeometryException {
     OsmReader reader = newOsmReader();
@@ -703,6 +744,105 @@ class OsmReaderTest {
     assertEquals(List.of(), feature.relationInfo(TestRelInfo.class));
   }
 
+  @Test
+  void testRelationMembershipsFromManyThreads() {
+    record TestRelInfo(long id) implements OsmRelationInfo {}
+    List<OsmElement> nodes = new ArrayList<>();
+    List<OsmElement> ways = new ArrayList<>();
+    List<OsmBlockSource.Block> relationBlocks = new ArrayList<>();
+    for (int i = 1; i <= 200; i++) {
+      nodes.add(node(i * 2, 0.1, 0.1));
+      nodes.add(node(i * 2 + 1, 0.2, 0.2));
+      var way = new OsmElement.Way(i);
+      way.nodes().add(i * 2, i * 2 + 1);
+      ways.add(way);
+      var relation = new OsmElement.Relation(1_000 + i);
+      relation.members().add(new OsmElement.Relation.Member(OsmElement.Type.WAY, i, "role" + (i % 3)));
+      relation.members().add(new OsmElement.Relation.Member(OsmElement.Type.WAY, i % 10 + 1, "shared"));
+      relationBlocks.add(OsmBlockSource.Block.of(List.of(relation)));
+    }
+    OsmBlockSource source = next -> {
+      next.accept(OsmBlockSource.Block.of(nodes));
+      next.accept(OsmBlockSource.Block.of(ways));
+      relationBlocks.forEach(next);
+    };
+    var parallelNodeMap =
+      LongLongMap.from(LongLongMap.Type.ARRAY, Storage.RAM, new Storage.Params(Path.of("."), false));
+    OsmReader reader = new OsmReader("osm", () -> source, parallelNodeMap, multipolygons, new Profile.NullProfile() {
+      @Override
+      public List<OsmRelationInfo> preprocessOsmRelation(OsmElement.Relation relation) {
+        return List.of(new TestRelInfo(relation.id()));
+      }
+    }, stats);
+
+    reader.pass1(PlanetilerConfig.from(Arguments.of("threads", "4")));
+
+    var nodeCache = reader.newNodeLocationProvider();
+    for (var element : ways) {
+      var way = (OsmElement.Way) element;
+      var expected = new ArrayList<OsmReader.RelationMember<TestRelInfo>>();
+      expected.add(new OsmReader.RelationMember<>("role" + (way.id() % 3), new TestRelInfo(1_000 + way.id())));
+      if (way.id() <= 10) {
+        for (int i = 1; i <= 200; i++) {
+          if (i % 10 + 1 == way.id()) {
+            expected.add(new OsmReader.RelationMember<>("shared", new TestRelInfo(1_000 + i)));
+          }
+        }
+      }
+      var actual = new ArrayList<>(reader.processWayPass2(way, nodeCache).relationInfo(TestRelInfo.class));
+      Comparator<OsmReader.RelationMember<TestRelInfo>> byId = Comparator.comparingLong(m -> m.relation().id());
+      expected.sort(byId);
+      actual.sort(byId);
+      assertEquals(expected, actual, "way " + way.id());
+    }
+  }
+
+  @Test
+  void testNodeFilterOnlyStoresNodesInWaysProfileNeeds() {
+    record TestRelInfo(long id) implements OsmRelationInfo {}
+    var nodes = List.of(node(1, 0.1, 0.1), node(2, 0.2, 0.2), node(3, 0.3, 0.3), node(4, 0.4, 0.4),
+      node(5, 0.5, 0.5), node(6, 0.6, 0.6));
+    var highway = new OsmElement.Way(10);
+    highway.nodes().add(1, 2);
+    highway.setTag("highway", "primary");
+    var untagged = new OsmElement.Way(11);
+    untagged.nodes().add(3, 4);
+    var inRelation = new OsmElement.Way(12);
+    inRelation.nodes().add(5, 6);
+    var relation = new OsmElement.Relation(20);
+    relation.setTag("type", "route");
+    relation.members().add(new OsmElement.Relation.Member(OsmElement.Type.WAY, 12, "role"));
+    OsmBlockSource source = next -> {
+      next.accept(OsmBlockSource.Block.of(nodes));
+      next.accept(OsmBlockSource.Block.of(List.of(highway, untagged, inRelation)));
+      next.accept(OsmBlockSource.Block.of(List.of(relation)));
+    };
+    OsmReader reader = new OsmReader("osm", () -> source, nodeMap, multipolygons, new Profile.NullProfile() {
+      @Override
+      public List<OsmRelationInfo> preprocessOsmRelation(OsmElement.Relation relation) {
+        return relation.hasTag("type", "route") ? List.of(new TestRelInfo(relation.id())) : null;
+      }
+
+      @Override
+      public boolean caresAbout(Expression.PartialInput input) {
+        return Expression.matchField("highway").partialEvaluate(input).simplify() != Expression.FALSE;
+      }
+    }, stats);
+
+    reader.pass1(PlanetilerConfig.from(Arguments.of("osm_node_filter", "true", "threads", "2")));
+
+    for (long id : new long[]{1, 2, 5, 6}) {
+      assertNotEquals(LongLongMap.MISSING_VALUE, nodeMap.get(id), "node " + id);
+    }
+    assertEquals(LongLongMap.MISSING_VALUE, nodeMap.get(3));
+    assertEquals(LongLongMap.MISSING_VALUE, nodeMap.get(4));
+    var nodeCache = reader.newNodeLocationProvider();
+    assertNotNull(reader.processWayPass2(highway, nodeCache));
+    assertNull(reader.processWayPass2(untagged, nodeCache));
+    assertEquals(List.of(new OsmReader.RelationMember<>("role", new TestRelInfo(20))),
+      reader.processWayPass2(inRelation, nodeCache).relationInfo(TestRelInfo.class));
+  }
+
   private OsmReader newOsmReader() {
     return new OsmReader("osm", () -> osmSource, nodeMap, multipolygons, profile, stats);
   }
@@ -0,0 +1,238 @@
+package com.onthegomap.planetiler.reader.osm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.carrotsearch.hppc.LongArrayList;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import crosby.binary.Fileformat;
+import crosby.binary.Osmformat;
+import io.airlift.compress.Compressor;
+import io.airlift.compress.lz4.Lz4Compressor;
+import io.airlift.compress.zstd.ZstdCompressor;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class PbfWireDecoderTest {
+
+  private static Osmformat.StringTable strings(String... values) {
+    var builder = Osmformat.StringTable.newBuilder();
+    for (String value : values) {
+      builder.addS(ByteString.copyFromUtf8(value));
+    }
+    return builder.build();
+  }
+
+  private static byte[] blob(Osmformat.PrimitiveBlock block) {
+    return Fileformat.Blob.newBuilder()
+      .setRaw(block.toByteString())
+      .setRawSize(block.getSerializedSize())
+      .build()
+      .toByteArray();
+  }
+
+  private static List<OsmElement> toList(Iterable<OsmElement> iterable) {
+    List<OsmElement> result = new ArrayList<>();
+    iterable.forEach(result::add);
+    return result;
+  }
+
+  private static Osmformat.PrimitiveBlock.Builder block() {
+    return Osmformat.PrimitiveBlock.newBuilder()
+      .setStringtable(strings("", "highway", "primary", "name", "user", "outer", "type", "multipolygon"));
+  }
+
+  @Test
+  void testMatchesProtobufDecoder() {
+    var dense = Osmformat.PrimitiveGroup.newBuilder().setDense(Osmformat.DenseNodes.newBuilder()
+      .addId(1).addId(1).addId(-1)
+      .addLat(100).addLat(-5).addLat(3)
+      .addLon(200).addLon(5).addLon(-3)
+      .addKeysVals(0).addKeysVals(1).addKeysVals(2).addKeysVals(3).addKeysVals(4).addKeysVals(0).addKeysVals(0)
+      .setDenseinfo(Osmformat.DenseInfo.newBuilder()
+        .addVersion(1).addVersion(2).addVersion(3)
+        .addTimestamp(10).addTimestamp(1).addTimestamp(1)
+        .addChangeset(5).addChangeset(-1).addChangeset(0)
+        .addUid(7).addUid(0).addUid(-7)
+        .addUserSid(4).addUserSid(-4).addUserSid(4)
+      )
+    ).build();
+    var nodes = Osmformat.PrimitiveGroup.newBuilder()
+      .addNodes(Osmformat.Node.newBuilder().setId(10).setLat(-50).setLon(60).addKeys(1).addVals(2)
+        .setInfo(Osmformat.Info.newBuilder().setVersion(3).setTimestamp(123).setChangeset(9).setUid(8).setUserSid(4)))
+      .addNodes(Osmformat.Node.newBuilder().setId(11).setLat(1).setLon(2))
+      .build();
+    var ways = Osmformat.PrimitiveGroup.newBuilder()
+      .addWays(Osmformat.Way.newBuilder().setId(20).addKeys(1).addKeys(3).addVals(2).addVals(4)
+        .addRefs(10).addRefs(1).addRefs(-1))
+      .addWays(Osmformat.Way.newBuilder().setId(21))
+      .build();
+    var relations = Osmformat.PrimitiveGroup.newBuilder()
+      .addRelations(Osmformat.Relation.newBuilder().setId(30).addKeys(6).addVals(7)
+        .addMemids(20).addTypes(Osmformat.Relation.MemberType.WAY).addRolesSid(5)
+        .addMemids(-10).addTypes(Osmformat.Relation.MemberType.NODE).addRolesSid(0)
+        .addMemids(20).addTypes(Osmformat.Relation.MemberType.RELATION).addRolesSid(5))
+      .build();
+    byte[] raw = blob(block()
+      .addPrimitivegroup(dense.toByteString())
+      .addPrimitivegroup(nodes.toByteString())
+      .addPrimitivegroup(ways.toByteString())
+      .addPrimitivegroup(relations.toByteString())
+      .build());
+
+    List<OsmElement> expected = toList(PbfDecoder.decode(raw));
+    List<OsmElement> actual = toList(PbfWireDecoder.decode(raw));
+    assertEquals(8, expected.size());
+    assertEquals(expected, actual);
+    assertEquals(new OsmElement.Way(20, Map.of("highway", "primary", "name", "user"), LongArrayList.from(10, 11, 10),
+      new OsmElement.Info(0, 0, 0, -1, "")), actual.get(5));
+    assertEquals(List.of(
+      new OsmElement.Relation.Member(OsmElement.Type.WAY, 20, "outer"),
+      new OsmElement.Relation.Member(OsmElement.Type.NODE, 10, ""),
+      new OsmElement.Relation.Member(OsmElement.Type.RELATION, 30, "outer")
+    ), ((OsmElement.Relation) actual.get(7)).members());
+  }
+
+  private interface MessageWriter {
+    void write(CodedOutputStream out) throws IOException;
+  }
+
+  private static ByteString message(MessageWriter writer) {
+    try {
+      var bytes = ByteString.newOutput();
+      var out = CodedOutputStream.newInstance(bytes);
+      writer.write(out);
+      out.flush();
+      return bytes.toByteString();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Test
+  void testUnpackedAndSplitRepeatedFields() {
+    var dense = message(out -> {
+      // ids split across a packed and an unpacked occurrence
+      out.writeBytes(1, message(o -> o.writeSInt64NoTag(1)));
+      out.writeSInt64(1, 1);
+      out.writeSInt64(8, 100);
+      out.writeSInt64(8, -5);
+      out.writeBytes(9, message(o -> {
+        o.writeSInt64NoTag(200);
+        o.writeSInt64NoTag(5);
+      }));
+      out.writeInt32(10, 1);
+      out.writeInt32(10, 2);
+      out.writeInt32(10, 0);
+      out.writeInt32(10, 0);
+    });
+    var way = message(out -> {
+      out.writeInt64(1, 20);
+      out.writeUInt32(2, 1);
+      out.writeUInt32(3, 2);
+      out.writeBytes(2, message(o -> o.writeUInt32NoTag(3)));
+      out.writeBytes(3, message(o -> o.writeUInt32NoTag(4)));
+      out.writeBytes(8, message(o -> {
+        o.writeSInt64NoTag(10);
+        o.writeSInt64NoTag(1);
+      }));
+      out.writeSInt64(8, -1);
+    });
+    var relation = message(out -> {
+      out.writeInt64(1, 30);
+      out.writeInt32(8, 5);
+      out.writeSInt64(9, 20);
+      out.writeEnum(10, Osmformat.Relation.MemberType.WAY_VALUE);
+      out.writeInt32(8, 0);
+      out.writeSInt64(9, -10);
+      out.writeEnum(10, Osmformat.Relation.MemberType.NODE_VALUE);
+    });
+    byte[] raw = blob(block()
+      .addPrimitivegroup(message(out -> out.writeBytes(2, dense)))
+      .addPrimitivegroup(message(out -> {
+        out.writeBytes(3, way);
+        out.writeBytes(4, relation);
+      }))
+      .build());
+
+    List<OsmElement> expected = toList(PbfDecoder.decode(raw));
+    List<OsmElement> actual = toList(PbfWireDecoder.decode(raw));
+    assertEquals(4, expected.size());
+    assertEquals(expected, actual);
+    assertEquals(Map.of("highway", "primary"), actual.get(0).tags());
+    assertEquals(new OsmElement.Way(20, Map.of("highway", "primary", "name", "user"), LongArrayList.from(10, 11, 10),
+      new OsmElement.Info(0, 0, 0, -1, "")), actual.get(2));
+    assertEquals(List.of(
+      new OsmElement.Relation.Member(OsmElement.Type.WAY, 20, "outer"),
+      new OsmElement.Relation.Member(OsmElement.Type.NODE, 10, "")
+    ), ((OsmElement.Relation) actual.get(3)).members());
+  }
+
+  @Test
+  void testNonDefaultGranularity() {
+    var group = Osmformat.PrimitiveGroup.newBuilder()
+      .setDense(Osmformat.DenseNodes.newBuilder().addId(1).addLat(2).addLon(3))
+      .build();
+    byte[] raw = blob(block()
+      .setGranularity(1000)
+      .setLatOffset(5_000_000_000L)
+      .setLonOffset(-5_000_000_000L)
+      .addPrimitivegroup(group.toByteString())
+      .build());
+
+    var node = (OsmElement.Node) toList(PbfWireDecoder.decode(raw)).getFirst();
+    assertEquals(1, node.id());
+    assertEquals(5.000002, node.lat(), 1e-12);
+    assertEquals(-4.999997, node.lon(), 1e-12);
+  }
+
+  private static byte[] compress(Compressor compressor, byte[] input) {
+    byte[] output = new byte[compressor.maxCompressedLength(input.length)];
+    int length = compressor.compress(input, 0, input.length, output, 0, output.length);
+    return Arrays.copyOf(output, length);
+  }
+
+  private static byte[] deflate(byte[] input) {
+    Deflater deflater = new Deflater();
+    deflater.setInput(input);
+    deflater.finish();
+    byte[] output = new byte[input.length + 100];
+    int length = deflater.deflate(output);
+    deflater.end();
+    return Arrays.copyOf(output, length);
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"raw", "zlib", "zstd", "lz4"})
+  void testBlobCompression(String codec) {
+    var group = Osmformat.PrimitiveGroup.newBuilder()
+      .addWays(Osmformat.Way.newBuilder().setId(20).addKeys(1).addVals(2).addRefs(10).addRefs(1))
+      .build();
+    byte[] uncompressed = block().addPrimitivegroup(group.toByteString()).build().toByteArray();
+    var blob = Fileformat.Blob.newBuilder().setRawSize(uncompressed.length);
+    switch (codec) {
+      case "raw" -> blob.setRaw(ByteString.copyFrom(uncompressed));
+      case "zlib" -> blob.setZlibData(ByteString.copyFrom(deflate(uncompressed)));
+      case "zstd" -> blob.setZstdData(ByteString.copyFrom(compress(new ZstdCompressor(), uncompressed)));
+      case "lz4" -> blob.setLz4Data(ByteString.copyFrom(compress(new Lz4Compressor(), uncompressed)));
+      default -> throw new IllegalArgumentException(codec);
+    }
+    byte[] raw = blob.build().toByteArray();
+
+    var expected = List.<OsmElement>of(new OsmElement.Way(20, Map.of("highway", "primary"), LongArrayList.from(10, 11),
+      new OsmElement.Info(0, 0, 0, -1, "")));
+    // decode twice to make sure reused per-thread decompressors get reset
+    for (int i = 0; i < 2; i++) {
+      assertEquals(expected, toList(PbfDecoder.decode(raw)));
+      assertEquals(expected, toList(PbfWireDecoder.decode(raw)));
+    }
+  }
+}
@@ -17,6 +17,7 @@ import java.util.stream.Collectors;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
 import org.junit.jupiter.params.provider.EnumSource;
 
 class WriteableCsvArchiveTest {
@@ -25,6 +26,17 @@ class WriteableCsvArchiveTest {
   private static final TileArchiveMetadata defaultMetadata =
     new TileArchiveMetadata("start", null, null, null, null, null, null, null, null, null, null, null, null);
 
+  @ParameterizedTest
+  @CsvSource({"1,true", "3,false"})
+  void testRequiresOrderedWritesWithOneWriter(int tileWriteThreads, boolean expected, @TempDir Path tempDir)
+    throws IOException {
+    var config = new StreamArchiveConfig(false, Arguments.of(), tileWriteThreads);
+    try (var archive = WriteableCsvArchive.newWriteToFile(TileArchiveConfig.Format.CSV, tempDir.resolve("out.csv"),
+      config)) {
+      assertEquals(expected, archive.requiresOrderedWrites());
+    }
+  }
+
   @ParameterizedTest
   @EnumSource(value = TileArchiveConfig.Format.class, names = {"CSV", "TSV"})
   void testWriteToSingleFile(TileArchiveConfig.Format format, @TempDir Path tempDir) throws IOException {
@@ -51,4 +51,16 @@ class CommonStringEncoderTest {
     }
     assertThrows(IllegalArgumentException.class, () -> commonStringEncoderInteger.encode("too many"));
   }
+
+  @Test
+  void testTryEncodeReturnsNegativeWhenFull() {
+    var encoder = new CommonStringEncoder(2);
+    assertEquals(0, encoder.tryEncode("a"));
+    assertEquals(1, encoder.tryEncode("b"));
+    assertEquals(-1, encoder.tryEncode("c"));
+    assertEquals(-1, encoder.lookup("c"));
+    assertEquals(1, encoder.lookup("b"));
+    assertEquals(0, encoder.tryEncode("a"));
+    assertEquals("b", encoder.decode(1));
+  }
 }
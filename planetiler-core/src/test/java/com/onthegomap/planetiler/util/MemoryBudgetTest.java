@@ -0,0 +1,56 @@
+package com.onthegomap.planetiler.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class MemoryBudgetTest {
+
+  @Test
+  void testReserveAndRelease() {
+    var budget = new MemoryBudget(100);
+    assertEquals(100, budget.available());
+    var a = budget.reserve("a", 30);
+    var b = budget.reserve("b", 50);
+    assertEquals(80, budget.reserved());
+    assertEquals(20, budget.available());
+    a.close();
+    assertEquals(50, budget.available());
+    a.close();
+    assertEquals(50, budget.available());
+    b.close();
+    assertEquals(100, budget.available());
+  }
+
+  @Test
+  void testOverCommit() {
+    var budget = new MemoryBudget(100);
+    var reservation = budget.reserve("a", 150);
+    assertEquals(150, reservation.bytes());
+    assertEquals(150, budget.reserved());
+    assertEquals(0, budget.available());
+  }
+
+  @Test
+  void testReserveUpTo() {
+    var budget = new MemoryBudget(100);
+    var nodes = budget.reserve("nodes", 70);
+    assertEquals(30, budget.reserveUpTo("a", 10, 50).bytes());
+    assertEquals(10, budget.reserveUpTo("b", 10, 50).bytes());
+    nodes.close();
+    assertEquals(50, budget.reserveUpTo("c", 10, 50).bytes());
+  }
+
+  @Test
+  void testRegisterTracksEstimate() {
+    var budget = new MemoryBudget(100);
+    long[] size = {10};
+    try (var reservation = budget.register("object", () -> size[0])) {
+      assertEquals(10, budget.reserved());
+      size[0] = 40;
+      assertEquals(40, reservation.bytes());
+      assertEquals(60, budget.available());
+    }
+    assertEquals(0, budget.reserved());
+  }
+}
@@ -185,12 +185,14 @@ public class Contexts {
       argumentValues.put("write_threads", config.featureWriteThreads());
       argumentValues.put("process_threads", config.featureProcessThreads());
       argumentValues.put("feature_read_threads", config.featureReadThreads());
+      argumentValues.put("feature_read_ranges", config.featureReadRanges());
       //      args.put("loginterval", config.logInterval());
       argumentValues.put("minzoom", config.minzoom());
       argumentValues.put("maxzoom", config.maxzoom());
       argumentValues.put("render_maxzoom", config.maxzoomForRendering());
       argumentValues.put("force", config.force());
       argumentValues.put("compress_temp", config.compressTempStorage());
+      argumentValues.put("compress_temp_codec", config.compressTempCodec());
       argumentValues.put("mmap_temp", config.mmapTempStorage());
       argumentValues.put("sort_max_readers", config.sortMaxReaders());
       argumentValues.put("sort_max_writers", config.sortMaxWriters());
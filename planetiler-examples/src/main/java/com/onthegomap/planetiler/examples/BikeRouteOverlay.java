@@ -6,6 +6,7 @@ import com.onthegomap.planetiler.Planetiler;
 import com.onthegomap.planetiler.Profile;
 import com.onthegomap.planetiler.VectorTile;
 import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.expression.Expression;
 import com.onthegomap.planetiler.reader.SourceFeature;
 import com.onthegomap.planetiler.reader.osm.OsmElement;
 import com.onthegomap.planetiler.reader.osm.OsmRelationInfo;
@@ -106,6 +107,16 @@ public class BikeRouteOverlay implements Profile {
     }
   }
 
+  /*
+   * Ways only get emitted because of the bike route relations they belong to, never because of their own tags.
+   * Returning false here lets the osm_node_filter pre-pass skip storing node locations for every way except relation
+   * members.
+   */
+  @Override
+  public boolean caresAbout(Expression.PartialInput input) {
+    return false;
+  }
+
   /*
    * Step 3)
    *
@@ -170,7 +181,8 @@ public class BikeRouteOverlay implements Profile {
     String area = args.getString("area", "geofabrik area to download", "monaco");
     // Planetiler is a convenience wrapper around the lower-level API for the most common use-cases.
     // See ToiletsOverlayLowLevelApi for an example using the lower-level API
-    Planetiler.create(args)
+    // only store locations of nodes in ways that are part of a bike route relation
+    Planetiler.create(args.withDefault("osm_node_filter", true))
       .setProfile(new BikeRouteOverlay())
       // override this default with osm_path="path/to/data.osm.pbf"
       .addOsmSource("osm", Path.of("data", "sources", area + ".osm.pbf"), "geofabrik:" + area)
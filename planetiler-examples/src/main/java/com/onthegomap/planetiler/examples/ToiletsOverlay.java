@@ -4,6 +4,8 @@ import com.onthegomap.planetiler.FeatureCollector;
 import com.onthegomap.planetiler.Planetiler;
 import com.onthegomap.planetiler.Profile;
 import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.expression.Expression;
+import com.onthegomap.planetiler.geo.GeometryType;
 import com.onthegomap.planetiler.reader.SourceFeature;
 import com.onthegomap.planetiler.util.ZoomFunction;
 import java.nio.file.Path;
@@ -25,6 +27,15 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class ToiletsOverlay implements Profile {
 
+  /*
+   * Only toilet nodes get emitted, so tell planetiler it can ignore every way. With osm_node_filter enabled, this means
+   * no node locations need to be stored at all since nodes carry their own location.
+   */
+  private static final Expression TOILETS = Expression.and(
+    Expression.matchGeometryType(GeometryType.POINT),
+    Expression.matchAny("amenity", "toilets")
+  );
+
   /*
    * Assign every toilet a monotonically increasing ID so that we can limit output at low zoom levels to only the
    * highest ID toilet nodes. Be sure to use thread-safe data structures any time a profile holds state since multiple
@@ -54,6 +65,11 @@ public class ToiletsOverlay implements Profile {
     }
   }
 
+  @Override
+  public boolean caresAbout(Expression.PartialInput input) {
+    return TOILETS.partialEvaluate(input).simplify() != Expression.FALSE;
+  }
+
   /*
    * Hooks to override metadata values in the output mbtiles file. Only name is required, the rest are optional. Bounds,
    * center, minzoom, maxzoom are set automatically based on input data and planetiler config.
@@ -98,7 +114,7 @@ public class ToiletsOverlay implements Profile {
     String area = args.getString("area", "geofabrik area to download", "monaco");
     // Planetiler is a convenience wrapper around the lower-level API for the most common use-cases.
     // See ToiletsOverlayLowLevelApi for an example using this same profile but the lower-level API
-    Planetiler.create(args)
+    Planetiler.create(args.withDefault("osm_node_filter", true))
       .setProfile(new ToiletsOverlay())
       // override this default with osm_path="path/to/data.osm.pbf"
       .addOsmSource("osm", Path.of("data", "sources", area + ".osm.pbf"), "geofabrik:" + area)